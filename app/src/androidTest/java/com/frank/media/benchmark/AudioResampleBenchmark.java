@@ -0,0 +1,161 @@
+package com.frank.media.benchmark;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.frank.media.AudioResampleBatch;
+import com.frank.media.PcmResampler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput of the resamplers with generated sine waves, which needs
+ * no media files. The results are written to logcat with the tag AudioResampleBenchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AudioResampleBenchmark {
+
+    private static final String TAG = "AudioResampleBenchmark";
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+
+    private static void writeShortLE(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+    }
+
+    /**
+     * Write a 16 bit PCM wav of a sine wave.
+     */
+    public static void writeSineWav(File file, int sampleRate, int channels, int seconds, int frequency)
+            throws IOException {
+        int samples  = sampleRate * seconds;
+        int dataSize = samples * channels * 2;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(new byte[]{'R', 'I', 'F', 'F'});
+            writeIntLE(out, 36 + dataSize);
+            out.write(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+            writeIntLE(out, 16);
+            writeShortLE(out, 1);
+            writeShortLE(out, channels);
+            writeIntLE(out, sampleRate);
+            writeIntLE(out, sampleRate * channels * 2);
+            writeShortLE(out, channels * 2);
+            writeShortLE(out, 16);
+            out.write(new byte[]{'d', 'a', 't', 'a'});
+            writeIntLE(out, dataSize);
+            for (int i = 0; i < samples; i++) {
+                int value = (int) (Math.sin(2 * Math.PI * frequency * i / sampleRate) * 16384);
+                for (int c = 0; c < channels; c++) {
+                    writeShortLE(out, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resample generated 48000 stereo wav files to 16000 in a batch.
+     */
+    private static AudioResampleBatch.Result runBatch(File dir, int fileCount, int seconds, int parallelism) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            return null;
+        }
+        AudioResampleBatch batch = new AudioResampleBatch(16000, parallelism);
+        try {
+            for (int i = 0; i < fileCount; i++) {
+                File input = new File(dir, "sine_" + i + ".wav");
+                writeSineWav(input, 48000, 2, seconds, 200 + i % 20 * 50);
+                batch.add(input.getAbsolutePath(), new File(dir, "sine_" + i + "_16000.wav").getAbsolutePath());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "write wav error", e);
+            return null;
+        }
+        AudioResampleBatch.Result result = batch.run();
+        Log.i(TAG, "batch parallelism=" + parallelism + ", " + result);
+        return result;
+    }
+
+    /**
+     * Feed 20ms chunks of a 48000 stereo sine wave through PcmResampler.
+     * @return input samples per second
+     */
+    private static long runStream(int seconds, int outRate, int quality) {
+        final int inRate = 48000;
+        final int chunkSamples = inRate / 50;
+        PcmResampler resampler = new PcmResampler(inRate, 2, PcmResampler.FORMAT_S16,
+                outRate, 1, PcmResampler.FORMAT_S16);
+        resampler.setQuality(quality);
+        // 先生成全部输入, 计时只包含重采样
+        int totalSamples = inRate * seconds;
+        ByteBuffer in = ByteBuffer.allocateDirect(totalSamples * 4).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < totalSamples; i++) {
+            short value = (short) (Math.sin(2 * Math.PI * 440 * i / inRate) * 16384);
+            in.putShort(value);
+            in.putShort(value);
+        }
+        in.flip();
+        ByteBuffer out = ByteBuffer.allocateDirect(resampler.getOutputBufferSize(chunkSamples * 4));
+
+        long begin = System.nanoTime();
+        while (in.position() < in.capacity()) {
+            in.limit(Math.min(in.position() + chunkSamples * 4, in.capacity()));
+            out.clear();
+            if (resampler.process(in, out) < 0) {
+                resampler.release();
+                return -1;
+            }
+        }
+        out.clear();
+        resampler.flush(out);
+        long elapsedNs = Math.max(System.nanoTime() - begin, 1);
+        long samplesPerSecond = resampler.getInputSamples() * 1000000000L / elapsedNs;
+        Log.i(TAG, String.format(Locale.US, "stream to %d quality=%d: in=%d, out=%d, samples/s=%d",
+                outRate, quality, resampler.getInputSamples(), resampler.getOutputSamples(), samplesPerSecond));
+        resampler.release();
+        return samplesPerSecond;
+    }
+
+    @Test
+    public void batch() {
+        File dir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+                "resample_benchmark");
+        int[] parallelisms = {1, Runtime.getRuntime().availableProcessors()};
+        for (int parallelism : parallelisms) {
+            AudioResampleBatch.Result result = runBatch(dir, 16, 10, parallelism);
+            assertNotNull(result);
+            assertEquals(0, result.failedCount);
+        }
+    }
+
+    @Test
+    public void stream() {
+        int[] qualities = {PcmResampler.QUALITY_LOW, PcmResampler.QUALITY_MEDIUM, PcmResampler.QUALITY_HIGH};
+        for (int quality : qualities) {
+            assertTrue(runStream(10, 16000, quality) > 0);
+            assertTrue(runStream(10, 44100, quality) > 0);
+        }
+    }
+
+}
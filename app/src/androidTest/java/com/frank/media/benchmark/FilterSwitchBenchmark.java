@@ -0,0 +1,81 @@
+package com.frank.media.benchmark;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.frank.media.AudioFilterBenchmark;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cost of changing the filter of the audio player on the decode thread,
+ * the old way of rebuilding the graph inline against commands with a
+ * background rebuild. The results are written to logcat with the tag FilterSwitchBenchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FilterSwitchBenchmark {
+
+    private static final String TAG = "FilterSwitchBenchmark";
+
+    // only the values change, so they can be sent as commands if the filter supports
+    private static final String[] EQUALIZER_FILTERS = {
+            "superequalizer=6b=4:8b=5:10b=5",
+            "superequalizer=6b=2:8b=8:10b=3",
+            "superequalizer=2b=6:8b=5"
+    };
+
+    // a different chain each time, always rebuilt
+    private static final String[] EFFECT_FILTERS = {
+            "superequalizer=8b=5",
+            "tremolo=5:0.9,superequalizer=8b=5",
+            "atempo=1.25,superequalizer=8b=5",
+            "volume=volume=0.8:eval=frame,superequalizer=8b=5"
+    };
+
+    private static String format(String name, long[] result) {
+        if (result == null) {
+            return name + ": failed";
+        }
+        return String.format(Locale.US, "%s: changes=%d, commands=%d, rebuilds=%d, avgStall=%dus, "
+                        + "maxStall=%dus, lostSamples=%d, elapsed=%dms",
+                name, result[0], result[1], result[2], result[3], result[4], result[5], result[6] / 1000);
+    }
+
+    private static void run(String name, String path, String[] filters, int framesPerChange) {
+        long[] inline = AudioFilterBenchmark.run(path, filters, framesPerChange, true);
+        long[] swap = AudioFilterBenchmark.run(path, filters, framesPerChange, false);
+        Log.i(TAG, format(name + " inline", inline));
+        Log.i(TAG, format(name + " swap", swap));
+        assertNotNull(inline);
+        assertNotNull(swap);
+        assertTrue(swap[0] > 0);
+    }
+
+    private static String writeInput() throws IOException {
+        File input = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+                "filter_switch_benchmark.wav");
+        AudioResampleBenchmark.writeSineWav(input, 44100, 2, 60, 440);
+        return input.getAbsolutePath();
+    }
+
+    @Test
+    public void equalizer() throws IOException {
+        run("equalizer", writeInput(), EQUALIZER_FILTERS, 20);
+    }
+
+    @Test
+    public void effect() throws IOException {
+        run("effect", writeInput(), EFFECT_FILTERS, 20);
+    }
+
+}
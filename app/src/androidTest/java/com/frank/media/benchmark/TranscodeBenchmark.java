@@ -0,0 +1,154 @@
+package com.frank.media.benchmark;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.frank.media.FFmpegCommand;
+import com.frank.media.TranscodePipeline;
+import com.frank.media.listener.OnHandlerListener;
+import com.frank.media.util.FFmpegUtil;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Concat a batch of short generated clips with a command line of ffmpeg
+ * and with TranscodePipeline, in the same size, frame rate and encoders.
+ * The timings are written to logcat with the tag TranscodeBenchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TranscodeBenchmark {
+
+    private static final String TAG = "TranscodeBenchmark";
+
+    private static final int WIDTH      = 640;
+    private static final int HEIGHT     = 360;
+    private static final int FRAME_RATE = 30;
+    // available in every build, so both paths use the same encoder
+    private static final String VIDEO_ENCODER = "mpeg4";
+
+    public static class Result {
+        public int clipCount;
+        public long commandMs;
+        public int commandResult;
+        public long pipelineMs;
+        public int pipelineResult;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "clips=%d, command=%dms(%d), pipeline=%dms(%d), speedup=%.2f",
+                    clipCount, commandMs, commandResult, pipelineMs, pipelineResult,
+                    pipelineMs > 0 ? (float) commandMs / pipelineMs : 0);
+        }
+    }
+
+    private static class ResultListener implements OnHandlerListener {
+        final CountDownLatch latch;
+        volatile int result;
+
+        ResultListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onBegin() {
+        }
+
+        @Override
+        public void onEnd(int result) {
+            if (result != 0) {
+                this.result = result;
+            }
+            latch.countDown();
+        }
+    }
+
+    private static int runCommands(List<String[]> commands) {
+        ResultListener listener = new ResultListener(new CountDownLatch(commands.size()));
+        for (String[] cmd : commands) {
+            FFmpegCommand.execute(cmd, listener);
+        }
+        try {
+            listener.latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+        return listener.result;
+    }
+
+    /**
+     * @param dir          where the clips and outputs are written
+     * @param clipCount    count of clips to concat
+     * @param clipSeconds  length of each clip
+     * @return null if the clips can't be generated
+     */
+    private static Result run(File dir, int clipCount, int clipSeconds) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            return null;
+        }
+        // 各个片段分辨率不同, 两条路径都要缩放
+        List<String> clips = new ArrayList<>();
+        List<String[]> commands = new ArrayList<>();
+        for (int i = 0; i < clipCount; i++) {
+            String path = new File(dir, "clip_" + i + ".mp4").getAbsolutePath();
+            int width = i % 2 == 0 ? 640 : 480;
+            int height = i % 2 == 0 ? 360 : 480;
+            clips.add(path);
+            commands.add(FFmpegUtil.generateTestClip(clipSeconds, width, height, 440 + i * 110, path));
+        }
+        if (runCommands(commands) != 0) {
+            Log.e(TAG, "generate clips failed, lavfi is required");
+            return null;
+        }
+
+        Result result = new Result();
+        result.clipCount = clipCount;
+
+        commands.clear();
+        commands.add(FFmpegUtil.concatClips(clips, WIDTH, HEIGHT, FRAME_RATE, VIDEO_ENCODER,
+                new File(dir, "concat_command.mp4").getAbsolutePath()));
+        long begin = System.currentTimeMillis();
+        result.commandResult = runCommands(commands);
+        result.commandMs = System.currentTimeMillis() - begin;
+
+        TranscodePipeline pipeline = new TranscodePipeline(new File(dir, "concat_pipeline.mp4").getAbsolutePath());
+        pipeline.setVideoSize(WIDTH, HEIGHT);
+        pipeline.setFrameRate(FRAME_RATE, 1);
+        pipeline.setVideoEncoder(VIDEO_ENCODER);
+        // the default bitrate of ffmpeg
+        pipeline.setVideoBitrate(200000);
+        for (String clip : clips) {
+            pipeline.addSegment(clip);
+        }
+        begin = System.currentTimeMillis();
+        result.pipelineResult = pipeline.run(null);
+        result.pipelineMs = System.currentTimeMillis() - begin;
+        pipeline.release();
+
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    @Test
+    public void concatClips() {
+        File dir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+                "transcode_benchmark");
+        Result result = run(dir, 8, 3);
+        assumeTrue("lavfi is required to generate the clips", result != null);
+        assertEquals(0, result.commandResult);
+        assertEquals(0, result.pipelineResult);
+    }
+
+}
@@ -0,0 +1,65 @@
+//
+// Filter switch benchmark of the audio player, only built into debug builds.
+//
+
+#include "ff_audio_player.h"
+#include <jni.h>
+
+extern "C" {
+#include "libavutil/time.h"
+}
+
+extern "C"
+JNIEXPORT jlongArray JNICALL
+Java_com_frank_media_AudioFilterBenchmark_run(JNIEnv* env, jclass clazz, jstring path,
+        jobjectArray filters, jint frames_per_change, jboolean inline_rebuild) {
+    if (path == nullptr || filters == nullptr || env->GetArrayLength(filters) == 0)
+        return nullptr;
+    const char* native_path = env->GetStringUTFChars(path, JNI_FALSE);
+    FFAudioPlayer *audioPlayer = new FFAudioPlayer();
+    int result = audioPlayer->open(native_path);
+    env->ReleaseStringUTFChars(path, native_path);
+    if (result < 0) {
+        audioPlayer->close();
+        delete audioPlayer;
+        return nullptr;
+    }
+    audioPlayer->setInlineRebuild(inline_rebuild);
+
+    // 不播放, 尽快解码, 每隔若干个缓冲切换一次滤镜
+    int count = env->GetArrayLength(filters);
+    int buffers = 0;
+    int64_t bytes = 0;
+    int64_t begin = av_gettime_relative();
+    while (result >= 0) {
+        result = audioPlayer->decodeAudio();
+        if (result <= 0)
+            continue;
+        bytes += result;
+        if (frames_per_change > 0 && ++buffers % frames_per_change == 0) {
+            auto filter = (jstring) env->GetObjectArrayElement(filters, buffers / frames_per_change % count);
+            const char *filter_desc = env->GetStringUTFChars(filter, JNI_FALSE);
+            audioPlayer->setFilterAgain(filter_desc);
+            env->ReleaseStringUTFChars(filter, filter_desc);
+            env->DeleteLocalRef(filter);
+        }
+    }
+    int64_t elapsed = av_gettime_relative() - begin;
+    FilterSwitchStats stats = audioPlayer->getSwitchStats();
+    audioPlayer->close();
+    delete audioPlayer;
+
+    // changes, commands, rebuilds, avg stall, max stall, lost samples, elapsed, bytes
+    jlong values[8];
+    values[0] = stats.changes;
+    values[1] = stats.commands;
+    values[2] = stats.rebuilds;
+    values[3] = stats.changes > 0 ? stats.totalStallUs / stats.changes : 0;
+    values[4] = stats.maxStallUs;
+    values[5] = stats.lostSamples;
+    values[6] = elapsed;
+    values[7] = bytes;
+    jlongArray array = env->NewLongArray(8);
+    env->SetLongArrayRegion(array, 0, 8, values);
+    return array;
+}
@@ -0,0 +1,26 @@
+package com.frank.media;
+
+/**
+ * Native entry of the filter switch benchmark of the audio player,
+ * which only exists in debug builds.
+ */
+public final class AudioFilterBenchmark {
+
+    static {
+        System.loadLibrary("like_media");
+    }
+
+    private AudioFilterBenchmark() {
+    }
+
+    /**
+     * Decode the whole file without playing, and switch to the next of filters
+     * every framesPerChange buffers. Blocks until the end, run it on a worker thread.
+     * @param inlineRebuild rebuild the graph on the decode thread as before,
+     *                      instead of commands and a background rebuild
+     * @return changes, commands, rebuilds, average and max stall in us,
+     * lost samples, elapsed us, decoded bytes, or null if failed
+     */
+    public static native long[] run(String path, String[] filters, int framesPerChange, boolean inlineRebuild);
+
+}
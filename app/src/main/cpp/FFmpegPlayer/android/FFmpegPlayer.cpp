@@ -6,6 +6,18 @@ FFmpegPlayer::FFmpegPlayer() {
     m_exitReq      = false;
     m_seeking      = false;
     m_seekingPos   = 0;
+    m_decodeThreadType  = DECODE_THREAD_AUTO;
+    m_decodeThreadCount = 0;
+    m_bufferLowBytes    = BUFFER_LOW_BYTES;
+    m_bufferHighBytes   = BUFFER_HIGH_BYTES;
+    m_bufferLowMs       = BUFFER_LOW_MS;
+    m_bufferHighMs      = BUFFER_HIGH_MS;
+    m_startupFast       = false;
+    m_startupMs         = BUFFER_STARTUP_MS;
+    m_probeSize         = 0;
+    m_analyzeDuration   = 0;
+    m_fpsProbeSize      = -1;
+    m_skipStreamInfo    = false;
     m_msgThread    = nullptr;
     m_videoRender  = nullptr;
     m_mediaPlayer  = nullptr;
@@ -50,6 +62,10 @@ int FFmpegPlayer::setDataSource(const char *url) {
         m_mediaPlayer = new MediaPlayer();
     }
     m_mediaPlayer->setDataSource(url);
+    m_mediaPlayer->setDecodeThreads(m_decodeThreadType, m_decodeThreadCount);
+    m_mediaPlayer->setBufferWatermarks(m_bufferLowBytes, m_bufferHighBytes, m_bufferLowMs, m_bufferHighMs);
+    m_mediaPlayer->setStartupFast(m_startupFast, m_startupMs);
+    m_mediaPlayer->setProbeOptions(m_probeSize, m_analyzeDuration, m_fpsProbeSize, m_skipStreamInfo);
     m_mediaPlayer->setVideoRender(m_videoRender);
     return 0;
 }
@@ -135,11 +151,15 @@ int FFmpegPlayer::getVideoHeight() {
 }
 
 void FFmpegPlayer::seekTo(long msec) {
+    seekTo(msec, SEEK_PREVIOUS_SYNC);
+}
+
+void FFmpegPlayer::seekTo(long msec, int seekMode) {
     if (m_mediaPlayer != nullptr) {
         if (m_seeking) {
-            m_mediaPlayer->getMessageQueue()->sendMessage(MSG_REQUEST_SEEK, msec);
+            m_mediaPlayer->getMessageQueue()->sendMessage(MSG_REQUEST_SEEK, msec, seekMode);
         } else {
-            m_mediaPlayer->seekTo(msec);
+            m_mediaPlayer->seekTo(msec, seekMode);
             m_seekingPos = (long) msec;
             m_seeking = true;
         }
@@ -181,6 +201,50 @@ void FFmpegPlayer::setRate(float speed) {
     }
 }
 
+void FFmpegPlayer::setDecodeThreads(int threadType, int threadCount) {
+    m_decodeThreadType  = threadType;
+    m_decodeThreadCount = threadCount;
+    if (m_mediaPlayer != nullptr) {
+        m_mediaPlayer->setDecodeThreads(threadType, threadCount);
+    }
+}
+
+void FFmpegPlayer::setBufferWatermarks(int64_t lowBytes, int64_t highBytes, int lowMs, int highMs) {
+    m_bufferLowBytes  = lowBytes;
+    m_bufferHighBytes = highBytes;
+    m_bufferLowMs     = lowMs;
+    m_bufferHighMs    = highMs;
+    if (m_mediaPlayer != nullptr) {
+        m_mediaPlayer->setBufferWatermarks(lowBytes, highBytes, lowMs, highMs);
+    }
+}
+
+void FFmpegPlayer::setStartupFast(bool enable, int startupMs) {
+    m_startupFast = enable;
+    m_startupMs   = startupMs;
+    if (m_mediaPlayer != nullptr) {
+        m_mediaPlayer->setStartupFast(enable, startupMs);
+    }
+}
+
+void FFmpegPlayer::setMediaCache(const char *dir, int64_t maxBytes) {
+    MediaCache::getInstance()->setConfig(dir, maxBytes);
+}
+
+void FFmpegPlayer::setProbeOptions(int64_t probeSize, int64_t analyzeDurationUs, int fpsProbeSize, bool skipStreamInfo) {
+    m_probeSize       = probeSize;
+    m_analyzeDuration = analyzeDurationUs;
+    m_fpsProbeSize    = fpsProbeSize;
+    m_skipStreamInfo  = skipStreamInfo;
+    if (m_mediaPlayer != nullptr) {
+        m_mediaPlayer->setProbeOptions(probeSize, analyzeDurationUs, fpsProbeSize, skipStreamInfo);
+    }
+}
+
+void FFmpegPlayer::setStreamInfoCache(const char *path, int capacity) {
+    MediaPlayer::setStreamInfoCache(path, capacity);
+}
+
 AVStream *FFmpegPlayer::getAVStream(int mediaType) const {
     return m_mediaPlayer ? m_mediaPlayer->getAVStream(mediaType) : nullptr;
 }
@@ -274,6 +338,10 @@ void FFmpegPlayer::run() {
                 ALOGD("video rotation is changing: %d", msg.arg1);
                 break;
             }
+            case MSG_AUDIO_UNDERRUN: {
+                ALOGI("audio underrun count=%d, silence=%dms", msg.arg1, msg.arg2);
+                break;
+            }
             case MSG_AUDIO_DECODE_START: {
                 ALOGD("start audio decoder");
                 break;
@@ -283,11 +351,11 @@ void FFmpegPlayer::run() {
                 break;
             }
             case MSG_BUFFERING_START: {
-                postEvent(MEDIA_INFO, MEDIA_BUFFERING_START, msg.arg1);
+                postEvent(MEDIA_BUFFERING_START, msg.arg1, 0);
                 break;
             }
             case MSG_BUFFERING_END: {
-                postEvent(MEDIA_INFO, MEDIA_BUFFERING_END, msg.arg1);
+                postEvent(MEDIA_BUFFERING_END, msg.arg1, 0);
                 break;
             }
             case MSG_BUFFERING_UPDATE: {
@@ -325,7 +393,7 @@ void FFmpegPlayer::run() {
             case MSG_REQUEST_SEEK: {
                 m_seeking = true;
                 m_seekingPos = (long) msg.arg1;
-                m_mediaPlayer->seekTo(m_seekingPos);
+                m_mediaPlayer->seekTo(m_seekingPos, msg.arg2);
                 break;
             }
             default: {
@@ -33,6 +33,18 @@ private:
     bool m_exitReq;
     bool m_seeking;
     long m_seekingPos;
+    int m_decodeThreadType;
+    int m_decodeThreadCount;
+    int64_t m_bufferLowBytes;
+    int64_t m_bufferHighBytes;
+    int m_bufferLowMs;
+    int m_bufferHighMs;
+    bool m_startupFast;
+    int m_startupMs;
+    int64_t m_probeSize;
+    int64_t m_analyzeDuration;
+    int m_fpsProbeSize;
+    bool m_skipStreamInfo;
 
     Thread *m_msgThread;
 
@@ -79,6 +91,8 @@ public:
 
     void seekTo(long msec);
 
+    void seekTo(long msec, int seekMode);
+
     long getCurrentPosition();
 
     long getDuration();
@@ -89,6 +103,23 @@ public:
 
     void setRate(float speed);
 
+    void setDecodeThreads(int threadType, int threadCount);
+
+    void setBufferWatermarks(int64_t lowBytes, int64_t highBytes, int lowMs, int highMs);
+
+    void setStartupFast(bool enable, int startupMs);
+
+    /**
+     * Cache of http(s) media, shared by all players.
+     * @param dir      null or empty disables caching
+     * @param maxBytes size cap of all cached media, evicted by LRU
+     */
+    static void setMediaCache(const char *dir, int64_t maxBytes);
+
+    void setProbeOptions(int64_t probeSize, int64_t analyzeDurationUs, int fpsProbeSize, bool skipStreamInfo);
+
+    static void setStreamInfoCache(const char *path, int capacity);
+
     void notify(int msg, int ext1, int ext2, void *obj = nullptr, int len = 0);
 
     AVStream *getAVStream(int mediaType) const;
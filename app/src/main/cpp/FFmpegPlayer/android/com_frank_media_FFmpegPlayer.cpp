@@ -281,12 +281,12 @@ void FFmpegPlayer_stop(JNIEnv *env, jobject thiz) {
     mp->stop();
 }
 
-void FFmpegPlayer_seekTo(JNIEnv *env, jobject thiz, jlong timeMs) {
+void FFmpegPlayer_seekTo(JNIEnv *env, jobject thiz, jlong timeMs, jint seekMode) {
     FFmpegPlayer *mp = getFFmpegPlayer(env, thiz);
     if (mp == nullptr) {
         return;
     }
-    mp->seekTo(timeMs);
+    mp->seekTo(timeMs, seekMode);
 }
 
 void FFmpegPlayer_setMute(JNIEnv *env, jobject thiz, jboolean mute) {
@@ -313,6 +313,66 @@ void FFmpegPlayer_setRate(JNIEnv *env, jobject thiz, jfloat speed) {
     mp->setRate(speed);
 }
 
+void FFmpegPlayer_setDecodeThreads(JNIEnv *env, jobject thiz, jint threadType, jint threadCount) {
+    FFmpegPlayer *mp = getFFmpegPlayer(env, thiz);
+    if (mp == nullptr) {
+        return;
+    }
+    mp->setDecodeThreads(threadType, threadCount);
+}
+
+void FFmpegPlayer_setBufferWatermarks(JNIEnv *env, jobject thiz, jlong lowBytes, jlong highBytes,
+                                      jint lowMs, jint highMs) {
+    FFmpegPlayer *mp = getFFmpegPlayer(env, thiz);
+    if (mp == nullptr) {
+        return;
+    }
+    mp->setBufferWatermarks(lowBytes, highBytes, lowMs, highMs);
+}
+
+void FFmpegPlayer_setStartupFast(JNIEnv *env, jobject thiz, jboolean enable, jint startupMs) {
+    FFmpegPlayer *mp = getFFmpegPlayer(env, thiz);
+    if (mp == nullptr) {
+        return;
+    }
+    mp->setStartupFast(enable, startupMs);
+}
+
+void FFmpegPlayer_setMediaCache(JNIEnv *env, jclass clazz, jstring jdir, jlong maxBytes) {
+    if (jdir == nullptr) {
+        FFmpegPlayer::setMediaCache(nullptr, 0);
+        return;
+    }
+    const char *dir = env->GetStringUTFChars(jdir, JNI_FALSE);
+    if (dir == nullptr) {
+        return;
+    }
+    FFmpegPlayer::setMediaCache(dir, maxBytes);
+    env->ReleaseStringUTFChars(jdir, dir);
+}
+
+void FFmpegPlayer_setProbeOptions(JNIEnv *env, jobject thiz, jlong probeSize, jlong analyzeDurationUs,
+                                   jint fpsProbeSize, jboolean skipStreamInfo) {
+    FFmpegPlayer *mp = getFFmpegPlayer(env, thiz);
+    if (mp == nullptr) {
+        return;
+    }
+    mp->setProbeOptions(probeSize, analyzeDurationUs, fpsProbeSize, skipStreamInfo);
+}
+
+void FFmpegPlayer_setStreamInfoCache(JNIEnv *env, jclass clazz, jstring jpath, jint capacity) {
+    if (jpath == nullptr) {
+        FFmpegPlayer::setStreamInfoCache(nullptr, 0);
+        return;
+    }
+    const char *path = env->GetStringUTFChars(jpath, JNI_FALSE);
+    if (path == nullptr) {
+        return;
+    }
+    FFmpegPlayer::setStreamInfoCache(path, capacity);
+    env->ReleaseStringUTFChars(jpath, path);
+}
+
 jlong FFmpegPlayer_getCurrentPosition(JNIEnv *env, jobject thiz) {
 
     FFmpegPlayer *mp = getFFmpegPlayer(env, thiz);
@@ -457,7 +517,7 @@ static const JNINativeMethod gMethods[] = {
         {"native_getRotate", "()I", (void *) FFmpegPlayer_getRotate},
         {"native_getVideoWidth", "()I", (void *) FFmpegPlayer_getVideoWidth},
         {"native_getVideoHeight", "()I", (void *) FFmpegPlayer_getVideoHeight},
-        {"native_seekTo", "(J)V", (void *) FFmpegPlayer_seekTo},
+        {"native_seekTo", "(JI)V", (void *) FFmpegPlayer_seekTo},
         {"native_pause", "()V", (void *) FFmpegPlayer_pause},
         {"native_isPlaying", "()Z", (void *) FFmpegPlayer_isPlaying},
         {"native_getCurrentPosition", "()J", (void *) FFmpegPlayer_getCurrentPosition},
@@ -465,6 +525,12 @@ static const JNINativeMethod gMethods[] = {
         {"native_setVolume", "(F)V", (void *) FFmpegPlayer_setVolume},
         {"native_setMute", "(Z)V", (void *) FFmpegPlayer_setMute},
         {"native_setRate", "(F)V", (void *) FFmpegPlayer_setRate},
+        {"native_setDecodeThreads", "(II)V", (void *) FFmpegPlayer_setDecodeThreads},
+        {"native_setBufferWatermarks", "(JJII)V", (void *) FFmpegPlayer_setBufferWatermarks},
+        {"native_setStartupFast", "(ZI)V", (void *) FFmpegPlayer_setStartupFast},
+        {"native_setMediaCache", "(Ljava/lang/String;J)V", (void *) FFmpegPlayer_setMediaCache},
+        {"native_setProbeOptions", "(JJIZ)V", (void *) FFmpegPlayer_setProbeOptions},
+        {"native_setStreamInfoCache", "(Ljava/lang/String;I)V", (void *) FFmpegPlayer_setStreamInfoCache},
         {"native_getMediaInfo", "(ILcom/frank/media/player/mediainfo/MediaInfo;)V",
          (void *) FFmpegPlayer_getMediaInfo},
         {"native_getTrackCount", "(I)I", (void *) FFmpegPlayer_getTrackCount},
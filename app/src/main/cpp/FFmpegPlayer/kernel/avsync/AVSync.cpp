@@ -16,9 +16,9 @@ AVSync::AVSync(PlayerParam *playerParam) {
     m_timerRefresh     = 1;
     m_maxFrameDuration = 10.0;
 
-    m_buffer       = nullptr;
-    m_frameRGBA    = nullptr;
-    m_swsContext   = nullptr;
+    m_renderWidth  = 0;
+    m_renderHeight = 0;
+    m_renderFormat = -1;
     m_syncThread   = nullptr;
     m_videoRender  = nullptr;
     m_audioDecoder = nullptr;
@@ -33,18 +33,9 @@ AVSync::~AVSync() {
 void AVSync::reset() {
     stop();
 
-    if (m_buffer) {
-        av_freep(&m_buffer);
-        m_buffer = nullptr;
-    }
-    if (m_frameRGBA) {
-        av_frame_free(&m_frameRGBA);
-        m_frameRGBA = nullptr;
-    }
-    if (m_swsContext) {
-        sws_freeContext(m_swsContext);
-        m_swsContext = nullptr;
-    }
+    m_renderWidth  = 0;
+    m_renderHeight = 0;
+    m_renderFormat = -1;
 }
 
 void AVSync::start(VideoDecoder *videoDecoder, AudioDecoder *audioDecoder) {
@@ -124,7 +115,7 @@ MediaClock *AVSync::getExternalClock() {
 void AVSync::refreshVideo(double *remaining_time) {
     double time;
 
-    if (!m_playerParam->m_pauseReq &&
+    if (!m_playerParam->isRenderPaused() &&
         m_playerParam->m_syncType == AV_SYNC_EXTERNAL) {
         checkExternalClockSpeed();
     }
@@ -141,12 +132,21 @@ void AVSync::refreshVideo(double *remaining_time) {
             lastFrame = m_videoDecoder->getFrameQueue()->lastFrame();
             currentFrame = m_videoDecoder->getFrameQueue()->currentFrame();
 
+            // seek之前解码的帧直接丢弃
+            if (currentFrame->serial != m_videoDecoder->getPacketSerial()) {
+                m_videoDecoder->getFrameQueue()->popFrame();
+                continue;
+            }
+            if (lastFrame->serial != currentFrame->serial) {
+                m_timerRefresh = 1;
+            }
+
             if (m_timerRefresh) {
                 m_frameTimer = av_gettime_relative() / 1000000.0;
                 m_timerRefresh = 0;
             }
 
-            if (m_playerParam->m_abortReq || m_playerParam->m_pauseReq) {
+            if (m_playerParam->m_abortReq || m_playerParam->isRenderPaused()) {
                 break;
             }
             // use last m_frame and current m_frame to calculate m_duration
@@ -269,27 +269,16 @@ void AVSync::renderVideo() {
     Frame *vp = m_videoDecoder->getFrameQueue()->lastFrame();
     int ret = 0;
     if (!vp->uploaded) {
-
-        m_swsContext = sws_getCachedContext(m_swsContext,
-                                            vp->frame->width, vp->frame->height,
-                                            (AVPixelFormat) vp->frame->format,
-                                            vp->frame->width, vp->frame->height,
-                                            AV_PIX_FMT_RGBA, SWS_BILINEAR, nullptr, nullptr, nullptr);
-        if (!m_buffer) {
-            m_videoRender->onInit(vp->width, vp->height);
-            int numBytes = av_image_get_buffer_size(AV_PIX_FMT_RGBA, vp->frame->width, vp->frame->height, 1);
-            m_buffer = (uint8_t *)av_malloc(numBytes * sizeof(uint8_t));
-            m_frameRGBA = av_frame_alloc();
-            av_image_fill_arrays(m_frameRGBA->data, m_frameRGBA->linesize, m_buffer, AV_PIX_FMT_RGBA,
-                                 vp->frame->width, vp->frame->height, 1);
+        // 把解码后的帧直接交给render, 由render决定是否需要转换格式
+        if (vp->width != m_renderWidth || vp->height != m_renderHeight || vp->format != m_renderFormat) {
+            m_renderWidth  = vp->width;
+            m_renderHeight = vp->height;
+            m_renderFormat = vp->format;
+            m_videoRender->onInit(vp->width, vp->height, vp->format);
         }
-        if (m_swsContext != nullptr) {
-            sws_scale(m_swsContext, (uint8_t const *const *) vp->frame->data,
-                      vp->frame->linesize, 0, vp->frame->height,
-                      m_frameRGBA->data, m_frameRGBA->linesize);
-        }
-        ret = m_videoRender->onRender(m_frameRGBA->data[0], m_frameRGBA->linesize[0], vp->frame->height);
+        ret = m_videoRender->onRender(vp->frame);
         if (ret < 0) {
+            m_syncMutex.unlock();
             return;
         }
         if (!m_playerParam->m_firstVideoFrame && m_playerParam->m_messageQueue) {
@@ -314,11 +303,11 @@ void AVSync::run() {
             break;
         }
 
-        if (m_playerParam->m_pauseReq) {
+        if (m_playerParam->isRenderPaused()) {
             av_usleep((int64_t) (REFRESH_RATE * 1000000.0));
         }
 
-        if (!m_playerParam->m_pauseReq || m_forceRefresh) {
+        if (!m_playerParam->isRenderPaused() || m_forceRefresh) {
             refreshVideo(&remaining_time);
         }
         if (remaining_time <= 0) {
@@ -32,9 +32,9 @@ private:
     VideoRender *m_videoRender;
     PlayerParam *m_playerParam;
 
-    uint8_t *m_buffer;
-    AVFrame *m_frameRGBA;
-    SwsContext *m_swsContext;
+    int m_renderWidth;
+    int m_renderHeight;
+    int m_renderFormat;
 
 private:
     void refreshVideo(double *remaining_time);
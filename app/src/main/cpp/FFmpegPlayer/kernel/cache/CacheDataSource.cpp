@@ -0,0 +1,207 @@
+#include "CacheDataSource.h"
+
+#include <cstring>
+
+extern "C" {
+#include <libavformat/avformat.h>
+#include <libavutil/avstring.h>
+#include <libavutil/mem.h>
+}
+
+#define CACHE_IO_BUFFER_SIZE (32 * 1024)
+
+CacheDataSource::CacheDataSource() {
+    m_cache        = MediaCache::getInstance();
+    m_file         = nullptr;
+    m_upstream     = nullptr;
+    m_ioContext    = nullptr;
+    m_interruptCb  = {nullptr, nullptr};
+    m_url          = nullptr;
+    m_pos          = 0;
+    m_length       = 0;
+    m_networkBytes = 0;
+    m_cacheBytes   = 0;
+}
+
+CacheDataSource::~CacheDataSource() {
+    close();
+}
+
+static bool isCacheable(const char *url) {
+    const char *protocol = avio_find_protocol_name(url);
+    if (protocol == nullptr || (strcmp(protocol, "http") != 0 && strcmp(protocol, "https") != 0)) {
+        return false;
+    }
+    // hls的分片由demuxer自己打开, 缓存播放列表没有意义
+    return !av_stristr(url, ".m3u8");
+}
+
+int CacheDataSource::openUpstream() {
+    if (m_upstream != nullptr) {
+        return 0;
+    }
+    int ret = avio_open2(&m_upstream, m_url, AVIO_FLAG_READ, &m_interruptCb, nullptr);
+    if (ret < 0) {
+        char err[AV_ERROR_MAX_STRING_SIZE];
+        av_strerror(ret, err, sizeof(err));
+        av_log(nullptr, AV_LOG_ERROR, "open upstream error:%s\n", err);
+        return ret;
+    }
+    int64_t size = avio_size(m_upstream);
+    if (m_length > 0 && size != m_length) {
+        av_log(nullptr, AV_LOG_WARNING, "upstream size=%lld, cached length=%lld\n",
+               (long long) size, (long long) m_length);
+    }
+    return 0;
+}
+
+int CacheDataSource::open(const char *url, const AVIOInterruptCB *interruptCb) {
+    if (url == nullptr || !isCacheable(url) || !m_cache->isEnabled()) {
+        return AVERROR(ENOSYS);
+    }
+    m_url = av_strdup(url);
+    if (interruptCb != nullptr) {
+        m_interruptCb = *interruptCb;
+    }
+    // 先找已有的缓存, 长度记在索引里, 不用连网
+    m_file = m_cache->acquire(url, -1);
+    if (m_file == nullptr) {
+        int ret = openUpstream();
+        if (ret < 0) {
+            close();
+            return ret;
+        }
+        int64_t size = avio_size(m_upstream);
+        if (size <= 0 || !(m_upstream->seekable & AVIO_SEEKABLE_NORMAL)) {
+            av_log(nullptr, AV_LOG_INFO, "not cacheable, size=%lld seekable=%d\n",
+                   (long long) size, m_upstream->seekable);
+            close();
+            return AVERROR(ENOSYS);
+        }
+        m_file = m_cache->acquire(url, size);
+        if (m_file == nullptr) {
+            close();
+            return AVERROR(ENOSYS);
+        }
+    }
+    m_length = m_file->length();
+
+    auto *buffer = (uint8_t *) av_malloc(CACHE_IO_BUFFER_SIZE);
+    if (buffer == nullptr) {
+        close();
+        return AVERROR(ENOMEM);
+    }
+    m_ioContext = avio_alloc_context(buffer, CACHE_IO_BUFFER_SIZE, 0, this,
+                                     readPacket, nullptr, seekPacket);
+    if (m_ioContext == nullptr) {
+        av_free(buffer);
+        close();
+        return AVERROR(ENOMEM);
+    }
+    av_log(nullptr, AV_LOG_INFO, "open cache length=%lld cached=%lld\n",
+           (long long) m_length, (long long) m_file->cachedBytes());
+    return 0;
+}
+
+void CacheDataSource::close() {
+    if (m_ioContext != nullptr) {
+        av_freep(&m_ioContext->buffer);
+        avio_context_free(&m_ioContext);
+    }
+    if (m_file != nullptr) {
+        av_log(nullptr, AV_LOG_INFO, "close cache network=%lld cache=%lld\n",
+               (long long) m_networkBytes, (long long) m_cacheBytes);
+        m_cache->release(m_file);
+        m_file = nullptr;
+    }
+    if (m_upstream != nullptr) {
+        avio_closep(&m_upstream);
+    }
+    av_freep(&m_url);
+}
+
+int CacheDataSource::read(uint8_t *buf, int size) {
+    if (m_pos >= m_length) {
+        return AVERROR_EOF;
+    }
+    if (size > m_length - m_pos) {
+        size = (int) (m_length - m_pos);
+    }
+    int64_t cached = m_file->cachedAt(m_pos);
+    if (cached > 0) {
+        int len = m_file->read(m_pos, buf, (int) FFMIN(cached, size));
+        if (len <= 0) {
+            return AVERROR(EIO);
+        }
+        m_pos        += len;
+        m_cacheBytes += len;
+        return len;
+    }
+
+    // 缺失的部分从网络读取, 读到下一个已缓存区间为止
+    int ret = openUpstream();
+    if (ret < 0) {
+        return ret;
+    }
+    if (avio_tell(m_upstream) != m_pos) {
+        int64_t pos = avio_seek(m_upstream, m_pos, SEEK_SET);
+        if (pos < 0) {
+            return (int) pos;
+        }
+    }
+    int64_t missing = m_file->missingAt(m_pos);
+    int len = avio_read_partial(m_upstream, buf, (int) FFMIN(missing, size));
+    if (len <= 0) {
+        return len == 0 ? AVERROR_EOF : len;
+    }
+    int64_t added = m_file->write(m_pos, buf, len);
+    m_cache->onCached(m_file, added);
+    m_pos          += len;
+    m_networkBytes += len;
+    return len;
+}
+
+int64_t CacheDataSource::seek(int64_t offset, int whence) {
+    int64_t pos;
+    switch (whence & ~AVSEEK_FORCE) {
+        case AVSEEK_SIZE:
+            return m_length;
+        case SEEK_SET:
+            pos = offset;
+            break;
+        case SEEK_CUR:
+            pos = m_pos + offset;
+            break;
+        case SEEK_END:
+            pos = m_length + offset;
+            break;
+        default:
+            return AVERROR(EINVAL);
+    }
+    if (pos < 0 || pos > m_length) {
+        return AVERROR(EINVAL);
+    }
+    // 只记录位置, 缺数据时才去移动网络流
+    m_pos = pos;
+    return pos;
+}
+
+int CacheDataSource::readPacket(void *opaque, uint8_t *buf, int size) {
+    return ((CacheDataSource *) opaque)->read(buf, size);
+}
+
+int64_t CacheDataSource::seekPacket(void *opaque, int64_t offset, int whence) {
+    return ((CacheDataSource *) opaque)->seek(offset, whence);
+}
+
+AVIOContext *CacheDataSource::getIOContext() const {
+    return m_ioContext;
+}
+
+int64_t CacheDataSource::getNetworkBytes() const {
+    return m_networkBytes;
+}
+
+int64_t CacheDataSource::getCacheBytes() const {
+    return m_cacheBytes;
+}
@@ -0,0 +1,66 @@
+#ifndef CACHEDATASOURCE_H
+#define CACHEDATASOURCE_H
+
+#include <cache/MediaCache.h>
+
+extern "C" {
+#include <libavformat/avio.h>
+}
+
+/**
+ * Custom AVIOContext, which serves reads from the cache file of a media,
+ * and fetches the missing ranges from the real protocol. The upstream is
+ * opened lazily, so a fully cached media doesn't touch the network.
+ * Only seekable http(s) media of known length are cached, others are
+ * opened by the demuxer directly. It's only used on the read thread.
+ */
+class CacheDataSource {
+
+private:
+    MediaCache *m_cache;
+    CacheFile *m_file;
+    AVIOContext *m_upstream;
+    AVIOContext *m_ioContext;
+    AVIOInterruptCB m_interruptCb;
+    char *m_url;
+
+    int64_t m_pos;
+    int64_t m_length;
+    int64_t m_networkBytes;
+    int64_t m_cacheBytes;
+
+    int openUpstream();
+
+    int read(uint8_t *buf, int size);
+
+    int64_t seek(int64_t offset, int whence);
+
+    static int readPacket(void *opaque, uint8_t *buf, int size);
+
+    static int64_t seekPacket(void *opaque, int64_t offset, int whence);
+
+public:
+    CacheDataSource();
+
+    virtual ~CacheDataSource();
+
+    /**
+     * @return 0 if the url is served through the cache, negative if it should be opened directly
+     */
+    int open(const char *url, const AVIOInterruptCB *interruptCb);
+
+    void close();
+
+    /**
+     * Set it as pb of AVFormatContext with AVFMT_FLAG_CUSTOM_IO,
+     * it's freed by close() rather than avformat_close_input().
+     */
+    AVIOContext *getIOContext() const;
+
+    int64_t getNetworkBytes() const;
+
+    int64_t getCacheBytes() const;
+
+};
+
+#endif //CACHEDATASOURCE_H
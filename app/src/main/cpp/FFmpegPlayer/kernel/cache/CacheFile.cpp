@@ -0,0 +1,265 @@
+#include "CacheFile.h"
+
+#include <algorithm>
+#include <cstring>
+#include <iterator>
+#include <errno.h>
+#include <fcntl.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+
+extern "C" {
+#include <libavutil/log.h>
+}
+
+#define CACHE_INDEX_MAGIC 0x31464358 // "XCF1"
+
+CacheFile::CacheFile(const std::string &dataPath, const std::string &indexPath, int64_t length) {
+    m_dataPath    = dataPath;
+    m_indexPath   = indexPath;
+    m_fd          = -1;
+    m_map         = nullptr;
+    m_length      = length;
+    m_cachedBytes = 0;
+    m_dirty       = false;
+}
+
+CacheFile::~CacheFile() {
+    flush();
+    if (m_map != nullptr) {
+        munmap(m_map, (size_t) m_length);
+        m_map = nullptr;
+    }
+    if (m_fd >= 0) {
+        ::close(m_fd);
+        m_fd = -1;
+    }
+}
+
+static bool readIndex(const std::string &indexPath, int64_t *length, std::map<int64_t, int64_t> *ranges) {
+    FILE *fp = fopen(indexPath.c_str(), "rb");
+    if (fp == nullptr) {
+        return false;
+    }
+    uint32_t magic = 0;
+    int32_t count = 0;
+    bool valid = fread(&magic, sizeof(magic), 1, fp) == 1 && magic == CACHE_INDEX_MAGIC
+                 && fread(length, sizeof(*length), 1, fp) == 1 && *length > 0
+                 && fread(&count, sizeof(count), 1, fp) == 1 && count >= 0;
+    int64_t lastEnd = -1;
+    for (int i = 0; valid && i < count; ++i) {
+        int64_t range[2];
+        if (fread(range, sizeof(range), 1, fp) != 1
+            || range[0] <= lastEnd || range[1] <= range[0] || range[1] > *length) {
+            valid = false;
+            break;
+        }
+        (*ranges)[range[0]] = range[1];
+        lastEnd = range[1];
+    }
+    fclose(fp);
+    return valid;
+}
+
+bool CacheFile::readIndexInfo(const std::string &indexPath, int64_t *length, int64_t *cachedBytes) {
+    std::map<int64_t, int64_t> ranges;
+    if (!readIndex(indexPath, length, &ranges)) {
+        return false;
+    }
+    *cachedBytes = 0;
+    for (auto &range : ranges) {
+        *cachedBytes += range.second - range.first;
+    }
+    return true;
+}
+
+bool CacheFile::loadIndex() {
+    int64_t length = 0;
+    std::map<int64_t, int64_t> ranges;
+    if (!readIndex(m_indexPath, &length, &ranges)) {
+        return false;
+    }
+    if (m_length > 0 && length != m_length) {
+        // 资源长度变了, 旧数据作废
+        av_log(nullptr, AV_LOG_WARNING, "cache length changed %lld -> %lld\n",
+               (long long) length, (long long) m_length);
+        return false;
+    }
+    m_length = length;
+    m_ranges.swap(ranges);
+    m_cachedBytes = 0;
+    for (auto &range : m_ranges) {
+        m_cachedBytes += range.second - range.first;
+    }
+    return true;
+}
+
+int CacheFile::open() {
+    Mutex::AutoLock lock(m_mutex);
+    struct stat st{};
+    bool valid = loadIndex();
+    // 索引有效但数据文件大小不对, 说明数据被删过
+    if (valid && (stat(m_dataPath.c_str(), &st) != 0 || st.st_size != m_length)) {
+        valid = false;
+    }
+    if (!valid) {
+        if (m_length <= 0) {
+            return -1;
+        }
+        m_ranges.clear();
+        m_cachedBytes = 0;
+        // 没有有效索引时, 旧数据不可信, 截断后重新建立稀疏文件
+        unlink(m_indexPath.c_str());
+        truncate(m_dataPath.c_str(), 0);
+    }
+    m_fd = ::open(m_dataPath.c_str(), O_RDWR | O_CREAT | O_CLOEXEC, 0644);
+    if (m_fd < 0) {
+        av_log(nullptr, AV_LOG_ERROR, "open cache file error:%s\n", strerror(errno));
+        return -1;
+    }
+    if (fstat(m_fd, &st) != 0 || st.st_size != m_length) {
+        // 只改变文件大小, 不占用磁盘空间
+        if (ftruncate(m_fd, m_length) != 0) {
+            av_log(nullptr, AV_LOG_ERROR, "truncate cache file error:%s\n", strerror(errno));
+            return -1;
+        }
+    }
+    if ((uint64_t) m_length <= SIZE_MAX) {
+        void *map = mmap(nullptr, (size_t) m_length, PROT_READ, MAP_SHARED, m_fd, 0);
+        // 32位进程的地址空间可能不够, 这时退回pread
+        m_map = map != MAP_FAILED ? (uint8_t *) map : nullptr;
+    }
+    return 0;
+}
+
+int64_t CacheFile::length() const {
+    return m_length;
+}
+
+int64_t CacheFile::cachedBytes() {
+    Mutex::AutoLock lock(m_mutex);
+    return m_cachedBytes;
+}
+
+int64_t CacheFile::cachedAt(int64_t pos) {
+    Mutex::AutoLock lock(m_mutex);
+    auto it = m_ranges.upper_bound(pos);
+    if (it == m_ranges.begin()) {
+        return 0;
+    }
+    --it;
+    return it->second > pos ? it->second - pos : 0;
+}
+
+int64_t CacheFile::missingAt(int64_t pos) {
+    Mutex::AutoLock lock(m_mutex);
+    auto it = m_ranges.upper_bound(pos);
+    int64_t next = it == m_ranges.end() ? m_length : it->first;
+    return next - pos;
+}
+
+int CacheFile::read(int64_t pos, uint8_t *buf, int len) {
+    if (pos < 0 || pos >= m_length) {
+        return 0;
+    }
+    if (len > m_length - pos) {
+        len = (int) (m_length - pos);
+    }
+    if (m_map != nullptr) {
+        memcpy(buf, m_map + pos, (size_t) len);
+        return len;
+    }
+    int total = 0;
+    while (total < len) {
+        ssize_t n = pread(m_fd, buf + total, (size_t) (len - total), pos + total);
+        if (n < 0 && errno == EINTR) {
+            continue;
+        }
+        if (n <= 0) {
+            return total > 0 ? total : -1;
+        }
+        total += (int) n;
+    }
+    return total;
+}
+
+int64_t CacheFile::write(int64_t pos, const uint8_t *buf, int len) {
+    if (pos < 0 || pos >= m_length) {
+        return 0;
+    }
+    if (len > m_length - pos) {
+        len = (int) (m_length - pos);
+    }
+    int total = 0;
+    while (total < len) {
+        ssize_t n = pwrite(m_fd, buf + total, (size_t) (len - total), pos + total);
+        if (n < 0 && errno == EINTR) {
+            continue;
+        }
+        if (n <= 0) {
+            av_log(nullptr, AV_LOG_ERROR, "write cache file error:%s\n", strerror(errno));
+            return -1;
+        }
+        total += (int) n;
+    }
+
+    Mutex::AutoLock lock(m_mutex);
+    // 合并重叠或相邻的区间, 同时统计原来已经缓存的部分
+    int64_t start   = pos;
+    int64_t end     = pos + len;
+    int64_t covered = 0;
+    auto it = m_ranges.upper_bound(start);
+    if (it != m_ranges.begin()) {
+        auto prev = std::prev(it);
+        if (prev->second >= start) {
+            it = prev;
+        }
+    }
+    while (it != m_ranges.end() && it->first <= pos + len) {
+        int64_t overlap = std::min(it->second, pos + len) - std::max(it->first, pos);
+        if (overlap > 0) {
+            covered += overlap;
+        }
+        start = std::min(start, it->first);
+        end   = std::max(end, it->second);
+        it = m_ranges.erase(it);
+    }
+    m_ranges[start] = end;
+    int64_t added = len - covered;
+    m_cachedBytes += added;
+    m_dirty = m_dirty || added > 0;
+    return added;
+}
+
+void CacheFile::flush() {
+    Mutex::AutoLock lock(m_mutex);
+    if (!m_dirty || m_fd < 0) {
+        return;
+    }
+    // 先落盘数据再写索引, 索引不会指向没写完的数据
+    fdatasync(m_fd);
+    std::string tmpPath = m_indexPath + ".tmp";
+    FILE *fp = fopen(tmpPath.c_str(), "wb");
+    if (fp == nullptr) {
+        av_log(nullptr, AV_LOG_ERROR, "open cache index error:%s\n", strerror(errno));
+        return;
+    }
+    uint32_t magic = CACHE_INDEX_MAGIC;
+    auto count = (int32_t) m_ranges.size();
+    bool ok = fwrite(&magic, sizeof(magic), 1, fp) == 1
+              && fwrite(&m_length, sizeof(m_length), 1, fp) == 1
+              && fwrite(&count, sizeof(count), 1, fp) == 1;
+    for (auto it = m_ranges.begin(); ok && it != m_ranges.end(); ++it) {
+        int64_t range[2] = {it->first, it->second};
+        ok = fwrite(range, sizeof(range), 1, fp) == 1;
+    }
+    ok = fclose(fp) == 0 && ok;
+    if (ok && rename(tmpPath.c_str(), m_indexPath.c_str()) == 0) {
+        m_dirty = false;
+    } else {
+        unlink(tmpPath.c_str());
+    }
+}
@@ -0,0 +1,86 @@
+#ifndef CACHEFILE_H
+#define CACHEFILE_H
+
+#include <map>
+#include <string>
+#include <stdint.h>
+#include <Mutex.h>
+
+/**
+ * Sparse cache file of one media, as large as the media, with the cached
+ * byte ranges kept in a sidecar index. Reads are served from a shared
+ * memory mapping, writes go through pwrite, so that a full disk returns
+ * an error instead of SIGBUS. Without the mapping, reads fall back to pread.
+ * The ranges are merged, and saved to the index by flush().
+ */
+class CacheFile {
+
+private:
+    Mutex m_mutex;
+
+    std::string m_dataPath;
+    std::string m_indexPath;
+    int m_fd;
+    uint8_t *m_map;
+    int64_t m_length;
+    int64_t m_cachedBytes;
+    bool m_dirty;
+
+    // 已缓存区间: start -> end, 互不重叠且不相邻
+    std::map<int64_t, int64_t> m_ranges;
+
+    bool loadIndex();
+
+public:
+    /**
+     * @param length media length, or -1 to take it from the index
+     */
+    CacheFile(const std::string &dataPath, const std::string &indexPath, int64_t length);
+
+    virtual ~CacheFile();
+
+    /**
+     * @return 0 on success, negative if the file can't be opened,
+     *         or the length is unknown and there isn't a valid index
+     */
+    int open();
+
+    int64_t length() const;
+
+    int64_t cachedBytes();
+
+    /**
+     * Bytes cached continuously from pos, 0 if pos isn't cached.
+     */
+    int64_t cachedAt(int64_t pos);
+
+    /**
+     * Bytes missing from pos to the next cached range or the end.
+     */
+    int64_t missingAt(int64_t pos);
+
+    /**
+     * Read cached bytes, the caller checks cachedAt() first.
+     */
+    int read(int64_t pos, uint8_t *buf, int len);
+
+    /**
+     * Write bytes and mark them as cached.
+     * @return bytes newly cached, negative on error
+     */
+    int64_t write(int64_t pos, const uint8_t *buf, int len);
+
+    /**
+     * Save the ranges to the index, if changed.
+     */
+    void flush();
+
+    /**
+     * Read the length and cached bytes from an index without opening the data.
+     * @return false if the index is invalid
+     */
+    static bool readIndexInfo(const std::string &indexPath, int64_t *length, int64_t *cachedBytes);
+
+};
+
+#endif //CACHEFILE_H
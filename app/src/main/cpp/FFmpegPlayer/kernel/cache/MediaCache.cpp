@@ -0,0 +1,244 @@
+#include "MediaCache.h"
+
+#include <algorithm>
+#include <cstring>
+#include <vector>
+#include <dirent.h>
+#include <errno.h>
+#include <unistd.h>
+#include <utime.h>
+#include <sys/stat.h>
+
+extern "C" {
+#include <libavutil/log.h>
+#include <libavutil/md5.h>
+}
+
+#define CACHE_DATA_EXT  ".data"
+#define CACHE_INDEX_EXT ".idx"
+
+MediaCache::MediaCache() {
+    m_maxBytes   = 0;
+    m_totalBytes = 0;
+}
+
+MediaCache *MediaCache::getInstance() {
+    static MediaCache instance;
+    return &instance;
+}
+
+static bool endsWith(const std::string &str, const char *suffix) {
+    size_t len = strlen(suffix);
+    return str.size() > len && str.compare(str.size() - len, len, suffix) == 0;
+}
+
+std::string MediaCache::hashKey(const char *url) {
+    uint8_t md5[16];
+    char key[33];
+    av_md5_sum(md5, (const uint8_t *) url, strlen(url));
+    for (int i = 0; i < 16; ++i) {
+        snprintf(key + i * 2, 3, "%02x", md5[i]);
+    }
+    return std::string(key);
+}
+
+std::string MediaCache::dataPath(const std::string &key) const {
+    return m_dir + "/" + key + CACHE_DATA_EXT;
+}
+
+std::string MediaCache::indexPath(const std::string &key) const {
+    return m_dir + "/" + key + CACHE_INDEX_EXT;
+}
+
+void MediaCache::removeFiles(const std::string &key) {
+    unlink(indexPath(key).c_str());
+    unlink(dataPath(key).c_str());
+}
+
+void MediaCache::setConfig(const char *dir, int64_t maxBytes) {
+    Mutex::AutoLock lock(m_mutex);
+    // 正在使用的缓存继续有效, 其余的按新目录重新扫描
+    for (auto it = m_entries.begin(); it != m_entries.end();) {
+        if (it->refCount == 0) {
+            m_totalBytes -= it->bytes;
+            it = m_entries.erase(it);
+        } else {
+            ++it;
+        }
+    }
+    if (dir == nullptr || dir[0] == '\0' || maxBytes <= 0) {
+        m_dir.clear();
+        m_maxBytes = 0;
+        return;
+    }
+    if (mkdir(dir, 0755) != 0 && errno != EEXIST) {
+        av_log(nullptr, AV_LOG_ERROR, "create cache dir error:%s\n", strerror(errno));
+        m_dir.clear();
+        return;
+    }
+    m_dir      = dir;
+    m_maxBytes = maxBytes;
+    scan();
+    trim();
+}
+
+void MediaCache::scan() {
+    DIR *dir = opendir(m_dir.c_str());
+    if (dir == nullptr) {
+        return;
+    }
+    std::vector<std::string> names;
+    struct dirent *ent;
+    while ((ent = readdir(dir)) != nullptr) {
+        names.emplace_back(ent->d_name);
+    }
+    closedir(dir);
+
+    std::vector<std::pair<time_t, CacheEntry>> found;
+    for (auto &name : names) {
+        if (!endsWith(name, CACHE_INDEX_EXT)) {
+            continue;
+        }
+        std::string key = name.substr(0, name.size() - strlen(CACHE_INDEX_EXT));
+        bool inUse = false;
+        for (auto &entry : m_entries) {
+            inUse = inUse || entry.key == key;
+        }
+        if (inUse) {
+            continue;
+        }
+        int64_t length;
+        int64_t bytes;
+        struct stat st{};
+        if (!CacheFile::readIndexInfo(indexPath(key), &length, &bytes)
+            || stat(indexPath(key).c_str(), &st) != 0) {
+            removeFiles(key);
+            continue;
+        }
+        found.push_back(std::make_pair(st.st_mtime, CacheEntry{key, bytes, 0, nullptr}));
+    }
+    // 索引的修改时间就是上次使用的时间
+    std::sort(found.begin(), found.end(),
+              [](const std::pair<time_t, CacheEntry> &a, const std::pair<time_t, CacheEntry> &b) {
+                  return a.first > b.first;
+              });
+    for (auto &item : found) {
+        m_entries.push_back(item.second);
+        m_totalBytes += item.second.bytes;
+    }
+    // 没有索引的数据文件是异常退出留下的, 数据不可信
+    for (auto &name : names) {
+        if (!endsWith(name, CACHE_DATA_EXT)) {
+            continue;
+        }
+        std::string key = name.substr(0, name.size() - strlen(CACHE_DATA_EXT));
+        if (access(indexPath(key).c_str(), F_OK) != 0) {
+            unlink(dataPath(key).c_str());
+        }
+    }
+}
+
+void MediaCache::trim() {
+    auto it = m_entries.end();
+    while (m_totalBytes > m_maxBytes && it != m_entries.begin()) {
+        --it;
+        if (it->refCount > 0) {
+            continue;
+        }
+        av_log(nullptr, AV_LOG_INFO, "evict cache %s bytes=%lld\n", it->key.c_str(), (long long) it->bytes);
+        removeFiles(it->key);
+        m_totalBytes -= it->bytes;
+        it = m_entries.erase(it);
+    }
+}
+
+bool MediaCache::isEnabled() {
+    Mutex::AutoLock lock(m_mutex);
+    return !m_dir.empty();
+}
+
+int64_t MediaCache::getMaxBytes() {
+    Mutex::AutoLock lock(m_mutex);
+    return m_maxBytes;
+}
+
+CacheFile *MediaCache::acquire(const char *url, int64_t length) {
+    Mutex::AutoLock lock(m_mutex);
+    if (m_dir.empty() || url == nullptr || length > m_maxBytes) {
+        return nullptr;
+    }
+    std::string key = hashKey(url);
+    auto it = m_entries.begin();
+    while (it != m_entries.end() && it->key != key) {
+        ++it;
+    }
+    if (it != m_entries.end() && it->file != nullptr) {
+        // 多个播放器打开同一个媒体时共用缓存文件
+        it->refCount++;
+        m_entries.splice(m_entries.begin(), m_entries, it);
+        return it->file;
+    }
+    if (it == m_entries.end() && length < 0) {
+        return nullptr;
+    }
+    auto *file = new CacheFile(dataPath(key), indexPath(key), length);
+    if (file->open() < 0 || file->length() > m_maxBytes) {
+        delete file;
+        if (it != m_entries.end()) {
+            m_totalBytes -= it->bytes;
+            m_entries.erase(it);
+        }
+        removeFiles(key);
+        return nullptr;
+    }
+    if (it == m_entries.end()) {
+        it = m_entries.insert(m_entries.begin(), CacheEntry{key, 0, 0, nullptr});
+    } else {
+        m_entries.splice(m_entries.begin(), m_entries, it);
+    }
+    m_totalBytes += file->cachedBytes() - it->bytes;
+    it->bytes    = file->cachedBytes();
+    it->refCount = 1;
+    it->file     = file;
+    trim();
+    return file;
+}
+
+void MediaCache::release(CacheFile *file) {
+    if (file == nullptr) {
+        return;
+    }
+    Mutex::AutoLock lock(m_mutex);
+    for (auto it = m_entries.begin(); it != m_entries.end(); ++it) {
+        if (it->file != file) {
+            continue;
+        }
+        if (--it->refCount == 0) {
+            it->file = nullptr;
+            delete file;
+            // 没有新数据时索引不会重写, 手动更新使用时间
+            utime(indexPath(it->key).c_str(), nullptr);
+        }
+        trim();
+        return;
+    }
+    // 缓存目录改过, 不在列表里了
+    delete file;
+}
+
+void MediaCache::onCached(CacheFile *file, int64_t bytes) {
+    if (bytes <= 0) {
+        return;
+    }
+    Mutex::AutoLock lock(m_mutex);
+    for (auto &entry : m_entries) {
+        if (entry.file == file) {
+            entry.bytes  += bytes;
+            m_totalBytes += bytes;
+            break;
+        }
+    }
+    if (m_totalBytes > m_maxBytes) {
+        trim();
+    }
+}
@@ -0,0 +1,75 @@
+#ifndef MEDIACACHE_H
+#define MEDIACACHE_H
+
+#include <list>
+#include <string>
+#include <Mutex.h>
+#include <cache/CacheFile.h>
+
+/**
+ * Cache files of all media in one directory, shared by all players.
+ * A media is named by the md5 of its url. The least recently used media
+ * is evicted once the cached bytes exceed the size cap, except those
+ * opened by a player. Caching is disabled until setConfig() is called.
+ */
+class MediaCache {
+
+private:
+    struct CacheEntry {
+        std::string key;
+        int64_t bytes;
+        int refCount;
+        CacheFile *file;
+    };
+
+    Mutex m_mutex;
+    std::string m_dir;
+    int64_t m_maxBytes;
+    int64_t m_totalBytes;
+    // 最近使用的在前面
+    std::list<CacheEntry> m_entries;
+
+    MediaCache();
+
+    void scan();
+
+    void trim();
+
+    void removeFiles(const std::string &key);
+
+    std::string dataPath(const std::string &key) const;
+
+    std::string indexPath(const std::string &key) const;
+
+    static std::string hashKey(const char *url);
+
+public:
+    static MediaCache *getInstance();
+
+    /**
+     * @param dir      directory of cache files, null or empty disables caching
+     * @param maxBytes size cap of all cached media
+     */
+    void setConfig(const char *dir, int64_t maxBytes);
+
+    bool isEnabled();
+
+    int64_t getMaxBytes();
+
+    /**
+     * Open the cache file of url, and keep it from eviction until release().
+     * @param length media length, or -1 to only open an existing cache
+     * @return null if caching is disabled, or the cache can't be opened
+     */
+    CacheFile *acquire(const char *url, int64_t length);
+
+    void release(CacheFile *file);
+
+    /**
+     * Account newly cached bytes of an acquired file, which may evict others.
+     */
+    void onCached(CacheFile *file, int64_t bytes);
+
+};
+
+#endif //MEDIACACHE_H
@@ -0,0 +1,231 @@
+#include "StreamInfoCache.h"
+
+#include <cstdio>
+#include <cstring>
+
+#define STREAM_INFO_MAGIC   0x31495358 // "XSI1"
+// 防止损坏的文件申请过大的内存
+#define STREAM_INFO_MAX_STRING    4096
+#define STREAM_INFO_MAX_STREAMS   64
+#define STREAM_INFO_MAX_EXTRADATA (1024 * 1024)
+
+StreamInfoCache::StreamInfoCache(int capacity) {
+    m_capacity = capacity > 0 ? capacity : 1;
+}
+
+StreamInfoCache::~StreamInfoCache() = default;
+
+int StreamInfoCache::size() const {
+    return (int) m_entries.size();
+}
+
+int StreamInfoCache::capacity() const {
+    return m_capacity;
+}
+
+bool StreamInfoCache::get(const std::string &url, MediaStreamInfo *info) {
+    for (auto it = m_entries.begin(); it != m_entries.end(); ++it) {
+        if (it->url == url) {
+            m_entries.splice(m_entries.begin(), m_entries, it);
+            if (info != nullptr) {
+                *info = it->info;
+            }
+            return true;
+        }
+    }
+    return false;
+}
+
+void StreamInfoCache::put(const std::string &url, const MediaStreamInfo &info) {
+    remove(url);
+    m_entries.push_front(Entry{url, info});
+    while ((int) m_entries.size() > m_capacity) {
+        m_entries.pop_back();
+    }
+}
+
+void StreamInfoCache::remove(const std::string &url) {
+    for (auto it = m_entries.begin(); it != m_entries.end(); ++it) {
+        if (it->url == url) {
+            m_entries.erase(it);
+            return;
+        }
+    }
+}
+
+void StreamInfoCache::clear() {
+    m_entries.clear();
+}
+
+template<typename T>
+static void writeValue(std::string &out, T value) {
+    out.append((const char *) &value, sizeof(value));
+}
+
+static void writeBytes(std::string &out, const void *data, uint32_t size) {
+    writeValue(out, size);
+    out.append((const char *) data, size);
+}
+
+/**
+ * Sequential reader of serialized data, which fails on any overrun.
+ */
+class StreamInfoReader {
+private:
+    const std::string &m_data;
+    size_t m_pos;
+
+public:
+    explicit StreamInfoReader(const std::string &data) : m_data(data), m_pos(0) {}
+
+    template<typename T>
+    bool read(T *value) {
+        if (m_data.size() - m_pos < sizeof(T)) {
+            return false;
+        }
+        memcpy(value, m_data.data() + m_pos, sizeof(T));
+        m_pos += sizeof(T);
+        return true;
+    }
+
+    bool readBytes(std::string *out, uint32_t maxSize) {
+        uint32_t size;
+        if (!read(&size) || size > maxSize || m_data.size() - m_pos < size) {
+            return false;
+        }
+        out->assign(m_data, m_pos, size);
+        m_pos += size;
+        return true;
+    }
+
+    bool atEnd() const {
+        return m_pos == m_data.size();
+    }
+};
+
+std::string StreamInfoCache::serialize() const {
+    std::string out;
+    writeValue(out, (uint32_t) STREAM_INFO_MAGIC);
+    writeValue(out, (uint32_t) m_entries.size());
+    for (auto &entry : m_entries) {
+        const MediaStreamInfo &info = entry.info;
+        writeBytes(out, entry.url.data(), (uint32_t) entry.url.size());
+        writeBytes(out, info.formatName.data(), (uint32_t) info.formatName.size());
+        writeValue(out, info.durationUs);
+        writeValue(out, info.startTimeUs);
+        writeValue(out, (uint32_t) info.streams.size());
+        for (auto &stream : info.streams) {
+            writeValue(out, (int32_t) stream.codecType);
+            writeValue(out, (int32_t) stream.codecId);
+            writeValue(out, (int32_t) stream.format);
+            writeValue(out, (int32_t) stream.width);
+            writeValue(out, (int32_t) stream.height);
+            writeValue(out, (int32_t) stream.sampleRate);
+            writeValue(out, (int32_t) stream.channels);
+            writeValue(out, stream.bitRate);
+            writeValue(out, (int32_t) stream.frameRateNum);
+            writeValue(out, (int32_t) stream.frameRateDen);
+            writeBytes(out, stream.extradata.data(), (uint32_t) stream.extradata.size());
+        }
+    }
+    return out;
+}
+
+static bool readStream(StreamInfoReader &reader, StreamInfo *stream) {
+    int32_t values[7];
+    int32_t frameRate[2];
+    std::string extradata;
+    for (int32_t &value : values) {
+        if (!reader.read(&value)) {
+            return false;
+        }
+    }
+    if (!reader.read(&stream->bitRate) || !reader.read(&frameRate[0]) || !reader.read(&frameRate[1])
+        || !reader.readBytes(&extradata, STREAM_INFO_MAX_EXTRADATA)) {
+        return false;
+    }
+    stream->codecType    = values[0];
+    stream->codecId      = values[1];
+    stream->format       = values[2];
+    stream->width        = values[3];
+    stream->height       = values[4];
+    stream->sampleRate   = values[5];
+    stream->channels     = values[6];
+    stream->frameRateNum = frameRate[0];
+    stream->frameRateDen = frameRate[1];
+    stream->extradata.assign(extradata.begin(), extradata.end());
+    return true;
+}
+
+bool StreamInfoCache::deserialize(const std::string &data) {
+    m_entries.clear();
+    StreamInfoReader reader(data);
+    uint32_t magic;
+    uint32_t count;
+    if (!reader.read(&magic) || magic != STREAM_INFO_MAGIC || !reader.read(&count)) {
+        return false;
+    }
+    std::list<Entry> entries;
+    for (uint32_t i = 0; i < count; ++i) {
+        Entry entry;
+        uint32_t streamCount;
+        if (!reader.readBytes(&entry.url, STREAM_INFO_MAX_STRING)
+            || !reader.readBytes(&entry.info.formatName, STREAM_INFO_MAX_STRING)
+            || !reader.read(&entry.info.durationUs)
+            || !reader.read(&entry.info.startTimeUs)
+            || !reader.read(&streamCount) || streamCount > STREAM_INFO_MAX_STREAMS) {
+            return false;
+        }
+        entry.info.streams.resize(streamCount);
+        for (auto &stream : entry.info.streams) {
+            if (!readStream(reader, &stream)) {
+                return false;
+            }
+        }
+        entries.push_back(entry);
+    }
+    if (!reader.atEnd()) {
+        return false;
+    }
+    // 容量变小时只保留最近的
+    while ((int) entries.size() > m_capacity) {
+        entries.pop_back();
+    }
+    m_entries.swap(entries);
+    return true;
+}
+
+bool StreamInfoCache::load(const std::string &path) {
+    FILE *fp = fopen(path.c_str(), "rb");
+    if (fp == nullptr) {
+        m_entries.clear();
+        return false;
+    }
+    std::string data;
+    char buf[4096];
+    size_t n;
+    while ((n = fread(buf, 1, sizeof(buf), fp)) > 0) {
+        data.append(buf, n);
+    }
+    fclose(fp);
+    return deserialize(data);
+}
+
+bool StreamInfoCache::save(const std::string &path) const {
+    return save(path, serialize());
+}
+
+bool StreamInfoCache::save(const std::string &path, const std::string &data) {
+    std::string tmpPath = path + ".tmp";
+    FILE *fp = fopen(tmpPath.c_str(), "wb");
+    if (fp == nullptr) {
+        return false;
+    }
+    bool ok = fwrite(data.data(), 1, data.size(), fp) == data.size();
+    ok = fclose(fp) == 0 && ok;
+    if (!ok || rename(tmpPath.c_str(), path.c_str()) != 0) {
+        ::remove(tmpPath.c_str());
+        return false;
+    }
+    return true;
+}
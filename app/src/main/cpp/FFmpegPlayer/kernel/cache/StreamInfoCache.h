@@ -0,0 +1,100 @@
+#ifndef STREAMINFOCACHE_H
+#define STREAMINFOCACHE_H
+
+#include <list>
+#include <string>
+#include <vector>
+#include <stdint.h>
+
+/**
+ * Codec parameters of a stream, which avformat_find_stream_info() probes.
+ * The enums of FFmpeg are kept as int, so the cache doesn't depend on FFmpeg.
+ */
+struct StreamInfo {
+    int codecType;
+    int codecId;
+    int format;
+    int width;
+    int height;
+    int sampleRate;
+    int channels;
+    int64_t bitRate;
+    int frameRateNum;
+    int frameRateDen;
+    std::vector<uint8_t> extradata;
+};
+
+struct MediaStreamInfo {
+    std::string formatName;
+    int64_t durationUs;
+    int64_t startTimeUs;
+    std::vector<StreamInfo> streams;
+};
+
+/**
+ * LRU map from url to the probed stream info, which is saved to a file,
+ * so that reopening known content may skip probing.
+ * It's a plain data structure, the caller takes care of locking.
+ */
+class StreamInfoCache {
+
+private:
+    struct Entry {
+        std::string url;
+        MediaStreamInfo info;
+    };
+
+    int m_capacity;
+    // 最近使用的在前面
+    std::list<Entry> m_entries;
+
+public:
+    explicit StreamInfoCache(int capacity);
+
+    virtual ~StreamInfoCache();
+
+    int size() const;
+
+    int capacity() const;
+
+    /**
+     * @return false if url isn't cached, otherwise it becomes the most recent
+     */
+    bool get(const std::string &url, MediaStreamInfo *info);
+
+    /**
+     * Add or replace the info of url, the least recent is evicted when full.
+     */
+    void put(const std::string &url, const MediaStreamInfo &info);
+
+    void remove(const std::string &url);
+
+    void clear();
+
+    /**
+     * Serialize all entries, the most recent first.
+     */
+    std::string serialize() const;
+
+    /**
+     * Replace all entries with the serialized data.
+     * @return false if the data is invalid, and the cache is left empty
+     */
+    bool deserialize(const std::string &data);
+
+    bool load(const std::string &path);
+
+    /**
+     * Write to a temp file then rename, so the file is never half written.
+     */
+    bool save(const std::string &path) const;
+
+    /**
+     * Same as save, with the data serialized before, so that the file can be written
+     * without holding the lock of cache.
+     */
+    static bool save(const std::string &path, const std::string &data);
+
+};
+
+#endif //STREAMINFOCACHE_H
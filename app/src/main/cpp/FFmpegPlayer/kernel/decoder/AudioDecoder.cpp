@@ -36,38 +36,56 @@ int AudioDecoder::getAudioFrame(AVFrame *frame) {
             ret = -1;
             break;
         }
-        if (m_playerParam->m_seekRequest) {
-            continue;
-        }
 
         AVPacket pkt;
+        int serial;
         if (m_pktPending) {
             av_packet_move_ref(&pkt, m_packet);
             m_pktPending = false;
+            serial = m_pktSerial;
         } else {
-            if (m_packetQueue->getPacket(&pkt) < 0) {
+            // seek期间队列为空, 在这里阻塞等待
+            if (m_packetQueue->getPacket(&pkt, 1, &serial) < 0) {
                 ret = -1;
                 break;
             }
         }
+        // seek之前入队的packet直接丢弃
+        if (serial != m_packetQueue->getSerial()) {
+            av_packet_unref(&pkt);
+            continue;
+        }
+        if (serial != m_pktSerial) {
+            flushCodecIfNeeded(serial);
+            m_next_pts = AV_NOPTS_VALUE;
+        }
 
-        m_playerParam->m_playMutex.lock();
-        ret = avcodec_send_packet(getCodecContext(), &pkt);
-        if (ret < 0) {
-            if (ret == AVERROR(EAGAIN)) {
-                av_packet_move_ref(m_packet, &pkt);
-                m_pktPending = true;
-            } else {
-                av_packet_unref(&pkt);
-                m_pktPending = false;
-            }
-            m_playerParam->m_playMutex.unlock();
+        m_codecMutex.lock();
+        if (m_abortReq) {
+            m_codecMutex.unlock();
+            av_packet_unref(&pkt);
+            ret = -1;
+            break;
+        }
+        ret = sendPacket(&pkt);
+        if (ret == AVERROR(EAGAIN)) {
+            // 解码器的输出满了, 先取帧, packet留到下一次送入
+            av_packet_move_ref(m_packet, &pkt);
+            m_pktPending = true;
+        } else if (ret < 0) {
+            // 损坏的packet丢弃, 继续解码后面的
+            av_packet_unref(&pkt);
+            m_codecMutex.unlock();
             continue;
         }
 
         ret = avcodec_receive_frame(getCodecContext(), frame);
-        m_playerParam->m_playMutex.unlock();
-        av_packet_unref(m_packet);
+        m_codecMutex.unlock();
+        av_packet_unref(&pkt);
+        if (ret >= 0 && m_pktSerial != m_packetQueue->getSerial()) {
+            // 解码器里缓存的旧序列数据
+            ret = AVERROR(EAGAIN);
+        }
         if (ret < 0) {
             av_frame_unref(frame);
             got_frame = 0;
@@ -84,6 +102,11 @@ int AudioDecoder::getAudioFrame(AVFrame *frame) {
             if (frame->pts != AV_NOPTS_VALUE) {
                 m_next_pts = frame->pts + frame->nb_samples;
                 m_next_pts_tb = tb;
+                // 精确seek, 目标之前的音频不播放
+                if (isBeforeExactSeek((double) m_next_pts / frame->sample_rate)) {
+                    av_frame_unref(frame);
+                    got_frame = 0;
+                }
             }
         }
     } while (!got_frame);
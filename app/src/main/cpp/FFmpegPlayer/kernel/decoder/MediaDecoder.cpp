@@ -3,6 +3,7 @@
 
 MediaDecoder::MediaDecoder(PlayerParam *playerParam) {
     m_packetQueue = new PacketQueue();
+    m_pktSerial   = -1;
     this->m_playerParam  = playerParam;
 }
 
@@ -28,12 +29,14 @@ void MediaDecoder::start() {
 
 void MediaDecoder::stop() {
     m_decodeMutex.lock();
+    m_codecMutex.lock();
     m_abortReq = true;
     AVCodecContext *codecContext = getCodecContext();
     if (codecContext) {
         avcodec_free_context(&codecContext);
         codecContext = nullptr;
     }
+    m_codecMutex.unlock();
     m_decodeCond.signal();
     m_decodeMutex.unlock();
     if (m_packetQueue) {
@@ -41,13 +44,38 @@ void MediaDecoder::stop() {
     }
 }
 
+// 清空packet队列并开始新的序列, 解码线程读到新序列的packet时自己刷新解码器
 void MediaDecoder::flush() {
     if (m_packetQueue) {
         m_packetQueue->flush();
     }
-    m_playerParam->m_playMutex.lock();
-    avcodec_flush_buffers(getCodecContext());
-    m_playerParam->m_playMutex.unlock();
+}
+
+void MediaDecoder::flushCodecIfNeeded(int serial) {
+    if (serial == m_pktSerial) {
+        return;
+    }
+    m_codecMutex.lock();
+    if (!m_abortReq && getCodecContext()) {
+        avcodec_flush_buffers(getCodecContext());
+    }
+    m_codecMutex.unlock();
+    m_pktSerial = serial;
+}
+
+int MediaDecoder::sendPacket(AVPacket *pkt) {
+    int ret = avcodec_send_packet(getCodecContext(), pkt);
+    if (ret == AVERROR_EOF) {
+        // 解码器drain之后不再接收packet, 重置后再送入
+        avcodec_flush_buffers(getCodecContext());
+        ret = avcodec_send_packet(getCodecContext(), pkt);
+    }
+    if (ret < 0 && ret != AVERROR(EAGAIN)) {
+        char err[AV_ERROR_MAX_STRING_SIZE];
+        av_strerror(ret, err, sizeof(err));
+        av_log(nullptr, AV_LOG_WARNING, "send packet error:%s\n", err);
+    }
+    return ret;
 }
 
 int MediaDecoder::pushPacket(AVPacket *pkt) {
@@ -61,6 +89,19 @@ int MediaDecoder::getPacketSize() {
     return m_packetQueue ? m_packetQueue->getPacketSize() : 0;
 }
 
+// 精确seek时, 结束时间不超过目标的帧不需要显示
+bool MediaDecoder::isBeforeExactSeek(double endTime) {
+    int64_t target = m_playerParam->m_exactSeekPos;
+    if (target == AV_NOPTS_VALUE || isnan(endTime)) {
+        return false;
+    }
+    return endTime <= (double) target / AV_TIME_BASE;
+}
+
+int MediaDecoder::getPacketSerial() {
+    return m_packetQueue ? m_packetQueue->getSerial() : -1;
+}
+
 AVCodecContext *MediaDecoder::getCodecContext() {
     return nullptr;
 }
@@ -69,13 +110,25 @@ int MediaDecoder::getMemorySize() {
     return m_packetQueue ? m_packetQueue->getSize() : 0;
 }
 
-int MediaDecoder::hasEnoughPackets(AVStream *stream) {
+int MediaDecoder::hasEnoughPackets(AVStream *stream, int minDurationMs) {
     Mutex::AutoLock lock(m_decodeMutex);
     return (m_packetQueue == nullptr) || (m_packetQueue->isAbort())
            || (stream->disposition & AV_DISPOSITION_ATTACHED_PIC)
            || (m_packetQueue->getPacketSize() > MIN_FRAMES)
               && (!m_packetQueue->getDuration()
-                  || av_q2d(stream->time_base) * (double)m_packetQueue->getDuration() > 1.0);
+                  || av_q2d(stream->time_base) * (double)m_packetQueue->getDuration() * 1000 > minDurationMs);
+}
+
+// packet队列里的时长(ms), 有packet但是没有时长信息时返回-1
+int MediaDecoder::getBufferedDuration(AVStream *stream) {
+    if (!m_packetQueue) {
+        return 0;
+    }
+    int64_t duration = m_packetQueue->getDuration();
+    if (duration <= 0) {
+        return m_packetQueue->getSize() > 0 ? -1 : 0;
+    }
+    return (int) (av_q2d(stream->time_base) * (double) duration * 1000);
 }
 
 void MediaDecoder::run() {
@@ -11,11 +11,26 @@ class MediaDecoder : public Runnable {
 protected:
     Mutex m_decodeMutex;
     Condition m_decodeCond;
+    // guard the codec context only, decoding doesn't hold the player-wide m_playMutex
+    Mutex m_codecMutex;
 
     bool m_abortReq{};
+    // serial of the last packet sent to decoder
+    int m_pktSerial;
     PlayerParam *m_playerParam;
     PacketQueue *m_packetQueue;
 
+    void flushCodecIfNeeded(int serial);
+
+    /**
+     * Send a packet to the decoder, called with m_codecMutex held.
+     * A decoder which has been drained is reset to take the packet, other errors are logged.
+     * @return the result of avcodec_send_packet, AVERROR(EAGAIN) means receiving frames first
+     */
+    int sendPacket(AVPacket *pkt);
+
+    bool isBeforeExactSeek(double endTime);
+
 public:
     MediaDecoder(PlayerParam *playerParam);
 
@@ -35,9 +50,13 @@ public:
 
     int getPacketSize();
 
+    int getPacketSerial();
+
     int getMemorySize();
 
-    int hasEnoughPackets(AVStream *stream);
+    int hasEnoughPackets(AVStream *stream, int minDurationMs);
+
+    int getBufferedDuration(AVStream *stream);
 
 };
 
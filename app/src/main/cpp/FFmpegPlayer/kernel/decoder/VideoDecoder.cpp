@@ -115,6 +115,9 @@ int VideoDecoder::decodeVideo() {
         m_decodeCond.signal();
         return AVERROR(ENOMEM);
     }
+    // 解码器返回EAGAIN时packet留到取完帧后再送入
+    bool pktPending = false;
+    int pendingSerial = 0;
 
     for (;;) {
 
@@ -122,54 +125,89 @@ int VideoDecoder::decodeVideo() {
             ret = -1;
             break;
         }
-        if (m_playerParam->m_seekRequest) {
-            continue;
-        }
-        if (m_packetQueue->getPacket(packet) < 0) {
+        // 先取出解码器里已经解好的帧, 帧线程解码时会缓存多帧
+        m_codecMutex.lock();
+        if (m_abortReq) {
+            m_codecMutex.unlock();
             ret = -1;
             break;
         }
-
-        m_playerParam->m_playMutex.lock();
-        ret = avcodec_send_packet(getCodecContext(), packet);
-        if (ret < 0 && ret != AVERROR(EAGAIN) && ret != AVERROR_EOF) {
-            av_packet_unref(packet);
-            m_playerParam->m_playMutex.unlock();
-            continue;
-        }
-
         ret = avcodec_receive_frame(getCodecContext(), frame);
-        m_playerParam->m_playMutex.unlock();
-        if (ret < 0 && ret != AVERROR_EOF) {
+        m_codecMutex.unlock();
+        if (ret < 0) {
             av_frame_unref(frame);
+            if (ret == AVERROR_EOF) {
+                m_codecMutex.lock();
+                if (!m_abortReq) {
+                    avcodec_flush_buffers(getCodecContext());
+                }
+                m_codecMutex.unlock();
+            }
+            // 解码器需要更多数据, 送入下一个packet. seek期间队列为空, 在这里阻塞等待
+            int serial;
+            if (pktPending) {
+                pktPending = false;
+                serial = pendingSerial;
+            } else if (m_packetQueue->getPacket(packet, 1, &serial) < 0) {
+                ret = -1;
+                break;
+            }
+            // seek之前入队的packet直接丢弃
+            if (serial != m_packetQueue->getSerial()) {
+                av_packet_unref(packet);
+                continue;
+            }
+            flushCodecIfNeeded(serial);
+            ret = 0;
+            m_codecMutex.lock();
+            if (!m_abortReq) {
+                ret = sendPacket(packet);
+            }
+            m_codecMutex.unlock();
+            if (ret == AVERROR(EAGAIN)) {
+                pktPending = true;
+                pendingSerial = serial;
+                continue;
+            }
+            // 出错的packet已记录日志, 丢弃后继续解码
             av_packet_unref(packet);
             continue;
-        } else {
-            got_picture = 1;
+        }
+
+        got_picture = 1;
 
-            if (m_playerParam->m_reorderVideoPts == -1) {
-                frame->pts = frame->best_effort_timestamp;
-            } else if (!m_playerParam->m_reorderVideoPts) {
-                frame->pts = frame->pkt_dts;
+        if (m_playerParam->m_reorderVideoPts == -1) {
+            frame->pts = frame->best_effort_timestamp;
+        } else if (!m_playerParam->m_reorderVideoPts) {
+            frame->pts = frame->pkt_dts;
+        }
+
+        // 精确seek, 目标之前的帧解码后丢弃, 不送去渲染
+        if (frame->pts != AV_NOPTS_VALUE) {
+            double frameDuration = frame_rate.num && frame_rate.den
+                                   ? av_q2d((AVRational){frame_rate.den, frame_rate.num}) : 0;
+            if (isBeforeExactSeek((double) frame->pts * av_q2d(timebase) + frameDuration)) {
+                av_frame_unref(frame);
+                continue;
             }
+        }
 
-            if (m_masterClock != nullptr) {
-                double pts = NAN;
+        if (m_masterClock != nullptr) {
+            double pts = NAN;
+            if (frame->pts != AV_NOPTS_VALUE) {
+                pts = av_q2d(m_playerParam->m_videoStream->time_base) * (double)frame->pts;
+            }
+            frame->sample_aspect_ratio = av_guess_sample_aspect_ratio(
+                    m_playerParam->m_formatCtx, m_playerParam->m_videoStream, frame);
+            // drop m_frame
+            if (m_playerParam->m_frameDrop > 0 ||
+                (m_playerParam->m_frameDrop > 0 && m_playerParam->m_syncType != AV_SYNC_VIDEO)) {
                 if (frame->pts != AV_NOPTS_VALUE) {
-                    pts = av_q2d(m_playerParam->m_videoStream->time_base) * (double)frame->pts;
-                }
-                frame->sample_aspect_ratio = av_guess_sample_aspect_ratio(
-                        m_playerParam->m_formatCtx, m_playerParam->m_videoStream, frame);
-                // drop m_frame
-                if (m_playerParam->m_frameDrop > 0 ||
-                    (m_playerParam->m_frameDrop > 0 && m_playerParam->m_syncType != AV_SYNC_VIDEO)) {
-                    if (frame->pts != AV_NOPTS_VALUE) {
-                        double diff = pts - m_masterClock->getClock();
-                        if (!isnan(diff) && fabs(diff) < AV_NOSYNC_THRESHOLD &&
-                            diff < 0 && m_packetQueue->getPacketSize() > 0) {
-                            av_frame_unref(frame);
-                            got_picture = 0;
-                        }
+                    double diff = pts - m_masterClock->getClock();
+                    if (!isnan(diff) && fabs(diff) < AV_NOSYNC_THRESHOLD &&
+                        diff < 0 && m_packetQueue->getPacketSize() > 0) {
+                        av_frame_unref(frame);
+                        got_picture = 0;
                     }
                 }
             }
@@ -185,6 +223,7 @@ int VideoDecoder::decodeVideo() {
             vp->width    = frame->width;
             vp->height   = frame->height;
             vp->format   = frame->format;
+            vp->serial   = m_pktSerial;
             vp->pts      = (frame->pts == AV_NOPTS_VALUE) ? NAN : (double)frame->pts * av_q2d(timebase);
             vp->duration = frame_rate.num && frame_rate.den
                            ? av_q2d((AVRational){frame_rate.den, frame_rate.num}) : 0;
@@ -194,7 +233,6 @@ int VideoDecoder::decodeVideo() {
         }
 
         av_frame_unref(frame);
-        av_packet_unref(packet);
     }
 
     av_frame_free(&frame);
@@ -3,12 +3,50 @@
 
 FFMessageQueue::FFMessageQueue() {
     m_msgQueueSize = 0;
-    m_firstMsg = nullptr;
-    m_lastMsg  = nullptr;
-    m_abortReq = false;
+    m_recycleCount = 0;
+    m_allocCount   = 0;
+    m_firstMsg   = nullptr;
+    m_lastMsg    = nullptr;
+    m_recycleMsg = nullptr;
+    m_abortReq   = false;
 }
 
-FFMessageQueue::~FFMessageQueue() = default;
+FFMessageQueue::~FFMessageQueue() {
+    flush();
+    Mutex::AutoLock lock(m_msgMutex);
+    FFMessage *msg = m_recycleMsg;
+    while (msg != nullptr) {
+        FFMessage *next = msg->next;
+        av_free(msg);
+        msg = next;
+    }
+    m_recycleMsg   = nullptr;
+    m_recycleCount = 0;
+}
+
+FFMessage *FFMessageQueue::obtain_l() {
+    FFMessage *msg = m_recycleMsg;
+    if (msg != nullptr) {
+        m_recycleMsg = msg->next;
+        m_recycleCount--;
+        return msg;
+    }
+    msg = (FFMessage *) av_malloc(sizeof(FFMessage));
+    if (msg != nullptr) {
+        m_allocCount++;
+    }
+    return msg;
+}
+
+void FFMessageQueue::recycle_l(FFMessage *msg) {
+    if (m_recycleCount >= MESSAGE_RECYCLE_MAX) {
+        av_free(msg);
+        return;
+    }
+    msg->next = m_recycleMsg;
+    m_recycleMsg = msg;
+    m_recycleCount++;
+}
 
 void FFMessageQueue::start() {
     Mutex::AutoLock lock(m_msgMutex);
@@ -23,7 +61,8 @@ void FFMessageQueue::flush() {
     Mutex::AutoLock lock(m_msgMutex);
     for (msg = m_firstMsg; msg != nullptr; msg = msg1) {
         msg1 = msg->next;
-        av_freep(&msg);
+        message_free_ptr(msg);
+        recycle_l(msg);
     }
     m_msgQueueSize = 0;
     m_firstMsg = nullptr;
@@ -61,10 +100,64 @@ void FFMessageQueue::sendMessage(int what, int arg1, int arg2, void *obj, int le
     msg.what = what;
     msg.arg1 = arg1;
     msg.arg2 = arg2;
-    msg.obj = av_malloc(sizeof(len));
-    memcpy(msg.obj, obj, len);
-    msg.free = message_free;
-    putMessage(&msg);
+    if (obj != nullptr && len > 0) {
+        msg.obj = av_malloc(len);
+        if (msg.obj != nullptr) {
+            memcpy(msg.obj, obj, len);
+            msg.free = message_free;
+        }
+    }
+    if (putMessage(&msg) < 0) {
+        message_free_ptr(&msg);
+    }
+}
+
+void FFMessageQueue::sendMessageCoalesced(int what, int arg1, int arg2) {
+    Mutex::AutoLock lock(m_msgMutex);
+    // 只合并队尾的同类消息, 不能越过其他消息(比如BUFFERING_END)改写上一轮的状态
+    FFMessage *pending = m_lastMsg;
+    if (pending != nullptr && pending->what == what && pending->obj == nullptr) {
+        pending->arg1 = arg1;
+        pending->arg2 = arg2;
+        return;
+    }
+    FFMessage msg;
+    message_init(&msg);
+    msg.what = what;
+    msg.arg1 = arg1;
+    msg.arg2 = arg2;
+    putMessage_l(&msg);
+}
+
+void FFMessageQueue::removeMessage(int what) {
+    Mutex::AutoLock lock(m_msgMutex);
+    FFMessage **prev = &m_firstMsg;
+    FFMessage *last  = nullptr;
+    FFMessage *msg   = m_firstMsg;
+    while (msg != nullptr) {
+        FFMessage *next = msg->next;
+        if (msg->what == what) {
+            *prev = next;
+            message_free_ptr(msg);
+            recycle_l(msg);
+            m_msgQueueSize--;
+        } else {
+            prev = &msg->next;
+            last = msg;
+        }
+        msg = next;
+    }
+    m_lastMsg = last;
+}
+
+int FFMessageQueue::getMessageCount() {
+    Mutex::AutoLock lock(m_msgMutex);
+    return m_msgQueueSize;
+}
+
+int FFMessageQueue::getAllocCount() {
+    Mutex::AutoLock lock(m_msgMutex);
+    return m_allocCount;
 }
 
 int FFMessageQueue::getMessage(FFMessage *msg) {
@@ -89,7 +182,7 @@ int FFMessageQueue::getMessage(FFMessage *msg, int block) {
             m_msgQueueSize--;
             *msg = *msg1;
             msg1->obj = nullptr;
-            av_free(msg1);
+            recycle_l(msg1);
             ret = 1;
             break;
         } else if (!block) {
@@ -106,11 +199,15 @@ int FFMessageQueue::getMessage(FFMessage *msg, int block) {
 
 int FFMessageQueue::putMessage(FFMessage *msg) {
     Mutex::AutoLock lock(m_msgMutex);
+    return putMessage_l(msg);
+}
+
+int FFMessageQueue::putMessage_l(FFMessage *msg) {
     FFMessage *message;
     if (m_abortReq) {
         return -1;
     }
-    message = (FFMessage *) av_malloc(sizeof(FFMessage));
+    message = obtain_l();
     if (!message) {
         return -1;
     }
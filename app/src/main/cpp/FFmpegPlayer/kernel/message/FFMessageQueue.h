@@ -13,6 +13,9 @@ extern "C" {
 
 #include "message/MessageDefine.h"
 
+// 回收链表最多保留的节点数, 突发消息过后多出的节点直接释放
+#define MESSAGE_RECYCLE_MAX 64
+
 typedef struct FFMessage {
     int what;
     int arg1;
@@ -39,6 +42,11 @@ inline static void message_free_ptr(FFMessage *msg) {
     msg->obj = NULL;
 }
 
+/**
+ * Message queue from the player kernel to the message thread.
+ * Nodes are recycled like Message.obtain() of Android, so sending without
+ * payload allocates nothing once the recycle list has warmed up.
+ */
 class FFMessageQueue {
 
 private:
@@ -47,12 +55,21 @@ private:
 
     FFMessage *m_firstMsg;
     FFMessage *m_lastMsg;
+    FFMessage *m_recycleMsg;
 
     bool m_abortReq;
     int m_msgQueueSize;
+    int m_recycleCount;
+    int m_allocCount;
+
+    FFMessage *obtain_l();
+
+    void recycle_l(FFMessage *msg);
 
     int putMessage(FFMessage *msg);
 
+    int putMessage_l(FFMessage *msg);
+
 public:
     FFMessageQueue();
 
@@ -70,6 +87,26 @@ public:
 
     void sendMessage(int what, int arg1, int arg2, void *obj, int len);
 
+    /**
+     * Update the args of the last pending message if it has the same what, instead of
+     * adding another one, so the receiver only sees the latest values.
+     * Messages are never merged across another one, which keeps the order of
+     * START/UPDATE/END. For high rate messages like buffering percent.
+     */
+    void sendMessageCoalesced(int what, int arg1, int arg2);
+
+    /**
+     * Drop the pending messages with this what.
+     */
+    void removeMessage(int what);
+
+    int getMessageCount();
+
+    /**
+     * Nodes allocated so far, which stops growing in steady state.
+     */
+    int getAllocCount();
+
     int getMessage(FFMessage *msg);
 
     int getMessage(FFMessage *msg, int block);
@@ -16,6 +16,7 @@
 #define MSG_VIDEO_DECODE_START          0x505
 #define MSG_VIDEO_RENDER_START          0x506
 #define MSG_VIDEO_ROTATION_CHANGED      0x507
+#define MSG_AUDIO_UNDERRUN              0x508
 
 #define MSG_BUFFERING_START             0x600
 #define MSG_BUFFERING_UPDATE            0x601
@@ -0,0 +1,89 @@
+#include "BufferingController.h"
+
+BufferingController::BufferingController(PlayerParam *playerParam) {
+    m_playerParam = playerParam;
+    reset();
+}
+
+BufferingController::~BufferingController() = default;
+
+void BufferingController::reset() {
+    m_buffering   = false;
+    m_started     = false;
+    m_rebuffering = false;
+    m_seeking     = false;
+    m_thresholdMs = 0;
+    m_percent     = 0;
+}
+
+int BufferingController::getStartupThreshold(int lowMs) const {
+    return m_playerParam->m_startupFast ? FFMIN(m_playerParam->m_startupMs, lowMs) : lowMs;
+}
+
+void BufferingController::onSeek() {
+    int lowMs = FFMAX(1, m_playerParam->m_bufferLowMs);
+    if (m_buffering) {
+        // 缓冲过程中seek, 本次缓冲按起播处理
+        m_thresholdMs = getStartupThreshold(lowMs);
+        m_rebuffering = false;
+        m_percent     = 0;
+    } else {
+        m_seeking = m_started;
+    }
+}
+
+BufferingEvent BufferingController::update(int64_t bytes, int durationMs, bool empty, bool full, bool eof) {
+    int lowMs = FFMAX(1, m_playerParam->m_bufferLowMs);
+    if (!m_buffering) {
+        if (eof || (m_started && !empty)) {
+            m_seeking = false;
+            return BUFFERING_NONE;
+        }
+        if (!m_started || m_seeking) {
+            // 首次缓冲和seek后的缓冲, 快速起播用较小的阈值
+            m_thresholdMs = getStartupThreshold(lowMs);
+        } else if (m_playerParam->m_startupFast) {
+            // 每卡顿一次, 阈值翻倍直到低水位
+            m_thresholdMs = FFMIN(FFMAX(1, m_thresholdMs) * 2, lowMs);
+        } else {
+            m_thresholdMs = lowMs;
+        }
+        m_rebuffering = m_started && !m_seeking;
+        m_seeking     = false;
+        m_buffering   = true;
+        m_percent     = 0;
+        return BUFFERING_START;
+    }
+
+    int percent = 0;
+    if (durationMs >= 0) {
+        percent = (int) ((int64_t) durationMs * 100 / FFMAX(1, m_thresholdMs));
+    }
+    if (m_playerParam->m_bufferLowBytes > 0) {
+        percent = FFMAX(percent, (int) FFMIN(100, bytes * 100 / m_playerParam->m_bufferLowBytes));
+    }
+    m_percent = FFMIN(100, percent);
+    if (eof || full || m_percent >= 100) {
+        m_buffering = false;
+        m_started   = true;
+        m_percent   = 100;
+        return BUFFERING_END;
+    }
+    return BUFFERING_NONE;
+}
+
+bool BufferingController::isFull(int64_t bytes) const {
+    return bytes >= m_playerParam->m_bufferHighBytes;
+}
+
+bool BufferingController::isBuffering() const {
+    return m_buffering;
+}
+
+int BufferingController::getPercent() const {
+    return m_percent;
+}
+
+bool BufferingController::isRebuffering() const {
+    return m_rebuffering;
+}
@@ -0,0 +1,73 @@
+#ifndef BUFFERINGCONTROLLER_H
+#define BUFFERINGCONTROLLER_H
+
+#include <player/PlayerParam.h>
+
+typedef enum {
+    BUFFERING_NONE  = 0,
+    BUFFERING_START = 1,
+    BUFFERING_END   = 2
+} BufferingEvent;
+
+/**
+ * Decide when playback waits for data, with the watermarks in PlayerParam.
+ * Buffering starts when a packet queue runs empty before eof, and ends
+ * once the buffered duration or bytes reach the low watermark. Reading
+ * ahead stops at the high watermark. In startup fast mode, the first
+ * buffering ends at m_startupMs, and each rebuffer doubles the threshold
+ * up to the low watermark. The buffering after a seek isn't a rebuffer,
+ * it starts over from m_startupMs.
+ * It's only used on the read thread, so it isn't locked.
+ */
+class BufferingController {
+
+private:
+    PlayerParam *m_playerParam;
+
+    bool m_buffering;
+    bool m_started;
+    bool m_rebuffering;
+    bool m_seeking;
+    int m_thresholdMs;
+    int m_percent;
+
+    int getStartupThreshold(int lowMs) const;
+
+public:
+    explicit BufferingController(PlayerParam *playerParam);
+
+    virtual ~BufferingController();
+
+    /**
+     * Start over as a new playback, which buffers before the first frame.
+     */
+    void reset();
+
+    /**
+     * The queues were flushed by a seek, the next buffering uses the startup threshold.
+     */
+    void onSeek();
+
+    /**
+     * @param bytes      bytes of all packet queues
+     * @param durationMs the shortest buffered duration of streams, -1 if unknown
+     * @param empty      whether a packet queue has run empty
+     * @param full       whether reading ahead has reached the high watermark
+     * @param eof        whether demuxer has reached the end
+     */
+    BufferingEvent update(int64_t bytes, int durationMs, bool empty, bool full, bool eof);
+
+    bool isFull(int64_t bytes) const;
+
+    bool isBuffering() const;
+
+    /**
+     * Progress to the end of current buffering, in [0, 100].
+     */
+    int getPercent() const;
+
+    bool isRebuffering() const;
+
+};
+
+#endif //BUFFERINGCONTROLLER_H
@@ -0,0 +1,90 @@
+
+#include "KeyFrameIndex.h"
+#include <algorithm>
+
+KeyFrameIndex::KeyFrameIndex() {
+    m_stream      = nullptr;
+    m_importCount = 0;
+}
+
+KeyFrameIndex::~KeyFrameIndex() {
+    clear();
+}
+
+void KeyFrameIndex::load(AVStream *stream) {
+    if (!stream) {
+        return;
+    }
+    if (stream != m_stream) {
+        clear();
+        m_stream = stream;
+    }
+    int count = avformat_index_get_entries_count(stream);
+    if (count <= m_importCount) {
+        return;
+    }
+    int64_t startTime = stream->start_time != AV_NOPTS_VALUE ? stream->start_time : 0;
+    for (int i = m_importCount; i < count; ++i) {
+        const AVIndexEntry *entry = avformat_index_get_entry(stream, i);
+        if (entry && (entry->flags & AVINDEX_KEYFRAME) && entry->timestamp != AV_NOPTS_VALUE) {
+            add(av_rescale_q(entry->timestamp - startTime, stream->time_base, AV_TIME_BASE_Q));
+        }
+    }
+    m_importCount = count;
+}
+
+void KeyFrameIndex::add(int64_t time) {
+    // 顺序播放时关键帧在末尾追加
+    if (m_keyFrames.empty() || time > m_keyFrames.back()) {
+        m_keyFrames.push_back(time);
+        return;
+    }
+    auto it = std::lower_bound(m_keyFrames.begin(), m_keyFrames.end(), time);
+    if (it == m_keyFrames.end() || *it != time) {
+        m_keyFrames.insert(it, time);
+    }
+}
+
+bool KeyFrameIndex::previous(int64_t time, int64_t *keyFrame) const {
+    auto it = std::upper_bound(m_keyFrames.begin(), m_keyFrames.end(), time);
+    if (it == m_keyFrames.begin()) {
+        return false;
+    }
+    *keyFrame = *(--it);
+    return true;
+}
+
+bool KeyFrameIndex::next(int64_t time, int64_t *keyFrame) const {
+    auto it = std::lower_bound(m_keyFrames.begin(), m_keyFrames.end(), time);
+    if (it == m_keyFrames.end()) {
+        return false;
+    }
+    *keyFrame = *it;
+    return true;
+}
+
+bool KeyFrameIndex::closest(int64_t time, int64_t *keyFrame) const {
+    int64_t before, after;
+    bool hasBefore = previous(time, &before);
+    bool hasAfter  = next(time, &after);
+    if (hasBefore && hasAfter) {
+        *keyFrame = (time - before <= after - time) ? before : after;
+    } else if (hasBefore) {
+        *keyFrame = before;
+    } else if (hasAfter) {
+        *keyFrame = after;
+    } else {
+        return false;
+    }
+    return true;
+}
+
+int KeyFrameIndex::size() const {
+    return (int) m_keyFrames.size();
+}
+
+void KeyFrameIndex::clear() {
+    m_keyFrames.clear();
+    m_stream      = nullptr;
+    m_importCount = 0;
+}
@@ -0,0 +1,55 @@
+
+#ifndef KEYFRAMEINDEX_H
+#define KEYFRAMEINDEX_H
+
+#include <vector>
+#include <stdint.h>
+
+extern "C" {
+#include <libavformat/avformat.h>
+}
+
+/**
+ * Sorted timestamps(AV_TIME_BASE) of video keyframes, filled lazily with the
+ * index entries of demuxer and the keyframes seen while demuxing, so that
+ * looking up a keyframe for seeking is a binary search.
+ * It's only used on the read thread, so it isn't locked.
+ */
+class KeyFrameIndex {
+
+private:
+    AVStream *m_stream;
+    int m_importCount;
+    std::vector<int64_t> m_keyFrames;
+
+public:
+    KeyFrameIndex();
+
+    virtual ~KeyFrameIndex();
+
+    /**
+     * Import the index entries that demuxer has added since last time.
+     */
+    void load(AVStream *stream);
+
+    void add(int64_t time);
+
+    /**
+     * The last keyframe at or before time.
+     */
+    bool previous(int64_t time, int64_t *keyFrame) const;
+
+    /**
+     * The first keyframe at or after time.
+     */
+    bool next(int64_t time, int64_t *keyFrame) const;
+
+    bool closest(int64_t time, int64_t *keyFrame) const;
+
+    int size() const;
+
+    void clear();
+
+};
+
+#endif //KEYFRAMEINDEX_H
@@ -1,6 +1,38 @@
 
 #include "MediaPlayer.h"
 
+// 所有播放器共用的码流信息缓存
+static Mutex s_streamInfoMutex;
+static StreamInfoCache *s_streamInfoCache = nullptr;
+static std::string s_streamInfoPath;
+// 缓存改动后先标记, 播放器reset时再写文件, 不在读线程上写
+static bool s_streamInfoDirty = false;
+// 写文件时只持有这个锁, 不阻塞其他播放器查询缓存. 先于s_streamInfoMutex加锁, 保证按序列化的顺序写
+static Mutex s_streamInfoFileMutex;
+
+static void saveStreamInfoCache() {
+    Mutex::AutoLock fileLock(s_streamInfoFileMutex);
+    std::string path;
+    std::string data;
+    {
+        Mutex::AutoLock lock(s_streamInfoMutex);
+        if (!s_streamInfoCache || !s_streamInfoDirty) {
+            return;
+        }
+        path = s_streamInfoPath;
+        data = s_streamInfoCache->serialize();
+        s_streamInfoDirty = false;
+    }
+    if (!StreamInfoCache::save(path, data)) {
+        av_log(nullptr, AV_LOG_WARNING, "save stream info cache error:%s\n", path.c_str());
+        // 下次再试
+        Mutex::AutoLock lock(s_streamInfoMutex);
+        if (s_streamInfoPath == path) {
+            s_streamInfoDirty = true;
+        }
+    }
+}
+
 MediaPlayer::MediaPlayer() {
     avformat_network_init();
     m_playerParam  = new PlayerParam();
@@ -15,6 +47,9 @@ MediaPlayer::MediaPlayer() {
     m_audioRender    = nullptr;
     m_audioResampler = nullptr;
     m_avSync = new AVSync(m_playerParam);
+    m_keyFrameIndex = new KeyFrameIndex();
+    m_bufferingController = new BufferingController(m_playerParam);
+    m_cacheDataSource = nullptr;
 }
 
 MediaPlayer::~MediaPlayer() {
@@ -67,11 +102,16 @@ void MediaPlayer::pause() {
 void MediaPlayer::resume() {
     Mutex::AutoLock lock(m_playerMutex);
     m_playerParam->m_pauseReq = 0;
-    m_avSync->updateClock(false);
+    // 缓冲结束之前时钟保持暂停
+    m_avSync->updateClock(m_playerParam->m_bufferingReq != 0);
     m_playerCond.signal();
 }
 
 void MediaPlayer::seekTo(long timeMs) {
+    seekTo(timeMs, SEEK_PREVIOUS_SYNC);
+}
+
+void MediaPlayer::seekTo(long timeMs, int seekMode) {
     if (m_duration <= 0)
         return;
     m_playerMutex.lock();
@@ -80,8 +120,12 @@ void MediaPlayer::seekTo(long timeMs) {
     }
     m_playerMutex.unlock();
 
+    if (seekMode < SEEK_PREVIOUS_SYNC || seekMode > SEEK_EXACT) {
+        seekMode = SEEK_PREVIOUS_SYNC;
+    }
     int64_t seek_time = av_rescale(timeMs, AV_TIME_BASE, 1000);
     m_playerParam->m_seekPos = seek_time;
+    m_playerParam->m_seekMode = (SeekMode) seekMode;
     m_playerParam->m_seekFlag &= ~AVSEEK_FLAG_BYTE;
     m_playerParam->m_seekRequest = 1;
     m_playerCond.signal();
@@ -107,6 +151,64 @@ void MediaPlayer::setRate(float rate) {
     m_playerMutex.unlock();
 }
 
+void MediaPlayer::setDecodeThreads(int threadType, int threadCount) {
+    Mutex::AutoLock lock(m_playerMutex);
+    if (threadType < DECODE_THREAD_AUTO || threadType > DECODE_THREAD_SLICE) {
+        threadType = DECODE_THREAD_AUTO;
+    }
+    m_playerParam->m_decodeThreadType  = (DecodeThreadType) threadType;
+    m_playerParam->m_decodeThreadCount = threadCount > 0 ? threadCount : 0;
+}
+
+void MediaPlayer::setBufferWatermarks(int64_t lowBytes, int64_t highBytes, int lowMs, int highMs) {
+    Mutex::AutoLock lock(m_playerMutex);
+    if (highBytes > 0) {
+        m_playerParam->m_bufferHighBytes = highBytes;
+    }
+    if (highMs > 0) {
+        m_playerParam->m_bufferHighMs = highMs;
+    }
+    // 低水位不能超过高水位, 否则缓冲永远结束不了
+    if (lowBytes >= 0) {
+        m_playerParam->m_bufferLowBytes = FFMIN(lowBytes, m_playerParam->m_bufferHighBytes);
+    }
+    if (lowMs > 0) {
+        m_playerParam->m_bufferLowMs = FFMIN(lowMs, m_playerParam->m_bufferHighMs);
+    }
+}
+
+void MediaPlayer::setStartupFast(bool enable, int startupMs) {
+    Mutex::AutoLock lock(m_playerMutex);
+    m_playerParam->m_startupFast = enable;
+    if (startupMs > 0) {
+        m_playerParam->m_startupMs = startupMs;
+    }
+}
+
+void MediaPlayer::setProbeOptions(int64_t probeSize, int64_t analyzeDurationUs, int fpsProbeSize, bool skipStreamInfo) {
+    Mutex::AutoLock lock(m_playerMutex);
+    m_playerParam->m_probeSize       = FFMAX(probeSize, 0);
+    m_playerParam->m_analyzeDuration = FFMAX(analyzeDurationUs, 0);
+    m_playerParam->m_fpsProbeSize    = FFMAX(fpsProbeSize, -1);
+    m_playerParam->m_skipStreamInfo  = skipStreamInfo;
+}
+
+void MediaPlayer::setStreamInfoCache(const char *path, int capacity) {
+    // 先写下旧缓存里还没保存的改动
+    saveStreamInfoCache();
+    Mutex::AutoLock lock(s_streamInfoMutex);
+    delete s_streamInfoCache;
+    s_streamInfoCache = nullptr;
+    s_streamInfoDirty = false;
+    s_streamInfoPath.clear();
+    if (path == nullptr || path[0] == '\0' || capacity <= 0) {
+        return;
+    }
+    s_streamInfoPath  = path;
+    s_streamInfoCache = new StreamInfoCache(capacity);
+    s_streamInfoCache->load(s_streamInfoPath);
+}
+
 int MediaPlayer::getRotate() {
     Mutex::AutoLock lock(m_playerMutex);
     if (m_videoDecoder) {
@@ -165,6 +267,141 @@ static int avformat_interrupt_cb(void *ctx) {
     return 0;
 }
 
+// 音视频流的编码参数是否完整, 完整时不用探测也能打开解码器和音频输出
+static bool hasCodecParams(AVFormatContext *ic) {
+    bool hasAV = false;
+    for (int i = 0; i < ic->nb_streams; ++i) {
+        AVCodecParameters *par = ic->streams[i]->codecpar;
+        if (par->codec_type == AVMEDIA_TYPE_VIDEO) {
+            if (par->codec_id == AV_CODEC_ID_NONE || par->width <= 0 || par->height <= 0)
+                return false;
+            hasAV = true;
+        } else if (par->codec_type == AVMEDIA_TYPE_AUDIO) {
+            if (par->codec_id == AV_CODEC_ID_NONE || par->sample_rate <= 0 || par->ch_layout.nb_channels <= 0)
+                return false;
+            hasAV = true;
+        }
+    }
+    return hasAV;
+}
+
+static void collectStreamInfo(AVFormatContext *ic, MediaStreamInfo *info) {
+    info->formatName  = ic->iformat->name;
+    info->durationUs  = ic->duration;
+    info->startTimeUs = ic->start_time;
+    info->streams.resize(ic->nb_streams);
+    for (int i = 0; i < ic->nb_streams; ++i) {
+        AVStream *st = ic->streams[i];
+        AVCodecParameters *par = st->codecpar;
+        StreamInfo &stream = info->streams[i];
+        stream.codecType    = par->codec_type;
+        stream.codecId      = par->codec_id;
+        stream.format       = par->format;
+        stream.width        = par->width;
+        stream.height       = par->height;
+        stream.sampleRate   = par->sample_rate;
+        stream.channels     = par->ch_layout.nb_channels;
+        stream.bitRate      = par->bit_rate;
+        stream.frameRateNum = st->avg_frame_rate.num;
+        stream.frameRateDen = st->avg_frame_rate.den;
+        stream.extradata.assign(par->extradata, par->extradata + par->extradata_size);
+    }
+}
+
+// 流的数量和编码器都一致时, 用缓存补齐头里缺少的参数
+static bool applyStreamInfo(AVFormatContext *ic, const MediaStreamInfo &info) {
+    if (info.formatName != ic->iformat->name || info.streams.size() != ic->nb_streams) {
+        return false;
+    }
+    for (int i = 0; i < ic->nb_streams; ++i) {
+        AVCodecParameters *par = ic->streams[i]->codecpar;
+        if (par->codec_type != info.streams[i].codecType || par->codec_id != info.streams[i].codecId) {
+            return false;
+        }
+    }
+    for (int i = 0; i < ic->nb_streams; ++i) {
+        AVStream *st = ic->streams[i];
+        AVCodecParameters *par = st->codecpar;
+        const StreamInfo &stream = info.streams[i];
+        if (par->format < 0)
+            par->format = stream.format;
+        if (par->width <= 0 || par->height <= 0) {
+            par->width  = stream.width;
+            par->height = stream.height;
+        }
+        if (par->sample_rate <= 0)
+            par->sample_rate = stream.sampleRate;
+        if (par->ch_layout.nb_channels <= 0 && stream.channels > 0)
+            av_channel_layout_default(&par->ch_layout, stream.channels);
+        if (par->bit_rate <= 0)
+            par->bit_rate = stream.bitRate;
+        if (st->avg_frame_rate.num == 0 && stream.frameRateDen > 0) {
+            st->avg_frame_rate = (AVRational) {stream.frameRateNum, stream.frameRateDen};
+            st->r_frame_rate   = st->avg_frame_rate;
+        }
+        if (par->extradata_size == 0 && !stream.extradata.empty()) {
+            par->extradata = (uint8_t *) av_mallocz(stream.extradata.size() + AV_INPUT_BUFFER_PADDING_SIZE);
+            if (par->extradata) {
+                memcpy(par->extradata, stream.extradata.data(), stream.extradata.size());
+                par->extradata_size = (int) stream.extradata.size();
+            }
+        }
+    }
+    if (ic->duration == AV_NOPTS_VALUE)
+        ic->duration = info.durationUs;
+    if (ic->start_time == AV_NOPTS_VALUE)
+        ic->start_time = info.startTimeUs;
+    return hasCodecParams(ic);
+}
+
+// 不探测时, 用各个流的时长估算总时长
+static void guessDuration(AVFormatContext *ic) {
+    if (ic->duration > 0)
+        return;
+    for (int i = 0; i < ic->nb_streams; ++i) {
+        AVStream *st = ic->streams[i];
+        if (st->duration != AV_NOPTS_VALUE && st->duration > 0) {
+            ic->duration = FFMAX(ic->duration, av_rescale_q(st->duration, st->time_base, AV_TIME_BASE_Q));
+        }
+    }
+}
+
+/**
+ * Probe the streams, unless the cached stream info or the header is enough.
+ * @return true if the cached stream info is used
+ */
+bool MediaPlayer::findStreamInfo(AVFormatContext *ic) {
+    const char *url = m_playerParam->url;
+    MediaStreamInfo info;
+    bool cached = false;
+    {
+        Mutex::AutoLock lock(s_streamInfoMutex);
+        cached = s_streamInfoCache && s_streamInfoCache->get(url, &info);
+    }
+    if (cached && applyStreamInfo(ic, info)) {
+        av_log(nullptr, AV_LOG_INFO, "skip probing with cached stream info\n");
+        return true;
+    }
+    if (m_playerParam->m_skipStreamInfo && hasCodecParams(ic)) {
+        av_log(nullptr, AV_LOG_INFO, "skip probing, header of %s is complete\n", ic->iformat->name);
+        guessDuration(ic);
+        return false;
+    }
+    int64_t start = av_gettime_relative();
+    avformat_find_stream_info(ic, nullptr);
+    av_log(nullptr, AV_LOG_INFO, "find stream info cost=%lldms\n",
+           (long long) (av_gettime_relative() - start) / 1000);
+    if (hasCodecParams(ic)) {
+        collectStreamInfo(ic, &info);
+        Mutex::AutoLock lock(s_streamInfoMutex);
+        if (s_streamInfoCache) {
+            s_streamInfoCache->put(url, info);
+            s_streamInfoDirty = true;
+        }
+    }
+    return false;
+}
+
 FFMessageQueue *MediaPlayer::getMessageQueue() {
     Mutex::AutoLock lock(m_playerMutex);
     return m_playerParam->m_messageQueue;
@@ -205,6 +442,8 @@ void MediaPlayer::stop() {
 
 int MediaPlayer::reset() {
     stop();
+    // 读线程已经退出, 在这里保存它探测到的码流信息
+    saveStreamInfoCache();
     if (m_avSync) {
         m_avSync->reset();
         delete m_avSync;
@@ -212,6 +451,10 @@ int MediaPlayer::reset() {
     }
     if (m_audioDecoder != nullptr) {
         m_audioDecoder->stop();
+        // 重采样线程在用解码器, 先停止
+        if (m_audioResampler) {
+            m_audioResampler->stop();
+        }
         delete m_audioDecoder;
         m_audioDecoder = nullptr;
     }
@@ -229,11 +472,24 @@ int MediaPlayer::reset() {
         delete m_audioResampler;
         m_audioResampler = nullptr;
     }
+    if (m_keyFrameIndex) {
+        delete m_keyFrameIndex;
+        m_keyFrameIndex = nullptr;
+    }
+    if (m_bufferingController) {
+        delete m_bufferingController;
+        m_bufferingController = nullptr;
+    }
     if (m_playerParam) {
         if (m_playerParam->m_formatCtx != nullptr) {
             avformat_close_input(&m_playerParam->m_formatCtx);
             m_playerParam->m_formatCtx = nullptr;
         }
+        // 自定义的pb不会被avformat_close_input释放
+        if (m_cacheDataSource) {
+            delete m_cacheDataSource;
+            m_cacheDataSource = nullptr;
+        }
         delete m_playerParam;
         m_playerParam = nullptr;
     }
@@ -247,11 +503,56 @@ void MediaPlayer::startAudioRender(PlayerParam *playerParam) {
         if (ret < 0) {
             closeDecoder(m_playerParam->m_audioIndex);
         } else {
+            m_audioResampler->start();
             m_audioRender->start();
         }
     }
 }
 
+// 设置视频解码线程, 需要在avcodec_open2之前
+void MediaPlayer::setupDecodeThreads(AVCodecContext *codecContext) {
+    switch (m_playerParam->m_decodeThreadType) {
+        case DECODE_THREAD_FRAME:
+            codecContext->thread_type = FF_THREAD_FRAME;
+            break;
+        case DECODE_THREAD_SLICE:
+            codecContext->thread_type = FF_THREAD_SLICE;
+            break;
+        case DECODE_THREAD_AUTO:
+        default:
+            // 解码器支持帧线程时优先使用, 否则用slice线程
+            codecContext->thread_type = FF_THREAD_FRAME | FF_THREAD_SLICE;
+            break;
+    }
+    codecContext->thread_count = m_playerParam->m_decodeThreadCount;
+}
+
+// 根据seek模式确定目标时间和上限, 单位是AV_TIME_BASE
+void MediaPlayer::resolveSeekTarget(int64_t *target, int64_t *maxTarget) {
+    int64_t keyFrame;
+    AVStream *stream = m_playerParam->m_videoStream;
+    if (!stream || (m_playerParam->m_seekFlag & AVSEEK_FLAG_BYTE)) {
+        return;
+    }
+    m_keyFrameIndex->load(stream);
+    switch (m_playerParam->m_seekMode) {
+        case SEEK_CLOSEST_SYNC:
+            if (m_keyFrameIndex->closest(*target, &keyFrame)) {
+                *target = keyFrame;
+            }
+            break;
+        case SEEK_EXACT:
+        case SEEK_PREVIOUS_SYNC:
+        default:
+            // 从目标之前的关键帧开始解码
+            *maxTarget = *target;
+            if (m_keyFrameIndex->previous(*target, &keyFrame)) {
+                *target = keyFrame;
+            }
+            break;
+    }
+}
+
 // 打开解码器
 int MediaPlayer::openDecoder(int streamIndex) {
     int ret;
@@ -273,6 +574,9 @@ int MediaPlayer::openDecoder(int streamIndex) {
             ret = AVERROR(EINVAL);
             break;
         }
+        if (codecContext->codec_type == AVMEDIA_TYPE_VIDEO) {
+            setupDecodeThreads(codecContext);
+        }
         // 打开对应的解码器
         if ((ret = avcodec_open2(codecContext, codec, nullptr)) < 0) {
             break;
@@ -325,12 +629,15 @@ void MediaPlayer::closeDecoder(int streamIndex) {
                 delete m_audioRender;
                 m_audioRender = nullptr;
             }
+            if (m_audioDecoder) {
+                m_audioDecoder->stop();
+            }
+            // 解码器停止后重采样线程才能退出
             if (m_audioResampler) {
                 delete m_audioResampler;
                 m_audioResampler = nullptr;
             }
             if (m_audioDecoder) {
-                m_audioDecoder->stop();
                 delete m_audioDecoder;
                 m_audioDecoder = nullptr;
             }
@@ -431,6 +738,70 @@ void MediaPlayer::pcmCallback(uint8_t *stream, int len) {
     m_audioResampler->pcmQueueCallback(stream, len);
 }
 
+// 根据packet队列的水位更新缓冲状态, 返回预读是否已经到达高水位
+bool MediaPlayer::updateBuffering() {
+    int64_t bytes = 0;
+    int durationMs = -1;
+    bool empty = false;
+    bool full;
+    int highMs = m_playerParam->m_bufferHighMs;
+    MediaDecoder *decoders[] = {m_audioDecoder, m_videoDecoder};
+    AVStream *streams[] = {m_playerParam->m_audioStream, m_playerParam->m_videoStream};
+
+    for (int i = 0; i < 2; i++) {
+        if (!decoders[i] || !streams[i] || (streams[i]->disposition & AV_DISPOSITION_ATTACHED_PIC)) {
+            continue;
+        }
+        bytes += decoders[i]->getMemorySize();
+        if (decoders[i]->getPacketSize() == 0) {
+            empty = true;
+        }
+        // 取各路流里最短的缓冲时长
+        int duration = decoders[i]->getBufferedDuration(streams[i]);
+        if (duration >= 0 && (durationMs < 0 || duration < durationMs)) {
+            durationMs = duration;
+        }
+    }
+    full = m_bufferingController->isFull(bytes)
+           || ((!m_audioDecoder || m_audioDecoder->hasEnoughPackets(m_playerParam->m_audioStream, highMs))
+               && (!m_videoDecoder || m_videoDecoder->hasEnoughPackets(m_playerParam->m_videoStream, highMs)));
+
+    int lastPercent = m_bufferingController->getPercent();
+    switch (m_bufferingController->update(bytes, durationMs, empty, full, m_eof != 0)) {
+        case BUFFERING_START:
+            m_playerMutex.lock();
+            m_playerParam->m_bufferingReq = 1;
+            if (!m_playerParam->m_pauseReq) {
+                m_avSync->updateClock(true);
+            }
+            m_playerMutex.unlock();
+            m_playerParam->m_messageQueue->sendMessage(MSG_BUFFERING_START,
+                                                       m_bufferingController->isRebuffering() ? 1 : 0);
+            break;
+        case BUFFERING_END:
+            m_playerMutex.lock();
+            m_playerParam->m_bufferingReq = 0;
+            if (!m_playerParam->m_pauseReq) {
+                m_avSync->updateClock(false);
+            }
+            m_avSync->refreshVideoTimer();
+            m_playerCond.signal();
+            m_playerMutex.unlock();
+            m_playerParam->m_messageQueue->sendMessageCoalesced(MSG_BUFFERING_UPDATE, 100, FFMAX(durationMs, 0));
+            m_playerParam->m_messageQueue->sendMessage(MSG_BUFFERING_END);
+            break;
+        case BUFFERING_NONE:
+        default:
+            if (m_bufferingController->isBuffering() && m_bufferingController->getPercent() != lastPercent) {
+                m_playerParam->m_messageQueue->sendMessageCoalesced(MSG_BUFFERING_UPDATE,
+                                                                    m_bufferingController->getPercent(),
+                                                                    FFMAX(durationMs, 0));
+            }
+            break;
+    }
+    return full;
+}
+
 static AVSyncType get_master_sync_type(int av_sync_type, AVStream *video_st, AVStream *audio_st) {
     if (av_sync_type == AV_SYNC_VIDEO) {
         if (video_st)
@@ -454,12 +825,34 @@ void MediaPlayer::run() {
 int MediaPlayer::readPackets() {
     int ret;
     AVFormatContext *ic;
+    bool streamInfoCached = false;
     m_playerMutex.lock();
     do {
         ic = avformat_alloc_context();
         m_playerParam->m_formatCtx = ic;
         ic->interrupt_callback.callback = avformat_interrupt_cb;
         ic->interrupt_callback.opaque = m_playerParam;
+        // 开启缓存时, 通过缓存文件读取网络流
+        if (MediaCache::getInstance()->isEnabled()) {
+            m_cacheDataSource = new CacheDataSource();
+            if (m_cacheDataSource->open(m_playerParam->url, &ic->interrupt_callback) == 0) {
+                ic->pb = m_cacheDataSource->getIOContext();
+                ic->flags |= AVFMT_FLAG_CUSTOM_IO;
+            } else {
+                delete m_cacheDataSource;
+                m_cacheDataSource = nullptr;
+            }
+        }
+        // 限制探测的数据量和时长, 加快起播
+        if (m_playerParam->m_probeSize > 0) {
+            ic->probesize = m_playerParam->m_probeSize;
+        }
+        if (m_playerParam->m_analyzeDuration > 0) {
+            ic->max_analyze_duration = m_playerParam->m_analyzeDuration;
+        }
+        if (m_playerParam->m_fpsProbeSize >= 0) {
+            ic->fps_probe_size = m_playerParam->m_fpsProbeSize;
+        }
         // 打开输入流
         ret = avformat_open_input(&ic, m_playerParam->url, nullptr, nullptr);
         if (ret < 0) {
@@ -467,7 +860,7 @@ int MediaPlayer::readPackets() {
             break;
         }
         // 查找码流信息
-        avformat_find_stream_info(ic, nullptr);
+        streamInfoCached = findStreamInfo(ic);
         // 获取时长
         if (ic->duration > 0) {
             m_duration = av_rescale(ic->duration, 1000, AV_TIME_BASE);
@@ -505,6 +898,14 @@ int MediaPlayer::readPackets() {
     m_playerMutex.unlock();
     // 打开输入流或者打开解码器失败
     if (ret < 0) {
+        // 缓存的码流信息可能已经过期, 下次重新探测
+        if (streamInfoCached) {
+            Mutex::AutoLock lock(s_streamInfoMutex);
+            if (s_streamInfoCache) {
+                s_streamInfoCache->remove(m_playerParam->url);
+                s_streamInfoDirty = true;
+            }
+        }
         m_exitPlay = true;
         m_playerCond.signal();
         const char* msg = "open input or open decoder error!";
@@ -533,6 +934,7 @@ int MediaPlayer::readPackets() {
 
     ret = 0;
     m_eof = 0;
+    m_bufferingController->reset();
     int64_t  pktTime;
     bool playInRange;
     bool waitSeek = false;
@@ -556,36 +958,66 @@ int MediaPlayer::readPackets() {
             int64_t seek_target = m_playerParam->m_seekPos;
             int64_t seek_min = INT64_MIN;
             int64_t seek_max = INT64_MAX;
+            int64_t start_time = ic->start_time != AV_NOPTS_VALUE ? ic->start_time : 0;
+            // 按照seek模式, 从关键帧索引找到目标关键帧
+            resolveSeekTarget(&seek_target, &seek_max);
             m_playerParam->m_playMutex.lock();
-            ret = avformat_seek_file(ic, -1, seek_min, seek_target, seek_max, m_playerParam->m_seekFlag);
+            ret = avformat_seek_file(ic, -1, seek_min, seek_target + start_time,
+                                     seek_max == INT64_MAX ? seek_max : seek_max + start_time,
+                                     m_playerParam->m_seekFlag);
+            if (ret < 0 && seek_max != INT64_MAX) {
+                // 目标之前没有关键帧, 不限制范围再试一次
+                ret = avformat_seek_file(ic, -1, seek_min, seek_target + start_time,
+                                         INT64_MAX, m_playerParam->m_seekFlag);
+            }
             m_playerParam->m_playMutex.unlock();
             if (ret < 0) {
                 av_log(nullptr, AV_LOG_ERROR, "seek file error:%s", strerror(ret));
             } else {
+                // 精确seek需要在清空队列之前设置, 解码器按照新的序列使用
+                if (m_playerParam->m_seekMode == SEEK_EXACT && !(m_playerParam->m_seekFlag & AVSEEK_FLAG_BYTE)) {
+                    m_playerParam->m_exactSeekPos = m_playerParam->m_seekPos + start_time;
+                } else {
+                    m_playerParam->m_exactSeekPos = AV_NOPTS_VALUE;
+                }
                 // 清空解码缓冲区
                 if (m_videoDecoder)
                     m_videoDecoder->flush();
                 if (m_audioDecoder)
                     m_audioDecoder->flush();
+                if (m_audioResampler)
+                    m_audioResampler->flush();
                 // 更新时钟
                 if (m_playerParam->m_seekFlag & AVSEEK_FLAG_BYTE) {
                     m_avSync->updateExternalClock(NAN);
+                } else if (m_playerParam->m_seekMode == SEEK_EXACT) {
+                    m_avSync->updateExternalClock((double)(m_playerParam->m_seekPos + start_time) / AV_TIME_BASE);
                 } else {
-                    m_avSync->updateExternalClock((double)seek_target / AV_TIME_BASE);
+                    m_avSync->updateExternalClock((double)(seek_target + start_time) / AV_TIME_BASE);
                 }
                 m_avSync->refreshVideoTimer();
+                if (m_playerParam->m_seekMode != SEEK_EXACT) {
+                    m_playerParam->m_seekPos = seek_target;
+                }
+                // 队列清空导致的缓冲不算卡顿, 阈值重新从起播开始
+                m_bufferingController->onSeek();
+                waitSeek = false;
             }
             m_playerParam->m_seekRequest = 0;
             m_playerCond.signal();
             m_eof = 0;
             if (m_playerParam->m_messageQueue) {
-                int seekTime = (int) av_rescale(seek_target, 1000, AV_TIME_BASE);
+                int seekTime = (int) av_rescale(m_playerParam->m_seekPos, 1000, AV_TIME_BASE);
                 m_playerParam->m_messageQueue->sendMessage(MSG_SEEK_COMPLETE, seekTime, ret);
             }
         }
-        // 判断packet队列是否缓冲满
-        if ((!m_audioDecoder || m_audioDecoder->hasEnoughPackets(m_playerParam->m_audioStream))
-            && (!m_videoDecoder || m_videoDecoder->hasEnoughPackets(m_playerParam->m_videoStream))) {
+        // 更新缓冲状态, 预读到达高水位时等待消费, seek会唤醒
+        if (updateBuffering()) {
+            m_playerMutex.lock();
+            if (!m_playerParam->m_abortReq && !m_playerParam->m_seekRequest) {
+                m_playerCond.waitRelative(m_playerMutex, 10 * 1000000);
+            }
+            m_playerMutex.unlock();
             continue;
         }
         if (!waitSeek) {
@@ -617,6 +1049,12 @@ int MediaPlayer::readPackets() {
         streamStartTime = ic->streams[pkt->stream_index]->start_time;
         int64_t startTime = streamStartTime != AV_NOPTS_VALUE ? streamStartTime : 0;
         pktTime = pkt->pts == AV_NOPTS_VALUE ? pkt->dts : pkt->pts;
+        // 记录读到的视频关键帧
+        if (pkt->stream_index == m_playerParam->m_videoIndex && (pkt->flags & AV_PKT_FLAG_KEY)
+            && pktTime != AV_NOPTS_VALUE) {
+            m_keyFrameIndex->add(av_rescale_q(pktTime - startTime,
+                                              ic->streams[pkt->stream_index]->time_base, AV_TIME_BASE_Q));
+        }
         // 是否处于可播放范围
         playInRange = m_playerParam->m_duration == AV_NOPTS_VALUE || (double)(pktTime - startTime) * av_q2d(ic->streams[pkt->stream_index]->time_base)
                         - (double)(m_playerParam->m_startTime != AV_NOPTS_VALUE ? m_playerParam->m_startTime : 0)/1000000
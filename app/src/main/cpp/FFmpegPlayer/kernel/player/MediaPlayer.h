@@ -14,6 +14,10 @@
 #include <android/native_window_jni.h>
 #include <avsync/AVSync.h>
 #include <resample/AudioResampler.h>
+#include <player/KeyFrameIndex.h>
+#include <player/BufferingController.h>
+#include <cache/CacheDataSource.h>
+#include <cache/StreamInfoCache.h>
 
 class MediaPlayer : public Runnable {
 
@@ -35,14 +39,25 @@ private:
     AVSync *m_avSync;
     AudioRender *m_audioRender;
     AudioResampler *m_audioResampler;
+    KeyFrameIndex *m_keyFrameIndex;
+    BufferingController *m_bufferingController;
+    CacheDataSource *m_cacheDataSource;
 
 private:
     int readPackets();
 
     int openDecoder(int streamIndex);
 
+    void setupDecodeThreads(AVCodecContext *codecContext);
+
+    void resolveSeekTarget(int64_t *target, int64_t *maxTarget);
+
     void closeDecoder(int streamIndex);
 
+    bool findStreamInfo(AVFormatContext *ic);
+
+    bool updateBuffering();
+
     int openAudioRender(AVChannelLayout layout, int wanted_sample_rate);
 
     void startAudioRender(PlayerParam *playerParam);
@@ -72,12 +87,34 @@ public:
 
     void seekTo(long timeMs);
 
+    void seekTo(long timeMs, int seekMode);
+
     void setVolume(float volume);
 
     void setMute(int mute);
 
     void setRate(float rate);
 
+    void setDecodeThreads(int threadType, int threadCount);
+
+    void setBufferWatermarks(int64_t lowBytes, int64_t highBytes, int lowMs, int highMs);
+
+    void setStartupFast(bool enable, int startupMs);
+
+    /**
+     * @param probeSize         max bytes to probe, 0 means default
+     * @param analyzeDurationUs max duration to analyze, 0 means default
+     * @param fpsProbeSize      frames to probe frame rate, -1 means default
+     * @param skipStreamInfo    skip probing when the header has complete codec parameters
+     */
+    void setProbeOptions(int64_t probeSize, int64_t analyzeDurationUs, int fpsProbeSize, bool skipStreamInfo);
+
+    /**
+     * Remember probed stream info by url in a file, shared by all players.
+     * @param path null or empty disables the cache
+     */
+    static void setStreamInfoCache(const char *path, int capacity);
+
     int getRotate();
 
     int getVideoWidth();
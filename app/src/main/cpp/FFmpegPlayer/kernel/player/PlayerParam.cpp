@@ -29,6 +29,8 @@ void PlayerParam::init() {
 
     m_mute = 0;
     m_seekPos = 0;
+    m_seekMode = SEEK_PREVIOUS_SYNC;
+    m_exactSeekPos = AV_NOPTS_VALUE;
     m_seekFlag = 0;
     m_frameDrop = 1;
     m_seekRequest = 0;
@@ -46,4 +48,17 @@ void PlayerParam::init() {
     m_duration = AV_NOPTS_VALUE;
     m_startTime = AV_NOPTS_VALUE;
     m_firstVideoFrame = false;
+    m_decodeThreadType  = DECODE_THREAD_AUTO;
+    m_decodeThreadCount = 0;
+    m_bufferingReq    = 0;
+    m_bufferLowBytes  = BUFFER_LOW_BYTES;
+    m_bufferHighBytes = BUFFER_HIGH_BYTES;
+    m_bufferLowMs     = BUFFER_LOW_MS;
+    m_bufferHighMs    = BUFFER_HIGH_MS;
+    m_startupFast     = false;
+    m_startupMs       = BUFFER_STARTUP_MS;
+    m_probeSize       = 0;
+    m_analyzeDuration = 0;
+    m_fpsProbeSize    = -1;
+    m_skipStreamInfo  = false;
 }
@@ -25,10 +25,21 @@ extern "C" {
 #define MAX_QUEUE_SIZE (15 * 1024 * 1024)
 #define MIN_FRAMES 25
 
+// 缓冲水位的默认值: 低水位是卡顿后恢复播放的阈值, 高水位是预读的上限
+#define BUFFER_LOW_BYTES  (2 * 1024 * 1024)
+#define BUFFER_HIGH_BYTES MAX_QUEUE_SIZE
+#define BUFFER_LOW_MS     1000
+#define BUFFER_HIGH_MS    3000
+// 快速起播时, 首次缓冲到这个时长就开始播放
+#define BUFFER_STARTUP_MS 300
+
 #define AUDIO_MIN_BUFFER_SIZE 512
 
 #define AUDIO_MAX_CALLBACKS_PER_SEC 30
 
+// 重采样线程在pcm环形缓冲里预先准备的音频时长
+#define AUDIO_RING_LATENCY_MS 120
+
 #define REFRESH_RATE 0.01
 
 #define AV_SYNC_THRESHOLD_MIN 0.04
@@ -60,6 +71,18 @@ typedef enum {
     AV_SYNC_EXTERNAL
 } AVSyncType;
 
+typedef enum {
+    DECODE_THREAD_AUTO  = 0,
+    DECODE_THREAD_FRAME = 1,
+    DECODE_THREAD_SLICE = 2
+} DecodeThreadType;
+
+typedef enum {
+    SEEK_PREVIOUS_SYNC = 0,
+    SEEK_CLOSEST_SYNC  = 1,
+    SEEK_EXACT         = 2
+} SeekMode;
+
 struct AVDictionary {
     int count;
     AVDictionaryEntry *elements;
@@ -108,6 +131,9 @@ public:
     int m_seekFlag;
     int m_seekRequest;
     int64_t m_seekPos;
+    SeekMode m_seekMode;
+    // 精确seek的目标时间(AV_TIME_BASE), 之前的帧解码后直接丢弃
+    int64_t m_exactSeekPos;
     float m_playbackRate;
 
     bool m_firstVideoFrame;
@@ -115,6 +141,31 @@ public:
     int m_mute;
     int m_frameDrop;
     int m_reorderVideoPts;
+
+    // 视频解码线程: 类型和线程数, 线程数为0时由FFmpeg按cpu核数决定
+    DecodeThreadType m_decodeThreadType;
+    int m_decodeThreadCount;
+
+    // 正在缓冲, 渲染和时钟暂停, 但是继续读取数据
+    int m_bufferingReq;
+    int64_t m_bufferLowBytes;
+    int64_t m_bufferHighBytes;
+    int m_bufferLowMs;
+    int m_bufferHighMs;
+    bool m_startupFast;
+    int m_startupMs;
+
+    // 探测参数, 0或-1表示使用FFmpeg默认值
+    int64_t m_probeSize;
+    int64_t m_analyzeDuration;
+    int m_fpsProbeSize;
+    // 封装头里的编码参数已经完整时, 跳过avformat_find_stream_info
+    bool m_skipStreamInfo;
+
+    // user pause or buffering, the render side stops consuming
+    bool isRenderPaused() const {
+        return m_pauseReq || m_bufferingReq;
+    }
 };
 
 #endif //PLAYERPARAM_H
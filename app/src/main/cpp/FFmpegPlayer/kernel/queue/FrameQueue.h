@@ -19,6 +19,7 @@ typedef struct Frame {
     int width;
     int height;
     int format;
+    int serial;
     int uploaded;
 } Frame;
 
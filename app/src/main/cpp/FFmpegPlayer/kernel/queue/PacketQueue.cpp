@@ -6,13 +6,36 @@ PacketQueue::PacketQueue() {
     duration = 0;
     nb_packets = 0;
     abort_request = 0;
-    last_pkt = nullptr;
-    first_pkt = nullptr;
+    serial = 0;
+    rindex = 0;
+    capacity = PACKET_QUEUE_INIT_CAPACITY;
+    nodes = (PacketList *) av_calloc(capacity, sizeof(PacketList));
+    if (!nodes) {
+        capacity = 0;
+    }
 }
 
 PacketQueue::~PacketQueue() {
     abort();
     flush();
+    av_freep(&nodes);
+}
+
+// 节点用完时扩容一倍, 按顺序搬到新数组的开头
+int PacketQueue::grow() {
+    int newCapacity = capacity > 0 ? capacity * 2 : PACKET_QUEUE_INIT_CAPACITY;
+    auto *newNodes = (PacketList *) av_calloc(newCapacity, sizeof(PacketList));
+    if (!newNodes) {
+        return -1;
+    }
+    for (int i = 0; i < nb_packets; i++) {
+        newNodes[i] = nodes[(rindex + i) % capacity];
+    }
+    av_freep(&nodes);
+    nodes    = newNodes;
+    capacity = newCapacity;
+    rindex   = 0;
+    return 0;
 }
 
 int PacketQueue::put(AVPacket *pkt) {
@@ -21,20 +44,14 @@ int PacketQueue::put(AVPacket *pkt) {
     if (abort_request) {
         return -1;
     }
-
-    pkt1 = (PacketList *) av_malloc(sizeof(PacketList));
-    if (!pkt1) {
+    if (nb_packets >= capacity && grow() < 0) {
         return -1;
     }
-    pkt1->pkt  = *pkt;
-    pkt1->next = nullptr;
 
-    if (!last_pkt) {
-        first_pkt = pkt1;
-    } else {
-        last_pkt->next = pkt1;
-    }
-    last_pkt = pkt1;
+    pkt1 = &nodes[(rindex + nb_packets) % capacity];
+    av_packet_move_ref(&pkt1->pkt, pkt);
+    pkt1->serial = serial;
+
     nb_packets++;
     size += pkt1->pkt.size + sizeof(*pkt1);
     duration += pkt1->pkt.duration;
@@ -56,19 +73,16 @@ int PacketQueue::pushPacket(AVPacket *pkt) {
 }
 
 void PacketQueue::flush() {
-    PacketList *pkt, *pkt1;
-
     mMutex.lock();
-    for (pkt = first_pkt; pkt; pkt = pkt1) {
-        pkt1 = pkt->next;
-        av_packet_unref(&pkt->pkt);
-        av_freep(&pkt);
+    for (int i = 0; i < nb_packets; i++) {
+        av_packet_unref(&nodes[(rindex + i) % capacity].pkt);
     }
     size = 0;
     duration = 0;
     nb_packets = 0;
-    last_pkt = nullptr;
-    first_pkt = nullptr;
+    rindex = 0;
+    // 之后入队的packet属于新的序列
+    serial++;
     mCondition.signal();
     mMutex.unlock();
 }
@@ -85,6 +99,10 @@ int PacketQueue::getPacket(AVPacket *pkt) {
 }
 
 int PacketQueue::getPacket(AVPacket *pkt, int block) {
+    return getPacket(pkt, block, nullptr);
+}
+
+int PacketQueue::getPacket(AVPacket *pkt, int block, int *pkt_serial) {
     PacketList *pkt1;
     int ret;
 
@@ -95,17 +113,16 @@ int PacketQueue::getPacket(AVPacket *pkt, int block) {
             break;
         }
 
-        pkt1 = first_pkt;
-        if (pkt1) {
-            first_pkt = pkt1->next;
-            if (!first_pkt) {
-                last_pkt = nullptr;
-            }
+        if (nb_packets > 0) {
+            pkt1 = &nodes[rindex];
+            rindex = (rindex + 1) % capacity;
             nb_packets--;
             size -= pkt1->pkt.size + sizeof(*pkt1);
             duration -= pkt1->pkt.duration;
-            *pkt = pkt1->pkt;
-            av_free(pkt1);
+            av_packet_move_ref(pkt, &pkt1->pkt);
+            if (pkt_serial) {
+                *pkt_serial = pkt1->serial;
+            }
             ret = 1;
             break;
         } else if (!block) {
@@ -124,6 +141,11 @@ int PacketQueue::getPacketSize() {
     return nb_packets;
 }
 
+int PacketQueue::getSerial() {
+    Mutex::AutoLock lock(mMutex);
+    return serial;
+}
+
 int PacketQueue::getSize() const {
     return size;
 }
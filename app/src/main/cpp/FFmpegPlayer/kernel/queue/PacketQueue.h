@@ -2,7 +2,6 @@
 #ifndef FFPLAYER_PACKETQUEUE_H
 #define FFPLAYER_PACKETQUEUE_H
 
-#include <queue>
 #include <Mutex.h>
 #include <Condition.h>
 
@@ -10,11 +9,17 @@ extern "C" {
 #include <libavcodec/avcodec.h>
 }
 
+#define PACKET_QUEUE_INIT_CAPACITY 128
+
 typedef struct PacketList {
     AVPacket pkt;
-    struct PacketList *next;
+    int serial;
 } PacketList;
 
+/**
+ * Packets are kept in a ring of nodes that is allocated up front and
+ * recycled, it only grows when the queue gets deeper than ever before.
+ */
 class PacketQueue {
 private:
     Mutex mMutex;
@@ -24,7 +29,13 @@ private:
     int nb_packets;
     int64_t duration;
     int abort_request;
-    PacketList *first_pkt, *last_pkt;
+    int serial;
+
+    PacketList *nodes;
+    int capacity;
+    int rindex;
+
+    int grow();
 
     int put(AVPacket *pkt);
 
@@ -43,6 +54,14 @@ public:
 
     int getPacket(AVPacket *pkt, int block);
 
+    /**
+     * Get a packet and the serial it was queued with, packets queued
+     * before the last flush have an old serial and should be dropped.
+     */
+    int getPacket(AVPacket *pkt, int block, int *pkt_serial);
+
+    int getSerial();
+
     int getPacketSize();
 
     int getSize() const;
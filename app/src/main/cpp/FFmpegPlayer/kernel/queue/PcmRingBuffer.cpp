@@ -0,0 +1,96 @@
+#include "PcmRingBuffer.h"
+
+#include <cstring>
+
+PcmRingBuffer::PcmRingBuffer(int minCapacity) {
+    m_capacity = 1;
+    while (m_capacity < (uint32_t) minCapacity) {
+        m_capacity <<= 1;
+    }
+    m_mask   = m_capacity - 1;
+    m_buffer = new uint8_t[m_capacity];
+    memset(m_buffer, 0, m_capacity);
+    m_readPos    = 0;
+    m_writePos   = 0;
+    m_discardPos = 0;
+}
+
+PcmRingBuffer::~PcmRingBuffer() {
+    delete[] m_buffer;
+    m_buffer = nullptr;
+}
+
+int PcmRingBuffer::capacity() const {
+    return (int) m_capacity;
+}
+
+int PcmRingBuffer::available() const {
+    return (int) (m_writePos.load(std::memory_order_acquire) - m_readPos.load(std::memory_order_acquire));
+}
+
+int PcmRingBuffer::space() const {
+    return (int) (m_capacity - (m_writePos.load(std::memory_order_relaxed)
+                                - m_readPos.load(std::memory_order_acquire)));
+}
+
+int PcmRingBuffer::write(const uint8_t *data, int len) {
+    uint32_t writePos = m_writePos.load(std::memory_order_relaxed);
+    int size = space();
+    if (len > size) {
+        len = size;
+    }
+    if (len <= 0) {
+        return 0;
+    }
+    uint32_t offset = writePos & m_mask;
+    uint32_t first  = m_capacity - offset;
+    if (first > (uint32_t) len) {
+        first = (uint32_t) len;
+    }
+    memcpy(m_buffer + offset, data, first);
+    memcpy(m_buffer, data + first, len - first);
+    // 数据拷贝完成后再发布写位置
+    m_writePos.store(writePos + len, std::memory_order_release);
+    return len;
+}
+
+void PcmRingBuffer::skipDiscarded() {
+    uint32_t readPos    = m_readPos.load(std::memory_order_relaxed);
+    uint32_t discardPos = m_discardPos.load(std::memory_order_acquire);
+    if ((int32_t) (discardPos - readPos) > 0) {
+        m_readPos.store(discardPos, std::memory_order_release);
+    }
+}
+
+int PcmRingBuffer::read(uint8_t *data, int len) {
+    skipDiscarded();
+    uint32_t readPos = m_readPos.load(std::memory_order_relaxed);
+    int size = (int) (m_writePos.load(std::memory_order_acquire) - readPos);
+    if (len > size) {
+        len = size;
+    }
+    if (len <= 0) {
+        return 0;
+    }
+    uint32_t offset = readPos & m_mask;
+    uint32_t first  = m_capacity - offset;
+    if (first > (uint32_t) len) {
+        first = (uint32_t) len;
+    }
+    memcpy(data, m_buffer + offset, first);
+    memcpy(data + first, m_buffer, len - first);
+    m_readPos.store(readPos + len, std::memory_order_release);
+    return len;
+}
+
+void PcmRingBuffer::discard() {
+    m_discardPos.store(m_writePos.load(std::memory_order_relaxed), std::memory_order_release);
+}
+
+uint32_t PcmRingBuffer::readPosition() const {
+    return m_readPos.load(std::memory_order_acquire);
+}
+
+uint32_t PcmRingBuffer::writePosition() const {
+    return m_writePos.load(std::memory_order_acquire);
+}
@@ -0,0 +1,73 @@
+#ifndef PCMRINGBUFFER_H
+#define PCMRINGBUFFER_H
+
+#include <atomic>
+#include <stdint.h>
+
+/**
+ * Single-producer single-consumer ring of pcm bytes, without any lock.
+ * The resample thread writes, and the audio render callback reads.
+ * Positions are free running counters, the capacity is a power of two.
+ */
+class PcmRingBuffer {
+
+private:
+    uint8_t *m_buffer;
+    uint32_t m_capacity;
+    uint32_t m_mask;
+
+    std::atomic<uint32_t> m_readPos;
+    std::atomic<uint32_t> m_writePos;
+    // the consumer skips the data before this position
+    std::atomic<uint32_t> m_discardPos;
+
+public:
+    /**
+     * @param minCapacity the capacity is rounded up to a power of two
+     */
+    explicit PcmRingBuffer(int minCapacity);
+
+    virtual ~PcmRingBuffer();
+
+    int capacity() const;
+
+    /**
+     * Bytes that can be read.
+     */
+    int available() const;
+
+    /**
+     * Bytes that can be written, only called by the producer.
+     */
+    int space() const;
+
+    /**
+     * Write as much as fits, only called by the producer.
+     * @return bytes written
+     */
+    int write(const uint8_t *data, int len);
+
+    /**
+     * Read up to len bytes, only called by the consumer.
+     * @return bytes read
+     */
+    int read(uint8_t *data, int len);
+
+    /**
+     * Drop everything written so far, only called by the producer.
+     * The consumer skips it on the next read.
+     */
+    void discard();
+
+    /**
+     * Skip the discarded data without reading, only called by the consumer.
+     */
+    void skipDiscarded();
+
+    uint32_t readPosition() const;
+
+    uint32_t writePosition() const;
+
+};
+
+#endif //PCMRINGBUFFER_H
@@ -0,0 +1,112 @@
+
+#include "FrameConverter.h"
+#include <string.h>
+
+extern "C" {
+#include <libavutil/common.h>
+#include <libavutil/pixdesc.h>
+}
+
+#define ALIGN_16(x) (((x) + 15) & ~15)
+
+FrameConverter::FrameConverter() {
+    m_swsContext = nullptr;
+}
+
+FrameConverter::~FrameConverter() {
+    release();
+}
+
+bool FrameConverter::isYV12Compatible(int format) {
+    return format == AV_PIX_FMT_YUV420P;
+}
+
+bool FrameConverter::isYV12Compatible(const AVFrame *frame) {
+    return isYV12Compatible(frame->format) && !isFullRange(frame);
+}
+
+bool FrameConverter::isFullRange(const AVFrame *frame) {
+    switch (frame->format) {
+        case AV_PIX_FMT_YUVJ420P:
+        case AV_PIX_FMT_YUVJ422P:
+        case AV_PIX_FMT_YUVJ444P:
+        case AV_PIX_FMT_YUVJ440P:
+        case AV_PIX_FMT_YUVJ411P:
+            return true;
+        default:
+            return frame->color_range == AVCOL_RANGE_JPEG;
+    }
+}
+
+int FrameConverter::getYV12ChromaStride(int lumaStride) {
+    return ALIGN_16(lumaStride / 2);
+}
+
+static void copyPlane(const uint8_t *src, int srcStride, uint8_t *dst, int dstStride,
+                      int width, int height) {
+    if (srcStride == dstStride) {
+        memcpy(dst, src, (size_t) srcStride * height);
+        return;
+    }
+    for (int h = 0; h < height; h++) {
+        memcpy(dst, src, (size_t) width);
+        src += srcStride;
+        dst += dstStride;
+    }
+}
+
+int FrameConverter::copyToYV12(const AVFrame *frame, uint8_t *dst, int dstStride, int dstHeight) {
+    if (!frame || !dst || !isYV12Compatible(frame)
+        || dstStride < frame->width || dstHeight < frame->height) {
+        return -1;
+    }
+    int chromaWidth  = (frame->width + 1) / 2;
+    int chromaHeight = FFMIN((frame->height + 1) / 2, dstHeight / 2);
+    int chromaStride = getYV12ChromaStride(dstStride);
+    uint8_t *dstY = dst;
+    uint8_t *dstV = dstY + dstStride * dstHeight;
+    uint8_t *dstU = dstV + chromaStride * (dstHeight / 2);
+
+    copyPlane(frame->data[0], frame->linesize[0], dstY, dstStride, frame->width, frame->height);
+    copyPlane(frame->data[2], frame->linesize[2], dstV, chromaStride, chromaWidth, chromaHeight);
+    copyPlane(frame->data[1], frame->linesize[1], dstU, chromaStride, chromaWidth, chromaHeight);
+    return 0;
+}
+
+int FrameConverter::convertToRGBA(const AVFrame *frame, uint8_t *dst, int dstStride) {
+    if (!frame || !dst) {
+        return -1;
+    }
+    m_swsContext = sws_getCachedContext(m_swsContext,
+                                        frame->width, frame->height, (AVPixelFormat) frame->format,
+                                        frame->width, frame->height, AV_PIX_FMT_RGBA,
+                                        SWS_BILINEAR, nullptr, nullptr, nullptr);
+    if (!m_swsContext) {
+        return -1;
+    }
+    // YUVJ格式swscale自己按全范围处理, 普通YUV格式要看帧上标记的范围
+    const AVPixFmtDescriptor *desc = av_pix_fmt_desc_get((AVPixelFormat) frame->format);
+    if (desc && !(desc->flags & AV_PIX_FMT_FLAG_RGB)) {
+        int *invTable, *table;
+        int srcRange, dstRange, brightness, contrast, saturation;
+        int fullRange = isFullRange(frame) ? 1 : 0;
+        if (sws_getColorspaceDetails(m_swsContext, &invTable, &srcRange, &table, &dstRange,
+                                     &brightness, &contrast, &saturation) >= 0
+            && srcRange != fullRange) {
+            sws_setColorspaceDetails(m_swsContext, invTable, fullRange, table, dstRange,
+                                     brightness, contrast, saturation);
+        }
+    }
+    uint8_t *dstData[4] = {dst, nullptr, nullptr, nullptr};
+    int dstLinesize[4]  = {dstStride, 0, 0, 0};
+    sws_scale(m_swsContext, (uint8_t const *const *) frame->data, frame->linesize,
+              0, frame->height, dstData, dstLinesize);
+    return 0;
+}
+
+void FrameConverter::release() {
+    if (m_swsContext) {
+        sws_freeContext(m_swsContext);
+        m_swsContext = nullptr;
+    }
+}
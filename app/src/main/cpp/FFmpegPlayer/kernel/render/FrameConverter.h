@@ -0,0 +1,67 @@
+
+#ifndef FRAMECONVERTER_H
+#define FRAMECONVERTER_H
+
+#include <stdint.h>
+
+extern "C" {
+#include <libavutil/frame.h>
+#include <libavutil/pixfmt.h>
+#include <libswscale/swscale.h>
+}
+
+/**
+ * Write a decoded frame into a render buffer in one pass.
+ * Limited range YUV420P goes to a YV12 buffer with plane copies, and the
+ * other formats, full range YUV included, are converted to RGBA straight
+ * into the destination, without any intermediate frame.
+ * It doesn't depend on the platform, so that it can be benchmarked on host.
+ */
+class FrameConverter {
+
+private:
+    SwsContext *m_swsContext;
+
+public:
+    FrameConverter();
+
+    virtual ~FrameConverter();
+
+    /**
+     * Whether frames of the format may be copied to YV12, which the window shows as limited range.
+     */
+    static bool isYV12Compatible(int format);
+
+    /**
+     * Same as above, and the frame isn't full range.
+     */
+    static bool isYV12Compatible(const AVFrame *frame);
+
+    /**
+     * YUVJ formats, or frames tagged with the JPEG range.
+     */
+    static bool isFullRange(const AVFrame *frame);
+
+    /**
+     * The stride of chroma plane in a YV12 buffer, which is aligned to 16.
+     */
+    static int getYV12ChromaStride(int lumaStride);
+
+    /**
+     * Copy planes of limited range YUV420P frame into a YV12 buffer, whose layout is Y, V, U.
+     * @param dstStride  luma stride of buffer
+     * @param dstHeight  height of buffer, which may be larger than frame
+     */
+    static int copyToYV12(const AVFrame *frame, uint8_t *dst, int dstStride, int dstHeight);
+
+    /**
+     * Convert frame into a RGBA buffer, taking the range of YUV from the frame.
+     * @param dstStride stride in bytes
+     */
+    int convertToRGBA(const AVFrame *frame, uint8_t *dst, int dstStride);
+
+    void release();
+
+};
+
+#endif //FRAMECONVERTER_H
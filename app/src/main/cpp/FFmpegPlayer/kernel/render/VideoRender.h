@@ -4,14 +4,25 @@
 
 #include <stdint.h>
 
+extern "C" {
+#include <libavutil/frame.h>
+}
+
 class VideoRender {
 public:
 
-    virtual void onInit(int width, int height) = 0;
+    /**
+     * Called before the first frame, and again whenever size or pixel format changes.
+     * @param format AVPixelFormat of decoded frame
+     */
+    virtual void onInit(int width, int height, int format) = 0;
 
     virtual void setSurface(void *surface) = 0;
 
-    virtual int onRender(uint8_t *data, int stride, int height) = 0;
+    /**
+     * Render the decoded frame as it is, converting only when the target can't take its format.
+     */
+    virtual int onRender(AVFrame *frame) = 0;
 
     virtual void onDestroy() = 0;
 
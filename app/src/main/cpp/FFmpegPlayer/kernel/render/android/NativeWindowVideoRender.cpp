@@ -1,49 +1,124 @@
-
 #include "NativeWindowVideoRender.h"
 
 NativeWindowVideoRender::NativeWindowVideoRender() {
-    mWindow = nullptr;
+    mWindow          = nullptr;
+    mWidth           = 0;
+    mHeight          = 0;
+    mFrameFormat     = -1;
+    mWindowFormat    = WINDOW_FORMAT_RGBA_8888;
+    mGeometryDirty   = true;
+    mYV12Unsupported = false;
+    mFullRange       = false;
 }
 
 NativeWindowVideoRender::~NativeWindowVideoRender() {
-
+    mConverter.release();
 }
 
 void NativeWindowVideoRender::setSurface(void *surface) {
+    Mutex::AutoLock lock(mMutex);
     if (mWindow != nullptr) {
         ANativeWindow_release(mWindow);
         mWindow = nullptr;
     }
     mWindow = static_cast<ANativeWindow *>(surface);
+    mGeometryDirty = true;
+}
+
+void NativeWindowVideoRender::onInit(int width, int height, int format) {
+    Mutex::AutoLock lock(mMutex);
+    mWidth  = width;
+    mHeight = height;
+    mFrameFormat = format;
+    mFullRange   = false;
+    mGeometryDirty = true;
 }
 
-void NativeWindowVideoRender::onInit(int width, int height) {
-    if (mWindow == nullptr) {
-        return;
+// 能直接显示YUV时窗口用YV12格式, 否则用RGBA
+void NativeWindowVideoRender::setupGeometry() {
+    if (FrameConverter::isYV12Compatible(mFrameFormat) && !mFullRange && !mYV12Unsupported) {
+        mWindowFormat = WINDOW_FORMAT_YV12;
+    } else {
+        mWindowFormat = WINDOW_FORMAT_RGBA_8888;
     }
-    ANativeWindow_setBuffersGeometry(mWindow, width, height, WINDOW_FORMAT_RGBA_8888);
+    if (ANativeWindow_setBuffersGeometry(mWindow, mWidth, mHeight, mWindowFormat) < 0
+        && mWindowFormat == WINDOW_FORMAT_YV12) {
+        mYV12Unsupported = true;
+        mWindowFormat = WINDOW_FORMAT_RGBA_8888;
+        ANativeWindow_setBuffersGeometry(mWindow, mWidth, mHeight, mWindowFormat);
+    }
+    mGeometryDirty = false;
 }
 
-int NativeWindowVideoRender::onRender(uint8_t *data, int stride, int height) {
+int NativeWindowVideoRender::onRender(AVFrame *frame) {
+    Mutex::AutoLock lock(mMutex);
+    if (mWindow == nullptr || frame == nullptr) {
+        return -1;
+    }
+    if (mGeometryDirty) {
+        setupGeometry();
+    }
+    // 范围标记在帧上, 全范围的YUV当作有限范围显示会发灰, 改用RGBA
+    if (mWindowFormat == WINDOW_FORMAT_YV12 && !FrameConverter::isYV12Compatible(frame)) {
+        mFullRange = true;
+        setupGeometry();
+    }
+    // NDK没有只unlock不post的接口, lock到的缓冲区一定会显示, 所以写不了的格式不去lock
+    if (!canWrite(ANativeWindow_getFormat(mWindow), frame)) {
+        if (mWindowFormat == WINDOW_FORMAT_YV12) {
+            mYV12Unsupported = true;
+            setupGeometry();
+        }
+        if (!canWrite(ANativeWindow_getFormat(mWindow), frame)) {
+            return -1;
+        }
+    }
     // lock native window
     ANativeWindow_Buffer windowBuffer;
     int ret = ANativeWindow_lock(mWindow, &windowBuffer, nullptr);
     if (ret < 0) {
         return ret;
     }
+    if (mWindowFormat == WINDOW_FORMAT_YV12 && windowBuffer.format != WINDOW_FORMAT_YV12) {
+        // 部分设备接受YV12但分配的不是YV12, 之后改用RGBA
+        mYV12Unsupported = true;
+        mWindowFormat  = WINDOW_FORMAT_RGBA_8888;
+        mGeometryDirty = true;
+    }
+    // 按缓冲区实际的格式写入
+    ret = -1;
     auto *dst = static_cast<uint8_t *>(windowBuffer.bits);
-    int dstStride = windowBuffer.stride * 4;
-    for (int h = 0; h < height; h++) {
-        memcpy(dst + h * dstStride, data + h * stride, (size_t) stride);
+    if (windowBuffer.format == WINDOW_FORMAT_YV12) {
+        ret = FrameConverter::copyToYV12(frame, dst, windowBuffer.stride, windowBuffer.height);
+    } else if (windowBuffer.format == WINDOW_FORMAT_RGBA_8888
+               || windowBuffer.format == WINDOW_FORMAT_RGBX_8888) {
+        // 直接转换到窗口缓冲区, 没有中间帧
+        ret = mConverter.convertToRGBA(frame, dst, windowBuffer.stride * 4);
+    }
+    if (ret < 0) {
+        // 这一帧没有写入, 下一帧改用RGBA
+        av_log(nullptr, AV_LOG_ERROR, "render frame error, buffer format:%d\n", windowBuffer.format);
+        mYV12Unsupported = true;
+        mGeometryDirty   = true;
     }
     ANativeWindow_unlockAndPost(mWindow);
 
-    return 0;
+    return ret;
+}
+
+// 窗口缓冲区是这个格式时, 帧能否写进去
+bool NativeWindowVideoRender::canWrite(int bufferFormat, const AVFrame *frame) {
+    if (bufferFormat == WINDOW_FORMAT_YV12) {
+        return FrameConverter::isYV12Compatible(frame);
+    }
+    return bufferFormat == WINDOW_FORMAT_RGBA_8888 || bufferFormat == WINDOW_FORMAT_RGBX_8888;
 }
 
 void NativeWindowVideoRender::onDestroy() {
+    Mutex::AutoLock lock(mMutex);
     if (mWindow) {
         ANativeWindow_release(mWindow);
         mWindow = nullptr;
     }
-}
\ No newline at end of file
+    mConverter.release();
+}
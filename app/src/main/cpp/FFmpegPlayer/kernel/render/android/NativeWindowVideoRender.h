@@ -1,14 +1,17 @@
-
 #ifndef NATIVEWINDOW_VIDEORENDER_H
 #define NATIVEWINDOW_VIDEORENDER_H
 
 #include <render/VideoRender.h>
+#include <render/FrameConverter.h>
 #include <android/native_window.h>
 #include <android/native_window_jni.h>
 #include <string.h>
 #include <Mutex.h>
 #include <Condition.h>
 
+// android.graphics.ImageFormat.YV12, which native window takes as a HAL format
+#define WINDOW_FORMAT_YV12 0x32315659
+
 class NativeWindowVideoRender : public VideoRender {
 private:
     Mutex mMutex;
@@ -16,6 +19,19 @@ private:
 
     ANativeWindow *mWindow;
 
+    int mWidth;
+    int mHeight;
+    int mFrameFormat;
+    int mWindowFormat;
+    bool mGeometryDirty;
+    bool mYV12Unsupported;
+    bool mFullRange;
+    FrameConverter mConverter;
+
+    void setupGeometry();
+
+    static bool canWrite(int bufferFormat, const AVFrame *frame);
+
 public:
     NativeWindowVideoRender();
 
@@ -23,9 +39,9 @@ public:
 
     void setSurface(void *surface) override;
 
-    void onInit(int width, int height) override;
+    void onInit(int width, int height, int format) override;
 
-    int onRender(uint8_t *data, int stride, int height) override;
+    int onRender(AVFrame *frame) override;
 
     void onDestroy() override;
 };
@@ -1,6 +1,9 @@
 
 #include "AudioResampler.h"
 
+// ring满或者没有数据时, 重采样线程等待的时间
+#define RESAMPLE_WAIT_NS (5 * 1000000)
+
 AudioResampler::AudioResampler(PlayerParam *playerParam, AudioDecoder *audioDecoder, AVSync *avSync) {
     this->m_avSync       = avSync;
     this->m_playerParam  = playerParam;
@@ -9,9 +12,27 @@ AudioResampler::AudioResampler(PlayerParam *playerParam, AudioDecoder *audioDeco
     memset(m_audioState, 0, sizeof(AudioState));
     m_soundTouchHelper = new SoundTouchHelper();
     m_frame = av_frame_alloc();
+
+    m_abortReq       = false;
+    m_resampleThread = nullptr;
+    m_pcmRing        = nullptr;
+    m_ringSerial     = -1;
+    m_flushReq       = false;
+    m_clockSeq       = 0;
+    m_clockPos       = 0;
+    m_clockPts       = NAN;
+    m_ringPlaying    = false;
+    m_underrunCount  = 0;
+    m_silenceBytes   = 0;
+    m_reportedUnderruns = 0;
 }
 
 AudioResampler::~AudioResampler() {
+    stop();
+    if (m_pcmRing) {
+        delete m_pcmRing;
+        m_pcmRing = nullptr;
+    }
     m_avSync       = nullptr;
     m_playerParam  = nullptr;
     m_audioDecoder = nullptr;
@@ -57,52 +78,184 @@ int AudioResampler::setResampleParams(AudioRenderSpec *spec, int64_t wanted_chan
         av_log(nullptr, AV_LOG_ERROR, "av_samples_get_buffer_size failed\n");
         return -1;
     }
+
+    // 按延迟目标分配ring, 至少能放下render的两轮缓冲
+    int ringSize = (int) ((int64_t) m_audioState->m_audioParamDst.bytes_per_sec * AUDIO_RING_LATENCY_MS / 1000);
+    ringSize = FFMAX(ringSize, 2 * m_audioState->m_audioBufSize);
+    delete m_pcmRing;
+    m_pcmRing = new PcmRingBuffer(ringSize);
     return 0;
 }
 
-void AudioResampler::pcmQueueCallback(uint8_t *stream, int len) {
-    int length;
-    int bufferSize;
-
-    if (!m_audioDecoder) {
-        memset(stream, 0, len);
+void AudioResampler::start() {
+    Mutex::AutoLock lock(m_mutex);
+    if (!m_pcmRing || m_resampleThread) {
         return;
     }
+    m_abortReq = false;
+    m_resampleThread = new Thread(this, Priority_High);
+    m_resampleThread->start();
+}
 
-    m_audioState->m_audioCallbackTime = av_gettime_relative();
-    while (len > 0) {
-        if (m_audioState->bufferIndex >= m_audioState->m_bufferSize) {
-            bufferSize = audioFrameResample();
-            if (bufferSize < 0) {
-                m_audioState->m_outputBuffer = nullptr;
-                m_audioState->m_bufferSize = (unsigned int) (AUDIO_MIN_BUFFER_SIZE / m_audioState->m_audioParamDst.frame_size
-                                                             * m_audioState->m_audioParamDst.frame_size);
-            } else {
-                m_audioState->m_bufferSize = bufferSize;
+void AudioResampler::stop() {
+    m_mutex.lock();
+    m_abortReq = true;
+    m_cond.signal();
+    m_mutex.unlock();
+    if (m_resampleThread) {
+        m_resampleThread->join();
+        delete m_resampleThread;
+        m_resampleThread = nullptr;
+    }
+}
+
+// 重采样线程: 解码, 重采样后写入ring, 写满了就等待render消费
+void AudioResampler::run() {
+    int writeSize;
+    int frameSize = 0;
+    int frameIndex = 0;
+
+    while (true) {
+        m_mutex.lock();
+        if (m_abortReq) {
+            m_mutex.unlock();
+            break;
+        }
+        if (frameIndex >= frameSize && m_playerParam->isRenderPaused()) {
+            m_cond.waitRelative(m_mutex, RESAMPLE_WAIT_NS);
+            m_mutex.unlock();
+            continue;
+        }
+        m_mutex.unlock();
+
+        reportUnderrun();
+
+        if (frameIndex >= frameSize) {
+            int serial = m_audioDecoder->getPacketSerial();
+            frameSize  = audioFrameResample();
+            frameIndex = 0;
+            if (frameSize < 0) {
+                frameSize = 0;
+                m_mutex.lock();
+                if (!m_abortReq) {
+                    m_cond.waitRelative(m_mutex, RESAMPLE_WAIT_NS);
+                }
+                m_mutex.unlock();
+                continue;
+            }
+            // seek之后, 丢弃ring里旧序列的数据
+            int currentSerial = m_audioDecoder->getPacketSerial();
+            if (m_flushReq.exchange(false) || currentSerial != m_ringSerial) {
+                m_pcmRing->discard();
+                publishClock(m_pcmRing->writePosition(), NAN);
+                m_ringSerial = currentSerial;
             }
-            m_audioState->bufferIndex = 0;
+            // 解码期间发生了seek, 这一帧可能是旧序列的
+            if (serial != m_ringSerial) {
+                frameSize = 0;
+                continue;
+            }
+            publishClock(m_pcmRing->writePosition() + frameSize, m_audioState->m_audioClock);
         }
 
-        length = m_audioState->m_bufferSize - m_audioState->bufferIndex;
-        if (length > len) {
-            length = len;
+        writeSize = m_pcmRing->write(m_audioState->m_outputBuffer + frameIndex, frameSize - frameIndex);
+        frameIndex += writeSize;
+        if (frameIndex < frameSize) {
+            // ring满了, 已经缓冲了足够的延迟
+            m_mutex.lock();
+            if (!m_abortReq) {
+                m_cond.waitRelative(m_mutex, RESAMPLE_WAIT_NS);
+            }
+            m_mutex.unlock();
         }
-        // copy pcm data to buffer
-        if (m_audioState->m_outputBuffer != nullptr && !m_playerParam->m_mute) {
-            memcpy(stream, m_audioState->m_outputBuffer + m_audioState->bufferIndex, length);
-        } else {
-            memset(stream, 0, length);
+    }
+}
+
+void AudioResampler::publishClock(uint32_t endPos, double clock) {
+    uint32_t seq = m_clockSeq.load(std::memory_order_relaxed);
+    m_clockSeq.store(seq + 1, std::memory_order_relaxed);
+    std::atomic_thread_fence(std::memory_order_release);
+    m_clockPos.store(endPos, std::memory_order_relaxed);
+    m_clockPts.store(clock, std::memory_order_relaxed);
+    m_clockSeq.store(seq + 2, std::memory_order_release);
+}
+
+bool AudioResampler::readClock(uint32_t *endPos, double *clock) {
+    // 重采样线程正在更新时重试, 次数有限, render回调里不等待
+    for (int i = 0; i < 3; i++) {
+        uint32_t seq = m_clockSeq.load(std::memory_order_acquire);
+        if (seq & 1) {
+            continue;
         }
-        len -= length;
-        stream += length;
-        m_audioState->bufferIndex += length;
+        *endPos = m_clockPos.load(std::memory_order_relaxed);
+        *clock  = m_clockPts.load(std::memory_order_relaxed);
+        std::atomic_thread_fence(std::memory_order_acquire);
+        if (m_clockSeq.load(std::memory_order_relaxed) == seq) {
+            return true;
+        }
+    }
+    return false;
+}
+
+void AudioResampler::reportUnderrun() {
+    int count = m_underrunCount.load(std::memory_order_relaxed);
+    if (count == m_reportedUnderruns || !m_playerParam->m_messageQueue) {
+        return;
+    }
+    m_reportedUnderruns = count;
+    int silenceMs = (int) (m_silenceBytes.load(std::memory_order_relaxed) * 1000
+                           / m_audioState->m_audioParamDst.bytes_per_sec);
+    m_playerParam->m_messageQueue->sendMessageCoalesced(MSG_AUDIO_UNDERRUN, count, silenceMs);
+}
+
+// seek时在读线程调用, 新序列的数据到达时清空ring
+void AudioResampler::flush() {
+    m_flushReq = true;
+}
+
+int AudioResampler::getUnderrunCount() const {
+    return m_underrunCount.load(std::memory_order_relaxed);
+}
+
+// render回调: 只从ring拷贝数据, 不加锁也不解码
+void AudioResampler::pcmQueueCallback(uint8_t *stream, int len) {
+    if (!m_pcmRing) {
+        memset(stream, 0, len);
+        return;
+    }
+    m_audioState->m_audioCallbackTime = av_gettime_relative();
+
+    if (m_playerParam->isRenderPaused()) {
+        // 暂停或者缓冲期间不消费, seek丢弃的数据还是要跳过
+        m_pcmRing->skipDiscarded();
+        memset(stream, 0, len);
+        return;
+    }
+
+    int length = m_pcmRing->read(stream, len);
+    if (length < len) {
+        memset(stream + length, 0, len - length);
+        // 播放中ring读空才算underrun, 起播和seek之后的等待不算
+        if (m_ringPlaying && !m_flushReq.load(std::memory_order_relaxed)) {
+            m_underrunCount.fetch_add(1, std::memory_order_relaxed);
+            m_silenceBytes.fetch_add(len - length, std::memory_order_relaxed);
+        }
+        m_ringPlaying = false;
+    } else {
+        m_ringPlaying = true;
+    }
+    if (m_playerParam->m_mute) {
+        memset(stream, 0, length);
     }
-    m_audioState->m_writeBufSize = m_audioState->m_bufferSize - m_audioState->bufferIndex;
 
-    if (!isnan(m_audioState->m_audioClock) && m_avSync) {
-        m_avSync->updateAudioClock(m_audioState->m_audioClock -
-                                   (double) (2 * m_audioState->m_audioBufSize + m_audioState->m_writeBufSize)
-                                   / m_audioState->m_audioParamDst.bytes_per_sec,
+    // ring里还没播放的数据也要从时钟里减去
+    uint32_t endPos;
+    double clock;
+    if (m_avSync && readClock(&endPos, &clock) && !isnan(clock)) {
+        int ringSize = FFMAX(0, (int32_t) (endPos - m_pcmRing->readPosition()));
+        m_audioState->m_writeBufSize = ringSize;
+        m_avSync->updateAudioClock(clock - (double) (2 * m_audioState->m_audioBufSize + ringSize)
+                                           / m_audioState->m_audioParamDst.bytes_per_sec,
                                    m_audioState->m_audioCallbackTime / 1000000.0);
     }
 }
@@ -146,7 +299,7 @@ int AudioResampler::audioFrameResample() {
     int resampled_data_size;
     int64_t dec_channel_layout;
 
-    if (!m_audioDecoder || m_playerParam->m_abortReq || m_playerParam->m_pauseReq) {
+    if (!m_audioDecoder || m_playerParam->m_abortReq || m_playerParam->isRenderPaused()) {
         return -1;
     }
 
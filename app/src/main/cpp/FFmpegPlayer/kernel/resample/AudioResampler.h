@@ -6,6 +6,8 @@
 #include <avsync/AVSync.h>
 #include <soundtouch/SoundTouchHelper.h>
 #include <render/AudioRender.h>
+#include <queue/PcmRingBuffer.h>
+#include <atomic>
 
 typedef struct AudioParams {
     int freq;
@@ -42,7 +44,11 @@ typedef struct AudioState {
 } AudioState;
 
 
-class AudioResampler {
+/**
+ * Decode and resample audio on its own thread into a pcm ring,
+ * the render callback only copies from the ring, without lock or decoding.
+ */
+class AudioResampler : public Runnable {
 
 private:
 
@@ -53,11 +59,40 @@ private:
     AudioDecoder *m_audioDecoder;
     SoundTouchHelper *m_soundTouchHelper;
 
+    Mutex m_mutex;
+    Condition m_cond;
+    Thread *m_resampleThread;
+    bool m_abortReq;
+
+    PcmRingBuffer *m_pcmRing;
+    // packet serial of the data in ring
+    int m_ringSerial;
+    std::atomic<bool> m_flushReq;
+
+    // end position in ring and audio clock of the latest frame, guarded by a sequence
+    std::atomic<uint32_t> m_clockSeq;
+    std::atomic<uint32_t> m_clockPos;
+    std::atomic<double> m_clockPts;
+
+    // written by the render callback
+    bool m_ringPlaying;
+    std::atomic<int> m_underrunCount;
+    std::atomic<int64_t> m_silenceBytes;
+    int m_reportedUnderruns;
+
 private:
     int audioFrameResample();
 
     int audioSynchronize(int nbSamples);
 
+    void publishClock(uint32_t endPos, double clock);
+
+    bool readClock(uint32_t *endPos, double *clock);
+
+    void reportUnderrun();
+
+    void run() override;
+
 public:
     AudioResampler(PlayerParam *playerParam, AudioDecoder *audioDecoder, AVSync *avSync);
 
@@ -65,8 +100,16 @@ public:
 
     int setResampleParams(AudioRenderSpec *spec, int64_t wanted_channel_layout);
 
+    void start();
+
+    void stop();
+
+    void flush();
+
     void pcmQueueCallback(uint8_t *stream, int len);
 
+    int getUnderrunCount() const;
+
 };
 
 
@@ -73,8 +73,11 @@ Java_com_frank_media_MediaJniHelper_filter_1again(JNIEnv* env, jobject thiz, lon
     FFAudioPlayer *audioPlayer = (FFAudioPlayer *) context;
     if (!audioPlayer)
         return;
-    const char *filter_desc = env->GetStringUTFChars(filter, JNI_FALSE);
+    const char *filter_desc = filter ? env->GetStringUTFChars(filter, JNI_FALSE) : nullptr;
+    // 描述会被复制, 可以马上释放
     audioPlayer->setFilterAgain(filter_desc);
+    if (filter_desc)
+        env->ReleaseStringUTFChars(filter, filter_desc);
 }
 
 extern "C"
@@ -86,4 +89,4 @@ Java_com_frank_media_MediaJniHelper_native_1release(JNIEnv* env, jobject thiz, l
     if (!audioPlayer)
         return;
     audioPlayer->setExitPlaying(true);
-}
\ No newline at end of file
+}
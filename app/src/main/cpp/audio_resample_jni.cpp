@@ -4,6 +4,7 @@
 
 #include <jni.h>
 #include "ff_audio_resample.h"
+#include "ff_pcm_resampler.h"
 
 extern "C"
 JNIEXPORT void JNICALL
@@ -15,4 +16,131 @@ Java_com_frank_media_MediaJniHelper_audioResample(JNIEnv *env, jobject thiz, jst
     FFAudioResample *audioResample = new FFAudioResample();
     audioResample->resampling(in_path, out_path, sample_rate);
     delete audioResample;
-}
\ No newline at end of file
+    env->ReleaseStringUTFChars(input_path, in_path);
+    env->ReleaseStringUTFChars(output_path, out_path);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_frank_media_AudioResampleBatch_nativeCreate(JNIEnv *env, jclass clazz) {
+    return (jlong) new FFAudioResample();
+}
+
+// 返回输出的采样数, 出错时为负数
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_frank_media_AudioResampleBatch_nativeResample(JNIEnv *env, jclass clazz, jlong handle,
+                                                       jstring input_path, jstring output_path,
+                                                       jint sample_rate) {
+    auto *audioResample = (FFAudioResample *) handle;
+    const char *in_path = env->GetStringUTFChars(input_path, JNI_FALSE);
+    const char *out_path = env->GetStringUTFChars(output_path, JNI_FALSE);
+    int ret = audioResample->resampling(in_path, out_path, sample_rate);
+    env->ReleaseStringUTFChars(input_path, in_path);
+    env->ReleaseStringUTFChars(output_path, out_path);
+    return ret < 0 ? ret : audioResample->getOutputSamples();
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_AudioResampleBatch_nativeRelease(JNIEnv *env, jclass clazz, jlong handle) {
+    delete (FFAudioResample *) handle;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_frank_media_PcmResampler_nativeCreate(JNIEnv *env, jclass clazz, jint in_rate, jint in_channels,
+                                               jint in_format, jint out_rate, jint out_channels,
+                                               jint out_format) {
+    return (jlong) new FFPcmResampler(in_rate, in_channels, in_format, out_rate, out_channels, out_format);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_PcmResampler_nativeSetChannelLayout(JNIEnv *env, jclass clazz, jlong handle,
+                                                         jlong in_layout, jlong out_layout) {
+    ((FFPcmResampler *) handle)->setChannelLayout((uint64_t) in_layout, (uint64_t) out_layout);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_PcmResampler_nativeSetQuality(JNIEnv *env, jclass clazz, jlong handle, jint quality) {
+    ((FFPcmResampler *) handle)->setQuality(quality);
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_frank_media_PcmResampler_nativeGetFrameBytes(JNIEnv *env, jclass clazz, jlong handle, jboolean output) {
+    auto *resampler = (FFPcmResampler *) handle;
+    return output ? resampler->getOutputFrameBytes() : resampler->getInputFrameBytes();
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_frank_media_PcmResampler_nativeGetMaxOutputSamples(JNIEnv *env, jclass clazz, jlong handle,
+                                                            jint in_samples) {
+    return ((FFPcmResampler *) handle)->getMaxOutputSamples(in_samples);
+}
+
+static jint resamplePcm(FFPcmResampler *resampler, const uint8_t *in, jint in_bytes,
+                        uint8_t *out, jint out_bytes, jboolean flush) {
+    int inSamples  = in_bytes / resampler->getInputFrameBytes();
+    int outSamples = out_bytes / resampler->getOutputFrameBytes();
+    int ret = flush ? resampler->flush(out, outSamples) : resampler->process(in, inSamples, out, outSamples);
+    return ret < 0 ? ret : ret * resampler->getOutputFrameBytes();
+}
+
+// 返回写入out的字节数, 数组在转换期间锁定, 不复制
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_frank_media_PcmResampler_nativeProcessArray(JNIEnv *env, jclass clazz, jlong handle,
+                                                     jbyteArray in, jint in_offset, jint in_bytes,
+                                                     jbyteArray out, jint out_offset, jint out_bytes,
+                                                     jboolean flush) {
+    auto *inData = in ? (uint8_t *) env->GetPrimitiveArrayCritical(in, nullptr) : nullptr;
+    if (in && !inData) {
+        return AVERROR(ENOMEM);
+    }
+    auto *outData = (uint8_t *) env->GetPrimitiveArrayCritical(out, nullptr);
+    if (!outData) {
+        // 失败时已经抛出OutOfMemoryError, 释放已经锁定的输入后返回
+        if (inData) {
+            env->ReleasePrimitiveArrayCritical(in, inData, JNI_ABORT);
+        }
+        return AVERROR(ENOMEM);
+    }
+    jint ret = resamplePcm((FFPcmResampler *) handle, inData ? inData + in_offset : nullptr, in_bytes,
+                           outData + out_offset, out_bytes, flush);
+    env->ReleasePrimitiveArrayCritical(out, outData, 0);
+    if (inData) {
+        env->ReleasePrimitiveArrayCritical(in, inData, JNI_ABORT);
+    }
+    return ret;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_frank_media_PcmResampler_nativeProcessBuffer(JNIEnv *env, jclass clazz, jlong handle,
+                                                      jobject in, jint in_offset, jint in_bytes,
+                                                      jobject out, jint out_offset, jint out_bytes,
+                                                      jboolean flush) {
+    auto *inData  = in ? (uint8_t *) env->GetDirectBufferAddress(in) : nullptr;
+    auto *outData = (uint8_t *) env->GetDirectBufferAddress(out);
+    if (!outData || (in && !inData)) {
+        return AVERROR(EINVAL);
+    }
+    return resamplePcm((FFPcmResampler *) handle, inData ? inData + in_offset : nullptr, in_bytes,
+                       outData + out_offset, out_bytes, flush);
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_frank_media_PcmResampler_nativeReset(JNIEnv *env, jclass clazz, jlong handle) {
+    return ((FFPcmResampler *) handle)->reset();
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_PcmResampler_nativeRelease(JNIEnv *env, jclass clazz, jlong handle) {
+    delete (FFPcmResampler *) handle;
+}
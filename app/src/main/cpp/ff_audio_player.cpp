@@ -5,33 +5,40 @@
 #include "ff_audio_player.h"
 #include "log_helper.h"
 
+extern "C" {
+#include "libavutil/opt.h"
+#include "libavutil/time.h"
+}
+
 #define AUDIO_TAG "AudioPlayer"
 #define BUFFER_SIZE (48000 * 10)
 
 #define FILTER_DESC "superequalizer=6b=4:8b=5:10b=5"
 
-int initFilter(const char *filter, AVCodecContext *codecCtx, AVFilterGraph **graph,
-               AVFilterContext **src, AVFilterContext **sink) {
+struct ParsedFilter {
+    std::string name;
+    std::vector<std::pair<std::string, std::string>> options;
+};
+
+static int initFilter(const char *filter, const std::string &args, const std::string &format,
+                      AudioFilterGraph *filterGraph) {
     int ret = 0;
-    char args[512];
     AVFilterContext *buffersrc_ctx;
     AVFilterContext *buffersink_ctx;
     AVFilterInOut *inputs      = avfilter_inout_alloc();
     AVFilterInOut *outputs     = avfilter_inout_alloc();
     const AVFilter *buffersrc  = avfilter_get_by_name("abuffer");
     const AVFilter *buffersink = avfilter_get_by_name("abuffersink");
+    // 末尾固定输出格式, 替换滤镜后swrContext不用重建
+    std::string desc = std::string(filter) + "," + format;
 
     AVFilterGraph *filter_graph = avfilter_graph_alloc();
     if (!inputs || !outputs || !filter_graph) {
+        ret = AVERROR(ENOMEM);
         goto end;
     }
-    codecCtx->channel_layout = av_get_default_channel_layout(codecCtx->channels);
-    // 输入参数到数组
-    snprintf(args, sizeof(args), "time_base=%d/%d:sample_rate=%d:sample_fmt=%s:channel_layout=0x%" PRIx64 "",
-             codecCtx->time_base.num, codecCtx->time_base.den, codecCtx->sample_rate,
-            av_get_sample_fmt_name(codecCtx->sample_fmt), codecCtx->channel_layout);
     // 创建滤波器
-    ret = avfilter_graph_create_filter(&buffersrc_ctx, buffersrc, "in", args, nullptr, filter_graph);
+    ret = avfilter_graph_create_filter(&buffersrc_ctx, buffersrc, "in", args.c_str(), nullptr, filter_graph);
     if (ret < 0) {
         LOGE(AUDIO_TAG, "create buffersrc err=%s", av_err2str(ret));
         goto end;
@@ -52,7 +59,7 @@ int initFilter(const char *filter, AVCodecContext *codecCtx, AVFilterGraph **gra
     inputs->filter_ctx  = buffersink_ctx;
 
     // 解析滤波器语句，添加到graph
-    ret = avfilter_graph_parse_ptr(filter_graph, filter, &inputs, &outputs, nullptr);
+    ret = avfilter_graph_parse_ptr(filter_graph, desc.c_str(), &inputs, &outputs, nullptr);
     if (ret < 0) {
         LOGE(AUDIO_TAG, "avfilter_graph_parse_ptr err=%s", av_err2str(ret));
         goto end;
@@ -63,21 +70,90 @@ int initFilter(const char *filter, AVCodecContext *codecCtx, AVFilterGraph **gra
         goto end;
     }
 
-    *graph = filter_graph;
-    *src   = buffersrc_ctx;
-    *sink  = buffersink_ctx;
+    filterGraph->graph = filter_graph;
+    filterGraph->src   = buffersrc_ctx;
+    filterGraph->sink  = buffersink_ctx;
+    filterGraph->desc  = filter;
+    filterGraph->inSamples  = 0;
+    filterGraph->outSamples = 0;
+    filter_graph = nullptr;
 
 end:
+    avfilter_graph_free(&filter_graph);
     avfilter_inout_free(&inputs);
     avfilter_inout_free(&outputs);
     return ret;
 }
 
+/**
+ * Parse a chain like "name=key=value:key=value,name", the descriptions
+ * with labels, quotes, escapes or positional options are not parsed.
+ */
+static bool parseFilterChain(const std::string &desc, std::vector<ParsedFilter> *chain) {
+    if (desc.empty() || desc.find_first_of("[];'\"\\ ") != std::string::npos)
+        return false;
+    size_t begin = 0;
+    while (begin <= desc.size()) {
+        size_t end = desc.find(',', begin);
+        if (end == std::string::npos)
+            end = desc.size();
+        std::string item = desc.substr(begin, end - begin);
+        ParsedFilter parsed;
+        size_t equal = item.find('=');
+        parsed.name = item.substr(0, equal);
+        if (parsed.name.empty())
+            return false;
+        while (equal != std::string::npos) {
+            size_t next = item.find(':', equal + 1);
+            std::string option = item.substr(equal + 1, next == std::string::npos ? std::string::npos : next - equal - 1);
+            size_t pos = option.find('=');
+            if (pos == 0 || pos == std::string::npos)
+                return false;
+            parsed.options.emplace_back(option.substr(0, pos), option.substr(pos + 1));
+            equal = next;
+        }
+        chain->push_back(parsed);
+        begin = end + 1;
+    }
+    return true;
+}
+
+static bool getDefaultValue(const AVOption *option, std::string *value) {
+    char buf[64];
+    switch (option->type) {
+        case AV_OPT_TYPE_INT:
+        case AV_OPT_TYPE_INT64:
+        case AV_OPT_TYPE_BOOL:
+            snprintf(buf, sizeof(buf), "%" PRId64, option->default_val.i64);
+            break;
+        case AV_OPT_TYPE_FLOAT:
+        case AV_OPT_TYPE_DOUBLE:
+            snprintf(buf, sizeof(buf), "%f", option->default_val.dbl);
+            break;
+        case AV_OPT_TYPE_STRING:
+            *value = option->default_val.str ? option->default_val.str : "";
+            return true;
+        default:
+            return false;
+    }
+    *value = buf;
+    return true;
+}
+
+static const std::string *findOption(const ParsedFilter &filter, const std::string &key) {
+    for (const auto &option : filter.options) {
+        if (option.first == key)
+            return &option.second;
+    }
+    return nullptr;
+}
+
 int FFAudioPlayer::open(const char *path) {
     if (!path)
         return -1;
 
     int ret;
+    char layout_name[64];
     const AVCodec *codec;
     frame = av_frame_alloc();
     packet = av_packet_alloc();
@@ -111,22 +187,42 @@ int FFAudioPlayer::open(const char *path) {
         LOGE(AUDIO_TAG, "avcodec_open2 error=%s", av_err2str(ret));
         return ret;
     }
+    // 未指定声道布局时, 使用声道数的默认布局
+    AVChannelLayout in_layout = {};
+    if (codecContext->ch_layout.order == AV_CHANNEL_ORDER_NATIVE) {
+        av_channel_layout_copy(&in_layout, &codecContext->ch_layout);
+    } else {
+        av_channel_layout_default(&in_layout, codecContext->ch_layout.nb_channels);
+    }
+    av_channel_layout_describe(&in_layout, layout_name, sizeof(layout_name));
     // 输入输出参数：采样率、声道布局、音频格式
     int in_sample_rate = codecContext->sample_rate;
     auto in_sample_fmt = codecContext->sample_fmt;
-    int in_ch_layout   = codecContext->ch_layout.u.mask; // codecContext->channel_layout
+    int64_t in_ch_layout = (int64_t) in_layout.u.mask;
     out_sample_rate    = in_sample_rate; // 输出采样率等于输入采样率
     out_sample_fmt     = AV_SAMPLE_FMT_S16; // 16位
     out_ch_layout      = AV_CH_LAYOUT_STEREO; // 双声道
-    out_channel        = codecContext->ch_layout.nb_channels; // codecContext->channels
+    out_channel        = 2;
+    av_channel_layout_uninit(&in_layout);
     // 初始化音频格式转换上下文swrContext
     swrContext = swr_alloc();
     swr_alloc_set_opts(swrContext, out_ch_layout, out_sample_fmt, out_sample_rate,
                        in_ch_layout, in_sample_fmt, in_sample_rate, 0, nullptr);
     swr_init(swrContext);
 
+    // 滤镜输入输出都是解码器的格式
+    AVRational time_base = formatContext->streams[audio_index]->time_base;
+    char args[512];
+    snprintf(args, sizeof(args), "time_base=%d/%d:sample_rate=%d:sample_fmt=%s:channel_layout=%s",
+             time_base.num, time_base.den, in_sample_rate, av_get_sample_fmt_name(in_sample_fmt), layout_name);
+    filterArgs = args;
+    snprintf(args, sizeof(args), "aformat=sample_fmts=%s:sample_rates=%d:channel_layouts=%s",
+             av_get_sample_fmt_name(in_sample_fmt), in_sample_rate, layout_name);
+    filterFormat = args;
+
     filterFrame = av_frame_alloc();
-    initFilter(FILTER_DESC, codecContext, &filterGraph, &srcContext, &sinkContext);
+    initFilter(FILTER_DESC, filterArgs, filterFormat, &filter);
+    filterThread = std::thread(&FFAudioPlayer::filterLoop, this);
 
     return 0;
 }
@@ -139,8 +235,223 @@ int FFAudioPlayer::getSampleRate() const {
     return out_sample_rate;
 }
 
+void FFAudioPlayer::filterLoop() {
+    std::unique_lock<std::mutex> lock(filterMutex);
+    while (!filterThreadExit) {
+        if (!retiredGraphs.empty()) {
+            std::vector<AVFilterGraph *> graphs;
+            graphs.swap(retiredGraphs);
+            lock.unlock();
+            for (AVFilterGraph *graph : graphs) {
+                avfilter_graph_free(&graph);
+            }
+            lock.lock();
+            continue;
+        }
+        if (!hasBuildRequest) {
+            filterCond.wait(lock);
+            continue;
+        }
+        hasBuildRequest = false;
+        std::string desc = buildDesc;
+        int64_t serial = buildSerial;
+        lock.unlock();
+
+        AudioFilterGraph graph;
+        graph.serial = serial;
+        if (initFilter(desc.c_str(), filterArgs, filterFormat, &graph) < 0) {
+            LOGE(AUDIO_TAG, "build filter error, keep the old one: %s", desc.c_str());
+        }
+
+        lock.lock();
+        // 创建期间有新的描述, 丢弃这次的结果
+        if (serial != requestSerial) {
+            avfilter_graph_free(&graph.graph);
+            continue;
+        }
+        if (hasReadyFilter) {
+            avfilter_graph_free(&readyFilter.graph);
+        }
+        readyFilter = graph;
+        hasReadyFilter = true;
+    }
+}
+
+void FFAudioPlayer::appendSamples(AVFrame *input, int *size) {
+    int frame_bytes = out_channel * av_get_bytes_per_sample(out_sample_fmt);
+    uint8_t *out = out_buffer + *size;
+    int ret = swr_convert(swrContext, &out, (BUFFER_SIZE - *size) / frame_bytes,
+                          (const uint8_t **)(input->data), input->nb_samples);
+    if (ret < 0) {
+        LOGE(AUDIO_TAG, "swr_convert err=%s", av_err2str(ret));
+        return;
+    }
+    *size += ret * frame_bytes;
+}
+
+int FFAudioPlayer::runFilter(AudioFilterGraph *graph, AVFrame *input, int *size) {
+    int ret;
+    // 滤镜创建失败时, 直接输出解码的数据
+    if (!graph->graph) {
+        if (input)
+            appendSamples(input, size);
+        return 0;
+    }
+    // 输入到滤波器, 空帧表示结束
+    if (input)
+        graph->inSamples += input->nb_samples;
+    ret = av_buffersrc_add_frame(graph->src, input);
+    if (ret < 0) {
+        LOGE(AUDIO_TAG, "av_buffersrc_add_frame err=%s", av_err2str(ret));
+        return ret;
+    }
+    // 从滤波器取出全部的帧
+    while ((ret = av_buffersink_get_frame(graph->sink, filterFrame)) >= 0) {
+        graph->outSamples += filterFrame->nb_samples;
+        appendSamples(filterFrame, size);
+        av_frame_unref(filterFrame);
+    }
+    if (ret != AVERROR(EAGAIN) && ret != AVERROR_EOF) {
+        LOGE(AUDIO_TAG, "av_buffersink_get_frame err=%s", av_err2str(ret));
+        return ret;
+    }
+    return 0;
+}
+
+bool FFAudioPlayer::sendFilterCommands(const std::string &desc) {
+    struct Command {
+        std::string target;
+        std::string key;
+        std::string value;
+    };
+    std::vector<ParsedFilter> oldChain;
+    std::vector<ParsedFilter> newChain;
+    std::vector<Command> commands;
+    if (!filter.graph || !parseFilterChain(filter.desc, &oldChain) || !parseFilterChain(desc, &newChain)
+        || oldChain.size() != newChain.size())
+        return false;
+
+    // 先检查全部参数, 都能在运行时修改才发送
+    for (size_t i = 0; i < newChain.size(); i++) {
+        if (oldChain[i].name != newChain[i].name)
+            return false;
+        std::string target = "Parsed_" + newChain[i].name + "_" + std::to_string(i);
+        AVFilterContext *context = avfilter_graph_get_filter(filter.graph, target.c_str());
+        if (!context || !context->priv || !context->filter->priv_class)
+            return false;
+        std::vector<std::pair<std::string, std::string>> changes;
+        for (const auto &option : newChain[i].options) {
+            const std::string *old_value = findOption(oldChain[i], option.first);
+            if (!old_value || *old_value != option.second)
+                changes.push_back(option);
+        }
+        // 去掉的参数恢复默认值
+        for (const auto &option : oldChain[i].options) {
+            if (!findOption(newChain[i], option.first))
+                changes.emplace_back(option.first, std::string());
+        }
+        for (auto &change : changes) {
+            const AVOption *option = av_opt_find(context->priv, change.first.c_str(), nullptr, 0, 0);
+            if (!option || !(option->flags & AV_OPT_FLAG_RUNTIME_PARAM))
+                return false;
+            if (!findOption(newChain[i], change.first) && !getDefaultValue(option, &change.second))
+                return false;
+            commands.push_back({target, change.first, change.second});
+        }
+    }
+
+    char response[128];
+    for (const auto &command : commands) {
+        int ret = avfilter_graph_send_command(filter.graph, command.target.c_str(), command.key.c_str(),
+                                              command.value.c_str(), response, sizeof(response), 0);
+        if (ret < 0) {
+            LOGE(AUDIO_TAG, "send command %s=%s err=%s", command.key.c_str(), command.value.c_str(), av_err2str(ret));
+            return false;
+        }
+    }
+    filter.desc = desc;
+    return true;
+}
+
+void FFAudioPlayer::swapFilter(AudioFilterGraph *newFilter, int *size) {
+    // 旧滤镜缓存的采样先输出, 再从下一帧开始用新滤镜
+    if (filter.graph) {
+        runFilter(&filter, nullptr, size);
+    }
+    {
+        std::lock_guard<std::mutex> lock(filterMutex);
+        if (filter.graph) {
+            retiredGraphs.push_back(filter.graph);
+        }
+        filterCond.notify_one();
+    }
+    filter = *newFilter;
+    switchStats.rebuilds++;
+}
+
+void FFAudioPlayer::applyFilterChange(int *size) {
+    bool changed = false;
+    bool ready = false;
+    std::string desc;
+    AudioFilterGraph newFilter;
+    {
+        std::lock_guard<std::mutex> lock(filterMutex);
+        if (filterAgain) {
+            filterAgain = false;
+            changed = true;
+            desc = pendingDesc;
+        }
+        if (hasReadyFilter) {
+            hasReadyFilter = false;
+            ready = true;
+            newFilter = readyFilter;
+            readyFilter = AudioFilterGraph();
+        }
+    }
+    if (!changed && !ready)
+        return;
+
+    int64_t begin = av_gettime_relative();
+    if (ready && newFilter.serial == requestSerial) {
+        rebuildPending = false;
+        if (newFilter.graph) {
+            swapFilter(&newFilter, size);
+        }
+    } else if (ready) {
+        avfilter_graph_free(&newFilter.graph);
+    }
+
+    if (changed) {
+        switchStats.changes++;
+        if (inlineRebuild) {
+            // 原来的方式: 释放旧滤镜再创建, 旧滤镜缓存的采样丢失
+            if (filter.graph) {
+                switchStats.lostSamples += filter.inSamples - filter.outSamples;
+                avfilter_graph_free(&filter.graph);
+            }
+            initFilter(desc.c_str(), filterArgs, filterFormat, &filter);
+            switchStats.rebuilds++;
+        } else if (!rebuildPending && sendFilterCommands(desc)) {
+            switchStats.commands++;
+        } else {
+            std::lock_guard<std::mutex> lock(filterMutex);
+            buildDesc = desc;
+            buildSerial = ++requestSerial;
+            hasBuildRequest = true;
+            rebuildPending = true;
+            filterCond.notify_one();
+        }
+    }
+
+    int64_t stall = av_gettime_relative() - begin;
+    switchStats.totalStallUs += stall;
+    if (stall > switchStats.maxStallUs)
+        switchStats.maxStallUs = stall;
+}
+
 int FFAudioPlayer::decodeAudio() {
     int ret;
+    int size = 0;
     if (exitPlaying)
         return -1;
     // 读取音频数据(解封装)
@@ -150,55 +461,25 @@ int FFAudioPlayer::decodeAudio() {
     }
     // 判断是否为音频帧
     if (packet->stream_index != audio_index) {
+        av_packet_unref(packet);
         return 0;
     }
     // 解码音频帧
     ret = avcodec_send_packet(codecContext, packet);
+    av_packet_unref(packet);
     if (ret < 0) {
         LOGE(AUDIO_TAG, "avcodec_send_packet=%s", av_err2str(ret));
     }
-    ret = avcodec_receive_frame(codecContext, frame);
-    if (ret < 0) {
-        if (ret == AVERROR(EAGAIN)) {
-            return 0;
-        } else {
-            return ret;
-        }
-    }
-    // 判断是否要更新filter_desc
-    if (filterAgain) {
-        filterAgain = false;
-        if (filterGraph) {
-            avfilter_graph_free(&filterGraph);
-        }
-        initFilter(filterDesc, codecContext, &filterGraph, &srcContext, &sinkContext);
-    }
-
-    // 输入到滤波器
-    ret = av_buffersrc_add_frame(srcContext, frame);
-    if (ret < 0) {
-        LOGE(AUDIO_TAG, "av_buffersrc_add_frame err=%s", av_err2str(ret));
+    while ((ret = avcodec_receive_frame(codecContext, frame)) >= 0) {
+        // 在帧边界处理滤镜的修改
+        applyFilterChange(&size);
+        runFilter(&filter, frame, &size);
+        av_frame_unref(frame);
     }
-    // 从滤波器取出
-    ret = av_buffersink_get_frame(sinkContext, filterFrame);
-    if (ret == AVERROR(EAGAIN)) {
-        return 0;
-    } else if (ret < 0) {
-        LOGE(AUDIO_TAG, "av_buffersink_get_frame err=%s", av_err2str(ret));
+    if (ret != AVERROR(EAGAIN) && ret != AVERROR_EOF) {
         return ret;
     }
-
-    // 音频格式转换
-    swr_convert(swrContext, &out_buffer, BUFFER_SIZE,
-            (const uint8_t **)(filterFrame->data), filterFrame->nb_samples);
-    // 获取转换后缓冲区大小
-    int buffer_size = av_samples_get_buffer_size(nullptr, out_channel,
-                                                 filterFrame->nb_samples, out_sample_fmt, 1);
-    LOGI(AUDIO_TAG, "buffer_size=%d", buffer_size);
-    av_frame_unref(frame);
-    av_frame_unref(filterFrame);
-    av_packet_unref(packet);
-    return buffer_size;
+    return size;
 }
 
 
@@ -207,15 +488,32 @@ uint8_t *FFAudioPlayer::getDecodeFrame() const {
 }
 
 void FFAudioPlayer::setFilterAgain(const char *filter) {
-    filterDesc = filter;
+    std::lock_guard<std::mutex> lock(filterMutex);
+    pendingDesc = filter && *filter ? filter : "anull";
     filterAgain = true;
 }
 
+void FFAudioPlayer::setInlineRebuild(bool inline_rebuild) {
+    inlineRebuild = inline_rebuild;
+}
+
+FilterSwitchStats FFAudioPlayer::getSwitchStats() {
+    return switchStats;
+}
+
 void FFAudioPlayer::setExitPlaying(bool exit) {
     exitPlaying = exit;
 }
 
 void FFAudioPlayer::close() {
+    if (filterThread.joinable()) {
+        {
+            std::lock_guard<std::mutex> lock(filterMutex);
+            filterThreadExit = true;
+            filterCond.notify_one();
+        }
+        filterThread.join();
+    }
     if (formatContext) {
         avformat_close_input(&formatContext);
     }
@@ -231,17 +529,14 @@ void FFAudioPlayer::close() {
     if (filterFrame) {
         av_frame_free(&filterFrame);
     }
-    if (srcContext) {
-        avfilter_free(srcContext);
-    }
-    if (sinkContext) {
-        avfilter_free(sinkContext);
-    }
-    if (filterGraph) {
-        avfilter_graph_free(&filterGraph);
+    avfilter_graph_free(&filter.graph);
+    avfilter_graph_free(&readyFilter.graph);
+    for (AVFilterGraph *graph : retiredGraphs) {
+        avfilter_graph_free(&graph);
     }
+    retiredGraphs.clear();
     if (swrContext) {
-        swr_close(swrContext);
+        swr_free(&swrContext);
     }
     delete[] out_buffer;
-}
\ No newline at end of file
+}
@@ -5,6 +5,12 @@
 #ifndef LEARNINGMEDIA_FF_AUDIO_PLAYER_H
 #define LEARNINGMEDIA_FF_AUDIO_PLAYER_H
 
+#include <condition_variable>
+#include <mutex>
+#include <string>
+#include <thread>
+#include <vector>
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -18,31 +24,89 @@ extern "C" {
 }
 #endif
 
+/**
+ * A filter graph with its description, and the request it's built for.
+ */
+struct AudioFilterGraph {
+    AVFilterGraph *graph = nullptr;
+    AVFilterContext *src = nullptr;
+    AVFilterContext *sink = nullptr;
+    std::string desc;
+    int64_t serial = 0;
+    // 输入输出的采样数, 差值是切换时丢掉的
+    int64_t inSamples = 0;
+    int64_t outSamples = 0;
+};
+
+/**
+ * The cost of filter changes on the decode thread.
+ */
+struct FilterSwitchStats {
+    int changes = 0;
+    int commands = 0;
+    int rebuilds = 0;
+    // 解码线程因切换阻塞的时间
+    int64_t totalStallUs = 0;
+    int64_t maxStallUs = 0;
+    // 旧滤镜里缓存, 没有输出的采样
+    int64_t lostSamples = 0;
+};
+
 class FFAudioPlayer {
 private:
 
-    AVFormatContext *formatContext;
-    AVCodecContext *codecContext;
+    AVFormatContext *formatContext = nullptr;
+    AVCodecContext *codecContext = nullptr;
     int audio_index = -1;
-    SwrContext *swrContext;
+    SwrContext *swrContext = nullptr;
     int out_sample_rate;
     int out_ch_layout;
     int out_channel;
     enum AVSampleFormat out_sample_fmt;
-    AVPacket *packet;
-    AVFrame *frame;
-    AVFrame *filterFrame;
-    uint8_t *out_buffer;
+    AVPacket *packet = nullptr;
+    AVFrame *frame = nullptr;
+    AVFrame *filterFrame = nullptr;
+    uint8_t *out_buffer = nullptr;
 
-    AVFilterGraph *filterGraph;
-    AVFilterContext *srcContext;
-    AVFilterContext *sinkContext;
+    AudioFilterGraph filter;
+    // abuffer和aformat的参数, 后台线程创建滤镜时不用访问解码器
+    std::string filterArgs;
+    std::string filterFormat;
 
-    // 滤波描述
-    const char *filterDesc;
+    // 新的滤波描述, 在解码线程的帧边界处理
+    std::mutex filterMutex;
+    std::condition_variable filterCond;
+    std::string pendingDesc;
     bool filterAgain = false;
     bool exitPlaying = false;
 
+    // 不能用命令修改时, 在后台线程创建新的滤镜, 创建好再替换
+    std::thread filterThread;
+    std::string buildDesc;
+    int64_t buildSerial = 0;
+    bool hasBuildRequest = false;
+    AudioFilterGraph readyFilter;
+    bool hasReadyFilter = false;
+    std::vector<AVFilterGraph *> retiredGraphs;
+    bool filterThreadExit = false;
+    int64_t requestSerial = 0;
+    bool rebuildPending = false;
+    // 按原来的方式在解码线程重建, 用于对比
+    bool inlineRebuild = false;
+    FilterSwitchStats switchStats;
+
+    void filterLoop();
+
+    void applyFilterChange(int *size);
+
+    bool sendFilterCommands(const std::string &desc);
+
+    void swapFilter(AudioFilterGraph *newFilter, int *size);
+
+    int runFilter(AudioFilterGraph *graph, AVFrame *input, int *size);
+
+    void appendSamples(AVFrame *input, int *size);
+
 public:
     int open(const char* path);
 
@@ -52,8 +116,18 @@ public:
 
     int decodeAudio();
 
+    /**
+     * May be called on any thread, the change is applied at the next frame.
+     * The options which can be changed at runtime are sent as commands,
+     * otherwise a new graph is built on a background thread and replaces
+     * the old one after its buffered samples are output.
+     */
     void setFilterAgain(const char *filter);
 
+    void setInlineRebuild(bool inline_rebuild);
+
+    FilterSwitchStats getSwitchStats();
+
     void setExitPlaying(bool exit);
 
     uint8_t *getDecodeFrame() const;
@@ -6,21 +6,38 @@
 
 #define RESAMPLE_TAG "AudioResample"
 
+// pcm等编码器没有固定的frame_size
+#define DEFAULT_FRAME_SIZE 1024
+
 FFAudioResample::FFAudioResample() {
     resample = new AudioResample();
 }
 
 FFAudioResample::~FFAudioResample() {
+    closeFiles();
+    swr_free(&resample->resampleCtx);
     delete resample;
 }
 
+int64_t FFAudioResample::getInputSamples() const {
+    return resample->inSamples;
+}
+
+int64_t FFAudioResample::getOutputSamples() const {
+    return resample->pts;
+}
+
+static int getFrameSize(AudioResample *ar) {
+    return ar->outCodecCtx->frame_size > 0 ? ar->outCodecCtx->frame_size : DEFAULT_FRAME_SIZE;
+}
+
 // 初始化AVFrame，包括音频格式、采样数、声道布局、采样率
 static int initOutputFrame(AudioResample **pResample) {
     AudioResample *ar = *pResample;
 
     AVFrame *frame        = av_frame_alloc();
     frame->format         = ar->outCodecCtx->sample_fmt;
-    frame->nb_samples     = ar->outCodecCtx->frame_size;
+    frame->nb_samples     = getFrameSize(ar);
     frame->sample_rate    = ar->outCodecCtx->sample_rate;
     frame->channel_layout = ar->outCodecCtx->channel_layout;
 
@@ -33,18 +50,45 @@ static int initOutputFrame(AudioResample **pResample) {
 // 初始化SwrContext上下文
 static int initResample(AudioResample **pResample) {
     AudioResample *ar = *pResample;
+    int64_t inLayout  = av_get_default_channel_layout(ar->inCodecCtx->channels);
+    int64_t outLayout = av_get_default_channel_layout(ar->outCodecCtx->channels);
+    // 参数相同就复用, 省去滤波器系数的计算.
+    // flush过的SwrContext不能继续convert, 要重新初始化清空缓存和状态, 同FFPcmResampler::reset
+    if (ar->resampleCtx && ar->swrInLayout == inLayout && ar->swrOutLayout == outLayout
+            && ar->swrInFormat == ar->inCodecCtx->sample_fmt && ar->swrOutFormat == ar->outCodecCtx->sample_fmt
+            && ar->swrInRate == ar->inCodecCtx->sample_rate && ar->swrOutRate == ar->outCodecCtx->sample_rate) {
+        swr_close(ar->resampleCtx);
+        int ret = swr_init(ar->resampleCtx);
+        if (ret < 0) {
+            LOGE(RESAMPLE_TAG, "swr_init error:%s", av_err2str(ret));
+            swr_free(&ar->resampleCtx);
+        }
+        return ret;
+    }
+    swr_free(&ar->resampleCtx);
     SwrContext *context = swr_alloc_set_opts(nullptr,
-                                             av_get_default_channel_layout(ar->outCodecCtx->channels),
+                                             outLayout,
                                              ar->outCodecCtx->sample_fmt,
                                              ar->outCodecCtx->sample_rate,
-                                             av_get_default_channel_layout(ar->inCodecCtx->channels),
+                                             inLayout,
                                              ar->inCodecCtx->sample_fmt,
                                              ar->inCodecCtx->sample_rate,
                                              0, nullptr);
     int ret = swr_init(context);
-    ar->resampleCtx = context;
+    if (ret < 0) {
+        LOGE(RESAMPLE_TAG, "swr_init error:%s", av_err2str(ret));
+        swr_free(&context);
+        return ret;
+    }
+    ar->resampleCtx  = context;
+    ar->swrInLayout  = inLayout;
+    ar->swrOutLayout = outLayout;
+    ar->swrInFormat  = ar->inCodecCtx->sample_fmt;
+    ar->swrOutFormat = ar->outCodecCtx->sample_fmt;
+    ar->swrInRate    = ar->inCodecCtx->sample_rate;
+    ar->swrOutRate   = ar->outCodecCtx->sample_rate;
     *pResample = ar;
-    return ret;
+    return 0;
 }
 
 // 分配重采样的内存
@@ -60,30 +104,51 @@ static int initConvertedSamples(AudioResample **pResample, uint8_t ***converted_
         LOGE(RESAMPLE_TAG, "av_samples_alloc error:%s", av_err2str(ret));
         av_freep(&(*converted_input_samples)[0]);
         free(*converted_input_samples);
+        *converted_input_samples = nullptr;
         return ret;
     }
     return 0;
 }
 
+// 重采样后写到FIFO队列, input为空时取出重采样器缓存的数据
+static int convertToFifo(AudioResample **pResample, const uint8_t **input, int nb_samples) {
+    AudioResample *ar = *pResample;
+    uint8_t **dst_samples = nullptr;
+    int dst_nb_samples = swr_get_out_samples(ar->resampleCtx, nb_samples);
+    if (dst_nb_samples <= 0)
+        return dst_nb_samples;
+    int ret = initConvertedSamples(pResample, &dst_samples, dst_nb_samples);
+    if (ret < 0)
+        return ret;
+    ret = swr_convert(ar->resampleCtx, dst_samples, dst_nb_samples, input, nb_samples);
+    if (ret < 0) {
+        LOGE(RESAMPLE_TAG, "resample error=%s", av_err2str(ret));
+    } else if (ret > 0) {
+        ret = av_audio_fifo_write(ar->fifo, (void **) dst_samples, ret);
+    }
+    av_freep(&dst_samples[0]);
+    free(dst_samples);
+    return ret;
+}
+
 int FFAudioResample::openInput(const char *inputPath) {
-    AVStream *audioStream = nullptr;
     int ret = avformat_open_input(&resample->inFormatCtx, inputPath, nullptr, nullptr);
     if (ret < 0) {
         LOGE(RESAMPLE_TAG, "avformat_open_input err=%s", av_err2str(ret));
         return ret;
     }
     avformat_find_stream_info(resample->inFormatCtx, nullptr);
-    for (int i = 0; i < resample->inFormatCtx->nb_streams; ++i) {
-        if (AVMEDIA_TYPE_AUDIO == resample->inFormatCtx->streams[i]->codecpar->codec_type) {
-            audioStream = resample->inFormatCtx->streams[i];
-        }
+    ret = av_find_best_stream(resample->inFormatCtx, AVMEDIA_TYPE_AUDIO, -1, -1, nullptr, 0);
+    if (ret < 0) {
+        LOGE(RESAMPLE_TAG, "no audio stream in %s", inputPath);
+        return ret;
     }
-    if (!audioStream)
-        return -1;
+    resample->audioIndex = ret;
+    AVStream *audioStream = resample->inFormatCtx->streams[ret];
     const AVCodec *codec = avcodec_find_decoder(audioStream->codecpar->codec_id);
     if (!codec) {
         LOGE(RESAMPLE_TAG, "can't find decoder:%s", avcodec_get_name(audioStream->codecpar->codec_id));
-        return -1;
+        return AVERROR_DECODER_NOT_FOUND;
     }
     resample->inCodecCtx = avcodec_alloc_context3(codec);
     avcodec_parameters_to_context(resample->inCodecCtx, audioStream->codecpar);
@@ -97,6 +162,11 @@ int FFAudioResample::openInput(const char *inputPath) {
 }
 
 int FFAudioResample::openOutput(const char *outputPath, int sampleRate) {
+    const AVOutputFormat *outputFormat = av_guess_format(nullptr, outputPath, nullptr);
+    if (!outputFormat) {
+        LOGE(RESAMPLE_TAG, "can't guess format of %s", outputPath);
+        return AVERROR_MUXER_NOT_FOUND;
+    }
     AVIOContext *avioContext = nullptr;
     int ret = avio_open(&avioContext, outputPath, AVIO_FLAG_WRITE);
     if (ret < 0) {
@@ -107,20 +177,23 @@ int FFAudioResample::openOutput(const char *outputPath, int sampleRate) {
     resample->outFormatCtx          = avformat_alloc_context();
     resample->outFormatCtx->pb      = avioContext;
     resample->outFormatCtx->url     = av_strdup(outputPath);
-    resample->outFormatCtx->oformat = av_guess_format(nullptr, outputPath, nullptr);
+    resample->outFormatCtx->oformat = outputFormat;
 
     const AVCodec *codec = avcodec_find_encoder(resample->inCodecCtx->codec_id);
     if (!codec) {
         LOGE(RESAMPLE_TAG, "avcodec_find_encoder err=%s", resample->inCodecCtx->codec->name);
-        return -1;
+        return AVERROR_ENCODER_NOT_FOUND;
     }
     AVStream *stream = avformat_new_stream(resample->outFormatCtx, nullptr);
     resample->outCodecCtx = avcodec_alloc_context3(codec);
     // 设置codecContext相关参数
     resample->outCodecCtx->channels       = resample->inCodecCtx->channels;
-    resample->outCodecCtx->channel_layout = resample->inCodecCtx->channel_layout;
+    resample->outCodecCtx->channel_layout = resample->inCodecCtx->channel_layout
+            ? resample->inCodecCtx->channel_layout
+            : av_get_default_channel_layout(resample->inCodecCtx->channels);
     resample->outCodecCtx->sample_rate    = sampleRate;
     resample->outCodecCtx->sample_fmt     = codec->sample_fmts[0];
+    resample->outCodecCtx->time_base      = {1, sampleRate};
     // 允许使用试验性编码器
     resample->outCodecCtx->strict_std_compliance = FF_COMPLIANCE_EXPERIMENTAL;
     // 设置timebase时间基
@@ -141,74 +214,58 @@ int FFAudioResample::openOutput(const char *outputPath, int sampleRate) {
 }
 
 int FFAudioResample::decodeAudioFrame(AVFrame *frame, int *data_present, int *finished) {
-    // 读取音频帧
-    int ret = av_read_frame(resample->inFormatCtx, &resample->inPacket);
-    if (ret == AVERROR_EOF) {
-        *finished = 1;
-    }
-    // 判断是否为音频流
-    if (AVMEDIA_TYPE_AUDIO != resample->inFormatCtx->streams[resample->inPacket.stream_index]->codecpar->codec_type) {
-        ret = 0;
-        goto end;
-    }
-    // 发送到解码器
-    ret = avcodec_send_packet(resample->inCodecCtx, &resample->inPacket);
-    if (ret < 0) {
-        LOGE(RESAMPLE_TAG, "avcodec_send_packet error=%s", av_err2str(ret));
+    // 先取解码器里剩下的帧, 一个包可能解出多帧
+    int ret = avcodec_receive_frame(resample->inCodecCtx, frame);
+    if (ret == AVERROR(EAGAIN) && !resample->inputEof) {
+        // 读取音频帧
+        ret = av_read_frame(resample->inFormatCtx, &resample->inPacket);
+        if (ret == AVERROR_EOF) {
+            // 送入空包, 取出解码器缓存的帧
+            resample->inputEof = true;
+            ret = avcodec_send_packet(resample->inCodecCtx, nullptr);
+        } else if (ret < 0) {
+            LOGE(RESAMPLE_TAG, "av_read_frame error=%s", av_err2str(ret));
+            return ret;
+        } else if (resample->inPacket.stream_index == resample->audioIndex) {
+            // 发送到解码器
+            ret = avcodec_send_packet(resample->inCodecCtx, &resample->inPacket);
+        }
+        if (ret < 0) {
+            LOGE(RESAMPLE_TAG, "avcodec_send_packet error=%s", av_err2str(ret));
+        }
+        av_packet_unref(&resample->inPacket);
+        return 0;
     }
-    ret = avcodec_receive_frame(resample->inCodecCtx, frame);
     if (ret == AVERROR(EAGAIN)) {
-        ret = 0;
-        goto end;
+        return 0;
     } else if (ret == AVERROR_EOF) {
         *finished = 1;
-        ret = 0;
-        goto end;
+        return 0;
     } else if (ret < 0) {
         LOGE(RESAMPLE_TAG, "decode frame error=%s", av_err2str(ret));
-        goto end;
-    } else {
-        *data_present = 1;
-        goto end;
+        return ret;
     }
-end:
-    av_packet_unref(&resample->inPacket);
-    return ret;
+    *data_present = 1;
+    resample->inSamples += frame->nb_samples;
+    return 0;
 }
 
 // 解码，重采样，写到FIFO队列
 int FFAudioResample::decodeAndConvert(int *finished) {
-    uint8_t **dst_samples = nullptr;
-    int ret = 0;
     int data_present = 0;
-
-    if (decodeAudioFrame(resample->inFrame, &data_present, finished) < 0)
-        goto end;
-    if (*finished) {
-        ret = 0;
-        goto end;
-    }
+    int ret = decodeAudioFrame(resample->inFrame, &data_present, finished);
+    if (ret < 0)
+        return ret;
+    // 解码结束，取出重采样器剩下的数据
+    if (*finished)
+        return convertToFifo(&resample, nullptr, 0);
     // 解码成功，进行重采样
     if (data_present) {
-        int dst_nb_samples = av_rescale_rnd(resample->inFrame->nb_samples, resample->outCodecCtx->sample_rate,
-                                           resample->inCodecCtx->sample_rate, AV_ROUND_UP);
-        if (initConvertedSamples(&resample, &dst_samples, dst_nb_samples))
-            goto end;
-        ret = swr_convert(resample->resampleCtx, dst_samples, dst_nb_samples,
-                (const uint8_t **)(resample->inFrame->extended_data), resample->inFrame->nb_samples);
-        if (ret < 0) {
-            LOGE(RESAMPLE_TAG, "resample error=%s", av_err2str(ret));
-            goto end;
-        }
-        av_audio_fifo_write(resample->fifo, (void **)dst_samples, ret);
-    }
-    ret = 0;
-end:
-    if (dst_samples) {
-        av_freep(&dst_samples[0]);
-        free(dst_samples);
+        ret = convertToFifo(&resample, (const uint8_t **) resample->inFrame->extended_data,
+                            resample->inFrame->nb_samples);
+        av_frame_unref(resample->inFrame);
     }
-    return ret;
+    return ret < 0 ? ret : 0;
 }
 
 int FFAudioResample::encodeAudioFrame(AVFrame *frame, int *data_present) {
@@ -221,34 +278,35 @@ int FFAudioResample::encodeAudioFrame(AVFrame *frame, int *data_present) {
     // 发送音频帧到编码器
     ret = avcodec_send_frame(resample->outCodecCtx, frame);
     if (ret == AVERROR_EOF) {
-        ret = 0;
-        goto end;
+        return 0;
     } else if (ret < 0) {
         LOGE(RESAMPLE_TAG, "encode frame err=%s", av_err2str(ret));
-        goto end;
+        return ret;
     }
-    ret = avcodec_receive_packet(resample->outCodecCtx, &resample->outPacket);
-    if (ret == AVERROR(EAGAIN) || ret == AVERROR_EOF) {
-        ret = 0;
-        goto end;
-    } else if (ret < 0) {
-        goto end;
-    } else {
+    while (true) {
+        ret = avcodec_receive_packet(resample->outCodecCtx, &resample->outPacket);
+        if (ret == AVERROR(EAGAIN) || ret == AVERROR_EOF) {
+            return 0;
+        } else if (ret < 0) {
+            return ret;
+        }
         *data_present = 1;
+        av_packet_rescale_ts(&resample->outPacket, resample->outCodecCtx->time_base,
+                             resample->outFormatCtx->streams[0]->time_base);
+        // 封装：音频帧写到文件
+        ret = av_write_frame(resample->outFormatCtx, &resample->outPacket);
+        av_packet_unref(&resample->outPacket);
+        if (ret < 0) {
+            LOGE(RESAMPLE_TAG, "av_write_frame err=%s", av_err2str(ret));
+            return ret;
+        }
     }
-   // 封装：音频帧写到文件
-    if (*data_present && (ret = av_write_frame(resample->outFormatCtx, &resample->outPacket)) < 0) {
-        LOGE(RESAMPLE_TAG, "av_write_frame err=%s", av_err2str(ret));
-    }
-end:
-    av_packet_unref(&resample->outPacket);
-    return ret;
 }
 
 // 从FIFO队列读取，编码，封装
 int FFAudioResample::encodeAndWrite() {
-    int data_written;
-    int frame_size = FFMIN(av_audio_fifo_size(resample->fifo), resample->outCodecCtx->frame_size);
+    int data_written = 0;
+    int frame_size = FFMIN(av_audio_fifo_size(resample->fifo), getFrameSize(resample));
     resample->outFrame->nb_samples = frame_size;
 
     av_audio_fifo_read(resample->fifo, (void **)resample->outFrame->data, frame_size);
@@ -258,18 +316,41 @@ int FFAudioResample::encodeAndWrite() {
     return 0;
 }
 
+void FFAudioResample::closeFiles() {
+    if (resample->fifo) {
+        av_audio_fifo_free(resample->fifo);
+        resample->fifo = nullptr;
+    }
+    avformat_close_input(&resample->inFormatCtx);
+    avcodec_free_context(&resample->inCodecCtx);
+    if (resample->outFormatCtx) {
+        avio_closep(&resample->outFormatCtx->pb);
+        avformat_free_context(resample->outFormatCtx);
+        resample->outFormatCtx = nullptr;
+    }
+    avcodec_free_context(&resample->outCodecCtx);
+    av_frame_free(&resample->inFrame);
+    av_frame_free(&resample->outFrame);
+    av_packet_unref(&resample->inPacket);
+    av_packet_unref(&resample->outPacket);
+    resample->audioIndex = -1;
+    resample->inputEof   = false;
+}
+
 int FFAudioResample::resampling(const char *inputPath, const char *outputPath, int sampleRate) {
-    int ret = 0;
+    int ret;
+    resample->pts       = 0;
+    resample->inSamples = 0;
     // 打开输入文件
-    if (openInput(inputPath) < 0)
+    if ((ret = openInput(inputPath)) < 0)
         goto end;
     // 打开输出文件
-    if (openOutput(outputPath, sampleRate) < 0)
+    if ((ret = openOutput(outputPath, sampleRate)) < 0)
         goto end;
-    if (initResample(&resample) < 0) {
+    if ((ret = initResample(&resample)) < 0) {
         goto end;
     }
-    if (initOutputFrame(&resample) < 0) {
+    if ((ret = initOutputFrame(&resample)) < 0) {
         goto end;
     }
     resample->fifo = av_audio_fifo_alloc(resample->outCodecCtx->sample_fmt,
@@ -284,10 +365,10 @@ int FFAudioResample::resampling(const char *inputPath, const char *outputPath, i
 
     while (true) {
         int finished = 0;
-        int frame_size = resample->outCodecCtx->frame_size;
+        int frame_size = getFrameSize(resample);
         // 解码，重采样
         while (av_audio_fifo_size(resample->fifo) < frame_size) {
-            if (decodeAndConvert(&finished) < 0)
+            if ((ret = decodeAndConvert(&finished)) < 0)
                 goto end;
             if (finished)
                 break;
@@ -295,39 +376,24 @@ int FFAudioResample::resampling(const char *inputPath, const char *outputPath, i
         // 编码，封装
         while (av_audio_fifo_size(resample->fifo) >= frame_size ||
                 (finished && av_audio_fifo_size(resample->fifo) > 0)) {
-            if (encodeAndWrite() < 0)
+            if ((ret = encodeAndWrite()) < 0)
                 goto end;
         }
         // 编码剩下缓冲区的数据
         if (finished) {
             int data_written = 0;
-            do {
-                data_written = 0;
-                if (encodeAudioFrame(nullptr, &data_written))
-                    goto end;
-            } while (data_written);
+            if ((ret = encodeAudioFrame(nullptr, &data_written)) < 0)
+                goto end;
             break;
         }
     }
 
     // 写文件尾
-    av_write_trailer(resample->outFormatCtx);
-    ret = 0;
+    ret = av_write_trailer(resample->outFormatCtx);
 end:
-    if (resample->fifo)
-        av_audio_fifo_free(resample->fifo);
-    swr_free(&resample->resampleCtx);
-    if (resample->inFormatCtx)
-        avformat_close_input(&resample->inFormatCtx);
-    if (resample->inCodecCtx)
-        avcodec_free_context(&resample->inCodecCtx);
-    if (resample->outFormatCtx)
-        avformat_close_input(&resample->outFormatCtx);
-    if (resample->outCodecCtx)
-        avcodec_free_context(&resample->outCodecCtx);
-    if (resample->inFrame)
-        av_frame_free(&resample->inFrame);
-    if (resample->outFrame)
-        av_frame_free(&resample->outFrame);
-    return ret;
-}
\ No newline at end of file
+    closeFiles();
+    // 出错时重采样器里可能留有数据, 不能给下个文件复用
+    if (ret < 0)
+        swr_free(&resample->resampleCtx);
+    return ret < 0 ? ret : 0;
+}
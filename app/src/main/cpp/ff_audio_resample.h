@@ -22,13 +22,23 @@ extern "C" {
 
 struct AudioResample {
     int64_t pts = 0;
+    int64_t inSamples = 0;
+    int audioIndex = -1;
+    bool inputEof = false;
 
     AVPacket inPacket;
     AVPacket outPacket;
     AVFrame  *inFrame;
     AVFrame  *outFrame;
 
+    // 同一个对象处理多个文件时, 参数不变就复用SwrContext
     SwrContext *resampleCtx;
+    int64_t swrInLayout;
+    int64_t swrOutLayout;
+    int swrInFormat;
+    int swrOutFormat;
+    int swrInRate;
+    int swrOutRate;
     AVAudioFifo *fifo;
 
     AVFormatContext *inFormatCtx;
@@ -53,13 +63,26 @@ private:
 
     int encodeAndWrite();
 
+    void closeFiles();
+
 public:
     FFAudioResample();
 
     ~FFAudioResample();
 
+    /**
+     * Resample a file, it may be called again for the next file,
+     * and the resampler is reused if the formats are the same.
+     * @return 0 on success, negative on error
+     */
     int resampling(const char *inputPath, const char *outputPath, int sampleRate);
 
+    // samples decoded from the input of the last resampling
+    int64_t getInputSamples() const;
+
+    // samples encoded to the output of the last resampling
+    int64_t getOutputSamples() const;
+
 };
 
 #endif //LEARNINGMEDIA_FF_AUDIO_RESAMPLE_H
@@ -0,0 +1,115 @@
+//
+// Created by xu fulong on 2022/10/15.
+//
+
+#include "ff_command_job.h"
+
+#include <cstdlib>
+#include <cstring>
+#include <thread>
+#include <utility>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+#include "ffmpeg/ffmpeg.h"
+#ifdef __cplusplus
+}
+#endif
+
+FFCommandJob::FFCommandJob(std::vector<std::string> commandLine)
+        : args(std::move(commandLine)), abortRequest(false) {
+}
+
+int FFCommandJob::onInterrupt(void *opaque) {
+    return ((FFCommandJob *) opaque)->abortRequest.load();
+}
+
+void FFCommandJob::onProgress(void *opaque, const char *stats) {
+    auto *job = (FFCommandJob *) opaque;
+    std::lock_guard<std::mutex> lock(job->mutex);
+    parseProgress(stats, &job->progress);
+    job->progressUpdated = true;
+    job->cond.notify_one();
+}
+
+void FFCommandJob::runCommand() {
+    std::vector<char *> argv;
+    for (auto &arg : args) {
+        argv.push_back(&arg[0]);
+    }
+    argv.push_back(nullptr);
+    FFmpegJobHooks hooks = {this, onInterrupt, onProgress};
+    int ret = run_ffmpeg_job((int) args.size(), argv.data(), &hooks);
+
+    std::lock_guard<std::mutex> lock(mutex);
+    result   = ret;
+    finished = true;
+    cond.notify_one();
+}
+
+int FFCommandJob::run(const std::function<void(const FFCommandProgress &)> &listener) {
+    if (abortRequest) {
+        return COMMAND_RESULT_CANCELLED;
+    }
+    // 新线程的thread local变量都是初始值, 不会带上一个命令的状态
+    std::thread worker(&FFCommandJob::runCommand, this);
+    std::unique_lock<std::mutex> lock(mutex);
+    while (true) {
+        cond.wait(lock, [this] { return progressUpdated || finished; });
+        if (progressUpdated) {
+            FFCommandProgress current = progress;
+            progressUpdated = false;
+            if (listener) {
+                lock.unlock();
+                listener(current);
+                lock.lock();
+            }
+            continue;
+        }
+        break;
+    }
+    int ret = result;
+    lock.unlock();
+    worker.join();
+    return ret;
+}
+
+void FFCommandJob::cancel() {
+    abortRequest = true;
+}
+
+bool FFCommandJob::isCancelled() const {
+    return abortRequest.load();
+}
+
+void FFCommandJob::parseProgress(const char *stats, FFCommandProgress *progress) {
+    const char *line = stats;
+    while (line && *line) {
+        const char *next = strchr(line, '\n');
+        size_t len = next ? (size_t) (next - line) : strlen(line);
+        const char *eq = (const char *) memchr(line, '=', len);
+        if (eq) {
+            std::string key(line, eq - line);
+            std::string value(eq + 1, line + len - (eq + 1));
+            if (value != "N/A") {
+                const char *v = value.c_str();
+                if (key == "frame") {
+                    progress->frame = strtoll(v, nullptr, 10);
+                } else if (key == "fps") {
+                    progress->fps = strtof(v, nullptr);
+                } else if (key == "out_time_us") {
+                    progress->outTimeUs = strtoll(v, nullptr, 10);
+                } else if (key == "speed") {
+                    // 形如" 1.5x"
+                    progress->speed = strtof(v, nullptr);
+                } else if (key == "total_size") {
+                    progress->totalSize = strtoll(v, nullptr, 10);
+                } else if (key == "progress") {
+                    progress->end = value == "end";
+                }
+            }
+        }
+        line = next ? next + 1 : nullptr;
+    }
+}
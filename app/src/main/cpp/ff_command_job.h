@@ -0,0 +1,78 @@
+//
+// Created by xu fulong on 2022/10/15.
+//
+
+#ifndef LEARNINGMEDIA_FF_COMMAND_JOB_H
+#define LEARNINGMEDIA_FF_COMMAND_JOB_H
+
+#include <atomic>
+#include <condition_variable>
+#include <cstdint>
+#include <functional>
+#include <mutex>
+#include <string>
+#include <vector>
+
+#define COMMAND_RESULT_CANCELLED 255
+
+/**
+ * The stats of -progress, updated every stats_period (0.5s by default).
+ */
+struct FFCommandProgress {
+    int64_t frame     = 0;
+    float   fps       = 0;
+    int64_t outTimeUs = 0;
+    float   speed     = 0;
+    int64_t totalSize = 0;
+    bool    end       = false;
+};
+
+/**
+ * A command line of fftools. The state of fftools is thread local,
+ * so each job runs on a new thread, which starts with the defaults,
+ * and jobs on different threads don't share anything.
+ */
+class FFCommandJob {
+private:
+    std::vector<std::string> args;
+    std::atomic<bool> abortRequest;
+
+    std::mutex mutex;
+    std::condition_variable cond;
+    FFCommandProgress progress;
+    bool progressUpdated = false;
+    bool finished = false;
+    int result = 0;
+
+    static int onInterrupt(void *opaque);
+
+    static void onProgress(void *opaque, const char *stats);
+
+    void runCommand();
+
+public:
+    explicit FFCommandJob(std::vector<std::string> commandLine);
+
+    /**
+     * Run the command until it ends, and deliver the progress to listener
+     * on the calling thread. Only the latest progress is delivered if the
+     * listener is slower than the command.
+     * @return the result of ffmpeg, COMMAND_RESULT_CANCELLED if cancelled
+     */
+    int run(const std::function<void(const FFCommandProgress &)> &listener);
+
+    /**
+     * Ask the command to stop, it may be called on any thread, even before run().
+     * The files being written are finished as if ffmpeg got a signal.
+     */
+    void cancel();
+
+    bool isCancelled() const;
+
+    /**
+     * Parse the key=value lines of -progress, the unknown keys and N/A are skipped.
+     */
+    static void parseProgress(const char *stats, FFCommandProgress *progress);
+};
+
+#endif //LEARNINGMEDIA_FF_COMMAND_JOB_H
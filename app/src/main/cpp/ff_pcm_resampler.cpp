@@ -0,0 +1,128 @@
+//
+// Created by xu fulong on 2022/10/29.
+//
+
+#include "ff_pcm_resampler.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+#include "libavutil/opt.h"
+#ifdef __cplusplus
+}
+#endif
+
+#define PCM_RESAMPLE_TAG "PcmResampler"
+
+FFPcmResampler::FFPcmResampler(int inRate, int inChannels, int inFormat,
+                               int outRate, int outChannels, int outFormat)
+        : inRate(inRate), outRate(outRate) {
+    // java传入的数据都是交错存储的
+    this->inFormat  = av_get_packed_sample_fmt((AVSampleFormat) inFormat);
+    this->outFormat = av_get_packed_sample_fmt((AVSampleFormat) outFormat);
+    av_channel_layout_default(&inLayout, inChannels);
+    av_channel_layout_default(&outLayout, outChannels);
+}
+
+FFPcmResampler::~FFPcmResampler() {
+    swr_free(&swrCtx);
+    av_channel_layout_uninit(&inLayout);
+    av_channel_layout_uninit(&outLayout);
+}
+
+void FFPcmResampler::setChannelLayout(uint64_t inMask, uint64_t outMask) {
+    if (inMask) {
+        av_channel_layout_uninit(&inLayout);
+        av_channel_layout_from_mask(&inLayout, inMask);
+    }
+    if (outMask) {
+        av_channel_layout_uninit(&outLayout);
+        av_channel_layout_from_mask(&outLayout, outMask);
+    }
+    configured = false;
+}
+
+void FFPcmResampler::setQuality(int value) {
+    quality    = value;
+    configured = false;
+}
+
+int FFPcmResampler::getInputFrameBytes() const {
+    return av_get_bytes_per_sample(inFormat) * inLayout.nb_channels;
+}
+
+int FFPcmResampler::getOutputFrameBytes() const {
+    return av_get_bytes_per_sample(outFormat) * outLayout.nb_channels;
+}
+
+int FFPcmResampler::configure() {
+    if (configured) {
+        return 0;
+    }
+    int ret = swr_alloc_set_opts2(&swrCtx, &outLayout, outFormat, outRate,
+                                  &inLayout, inFormat, inRate, 0, nullptr);
+    if (ret < 0) {
+        LOGE(PCM_RESAMPLE_TAG, "swr_alloc_set_opts2 err=%s", av_err2str(ret));
+        return ret;
+    }
+    // 滤波器越长, 相位越多, 阻带衰减越好, 计算量也越大
+    int filterSize = 32;
+    int phaseShift = 10;
+    if (quality == RESAMPLE_QUALITY_LOW) {
+        filterSize = 8;
+        phaseShift = 6;
+    } else if (quality == RESAMPLE_QUALITY_HIGH) {
+        filterSize = 64;
+        phaseShift = 12;
+    }
+    av_opt_set_int(swrCtx, "filter_size", filterSize, 0);
+    av_opt_set_int(swrCtx, "phase_shift", phaseShift, 0);
+    if ((ret = swr_init(swrCtx)) < 0) {
+        LOGE(PCM_RESAMPLE_TAG, "swr_init err=%s", av_err2str(ret));
+        return ret;
+    }
+    configured = true;
+    return 0;
+}
+
+int FFPcmResampler::getMaxOutputSamples(int inSamples) {
+    int ret = configure();
+    return ret < 0 ? ret : swr_get_out_samples(swrCtx, inSamples);
+}
+
+int FFPcmResampler::process(const uint8_t *in, int inSamples, uint8_t *out, int outSamples) {
+    int ret = configure();
+    if (ret < 0) {
+        return ret;
+    }
+    // 输入不为空指针数组, 只是取出缓存的数据, 不会冲刷
+    const uint8_t *input[1] = {in};
+    uint8_t *output[1] = {out};
+    ret = swr_convert(swrCtx, output, outSamples, input, in ? inSamples : 0);
+    if (ret < 0) {
+        LOGE(PCM_RESAMPLE_TAG, "swr_convert err=%s", av_err2str(ret));
+    }
+    return ret;
+}
+
+int FFPcmResampler::flush(uint8_t *out, int outSamples) {
+    int ret = configure();
+    if (ret < 0) {
+        return ret;
+    }
+    uint8_t *output[1] = {out};
+    return swr_convert(swrCtx, output, outSamples, nullptr, 0);
+}
+
+int FFPcmResampler::reset() {
+    if (!configured) {
+        return 0;
+    }
+    // 重新初始化会清空缓存, 滤波器参数不变
+    swr_close(swrCtx);
+    int ret = swr_init(swrCtx);
+    if (ret < 0) {
+        configured = false;
+    }
+    return ret;
+}
@@ -0,0 +1,86 @@
+//
+// Created by xu fulong on 2022/10/29.
+//
+
+#ifndef LEARNINGMEDIA_FF_PCM_RESAMPLER_H
+#define LEARNINGMEDIA_FF_PCM_RESAMPLER_H
+
+#include "log_helper.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+#include "libswresample/swresample.h"
+#include "libavutil/channel_layout.h"
+#include "libavutil/samplefmt.h"
+#ifdef __cplusplus
+}
+#endif
+
+enum ResampleQuality {
+    RESAMPLE_QUALITY_LOW    = 0,
+    RESAMPLE_QUALITY_MEDIUM = 1,
+    RESAMPLE_QUALITY_HIGH   = 2
+};
+
+/**
+ * Resample interleaved PCM fed in chunks of any size, and keep the
+ * SwrContext across chunks, so a stream is converted without gaps.
+ * Planar formats are taken as the packed ones.
+ */
+class FFPcmResampler {
+private:
+    SwrContext *swrCtx = nullptr;
+    bool configured = false;
+
+    int inRate;
+    int outRate;
+    AVSampleFormat inFormat;
+    AVSampleFormat outFormat;
+    AVChannelLayout inLayout  = {};
+    AVChannelLayout outLayout = {};
+    int quality = RESAMPLE_QUALITY_MEDIUM;
+
+    int configure();
+
+public:
+    FFPcmResampler(int inRate, int inChannels, int inFormat, int outRate, int outChannels, int outFormat);
+
+    ~FFPcmResampler();
+
+    /**
+     * Masks of AV_CH_*, 0 keeps the default layout of the channel count.
+     * The channel count is replaced by the one of the mask.
+     */
+    void setChannelLayout(uint64_t inMask, uint64_t outMask);
+
+    void setQuality(int quality);
+
+    int getInputFrameBytes() const;
+
+    int getOutputFrameBytes() const;
+
+    /**
+     * Upper bound of the samples output for inSamples more input.
+     */
+    int getMaxOutputSamples(int inSamples);
+
+    /**
+     * Input that doesn't fit into out is kept, and output by the next call.
+     * @param in      interleaved samples, may be null when inSamples is 0
+     * @return samples written to out, negative on error
+     */
+    int process(const uint8_t *in, int inSamples, uint8_t *out, int outSamples);
+
+    /**
+     * Output the samples delayed by the filter at the end of a stream.
+     */
+    int flush(uint8_t *out, int outSamples);
+
+    /**
+     * Drop the buffered samples, to start another stream of the same format.
+     */
+    int reset();
+};
+
+#endif //LEARNINGMEDIA_FF_PCM_RESAMPLER_H
@@ -0,0 +1,783 @@
+//
+// Created by xu fulong on 2022/10/22.
+//
+
+#include "ff_transcode_pipeline.h"
+
+#include <cstring>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+#include "libavutil/channel_layout.h"
+#include "libavutil/pixdesc.h"
+#include "libavutil/time.h"
+#ifdef __cplusplus
+}
+#endif
+
+#define PIPELINE_TAG "TranscodePipeline"
+
+#define PROGRESS_INTERVAL_US 500000
+#define SILENCE_FRAME_SIZE   1024
+
+FFTranscodePipeline::FFTranscodePipeline() : abortRequest(false) {
+}
+
+FFTranscodePipeline::~FFTranscodePipeline() {
+    release();
+}
+
+void FFTranscodePipeline::addSegment(const char *path, int64_t startUs, int64_t durationUs) {
+    TranscodeSegment segment;
+    segment.path       = path;
+    segment.startUs    = FFMAX(startUs, 0);
+    segment.durationUs = FFMAX(durationUs, 0);
+    segments.push_back(segment);
+}
+
+void FFTranscodePipeline::setOutput(const char *path) {
+    outputPath = path;
+}
+
+void FFTranscodePipeline::setVideoSize(int w, int h) {
+    // yuv420p要求宽高为偶数
+    width  = FFMAX(w, 2) & ~1;
+    height = FFMAX(h, 2) & ~1;
+}
+
+void FFTranscodePipeline::setFrameRate(int num, int den) {
+    if (num > 0 && den > 0) {
+        frameRate = {num, den};
+    }
+}
+
+void FFTranscodePipeline::setVideoBitrate(int64_t bitrate) {
+    videoBitrate = bitrate;
+}
+
+void FFTranscodePipeline::setVideoEncoder(const char *name) {
+    videoEncoder = name ? name : "";
+}
+
+void FFTranscodePipeline::setVideoFilter(const char *filterDesc) {
+    videoFilter = filterDesc ? filterDesc : "";
+}
+
+void FFTranscodePipeline::setAudio(bool enabled, int rate, int channelCount, int64_t bitrate) {
+    audioEnabled = enabled;
+    if (rate > 0) {
+        sampleRate = rate;
+    }
+    if (channelCount > 0) {
+        channels = channelCount;
+    }
+    if (bitrate > 0) {
+        audioBitrate = bitrate;
+    }
+}
+
+void FFTranscodePipeline::setThreadCount(int count) {
+    threadCount = FFMAX(count, 0);
+}
+
+void FFTranscodePipeline::cancel() {
+    abortRequest = true;
+}
+
+int FFTranscodePipeline::onInterrupt(void *opaque) {
+    return ((FFTranscodePipeline *) opaque)->abortRequest.load();
+}
+
+static const AVCodec *findVideoEncoder(const std::string &name) {
+    if (!name.empty()) {
+        return avcodec_find_encoder_by_name(name.c_str());
+    }
+    const AVCodec *codec = avcodec_find_encoder(AV_CODEC_ID_H264);
+    return codec ? codec : avcodec_find_encoder(AV_CODEC_ID_MPEG4);
+}
+
+int FFTranscodePipeline::openEncoder(AVCodecContext *encCtx, AVStream **outStream, const AVCodec *codec) {
+    if (outFormatCtx->oformat->flags & AVFMT_GLOBALHEADER) {
+        encCtx->flags |= AV_CODEC_FLAG_GLOBAL_HEADER;
+    }
+    // 软编码器用多线程, 不依赖硬件
+    encCtx->thread_count = threadCount;
+    encCtx->thread_type  = FF_THREAD_FRAME | FF_THREAD_SLICE;
+    int ret = avcodec_open2(encCtx, codec, nullptr);
+    if (ret < 0) {
+        LOGE(PIPELINE_TAG, "open encoder %s err=%s", codec->name, av_err2str(ret));
+        return ret;
+    }
+    AVStream *stream = avformat_new_stream(outFormatCtx, nullptr);
+    if (!stream) {
+        return AVERROR(ENOMEM);
+    }
+    ret = avcodec_parameters_from_context(stream->codecpar, encCtx);
+    stream->time_base = encCtx->time_base;
+    *outStream = stream;
+    return ret;
+}
+
+int FFTranscodePipeline::openOutput() {
+    int ret = avformat_alloc_output_context2(&outFormatCtx, nullptr, nullptr, outputPath.c_str());
+    if (ret < 0) {
+        LOGE(PIPELINE_TAG, "alloc output %s err=%s", outputPath.c_str(), av_err2str(ret));
+        return ret;
+    }
+
+    const AVCodec *codec = findVideoEncoder(videoEncoder);
+    if (!codec) {
+        LOGE(PIPELINE_TAG, "video encoder %s not found", videoEncoder.c_str());
+        return AVERROR_ENCODER_NOT_FOUND;
+    }
+    videoEncCtx = avcodec_alloc_context3(codec);
+    if (!videoEncCtx) {
+        return AVERROR(ENOMEM);
+    }
+    videoEncCtx->width     = width;
+    videoEncCtx->height    = height;
+    videoEncCtx->pix_fmt   = codec->pix_fmts ? codec->pix_fmts[0] : AV_PIX_FMT_YUV420P;
+    videoEncCtx->time_base = av_inv_q(frameRate);
+    videoEncCtx->framerate = frameRate;
+    videoEncCtx->bit_rate  = videoBitrate;
+    videoEncCtx->gop_size  = FFMAX(2 * frameRate.num / frameRate.den, 1);
+    videoEncCtx->sample_aspect_ratio = {1, 1};
+    if ((ret = openEncoder(videoEncCtx, &videoOutStream, codec)) < 0) {
+        return ret;
+    }
+
+    if (audioEnabled) {
+        codec = avcodec_find_encoder(AV_CODEC_ID_AAC);
+        if (!codec) {
+            LOGE(PIPELINE_TAG, "aac encoder not found");
+            return AVERROR_ENCODER_NOT_FOUND;
+        }
+        audioEncCtx = avcodec_alloc_context3(codec);
+        if (!audioEncCtx) {
+            return AVERROR(ENOMEM);
+        }
+        audioEncCtx->sample_fmt  = codec->sample_fmts ? codec->sample_fmts[0] : AV_SAMPLE_FMT_FLTP;
+        audioEncCtx->sample_rate = sampleRate;
+        audioEncCtx->bit_rate    = audioBitrate;
+        audioEncCtx->time_base   = {1, sampleRate};
+        av_channel_layout_default(&audioEncCtx->ch_layout, channels);
+        if ((ret = openEncoder(audioEncCtx, &audioOutStream, codec)) < 0) {
+            return ret;
+        }
+        audioFifo = av_audio_fifo_alloc(audioEncCtx->sample_fmt, channels, SILENCE_FRAME_SIZE);
+        if (!audioFifo) {
+            return AVERROR(ENOMEM);
+        }
+    }
+
+    if (!(outFormatCtx->oformat->flags & AVFMT_NOFILE)) {
+        ret = avio_open(&outFormatCtx->pb, outputPath.c_str(), AVIO_FLAG_WRITE);
+        if (ret < 0) {
+            LOGE(PIPELINE_TAG, "open %s err=%s", outputPath.c_str(), av_err2str(ret));
+            return ret;
+        }
+    }
+    ret = avformat_write_header(outFormatCtx, nullptr);
+    if (ret < 0) {
+        LOGE(PIPELINE_TAG, "write header err=%s", av_err2str(ret));
+        return ret;
+    }
+    headerWritten = true;
+    return 0;
+}
+
+static bool sameCodecParams(const AVCodecParameters *a, const AVCodecParameters *b) {
+    return a->codec_id == b->codec_id && a->format == b->format
+           && a->width == b->width && a->height == b->height
+           && a->sample_rate == b->sample_rate
+           && !av_channel_layout_compare(&a->ch_layout, &b->ch_layout)
+           && a->extradata_size == b->extradata_size
+           && (a->extradata_size == 0 || !memcmp(a->extradata, b->extradata, a->extradata_size));
+}
+
+int FFTranscodePipeline::openDecoder(DecodeStream *decoder, AVStream *stream) {
+    decoder->finished = false;
+    if (decoder->codecCtx && sameCodecParams(decoder->params, stream->codecpar)) {
+        // 上个片段结束时已经flush过, 直接复用
+        decoder->codecCtx->pkt_timebase = stream->time_base;
+        decoder->stream = stream;
+        decoder->index  = stream->index;
+        return 0;
+    }
+    avcodec_free_context(&decoder->codecCtx);
+    avcodec_parameters_free(&decoder->params);
+
+    const AVCodec *codec = avcodec_find_decoder(stream->codecpar->codec_id);
+    if (!codec) {
+        LOGE(PIPELINE_TAG, "decoder of %s not found", avcodec_get_name(stream->codecpar->codec_id));
+        return AVERROR_DECODER_NOT_FOUND;
+    }
+    decoder->codecCtx = avcodec_alloc_context3(codec);
+    decoder->params   = avcodec_parameters_alloc();
+    if (!decoder->codecCtx || !decoder->params) {
+        return AVERROR(ENOMEM);
+    }
+    int ret = avcodec_parameters_to_context(decoder->codecCtx, stream->codecpar);
+    if (ret < 0) {
+        return ret;
+    }
+    decoder->codecCtx->pkt_timebase = stream->time_base;
+    decoder->codecCtx->thread_count = threadCount;
+    decoder->codecCtx->thread_type  = FF_THREAD_FRAME | FF_THREAD_SLICE;
+    ret = avcodec_open2(decoder->codecCtx, codec, nullptr);
+    if (ret < 0) {
+        LOGE(PIPELINE_TAG, "open decoder %s err=%s", codec->name, av_err2str(ret));
+        avcodec_free_context(&decoder->codecCtx);
+        return ret;
+    }
+    if ((ret = avcodec_parameters_copy(decoder->params, stream->codecpar)) < 0) {
+        return ret;
+    }
+    decoder->stream = stream;
+    decoder->index  = stream->index;
+    return 0;
+}
+
+int FFTranscodePipeline::openInput(const TranscodeSegment &segment) {
+    inFormatCtx = avformat_alloc_context();
+    if (!inFormatCtx) {
+        return AVERROR(ENOMEM);
+    }
+    inFormatCtx->interrupt_callback.callback = onInterrupt;
+    inFormatCtx->interrupt_callback.opaque   = this;
+    int ret = avformat_open_input(&inFormatCtx, segment.path.c_str(), nullptr, nullptr);
+    if (ret < 0) {
+        LOGE(PIPELINE_TAG, "open %s err=%s", segment.path.c_str(), av_err2str(ret));
+        return ret;
+    }
+    if ((ret = avformat_find_stream_info(inFormatCtx, nullptr)) < 0) {
+        return ret;
+    }
+
+    int videoIndex = av_find_best_stream(inFormatCtx, AVMEDIA_TYPE_VIDEO, -1, -1, nullptr, 0);
+    if (videoIndex < 0) {
+        LOGE(PIPELINE_TAG, "no video in %s", segment.path.c_str());
+        return videoIndex;
+    }
+    if ((ret = openDecoder(&videoDecoder, inFormatCtx->streams[videoIndex])) < 0) {
+        return ret;
+    }
+    if (audioEncCtx) {
+        int audioIndex = av_find_best_stream(inFormatCtx, AVMEDIA_TYPE_AUDIO, -1, videoIndex, nullptr, 0);
+        // 没有音频的片段用静音填充
+        if (audioIndex >= 0 && (ret = openDecoder(&audioDecoder, inFormatCtx->streams[audioIndex])) < 0) {
+            return ret;
+        }
+    }
+
+    if (segment.startUs > 0) {
+        int64_t target = segment.startUs;
+        if (inFormatCtx->start_time != AV_NOPTS_VALUE) {
+            target += inFormatCtx->start_time;
+        }
+        // seek到之前的关键帧, 起点之前的帧解码后丢弃
+        ret = avformat_seek_file(inFormatCtx, -1, INT64_MIN, target, target, 0);
+        if (ret < 0) {
+            LOGE(PIPELINE_TAG, "seek %s err=%s", segment.path.c_str(), av_err2str(ret));
+        }
+    }
+    return 0;
+}
+
+void FFTranscodePipeline::closeInput() {
+    avformat_close_input(&inFormatCtx);
+    videoDecoder.stream = nullptr;
+    videoDecoder.index  = -1;
+    audioDecoder.stream = nullptr;
+    audioDecoder.index  = -1;
+}
+
+int FFTranscodePipeline::transcodeSegment(const TranscodeSegment &segment) {
+    segmentEndUs = 0;
+    segmentAudioStarted = false;
+    int ret = openInput(segment);
+    while (ret >= 0 && !abortRequest) {
+        if (videoDecoder.finished && (audioDecoder.index < 0 || audioDecoder.finished)) {
+            break;
+        }
+        ret = av_read_frame(inFormatCtx, packet);
+        if (ret < 0) {
+            if (ret != AVERROR_EOF && !abortRequest) {
+                LOGE(PIPELINE_TAG, "read %s err=%s", segment.path.c_str(), av_err2str(ret));
+            }
+            break;
+        }
+        DecodeStream *decoder = nullptr;
+        if (packet->stream_index == videoDecoder.index) {
+            decoder = &videoDecoder;
+        } else if (packet->stream_index == audioDecoder.index) {
+            decoder = &audioDecoder;
+        }
+        if (decoder && !decoder->finished) {
+            ret = decodePacket(decoder, packet, segment);
+        }
+        av_packet_unref(packet);
+    }
+    if (abortRequest) {
+        ret = AVERROR_EXIT;
+    } else if (ret >= 0 || ret == AVERROR_EOF) {
+        ret = decodePacket(&videoDecoder, nullptr, segment);
+        if (ret >= 0) {
+            ret = decodePacket(&audioDecoder, nullptr, segment);
+        }
+    }
+    // 解码器留给下一个片段
+    if (videoDecoder.index >= 0) {
+        avcodec_flush_buffers(videoDecoder.codecCtx);
+    }
+    if (audioDecoder.index >= 0) {
+        avcodec_flush_buffers(audioDecoder.codecCtx);
+    }
+    closeInput();
+    if (ret < 0) {
+        return ret;
+    }
+
+    if (segment.durationUs > 0) {
+        segmentEndUs = segment.durationUs;
+    }
+    segmentBaseUs += segmentEndUs;
+    return padAudio(segmentBaseUs);
+}
+
+int FFTranscodePipeline::decodePacket(DecodeStream *decoder, const AVPacket *pkt,
+                                      const TranscodeSegment &segment) {
+    if (decoder->index < 0) {
+        return 0;
+    }
+    int ret = avcodec_send_packet(decoder->codecCtx, pkt);
+    if (ret < 0 && ret != AVERROR_EOF) {
+        LOGE(PIPELINE_TAG, "avcodec_send_packet err=%s", av_err2str(ret));
+        // 损坏的包跳过
+        return pkt ? 0 : ret;
+    }
+    while (true) {
+        ret = avcodec_receive_frame(decoder->codecCtx, frame);
+        if (ret == AVERROR(EAGAIN) || ret == AVERROR_EOF) {
+            return 0;
+        } else if (ret < 0) {
+            return ret;
+        }
+        ret = processFrame(decoder, frame, segment);
+        av_frame_unref(frame);
+        if (ret < 0) {
+            return ret;
+        }
+    }
+}
+
+int FFTranscodePipeline::processFrame(DecodeStream *decoder, AVFrame *decoded,
+                                      const TranscodeSegment &segment) {
+    bool video = decoder == &videoDecoder;
+    int64_t relativeUs = segmentEndUs;
+    int64_t pts = decoded->best_effort_timestamp;
+    if (pts != AV_NOPTS_VALUE) {
+        relativeUs = av_rescale_q(pts, decoder->stream->time_base, AV_TIME_BASE_Q) - segment.startUs;
+        if (inFormatCtx->start_time != AV_NOPTS_VALUE) {
+            relativeUs -= inFormatCtx->start_time;
+        }
+    }
+    if (relativeUs < 0) {
+        return 0;
+    }
+    if (segment.durationUs > 0 && relativeUs >= segment.durationUs) {
+        decoder->finished = true;
+        return 0;
+    }
+
+    int64_t frameUs;
+    if (video) {
+        frameUs = av_rescale_q(decoded->pkt_duration, decoder->stream->time_base, AV_TIME_BASE_Q);
+    } else {
+        if (segment.durationUs > 0) {
+            // 截掉超出片段长度的采样
+            int64_t maxSamples = av_rescale(segment.durationUs - relativeUs, decoded->sample_rate, AV_TIME_BASE);
+            decoded->nb_samples = (int) FFMIN(decoded->nb_samples, FFMAX(maxSamples, 1));
+        }
+        frameUs = av_rescale(decoded->nb_samples, AV_TIME_BASE, decoded->sample_rate);
+        if (decoded->ch_layout.order == AV_CHANNEL_ORDER_UNSPEC) {
+            int count = decoded->ch_layout.nb_channels;
+            av_channel_layout_uninit(&decoded->ch_layout);
+            av_channel_layout_default(&decoded->ch_layout, count);
+        }
+    }
+    segmentEndUs = FFMAX(segmentEndUs, relativeUs + frameUs);
+    decoded->pts = segmentBaseUs + relativeUs;
+
+    int ret;
+    if (video) {
+        if ((ret = openVideoFilter(decoded)) < 0) {
+            return ret;
+        }
+        return sendToFilter(&videoChain, decoded, true);
+    }
+    if (!segmentAudioStarted) {
+        // 音频晚于视频开始时, 前面补静音
+        segmentAudioStarted = true;
+        if ((ret = padAudio(decoded->pts)) < 0) {
+            return ret;
+        }
+    }
+    if ((ret = openAudioFilter(decoded)) < 0) {
+        return ret;
+    }
+    return sendToFilter(&audioChain, decoded, false);
+}
+
+static int configureGraph(AVFilterGraph *graph, AVFilterContext *src, AVFilterContext *sink,
+                          const char *filterDesc) {
+    AVFilterInOut *outputs = avfilter_inout_alloc();
+    AVFilterInOut *inputs  = avfilter_inout_alloc();
+    int ret = AVERROR(ENOMEM);
+    if (outputs && inputs) {
+        outputs->name       = av_strdup("in");
+        outputs->filter_ctx = src;
+        outputs->pad_idx    = 0;
+        outputs->next       = nullptr;
+        inputs->name        = av_strdup("out");
+        inputs->filter_ctx  = sink;
+        inputs->pad_idx     = 0;
+        inputs->next        = nullptr;
+        ret = avfilter_graph_parse_ptr(graph, filterDesc, &inputs, &outputs, nullptr);
+        if (ret < 0) {
+            LOGE(PIPELINE_TAG, "avfilter_graph_parse_ptr %s err=%s", filterDesc, av_err2str(ret));
+        } else if ((ret = avfilter_graph_config(graph, nullptr)) < 0) {
+            LOGE(PIPELINE_TAG, "avfilter_graph_config err=%s", av_err2str(ret));
+        }
+    }
+    avfilter_inout_free(&inputs);
+    avfilter_inout_free(&outputs);
+    return ret;
+}
+
+static int createGraph(FilterChain *chain, const char *srcName, const char *srcArgs,
+                       const char *filterDesc, int threadCount) {
+    AVFilterGraph *graph = avfilter_graph_alloc();
+    if (!graph) {
+        return AVERROR(ENOMEM);
+    }
+    graph->nb_threads = threadCount;
+    AVFilterContext *src  = nullptr;
+    AVFilterContext *sink = nullptr;
+    const char *sinkName  = strcmp(srcName, "buffer") ? "abuffersink" : "buffersink";
+    int ret = avfilter_graph_create_filter(&src, avfilter_get_by_name(srcName), "in", srcArgs, nullptr, graph);
+    if (ret >= 0) {
+        ret = avfilter_graph_create_filter(&sink, avfilter_get_by_name(sinkName), "out", nullptr, nullptr, graph);
+    }
+    if (ret >= 0) {
+        ret = configureGraph(graph, src, sink, filterDesc);
+    }
+    if (ret < 0) {
+        avfilter_graph_free(&graph);
+        return ret;
+    }
+    chain->graph = graph;
+    chain->src   = src;
+    chain->sink  = sink;
+    return 0;
+}
+
+int FFTranscodePipeline::openVideoFilter(const AVFrame *input) {
+    AVRational sar = input->sample_aspect_ratio;
+    if (!sar.den) {
+        sar = {0, 1};
+    }
+    char key[128];
+    snprintf(key, sizeof(key), "%dx%d:%d:%d/%d", input->width, input->height, input->format, sar.num, sar.den);
+    if (videoChain.graph && videoChain.key == key) {
+        return 0;
+    }
+    int ret;
+    if (videoChain.graph) {
+        LOGI(PIPELINE_TAG, "video changed to %s, rebuild filter", key);
+        // 旧滤镜的帧一直延续到新帧的时间
+        if ((ret = flushFilter(&videoChain, true, input->pts)) < 0) {
+            return ret;
+        }
+    }
+
+    char srcArgs[256];
+    snprintf(srcArgs, sizeof(srcArgs), "video_size=%dx%d:pix_fmt=%d:time_base=1/%d:pixel_aspect=%d/%d",
+             input->width, input->height, input->format, AV_TIME_BASE, sar.num, sar.den);
+    // 从已输出的位置开始, 新旧滤镜之间的帧是连续的
+    char scale[512];
+    snprintf(scale, sizeof(scale),
+             "scale=%d:%d:force_original_aspect_ratio=decrease,pad=%d:%d:(ow-iw)/2:(oh-ih)/2,setsar=1,"
+             "fps=%d/%d:start_time=%f,format=%s",
+             width, height, width, height, frameRate.num, frameRate.den,
+             (double) nextVideoPts * frameRate.den / frameRate.num, av_get_pix_fmt_name(videoEncCtx->pix_fmt));
+    std::string filterDesc = videoFilter.empty() ? scale : videoFilter + "," + scale;
+    if ((ret = createGraph(&videoChain, "buffer", srcArgs, filterDesc.c_str(), threadCount)) < 0) {
+        return ret;
+    }
+    videoChain.key = key;
+    return 0;
+}
+
+int FFTranscodePipeline::openAudioFilter(const AVFrame *input) {
+    char inLayout[64];
+    av_channel_layout_describe(&input->ch_layout, inLayout, sizeof(inLayout));
+    char key[128];
+    snprintf(key, sizeof(key), "%d:%d:%s", input->format, input->sample_rate, inLayout);
+    if (audioChain.graph && audioChain.key == key) {
+        return 0;
+    }
+    int ret;
+    if (audioChain.graph) {
+        LOGI(PIPELINE_TAG, "audio changed to %s, rebuild filter", key);
+        if ((ret = flushFilter(&audioChain, false, input->pts)) < 0) {
+            return ret;
+        }
+    }
+
+    char outLayout[64];
+    av_channel_layout_describe(&audioEncCtx->ch_layout, outLayout, sizeof(outLayout));
+    char srcArgs[256];
+    snprintf(srcArgs, sizeof(srcArgs), "time_base=1/%d:sample_rate=%d:sample_fmt=%s:channel_layout=%s",
+             AV_TIME_BASE, input->sample_rate, av_get_sample_fmt_name((AVSampleFormat) input->format), inLayout);
+    char filterDesc[256];
+    snprintf(filterDesc, sizeof(filterDesc), "aresample=%d,aformat=sample_fmts=%s:sample_rates=%d:channel_layouts=%s",
+             sampleRate, av_get_sample_fmt_name(audioEncCtx->sample_fmt), sampleRate, outLayout);
+    if ((ret = createGraph(&audioChain, "abuffer", srcArgs, filterDesc, threadCount)) < 0) {
+        return ret;
+    }
+    audioChain.key = key;
+    return 0;
+}
+
+int FFTranscodePipeline::sendToFilter(FilterChain *chain, AVFrame *input, bool video) {
+    int ret = av_buffersrc_add_frame_flags(chain->src, input, AV_BUFFERSRC_FLAG_KEEP_REF);
+    if (ret < 0) {
+        LOGE(PIPELINE_TAG, "av_buffersrc_add_frame err=%s", av_err2str(ret));
+        return ret;
+    }
+    return drainFilter(chain, video);
+}
+
+int FFTranscodePipeline::drainFilter(FilterChain *chain, bool video) {
+    while (true) {
+        int ret = av_buffersink_get_frame(chain->sink, filterFrame);
+        if (ret == AVERROR(EAGAIN) || ret == AVERROR_EOF) {
+            return 0;
+        } else if (ret < 0) {
+            LOGE(PIPELINE_TAG, "av_buffersink_get_frame err=%s", av_err2str(ret));
+            return ret;
+        }
+        if (video) {
+            // 输出的时间戳重新连续编号
+            filterFrame->pts       = nextVideoPts++;
+            filterFrame->pict_type = AV_PICTURE_TYPE_NONE;
+            ret = encodeFrame(videoEncCtx, videoOutStream, filterFrame);
+        } else {
+            ret = av_audio_fifo_write(audioFifo, (void **) filterFrame->extended_data, filterFrame->nb_samples);
+            if (ret >= 0) {
+                ret = encodeAudioFifo(false);
+            }
+        }
+        av_frame_unref(filterFrame);
+        if (ret < 0) {
+            return ret;
+        }
+        reportProgress(false);
+    }
+}
+
+int FFTranscodePipeline::flushFilter(FilterChain *chain, bool video, int64_t endUs) {
+    if (!chain->graph) {
+        return 0;
+    }
+    int ret = av_buffersrc_close(chain->src, endUs, 0);
+    if (ret >= 0) {
+        ret = drainFilter(chain, video);
+    }
+    avfilter_graph_free(&chain->graph);
+    chain->src  = nullptr;
+    chain->sink = nullptr;
+    chain->key.clear();
+    return ret;
+}
+
+int FFTranscodePipeline::padAudio(int64_t endUs) {
+    if (!audioEncCtx) {
+        return 0;
+    }
+    int64_t target  = av_rescale(endUs, sampleRate, AV_TIME_BASE);
+    int64_t missing = target - nextAudioPts - av_audio_fifo_size(audioFifo);
+    while (missing > 0) {
+        int count = (int) FFMIN(missing, SILENCE_FRAME_SIZE);
+        uint8_t *silence[AV_NUM_DATA_POINTERS] = {nullptr};
+        int ret = av_samples_alloc(silence, nullptr, channels, count, audioEncCtx->sample_fmt, 0);
+        if (ret < 0) {
+            return ret;
+        }
+        av_samples_set_silence(silence, 0, count, channels, audioEncCtx->sample_fmt);
+        ret = av_audio_fifo_write(audioFifo, (void **) silence, count);
+        av_freep(&silence[0]);
+        if (ret < 0) {
+            return ret;
+        }
+        missing -= count;
+    }
+    return encodeAudioFifo(false);
+}
+
+int FFTranscodePipeline::encodeAudioFifo(bool flush) {
+    int frameSize = audioEncCtx->frame_size > 0 ? audioEncCtx->frame_size : SILENCE_FRAME_SIZE;
+    while (av_audio_fifo_size(audioFifo) >= frameSize || (flush && av_audio_fifo_size(audioFifo) > 0)) {
+        int count = FFMIN(av_audio_fifo_size(audioFifo), frameSize);
+        audioFrame->nb_samples  = frameSize;
+        audioFrame->format      = audioEncCtx->sample_fmt;
+        audioFrame->sample_rate = sampleRate;
+        int ret = av_channel_layout_copy(&audioFrame->ch_layout, &audioEncCtx->ch_layout);
+        if (ret >= 0) {
+            ret = av_frame_get_buffer(audioFrame, 0);
+        }
+        if (ret < 0) {
+            return ret;
+        }
+        av_audio_fifo_read(audioFifo, (void **) audioFrame->extended_data, count);
+        // 只有最后一帧可以不满frame_size
+        audioFrame->nb_samples = count;
+        audioFrame->pts = nextAudioPts;
+        nextAudioPts += count;
+        ret = encodeFrame(audioEncCtx, audioOutStream, audioFrame);
+        av_frame_unref(audioFrame);
+        if (ret < 0) {
+            return ret;
+        }
+    }
+    return 0;
+}
+
+int FFTranscodePipeline::encodeFrame(AVCodecContext *encCtx, AVStream *outStream, AVFrame *input) {
+    int ret = avcodec_send_frame(encCtx, input);
+    if (ret < 0 && ret != AVERROR_EOF) {
+        LOGE(PIPELINE_TAG, "avcodec_send_frame err=%s", av_err2str(ret));
+        return ret;
+    }
+    while (true) {
+        ret = avcodec_receive_packet(encCtx, encPacket);
+        if (ret == AVERROR(EAGAIN) || ret == AVERROR_EOF) {
+            return 0;
+        } else if (ret < 0) {
+            LOGE(PIPELINE_TAG, "avcodec_receive_packet err=%s", av_err2str(ret));
+            return ret;
+        }
+        av_packet_rescale_ts(encPacket, encCtx->time_base, outStream->time_base);
+        encPacket->stream_index = outStream->index;
+        ret = av_interleaved_write_frame(outFormatCtx, encPacket);
+        if (ret < 0) {
+            LOGE(PIPELINE_TAG, "av_interleaved_write_frame err=%s", av_err2str(ret));
+            return ret;
+        }
+    }
+}
+
+void FFTranscodePipeline::reportProgress(bool end) {
+    int64_t now = av_gettime_relative();
+    if (!listener || (!end && now - lastReportUs < PROGRESS_INTERVAL_US)) {
+        return;
+    }
+    lastReportUs = now;
+    int64_t elapsedUs = FFMAX(now - startTimeUs, 1);
+    TranscodeProgress progress;
+    progress.segment   = segmentIndex;
+    progress.frame     = nextVideoPts;
+    progress.fps       = (float) (nextVideoPts * 1000000.0 / elapsedUs);
+    progress.outTimeUs = av_rescale_q(nextVideoPts, videoEncCtx->time_base, AV_TIME_BASE_Q);
+    progress.speed     = (float) progress.outTimeUs / (float) elapsedUs;
+    progress.end       = end;
+    listener(progress);
+}
+
+int FFTranscodePipeline::run(const std::function<void(const TranscodeProgress &)> &progressListener) {
+    if (segments.empty() || outputPath.empty()) {
+        return AVERROR(EINVAL);
+    }
+    listener      = progressListener;
+    nextVideoPts  = 0;
+    nextAudioPts  = 0;
+    segmentBaseUs = 0;
+    startTimeUs   = av_gettime_relative();
+    lastReportUs  = startTimeUs;
+    packet        = av_packet_alloc();
+    encPacket     = av_packet_alloc();
+    frame         = av_frame_alloc();
+    filterFrame   = av_frame_alloc();
+    audioFrame    = av_frame_alloc();
+    int ret = AVERROR(ENOMEM);
+    if (packet && encPacket && frame && filterFrame && audioFrame) {
+        ret = openOutput();
+    }
+
+    for (segmentIndex = 0; ret >= 0 && segmentIndex < (int) segments.size(); segmentIndex++) {
+        const TranscodeSegment &segment = segments[segmentIndex];
+        ret = transcodeSegment(segment);
+        if (ret < 0 && ret != AVERROR_EXIT) {
+            LOGE(PIPELINE_TAG, "segment %d %s err=%s", segmentIndex, segment.path.c_str(), av_err2str(ret));
+        }
+    }
+
+    // 取消时也把已有的帧写完, 保证文件完整
+    if (headerWritten) {
+        segmentIndex = FFMIN(segmentIndex, (int) segments.size() - 1);
+        int flushRet = flushFilter(&videoChain, true, segmentBaseUs);
+        if (flushRet >= 0) {
+            flushRet = flushFilter(&audioChain, false, segmentBaseUs);
+        }
+        if (flushRet >= 0 && audioEncCtx) {
+            flushRet = encodeAudioFifo(true);
+        }
+        if (flushRet >= 0) {
+            flushRet = encodeFrame(videoEncCtx, videoOutStream, nullptr);
+        }
+        if (flushRet >= 0 && audioEncCtx) {
+            flushRet = encodeFrame(audioEncCtx, audioOutStream, nullptr);
+        }
+        int trailerRet = av_write_trailer(outFormatCtx);
+        if (ret >= 0) {
+            ret = flushRet < 0 ? flushRet : trailerRet;
+        }
+    }
+    if (ret >= 0) {
+        reportProgress(true);
+    }
+    release();
+    return ret;
+}
+
+void FFTranscodePipeline::release() {
+    avformat_close_input(&inFormatCtx);
+    avfilter_graph_free(&videoChain.graph);
+    avfilter_graph_free(&audioChain.graph);
+    avcodec_free_context(&videoDecoder.codecCtx);
+    avcodec_free_context(&audioDecoder.codecCtx);
+    avcodec_parameters_free(&videoDecoder.params);
+    avcodec_parameters_free(&audioDecoder.params);
+    avcodec_free_context(&videoEncCtx);
+    avcodec_free_context(&audioEncCtx);
+    if (outFormatCtx) {
+        if (!(outFormatCtx->oformat->flags & AVFMT_NOFILE)) {
+            avio_closep(&outFormatCtx->pb);
+        }
+        avformat_free_context(outFormatCtx);
+        outFormatCtx = nullptr;
+    }
+    if (audioFifo) {
+        av_audio_fifo_free(audioFifo);
+        audioFifo = nullptr;
+    }
+    av_packet_free(&packet);
+    av_packet_free(&encPacket);
+    av_frame_free(&frame);
+    av_frame_free(&filterFrame);
+    av_frame_free(&audioFrame);
+    headerWritten = false;
+    listener = nullptr;
+}
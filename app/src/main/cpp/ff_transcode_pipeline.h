@@ -0,0 +1,209 @@
+//
+// Created by xu fulong on 2022/10/22.
+//
+
+#ifndef LEARNINGMEDIA_FF_TRANSCODE_PIPELINE_H
+#define LEARNINGMEDIA_FF_TRANSCODE_PIPELINE_H
+
+#include <atomic>
+#include <functional>
+#include <string>
+#include <vector>
+
+#include "log_helper.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+#include "libavformat/avformat.h"
+#include "libavcodec/avcodec.h"
+#include "libavfilter/avfilter.h"
+#include "libavfilter/buffersrc.h"
+#include "libavfilter/buffersink.h"
+#include "libavutil/audio_fifo.h"
+#ifdef __cplusplus
+}
+#endif
+
+struct TranscodeSegment {
+    std::string path;
+    // 0 means from the beginning
+    int64_t startUs    = 0;
+    // length on the output, a longer input is cut, and a shorter one holds its
+    // last frame, so a picture can be shown for a while. 0 means to the end
+    int64_t durationUs = 0;
+};
+
+struct TranscodeProgress {
+    int     segment   = 0;
+    int64_t frame     = 0;
+    float   fps       = 0;
+    int64_t outTimeUs = 0;
+    float   speed     = 0;
+    bool    end       = false;
+};
+
+/**
+ * A filter graph with one input and one output, which is kept while
+ * the decoded frames have the same format, even across segments.
+ */
+struct FilterChain {
+    AVFilterGraph   *graph = nullptr;
+    AVFilterContext *src   = nullptr;
+    AVFilterContext *sink  = nullptr;
+    // the input format which the graph is built for
+    std::string key;
+};
+
+/**
+ * Decoder of the current segment, kept for the next segment
+ * if its stream has the same codec parameters.
+ */
+struct DecodeStream {
+    AVCodecContext *codecCtx = nullptr;
+    AVCodecParameters *params = nullptr;
+    AVStream *stream = nullptr;
+    int index = -1;
+    bool finished = false;
+};
+
+/**
+ * Transcode and concatenate segments into one file with demux, decode,
+ * filter, encode and mux in one process, instead of a command line per
+ * operation. Encoders and the muxer are opened once, decoders and filter
+ * graphs are reused across segments when the format doesn't change.
+ * Frames are put on one continuous timeline, video is resampled to a
+ * constant frame rate, and audio is padded with silence where missing.
+ */
+class FFTranscodePipeline {
+private:
+    std::vector<TranscodeSegment> segments;
+    std::string outputPath;
+    int width  = 1280;
+    int height = 720;
+    AVRational frameRate = {30, 1};
+    int64_t videoBitrate = 2000000;
+    std::string videoEncoder;
+    std::string videoFilter;
+    bool audioEnabled = true;
+    int sampleRate = 44100;
+    int channels   = 2;
+    int64_t audioBitrate = 128000;
+    // 0 means as many as cores
+    int threadCount = 0;
+
+    std::atomic<bool> abortRequest;
+
+    AVFormatContext *outFormatCtx = nullptr;
+    AVCodecContext *videoEncCtx = nullptr;
+    AVCodecContext *audioEncCtx = nullptr;
+    AVStream *videoOutStream = nullptr;
+    AVStream *audioOutStream = nullptr;
+    int64_t nextVideoPts = 0;
+    int64_t nextAudioPts = 0;
+
+    AVFormatContext *inFormatCtx = nullptr;
+    DecodeStream videoDecoder;
+    DecodeStream audioDecoder;
+    FilterChain videoChain;
+    FilterChain audioChain;
+
+    AVPacket *packet = nullptr;
+    AVPacket *encPacket = nullptr;
+    AVFrame *frame = nullptr;
+    AVFrame *filterFrame = nullptr;
+    // 音频按编码器的frame_size送入, 滤镜重建时不会产生不完整的帧
+    AVAudioFifo *audioFifo = nullptr;
+    AVFrame *audioFrame = nullptr;
+    bool headerWritten = false;
+
+    // 当前片段在输出时间轴上的起点和长度
+    int segmentIndex = 0;
+    int64_t segmentBaseUs = 0;
+    int64_t segmentEndUs  = 0;
+    bool segmentAudioStarted = false;
+
+    int64_t startTimeUs = 0;
+    int64_t lastReportUs = 0;
+    std::function<void(const TranscodeProgress &)> listener;
+
+    static int onInterrupt(void *opaque);
+
+    int openOutput();
+
+    int openEncoder(AVCodecContext *encCtx, AVStream **outStream, const AVCodec *codec);
+
+    int openInput(const TranscodeSegment &segment);
+
+    int openDecoder(DecodeStream *decoder, AVStream *stream);
+
+    void closeInput();
+
+    int transcodeSegment(const TranscodeSegment &segment);
+
+    int decodePacket(DecodeStream *decoder, const AVPacket *pkt, const TranscodeSegment &segment);
+
+    int processFrame(DecodeStream *decoder, AVFrame *decoded, const TranscodeSegment &segment);
+
+    int openVideoFilter(const AVFrame *input);
+
+    int openAudioFilter(const AVFrame *input);
+
+    int sendToFilter(FilterChain *chain, AVFrame *input, bool video);
+
+    int drainFilter(FilterChain *chain, bool video);
+
+    int flushFilter(FilterChain *chain, bool video, int64_t endUs);
+
+    int padAudio(int64_t endUs);
+
+    int encodeAudioFifo(bool flush);
+
+    int encodeFrame(AVCodecContext *encCtx, AVStream *outStream, AVFrame *input);
+
+    void reportProgress(bool end);
+
+    void release();
+
+public:
+    FFTranscodePipeline();
+
+    ~FFTranscodePipeline();
+
+    void addSegment(const char *path, int64_t startUs, int64_t durationUs);
+
+    void setOutput(const char *path);
+
+    void setVideoSize(int width, int height);
+
+    void setFrameRate(int num, int den);
+
+    void setVideoBitrate(int64_t bitrate);
+
+    /**
+     * Name of the encoder, the default is the first available of h264 and mpeg4.
+     */
+    void setVideoEncoder(const char *name);
+
+    /**
+     * Filters applied to each segment before scaling to the output size.
+     */
+    void setVideoFilter(const char *filterDesc);
+
+    void setAudio(bool enabled, int sampleRate, int channels, int64_t bitrate);
+
+    /**
+     * Threads of each decoder and encoder, and of the filter graphs.
+     */
+    void setThreadCount(int count);
+
+    /**
+     * Run on the calling thread, and call listener about every 0.5s on it.
+     * @return 0 on success, AVERROR_EXIT if cancelled, other negative on error
+     */
+    int run(const std::function<void(const TranscodeProgress &)> &progressListener);
+
+    void cancel();
+};
+
+#endif //LEARNINGMEDIA_FF_TRANSCODE_PIPELINE_H
@@ -5,10 +5,12 @@
 #include <jni.h>
 #include <android/log.h>
 
+#include "ff_command_job.h"
+
 #ifdef __cplusplus
 extern "C" {
 #endif
-#include "ffmpeg/ffmpeg.h"
+#include "libavutil/log.h"
 #ifdef __cplusplus
 }
 #endif
@@ -32,25 +34,57 @@ void log_callback(void *ptr, int level, const char *format, va_list args) {
 }
 
 extern "C"
-JNIEXPORT jint JNICALL
-Java_com_frank_media_FFmpegCommand_runFFmpeg(JNIEnv *env, jclass clazz, jobjectArray command_line) {
+JNIEXPORT jlong JNICALL
+Java_com_frank_media_FFmpegCommand_nativeCreateJob(JNIEnv *env, jclass clazz, jobjectArray command_line) {
 
     av_log_set_level(AV_LOG_INFO);
     av_log_set_callback(log_callback);
 
     int argc = env->GetArrayLength(command_line);
-    char **argv = static_cast<char **>(malloc(argc * sizeof(char *)));
+    std::vector<std::string> args;
     for (int i = 0; i < argc; i++) {
         auto jstr = (jstring)(env->GetObjectArrayElement(command_line, i));
         const char *native_str = env->GetStringUTFChars(jstr, JNI_FALSE);
-        argv[i] = static_cast<char *>(malloc(10 * 1024));
-        strcpy(argv[i], native_str);
+        args.emplace_back(native_str);
         env->ReleaseStringUTFChars(jstr, native_str);
+        env->DeleteLocalRef(jstr);
     }
-    int result = run_ffmpeg(argc, argv);
-    for (int i = 0; i < argc; i++) {
-        free(argv[i]);
+    return (jlong) new FFCommandJob(args);
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_frank_media_FFmpegCommand_nativeRunJob(JNIEnv *env, jclass clazz, jlong handle, jobject job) {
+    auto *commandJob = (FFCommandJob *) handle;
+    if (!commandJob) {
+        return -1;
     }
-    free(argv);
-    return result;
+    jclass jobClass = env->GetObjectClass(job);
+    jmethodID onProgress = env->GetMethodID(jobClass, "onNativeProgress", "(JFJFJZ)V");
+    env->DeleteLocalRef(jobClass);
+    // 进度在调用线程回调, 不用attach命令线程
+    return commandJob->run([env, job, onProgress](const FFCommandProgress &progress) {
+        env->CallVoidMethod(job, onProgress, (jlong) progress.frame, (jfloat) progress.fps,
+                            (jlong) progress.outTimeUs, (jfloat) progress.speed,
+                            (jlong) progress.totalSize, (jboolean) progress.end);
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+        }
+    });
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_FFmpegCommand_nativeCancelJob(JNIEnv *env, jclass clazz, jlong handle) {
+    auto *commandJob = (FFCommandJob *) handle;
+    if (commandJob) {
+        commandJob->cancel();
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_FFmpegCommand_nativeReleaseJob(JNIEnv *env, jclass clazz, jlong handle) {
+    delete (FFCommandJob *) handle;
 }
@@ -55,11 +55,16 @@
 #include "compat/w32dlfcn.h"
 #endif
 
-AVDictionary *sws_dict;
-AVDictionary *swr_opts;
-AVDictionary *format_opts, *codec_opts;
+FF_THREAD_LOCAL AVDictionary *sws_dict;
+FF_THREAD_LOCAL AVDictionary *swr_opts;
+FF_THREAD_LOCAL AVDictionary *format_opts, *codec_opts;
 
-int hide_banner = 0;
+FF_THREAD_LOCAL int hide_banner = 0;
+
+void *hide_banner_address(void)
+{
+    return &hide_banner;
+}
 
 void uninit_opts(void)
 {
@@ -83,7 +88,7 @@ void init_dynload(void)
 #endif
 }
 
-static void (*program_exit)(int ret);
+static FF_THREAD_LOCAL void (*program_exit)(int ret);
 
 void register_exit(void (*cb)(int ret))
 {
@@ -253,9 +258,10 @@ static int write_option(void *optctx, const OptionDef *po, const char *opt,
                         const char *arg)
 {
     /* new-style options contain an offset into optctx, old-style address of
-     * a global var*/
+     * a global var, or a function returning the address of a thread local var */
     void *dst = po->flags & (OPT_OFFSET | OPT_SPEC) ?
-                (uint8_t *)optctx + po->u.off : po->u.dst_ptr;
+                (uint8_t *)optctx + po->u.off :
+                po->flags & OPT_TLS ? po->u.dst_func() : po->u.dst_ptr;
     int *dstcount;
 
     if (po->flags & OPT_SPEC) {
@@ -36,7 +36,18 @@
 
 #include <setjmp.h>
 
-extern jmp_buf jump_buf;
+/**
+ * The state of a command lives in globals, each of them is thread local,
+ * so several commands may run at the same time on different threads.
+ * A thread runs only one command, a new thread starts with the defaults.
+ */
+#ifdef __cplusplus
+#define FF_THREAD_LOCAL thread_local
+#else
+#define FF_THREAD_LOCAL _Thread_local
+#endif
+
+extern FF_THREAD_LOCAL jmp_buf jump_buf;
 
 /**
  * program name, defined by the program for show_version().
@@ -48,10 +59,15 @@ extern const char program_name[];
  */
 extern const int program_birth_year;
 
-extern AVDictionary *sws_dict;
-extern AVDictionary *swr_opts;
-extern AVDictionary *format_opts, *codec_opts;
-extern int hide_banner;
+extern FF_THREAD_LOCAL AVDictionary *sws_dict;
+extern FF_THREAD_LOCAL AVDictionary *swr_opts;
+extern FF_THREAD_LOCAL AVDictionary *format_opts, *codec_opts;
+extern FF_THREAD_LOCAL int hide_banner;
+
+/**
+ * Address of hide_banner on the calling thread, for the OPT_TLS option.
+ */
+void *hide_banner_address(void);
 
 /**
  * Register a program-specific cleanup routine.
@@ -161,10 +177,13 @@ typedef struct OptionDef {
 #define OPT_DOUBLE 0x20000
 #define OPT_INPUT  0x40000
 #define OPT_OUTPUT 0x80000
+#define OPT_TLS   0x100000      /* option is stored in a thread local variable, whose
+                                   address isn't a constant, u.dst_func returns it */
      union {
         void *dst_ptr;
         int (*func_arg)(void *, const char *, const char *);
         size_t off;
+        void *(*dst_func)(void);
     } u;
     const char *help;
     const char *argname;
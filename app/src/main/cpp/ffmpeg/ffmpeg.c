@@ -109,9 +109,9 @@
 const char program_name[] = "ffmpeg";
 const int program_birth_year = 2000;
 
-static FILE *vstats_file;
+static FF_THREAD_LOCAL FILE *vstats_file;
 
-jmp_buf jump_buf;
+FF_THREAD_LOCAL jmp_buf jump_buf;
 
 const char *const forced_keyframes_const_names[] = {
     "n",
@@ -132,37 +132,37 @@ static BenchmarkTimeStamps get_benchmark_time_stamps(void);
 static int64_t getmaxrss(void);
 static int ifilter_has_all_input_formats(FilterGraph *fg);
 
-static int64_t nb_frames_dup = 0;
-static uint64_t dup_warning = 1000;
-static int64_t nb_frames_drop = 0;
-static int64_t decode_error_stat[2];
-unsigned nb_output_dumped = 0;
+static FF_THREAD_LOCAL int64_t nb_frames_dup = 0;
+static FF_THREAD_LOCAL uint64_t dup_warning = 1000;
+static FF_THREAD_LOCAL int64_t nb_frames_drop = 0;
+static FF_THREAD_LOCAL int64_t decode_error_stat[2];
+FF_THREAD_LOCAL unsigned nb_output_dumped = 0;
 
-int want_sdp = 1;
+FF_THREAD_LOCAL int want_sdp = 1;
 
-static BenchmarkTimeStamps current_time;
-AVIOContext *progress_avio = NULL;
+static FF_THREAD_LOCAL BenchmarkTimeStamps current_time;
+FF_THREAD_LOCAL AVIOContext *progress_avio = NULL;
 
-static uint8_t *subtitle_out;
+static FF_THREAD_LOCAL uint8_t *subtitle_out;
 
-InputStream **input_streams = NULL;
-int        nb_input_streams = 0;
-InputFile   **input_files   = NULL;
-int        nb_input_files   = 0;
+FF_THREAD_LOCAL InputStream **input_streams = NULL;
+FF_THREAD_LOCAL int        nb_input_streams = 0;
+FF_THREAD_LOCAL InputFile   **input_files   = NULL;
+FF_THREAD_LOCAL int        nb_input_files   = 0;
 
-OutputStream **output_streams = NULL;
-int         nb_output_streams = 0;
-OutputFile   **output_files   = NULL;
-int         nb_output_files   = 0;
+FF_THREAD_LOCAL OutputStream **output_streams = NULL;
+FF_THREAD_LOCAL int         nb_output_streams = 0;
+FF_THREAD_LOCAL OutputFile   **output_files   = NULL;
+FF_THREAD_LOCAL int         nb_output_files   = 0;
 
-FilterGraph **filtergraphs;
-int        nb_filtergraphs;
+FF_THREAD_LOCAL FilterGraph **filtergraphs;
+FF_THREAD_LOCAL int        nb_filtergraphs;
 
 #if HAVE_TERMIOS_H
 
 /* init terminal so that we can grab keys */
-static struct termios oldtty;
-static int restore_tty;
+static FF_THREAD_LOCAL struct termios oldtty;
+static FF_THREAD_LOCAL int restore_tty;
 #endif
 
 #if HAVE_THREADS
@@ -340,12 +340,18 @@ void term_exit(void)
     term_exit_sigsafe();
 }
 
-static volatile int received_sigterm = 0;
-static volatile int received_nb_signals = 0;
-static atomic_int transcode_init_done = ATOMIC_VAR_INIT(0);
-static volatile int ffmpeg_exited = 0;
-int main_return_code = 0;
-static int64_t copy_ts_first_pts = AV_NOPTS_VALUE;
+static FF_THREAD_LOCAL volatile int received_sigterm = 0;
+static FF_THREAD_LOCAL volatile int received_nb_signals = 0;
+static FF_THREAD_LOCAL atomic_int transcode_init_done = ATOMIC_VAR_INIT(0);
+static FF_THREAD_LOCAL volatile int ffmpeg_exited = 0;
+FF_THREAD_LOCAL int main_return_code = 0;
+static FF_THREAD_LOCAL int64_t copy_ts_first_pts = AV_NOPTS_VALUE;
+static FF_THREAD_LOCAL const FFmpegJobHooks *job_hooks;
+
+static int job_aborted(void)
+{
+    return job_hooks && job_hooks->interrupt && job_hooks->interrupt(job_hooks->opaque);
+}
 
 static void
 sigterm_handler(int sig)
@@ -505,12 +511,41 @@ static int read_key(void)
     return -1;
 }
 
+/**
+ * State of the command read by the interrupt callbacks. Input threads read
+ * packets with their own thread local copies of the globals, so the callbacks
+ * get the state of the command thread through the opaque instead.
+ */
+typedef struct InterruptContext {
+    const FFmpegJobHooks *hooks;
+    volatile int *received_nb_signals;
+    atomic_int *transcode_init_done;
+} InterruptContext;
+
+static FF_THREAD_LOCAL InterruptContext interrupt_ctx;
+
+static int interrupt_ctx_aborted(const InterruptContext *ic)
+{
+    return ic->hooks && ic->hooks->interrupt && ic->hooks->interrupt(ic->hooks->opaque);
+}
+
 static int decode_interrupt_cb(void *ctx)
 {
-    return received_nb_signals > atomic_load(&transcode_init_done);
+    const InterruptContext *ic = ctx;
+    /* like a signal, an abort interrupts io until transcoding starts,
+     * then the main loop stops and the output is finished normally */
+    return (*ic->received_nb_signals + interrupt_ctx_aborted(ic)) > atomic_load(ic->transcode_init_done);
+}
+
+static int input_interrupt_cb(void *ctx)
+{
+    /* an aborted command reads no more input, even after transcoding
+     * started, so that a blocked read can't keep the input thread from joining */
+    return interrupt_ctx_aborted(ctx) || decode_interrupt_cb(ctx);
 }
 
-const AVIOInterruptCB int_cb = { decode_interrupt_cb, NULL };
+FF_THREAD_LOCAL AVIOInterruptCB int_cb;
+FF_THREAD_LOCAL AVIOInterruptCB input_int_cb;
 
 static void ffmpeg_cleanup(int ret)
 {
@@ -1527,15 +1562,15 @@ static void print_report(int is_last_report, int64_t timer_start, int64_t cur_ti
     double bitrate;
     double speed;
     int64_t pts = INT64_MIN + 1;
-    static int64_t last_time = -1;
-    static int first_report = 1;
-    static int qp_histogram[52];
+    static FF_THREAD_LOCAL int64_t last_time = -1;
+    static FF_THREAD_LOCAL int first_report = 1;
+    static FF_THREAD_LOCAL int qp_histogram[52];
     int hours, mins, secs, us;
     const char *hours_sign;
     int ret;
     float t;
 
-    if (!print_stats && !is_last_report && !progress_avio)
+    if (!print_stats && !is_last_report && !progress_avio && !(job_hooks && job_hooks->progress))
         return;
 
     if (!is_last_report) {
@@ -1706,14 +1741,18 @@ static void print_report(int is_last_report, int64_t timer_start, int64_t cur_ti
     }
     av_bprint_finalize(&buf, NULL);
 
-    if (progress_avio) {
+    if (progress_avio || (job_hooks && job_hooks->progress)) {
         av_bprintf(&buf_script, "progress=%s\n",
                    is_last_report ? "end" : "continue");
-        avio_write(progress_avio, buf_script.str,
-                   FFMIN(buf_script.len, buf_script.size - 1));
-        avio_flush(progress_avio);
+        if (job_hooks && job_hooks->progress && av_bprint_is_complete(&buf_script))
+            job_hooks->progress(job_hooks->opaque, buf_script.str);
+        if (progress_avio) {
+            avio_write(progress_avio, buf_script.str,
+                       FFMIN(buf_script.len, buf_script.size - 1));
+            avio_flush(progress_avio);
+        }
         av_bprint_finalize(&buf_script, NULL);
-        if (is_last_report) {
+        if (is_last_report && progress_avio) {
             if ((ret = avio_closep(&progress_avio)) < 0)
                 av_log(NULL, AV_LOG_ERROR,
                        "Error closing progress log, loss of information possible: %s\n", av_err2str(ret));
@@ -3539,8 +3578,8 @@ static void set_tty_echo(int on)
 static int check_keyboard_interaction(int64_t cur_time)
 {
     int i, ret, key;
-    static int64_t last_time;
-    if (received_nb_signals)
+    static FF_THREAD_LOCAL int64_t last_time;
+    if (received_nb_signals || job_aborted())
         return AVERROR_EXIT;
     /* read_key() returns 0 on EOF */
     if (cur_time - last_time >= 100000) {
@@ -4360,7 +4399,7 @@ static int transcode(void)
         goto fail;
 #endif
 
-    while (!received_sigterm) {
+    while (!received_sigterm && !job_aborted()) {
         int64_t cur_time= av_gettime_relative();
 
         /* if 'q' pressed, exits */
@@ -4526,10 +4565,23 @@ static int64_t getmaxrss(void)
 }
 
 int run_ffmpeg(int argc, char **argv)
+{
+    return run_ffmpeg_job(argc, argv, NULL);
+}
+
+int run_ffmpeg_job(int argc, char **argv, const FFmpegJobHooks *hooks)
 {
     int i, ret;
     BenchmarkTimeStamps ti;
     main_return_code = 0;
+    job_hooks = hooks;
+    interrupt_ctx.hooks               = hooks;
+    interrupt_ctx.received_nb_signals = &received_nb_signals;
+    interrupt_ctx.transcode_init_done = &transcode_init_done;
+    int_cb.callback       = decode_interrupt_cb;
+    int_cb.opaque         = &interrupt_ctx;
+    input_int_cb.callback = input_interrupt_cb;
+    input_int_cb.opaque   = &interrupt_ctx;
     init_dynload();
 
     register_exit(ffmpeg_cleanup);
@@ -4593,7 +4645,12 @@ int run_ffmpeg(int argc, char **argv)
 
 //    exit_program(received_nb_signals ? 255 : main_return_code);
 end:
+    /* the same code as exiting on a signal */
+    if (job_aborted())
+        main_return_code = 255;
     av_log(NULL, AV_LOG_INFO, "FFmpeg result=%d\n", main_return_code);
     ffmpeg_cleanup(0);
+    job_hooks = NULL;
+    interrupt_ctx.hooks = NULL;
     return main_return_code;
 }
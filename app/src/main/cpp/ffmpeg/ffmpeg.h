@@ -600,65 +600,67 @@ typedef struct OutputFile {
     int header_written;
 } OutputFile;
 
-extern InputStream **input_streams;
-extern int        nb_input_streams;
-extern InputFile   **input_files;
-extern int        nb_input_files;
-
-extern OutputStream **output_streams;
-extern int         nb_output_streams;
-extern OutputFile   **output_files;
-extern int         nb_output_files;
-
-extern FilterGraph **filtergraphs;
-extern int        nb_filtergraphs;
-
-extern char *vstats_filename;
-extern char *sdp_filename;
-
-extern float audio_drift_threshold;
-extern float dts_delta_threshold;
-extern float dts_error_threshold;
-
-extern int audio_volume;
-extern int audio_sync_method;
-extern enum VideoSyncMethod video_sync_method;
-extern float frame_drop_threshold;
-extern int do_benchmark;
-extern int do_benchmark_all;
+extern FF_THREAD_LOCAL InputStream **input_streams;
+extern FF_THREAD_LOCAL int        nb_input_streams;
+extern FF_THREAD_LOCAL InputFile   **input_files;
+extern FF_THREAD_LOCAL int        nb_input_files;
+
+extern FF_THREAD_LOCAL OutputStream **output_streams;
+extern FF_THREAD_LOCAL int         nb_output_streams;
+extern FF_THREAD_LOCAL OutputFile   **output_files;
+extern FF_THREAD_LOCAL int         nb_output_files;
+
+extern FF_THREAD_LOCAL FilterGraph **filtergraphs;
+extern FF_THREAD_LOCAL int        nb_filtergraphs;
+
+extern FF_THREAD_LOCAL char *vstats_filename;
+extern FF_THREAD_LOCAL char *sdp_filename;
+
+extern FF_THREAD_LOCAL float audio_drift_threshold;
+extern FF_THREAD_LOCAL float dts_delta_threshold;
+extern FF_THREAD_LOCAL float dts_error_threshold;
+
+extern FF_THREAD_LOCAL int audio_volume;
+extern FF_THREAD_LOCAL int audio_sync_method;
+extern FF_THREAD_LOCAL enum VideoSyncMethod video_sync_method;
+extern FF_THREAD_LOCAL float frame_drop_threshold;
+extern FF_THREAD_LOCAL int do_benchmark;
+extern FF_THREAD_LOCAL int do_benchmark_all;
 extern int do_deinterlace;
-extern int do_hex_dump;
-extern int do_pkt_dump;
-extern int copy_ts;
-extern int start_at_zero;
-extern int copy_tb;
-extern int debug_ts;
-extern int exit_on_error;
-extern int abort_on_flags;
-extern int print_stats;
-extern int64_t stats_period;
-extern int qp_hist;
-extern int stdin_interaction;
+extern FF_THREAD_LOCAL int do_hex_dump;
+extern FF_THREAD_LOCAL int do_pkt_dump;
+extern FF_THREAD_LOCAL int copy_ts;
+extern FF_THREAD_LOCAL int start_at_zero;
+extern FF_THREAD_LOCAL int copy_tb;
+extern FF_THREAD_LOCAL int debug_ts;
+extern FF_THREAD_LOCAL int exit_on_error;
+extern FF_THREAD_LOCAL int abort_on_flags;
+extern FF_THREAD_LOCAL int print_stats;
+extern FF_THREAD_LOCAL int64_t stats_period;
+extern FF_THREAD_LOCAL int qp_hist;
+extern FF_THREAD_LOCAL int stdin_interaction;
 extern int frame_bits_per_raw_sample;
-extern AVIOContext *progress_avio;
-extern float max_error_rate;
+extern FF_THREAD_LOCAL AVIOContext *progress_avio;
+extern FF_THREAD_LOCAL float max_error_rate;
 
-extern char *filter_nbthreads;
-extern int filter_complex_nbthreads;
-extern int vstats_version;
-extern int auto_conversion_filters;
+extern FF_THREAD_LOCAL char *filter_nbthreads;
+extern FF_THREAD_LOCAL int filter_complex_nbthreads;
+extern FF_THREAD_LOCAL int vstats_version;
+extern FF_THREAD_LOCAL int auto_conversion_filters;
 
-extern const AVIOInterruptCB int_cb;
+/* callbacks of the running command, input_int_cb also stops reading on abort after transcoding started */
+extern FF_THREAD_LOCAL AVIOInterruptCB int_cb;
+extern FF_THREAD_LOCAL AVIOInterruptCB input_int_cb;
 
 extern const OptionDef options[];
 #if CONFIG_QSV
 extern char *qsv_device;
 #endif
-extern HWDevice *filter_hw_device;
+extern FF_THREAD_LOCAL HWDevice *filter_hw_device;
 
-extern int want_sdp;
-extern unsigned nb_output_dumped;
-extern int main_return_code;
+extern FF_THREAD_LOCAL int want_sdp;
+extern FF_THREAD_LOCAL unsigned nb_output_dumped;
+extern FF_THREAD_LOCAL int main_return_code;
 
 
 void term_init(void);
@@ -704,6 +706,23 @@ void of_close(OutputFile **pof);
 void of_write_packet(OutputFile *of, AVPacket *pkt, OutputStream *ost,
                      int unqueue);
 
+/**
+ * Callbacks of a command started by run_ffmpeg_job(), called on its thread.
+ */
+typedef struct FFmpegJobHooks {
+    void *opaque;
+    /* non-zero to stop the command, polled while opening and transcoding */
+    int (*interrupt)(void *opaque);
+    /* key=value lines as written by -progress, ending with progress=continue or progress=end */
+    void (*progress)(void *opaque, const char *stats);
+} FFmpegJobHooks;
+
 int run_ffmpeg(int argc, char **argv);
 
+/**
+ * Run a command with hooks, commands on different threads run concurrently.
+ * @return 255 if the command was interrupted
+ */
+int run_ffmpeg_job(int argc, char **argv, const FFmpegJobHooks *hooks);
+
 #endif /* FFTOOLS_FFMPEG_H */
@@ -147,48 +147,81 @@ static const char *const opt_name_bits_per_raw_sample[]       = {"bits_per_raw_s
     }\
 }
 
-HWDevice *filter_hw_device;
-
-char *vstats_filename;
-char *sdp_filename;
-
-float audio_drift_threshold = 0.1;
-float dts_delta_threshold   = 10;
-float dts_error_threshold   = 3600*30;
-
-int audio_volume      = 256;
-int audio_sync_method = 0;
-enum VideoSyncMethod video_sync_method = VSYNC_AUTO;
-float frame_drop_threshold = 0;
-int do_benchmark      = 0;
-int do_benchmark_all  = 0;
-int do_hex_dump       = 0;
-int do_pkt_dump       = 0;
-int copy_ts           = 0;
-int start_at_zero     = 0;
-int copy_tb           = -1;
-int debug_ts          = 0;
-int exit_on_error     = 0;
-int abort_on_flags    = 0;
-int print_stats       = -1;
-int qp_hist           = 0;
-int stdin_interaction = 1;
-float max_error_rate  = 2.0/3;
-char *filter_nbthreads;
-int filter_complex_nbthreads = 0;
-int vstats_version = 2;
-int auto_conversion_filters = 1;
-int64_t stats_period = 500000;
-
-
-static int file_overwrite     = 0;
-static int no_file_overwrite  = 0;
-static int do_psnr            = 0;
-static int input_stream_potentially_available = 0;
-static int ignore_unknown_streams = 0;
-static int copy_unknown_streams = 0;
-static int recast_media = 0;
-static int find_stream_info = 1;
+FF_THREAD_LOCAL HWDevice *filter_hw_device;
+
+FF_THREAD_LOCAL char *vstats_filename;
+FF_THREAD_LOCAL char *sdp_filename;
+
+FF_THREAD_LOCAL float audio_drift_threshold = 0.1;
+FF_THREAD_LOCAL float dts_delta_threshold   = 10;
+FF_THREAD_LOCAL float dts_error_threshold   = 3600*30;
+
+FF_THREAD_LOCAL int audio_volume      = 256;
+FF_THREAD_LOCAL int audio_sync_method = 0;
+FF_THREAD_LOCAL enum VideoSyncMethod video_sync_method = VSYNC_AUTO;
+FF_THREAD_LOCAL float frame_drop_threshold = 0;
+FF_THREAD_LOCAL int do_benchmark      = 0;
+FF_THREAD_LOCAL int do_benchmark_all  = 0;
+FF_THREAD_LOCAL int do_hex_dump       = 0;
+FF_THREAD_LOCAL int do_pkt_dump       = 0;
+FF_THREAD_LOCAL int copy_ts           = 0;
+FF_THREAD_LOCAL int start_at_zero     = 0;
+FF_THREAD_LOCAL int copy_tb           = -1;
+FF_THREAD_LOCAL int debug_ts          = 0;
+FF_THREAD_LOCAL int exit_on_error     = 0;
+FF_THREAD_LOCAL int abort_on_flags    = 0;
+FF_THREAD_LOCAL int print_stats       = -1;
+FF_THREAD_LOCAL int qp_hist           = 0;
+FF_THREAD_LOCAL int stdin_interaction = 1;
+FF_THREAD_LOCAL float max_error_rate  = 2.0/3;
+FF_THREAD_LOCAL char *filter_nbthreads;
+FF_THREAD_LOCAL int filter_complex_nbthreads = 0;
+FF_THREAD_LOCAL int vstats_version = 2;
+FF_THREAD_LOCAL int auto_conversion_filters = 1;
+FF_THREAD_LOCAL int64_t stats_period = 500000;
+
+
+static FF_THREAD_LOCAL int file_overwrite     = 0;
+static FF_THREAD_LOCAL int no_file_overwrite  = 0;
+static FF_THREAD_LOCAL int do_psnr            = 0;
+static FF_THREAD_LOCAL int input_stream_potentially_available = 0;
+static FF_THREAD_LOCAL int ignore_unknown_streams = 0;
+static FF_THREAD_LOCAL int copy_unknown_streams = 0;
+static FF_THREAD_LOCAL int recast_media = 0;
+static FF_THREAD_LOCAL int find_stream_info = 1;
+
+/* addresses of the thread local variables set by options */
+#define OPT_TLS_ADDRESS(var) static void *var##_address(void) { return &var; }
+
+OPT_TLS_ADDRESS(file_overwrite)
+OPT_TLS_ADDRESS(no_file_overwrite)
+OPT_TLS_ADDRESS(ignore_unknown_streams)
+OPT_TLS_ADDRESS(copy_unknown_streams)
+OPT_TLS_ADDRESS(recast_media)
+OPT_TLS_ADDRESS(do_benchmark)
+OPT_TLS_ADDRESS(do_benchmark_all)
+OPT_TLS_ADDRESS(stdin_interaction)
+OPT_TLS_ADDRESS(do_pkt_dump)
+OPT_TLS_ADDRESS(do_hex_dump)
+OPT_TLS_ADDRESS(frame_drop_threshold)
+OPT_TLS_ADDRESS(audio_sync_method)
+OPT_TLS_ADDRESS(audio_drift_threshold)
+OPT_TLS_ADDRESS(copy_ts)
+OPT_TLS_ADDRESS(start_at_zero)
+OPT_TLS_ADDRESS(copy_tb)
+OPT_TLS_ADDRESS(dts_delta_threshold)
+OPT_TLS_ADDRESS(dts_error_threshold)
+OPT_TLS_ADDRESS(exit_on_error)
+OPT_TLS_ADDRESS(filter_complex_nbthreads)
+OPT_TLS_ADDRESS(auto_conversion_filters)
+OPT_TLS_ADDRESS(print_stats)
+OPT_TLS_ADDRESS(debug_ts)
+OPT_TLS_ADDRESS(max_error_rate)
+OPT_TLS_ADDRESS(find_stream_info)
+OPT_TLS_ADDRESS(do_psnr)
+OPT_TLS_ADDRESS(vstats_version)
+OPT_TLS_ADDRESS(qp_hist)
+OPT_TLS_ADDRESS(audio_volume)
 
 static void uninit_options(OptionsContext *o)
 {
@@ -1254,7 +1287,7 @@ static int open_input_file(OptionsContext *o, const char *filename)
     ic->flags |= AVFMT_FLAG_NONBLOCK;
     if (o->bitexact)
         ic->flags |= AVFMT_FLAG_BITEXACT;
-    ic->interrupt_callback = int_cb;
+    ic->interrupt_callback = input_int_cb;
 
     if (!av_dict_get(o->g->format_opts, "scan_all_pmts", NULL, AV_DICT_MATCH_CASE)) {
         av_dict_set(&o->g->format_opts, "scan_all_pmts", "1", AV_DICT_DONT_OVERWRITE);
@@ -3644,15 +3677,15 @@ const OptionDef options[] = {
     { "f",              HAS_ARG | OPT_STRING | OPT_OFFSET |
                         OPT_INPUT | OPT_OUTPUT,                      { .off       = OFFSET(format) },
         "force format", "fmt" },
-    { "y",              OPT_BOOL,                                    {              &file_overwrite },
+    { "y",              OPT_BOOL | OPT_TLS,                          { .dst_func = file_overwrite_address },
         "overwrite output files" },
-    { "n",              OPT_BOOL,                                    {              &no_file_overwrite },
+    { "n",              OPT_BOOL | OPT_TLS,                          { .dst_func = no_file_overwrite_address },
         "never overwrite output files" },
-    { "ignore_unknown", OPT_BOOL,                                    {              &ignore_unknown_streams },
+    { "ignore_unknown", OPT_BOOL | OPT_TLS,                          { .dst_func = ignore_unknown_streams_address },
         "Ignore unknown stream types" },
-    { "copy_unknown",   OPT_BOOL | OPT_EXPERT,                       {              &copy_unknown_streams },
+    { "copy_unknown",   OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = copy_unknown_streams_address },
         "Copy unknown stream types" },
-    { "recast_media",   OPT_BOOL | OPT_EXPERT,                       {              &recast_media },
+    { "recast_media",   OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = recast_media_address },
         "allow recasting stream type in order to force a decoder of different media type" },
     { "c",              HAS_ARG | OPT_STRING | OPT_SPEC |
                         OPT_INPUT | OPT_OUTPUT,                      { .off       = OFFSET(codec_names) },
@@ -3714,19 +3747,19 @@ const OptionDef options[] = {
     { "dframes",        HAS_ARG | OPT_PERFILE | OPT_EXPERT |
                         OPT_OUTPUT,                                  { .func_arg = opt_data_frames },
         "set the number of data frames to output", "number" },
-    { "benchmark",      OPT_BOOL | OPT_EXPERT,                       { &do_benchmark },
+    { "benchmark",      OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = do_benchmark_address },
         "add timings for benchmarking" },
-    { "benchmark_all",  OPT_BOOL | OPT_EXPERT,                       { &do_benchmark_all },
+    { "benchmark_all",  OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = do_benchmark_all_address },
       "add timings for each task" },
     { "progress",       HAS_ARG | OPT_EXPERT,                        { .func_arg = opt_progress },
       "write program-readable progress information", "url" },
-    { "stdin",          OPT_BOOL | OPT_EXPERT,                       { &stdin_interaction },
+    { "stdin",          OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = stdin_interaction_address },
       "enable or disable interaction on standard input" },
     { "timelimit",      HAS_ARG | OPT_EXPERT,                        { .func_arg = opt_timelimit },
         "set max runtime in seconds in CPU user time", "limit" },
-    { "dump",           OPT_BOOL | OPT_EXPERT,                       { &do_pkt_dump },
+    { "dump",           OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = do_pkt_dump_address },
         "dump each input packet" },
-    { "hex",            OPT_BOOL | OPT_EXPERT,                       { &do_hex_dump },
+    { "hex",            OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = do_hex_dump_address },
         "when dumping packets, also dump the payload" },
     { "re",             OPT_BOOL | OPT_EXPERT | OPT_OFFSET |
                         OPT_INPUT,                                   { .off = OFFSET(rate_emu) },
@@ -3739,17 +3772,17 @@ const OptionDef options[] = {
         "with optional prefixes \"pal-\", \"ntsc-\" or \"film-\")", "type" },
     { "vsync",          HAS_ARG | OPT_EXPERT,                        { .func_arg = opt_vsync },
         "set video sync method globally; deprecated, use -fps_mode", "" },
-    { "frame_drop_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT,      { &frame_drop_threshold },
+    { "frame_drop_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT | OPT_TLS, { .dst_func = frame_drop_threshold_address },
         "frame drop threshold", "" },
-    { "async",          HAS_ARG | OPT_INT | OPT_EXPERT,              { &audio_sync_method },
+    { "async",          HAS_ARG | OPT_INT | OPT_EXPERT | OPT_TLS,    { .dst_func = audio_sync_method_address },
         "audio sync method", "" },
-    { "adrift_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT,          { &audio_drift_threshold },
+    { "adrift_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT | OPT_TLS, { .dst_func = audio_drift_threshold_address },
         "audio drift threshold", "threshold" },
-    { "copyts",         OPT_BOOL | OPT_EXPERT,                       { &copy_ts },
+    { "copyts",         OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = copy_ts_address },
         "copy timestamps" },
-    { "start_at_zero",  OPT_BOOL | OPT_EXPERT,                       { &start_at_zero },
+    { "start_at_zero",  OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = start_at_zero_address },
         "shift input timestamps to start at 0 when using copyts" },
-    { "copytb",         HAS_ARG | OPT_INT | OPT_EXPERT,              { &copy_tb },
+    { "copytb",         HAS_ARG | OPT_INT | OPT_EXPERT | OPT_TLS,    { .dst_func = copy_tb_address },
         "copy input stream time base when stream copying", "mode" },
     { "shortest",       OPT_BOOL | OPT_EXPERT | OPT_OFFSET |
                         OPT_OUTPUT,                                  { .off = OFFSET(shortest) },
@@ -3760,11 +3793,11 @@ const OptionDef options[] = {
     { "apad",           OPT_STRING | HAS_ARG | OPT_SPEC |
                         OPT_OUTPUT,                                  { .off = OFFSET(apad) },
         "audio pad", "" },
-    { "dts_delta_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT,       { &dts_delta_threshold },
+    { "dts_delta_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT | OPT_TLS, { .dst_func = dts_delta_threshold_address },
         "timestamp discontinuity delta threshold", "threshold" },
-    { "dts_error_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT,       { &dts_error_threshold },
+    { "dts_error_threshold", HAS_ARG | OPT_FLOAT | OPT_EXPERT | OPT_TLS, { .dst_func = dts_error_threshold_address },
         "timestamp error delta threshold", "threshold" },
-    { "xerror",         OPT_BOOL | OPT_EXPERT,                       { &exit_on_error },
+    { "xerror",         OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = exit_on_error_address },
         "exit on error", "error" },
     { "abort_on",       HAS_ARG | OPT_EXPERT,                        { .func_arg = opt_abort_on },
         "abort on the specified condition flags", "flags" },
@@ -3796,15 +3829,15 @@ const OptionDef options[] = {
         "reinit filtergraph on input parameter changes", "" },
     { "filter_complex", HAS_ARG | OPT_EXPERT,                        { .func_arg = opt_filter_complex },
         "create a complex filtergraph", "graph_description" },
-    { "filter_complex_threads", HAS_ARG | OPT_INT,                   { &filter_complex_nbthreads },
+    { "filter_complex_threads", HAS_ARG | OPT_INT | OPT_TLS,         { .dst_func = filter_complex_nbthreads_address },
         "number of threads for -filter_complex" },
     { "lavfi",          HAS_ARG | OPT_EXPERT,                        { .func_arg = opt_filter_complex },
         "create a complex filtergraph", "graph_description" },
     { "filter_complex_script", HAS_ARG | OPT_EXPERT,                 { .func_arg = opt_filter_complex_script },
         "read complex filtergraph description from a file", "filename" },
-    { "auto_conversion_filters", OPT_BOOL | OPT_EXPERT,              { &auto_conversion_filters },
+    { "auto_conversion_filters", OPT_BOOL | OPT_EXPERT | OPT_TLS,    { .dst_func = auto_conversion_filters_address },
         "enable automatic conversion filters globally" },
-    { "stats",          OPT_BOOL,                                    { &print_stats },
+    { "stats",          OPT_BOOL | OPT_TLS,                          { .dst_func = print_stats_address },
         "print progress report during encoding", },
     { "stats_period",    HAS_ARG | OPT_EXPERT,                       { .func_arg = opt_stats_period },
         "set the period at which ffmpeg updates stats and -progress output", "time" },
@@ -3816,9 +3849,9 @@ const OptionDef options[] = {
         "extract an attachment into a file", "filename" },
     { "stream_loop", OPT_INT | HAS_ARG | OPT_EXPERT | OPT_INPUT |
                         OPT_OFFSET,                                  { .off = OFFSET(loop) }, "set number of times input stream shall be looped", "loop count" },
-    { "debug_ts",       OPT_BOOL | OPT_EXPERT,                       { &debug_ts },
+    { "debug_ts",       OPT_BOOL | OPT_EXPERT | OPT_TLS,             { .dst_func = debug_ts_address },
         "print timestamp debugging info" },
-    { "max_error_rate",  HAS_ARG | OPT_FLOAT,                        { &max_error_rate },
+    { "max_error_rate",  HAS_ARG | OPT_FLOAT | OPT_TLS,              { .dst_func = max_error_rate_address },
         "ratio of decoding errors (0.0: no errors, 1.0: 100% errors) above which ffmpeg returns an error instead of success.", "maximum error rate" },
     { "discard",        OPT_STRING | HAS_ARG | OPT_SPEC |
                         OPT_INPUT,                                   { .off = OFFSET(discard) },
@@ -3829,7 +3862,7 @@ const OptionDef options[] = {
     { "thread_queue_size", HAS_ARG | OPT_INT | OPT_OFFSET | OPT_EXPERT | OPT_INPUT,
                                                                      { .off = OFFSET(thread_queue_size) },
         "set the maximum number of queued packets from the demuxer" },
-    { "find_stream_info", OPT_BOOL | OPT_PERFILE | OPT_INPUT | OPT_EXPERT, { &find_stream_info },
+    { "find_stream_info", OPT_BOOL | OPT_PERFILE | OPT_INPUT | OPT_EXPERT | OPT_TLS, { .dst_func = find_stream_info_address },
         "read and decode the streams to fill missing information with heuristics" },
     { "bits_per_raw_sample", OPT_INT | HAS_ARG | OPT_EXPERT | OPT_SPEC | OPT_OUTPUT,
         { .off = OFFSET(bits_per_raw_sample) },
@@ -3868,13 +3901,13 @@ const OptionDef options[] = {
     { "passlogfile",  OPT_VIDEO | HAS_ARG | OPT_STRING | OPT_EXPERT | OPT_SPEC |
                       OPT_OUTPUT,                                                { .off = OFFSET(passlogfiles) },
         "select two pass log file name prefix", "prefix" },
-    { "psnr",         OPT_VIDEO | OPT_BOOL | OPT_EXPERT,                         { &do_psnr },
+    { "psnr",         OPT_VIDEO | OPT_BOOL | OPT_EXPERT | OPT_TLS,               { .dst_func = do_psnr_address },
         "calculate PSNR of compressed frames" },
     { "vstats",       OPT_VIDEO | OPT_EXPERT ,                                   { .func_arg = opt_vstats },
         "dump video coding statistics to file" },
     { "vstats_file",  OPT_VIDEO | HAS_ARG | OPT_EXPERT ,                         { .func_arg = opt_vstats_file },
         "dump video coding statistics to file", "file" },
-    { "vstats_version",  OPT_VIDEO | OPT_INT | HAS_ARG | OPT_EXPERT ,            { &vstats_version },
+    { "vstats_version",  OPT_VIDEO | OPT_INT | HAS_ARG | OPT_EXPERT  | OPT_TLS,  { .dst_func = vstats_version_address },
         "Version of the vstats format to use."},
     { "vf",           OPT_VIDEO | HAS_ARG  | OPT_PERFILE | OPT_OUTPUT,           { .func_arg = opt_video_filters },
         "set video filters", "filter_graph" },
@@ -3893,7 +3926,7 @@ const OptionDef options[] = {
     { "vtag",         OPT_VIDEO | HAS_ARG | OPT_EXPERT  | OPT_PERFILE |
                       OPT_INPUT | OPT_OUTPUT,                                    { .func_arg = opt_old2new },
         "force video tag/fourcc", "fourcc/tag" },
-    { "qphist",       OPT_VIDEO | OPT_BOOL | OPT_EXPERT ,                        { &qp_hist },
+    { "qphist",       OPT_VIDEO | OPT_BOOL | OPT_EXPERT  | OPT_TLS,              { .dst_func = qp_hist_address },
         "show QP histogram" },
     { "fps_mode",     OPT_VIDEO | HAS_ARG | OPT_STRING | OPT_EXPERT |
                       OPT_SPEC | OPT_OUTPUT,                                     { .off = OFFSET(fps_mode) },
@@ -3948,7 +3981,7 @@ const OptionDef options[] = {
     { "atag",           OPT_AUDIO | HAS_ARG  | OPT_EXPERT | OPT_PERFILE |
                         OPT_OUTPUT,                                                { .func_arg = opt_old2new },
         "force audio tag/fourcc", "fourcc/tag" },
-    { "vol",            OPT_AUDIO | HAS_ARG  | OPT_INT,                            { &audio_volume },
+    { "vol",            OPT_AUDIO | HAS_ARG  | OPT_INT | OPT_TLS,                  { .dst_func = audio_volume_address },
         "change audio volume (256=normal)" , "volume" },
     { "sample_fmt",     OPT_AUDIO | HAS_ARG  | OPT_EXPERT | OPT_SPEC |
                         OPT_STRING | OPT_INPUT | OPT_OUTPUT,                       { .off = OFFSET(sample_fmts) },
@@ -64,8 +64,8 @@ enum show_muxdemuxers {
     SHOW_MUXERS,
 };
 
-static FILE *report_file;
-static int report_file_level = AV_LOG_DEBUG;
+static FF_THREAD_LOCAL FILE *report_file;
+static FF_THREAD_LOCAL int report_file_level = AV_LOG_DEBUG;
 
 int show_license(void *optctx, const char *opt, const char *arg)
 {
@@ -141,7 +141,7 @@ int show_license(void *optctx, const char *opt, const char *arg)
     return 0;
 }
 
-static int warned_cfg = 0;
+static FF_THREAD_LOCAL int warned_cfg = 0;
 
 #define INDENT        1
 #define SHOW_VERSION  2
@@ -1108,7 +1108,7 @@ static void log_callback_report(void *ptr, int level, const char *fmt, va_list v
 {
     va_list vl2;
     char line[1024];
-    static int print_prefix = 1;
+    static FF_THREAD_LOCAL int print_prefix = 1;
 
     va_copy(vl2, vl);
     av_log_default_callback(ptr, level, fmt, vl);
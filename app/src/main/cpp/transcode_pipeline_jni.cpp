@@ -0,0 +1,134 @@
+//
+// Created by xu fulong on 2022/10/22.
+//
+
+#include <jni.h>
+
+#include "ff_transcode_pipeline.h"
+
+static std::string getString(JNIEnv *env, jstring jstr) {
+    if (!jstr) {
+        return "";
+    }
+    const char *str = env->GetStringUTFChars(jstr, JNI_FALSE);
+    std::string result(str);
+    env->ReleaseStringUTFChars(jstr, str);
+    return result;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_frank_media_TranscodePipeline_nativeCreate(JNIEnv *env, jobject thiz, jstring outputPath) {
+    auto *pipeline = new FFTranscodePipeline();
+    pipeline->setOutput(getString(env, outputPath).c_str());
+    return (jlong) pipeline;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeAddSegment(JNIEnv *env, jobject thiz, jlong handle, jstring path, jlong startUs, jlong durationUs) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->addSegment(getString(env, path).c_str(), startUs, durationUs);
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeSetVideoSize(JNIEnv *env, jobject thiz, jlong handle, jint width, jint height) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->setVideoSize(width, height);
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeSetFrameRate(JNIEnv *env, jobject thiz, jlong handle, jint num, jint den) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->setFrameRate(num, den);
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeSetVideoBitrate(JNIEnv *env, jobject thiz, jlong handle, jlong bitrate) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->setVideoBitrate(bitrate);
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeSetVideoEncoder(JNIEnv *env, jobject thiz, jlong handle, jstring name) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->setVideoEncoder(getString(env, name).c_str());
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeSetVideoFilter(JNIEnv *env, jobject thiz, jlong handle, jstring filterDesc) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->setVideoFilter(getString(env, filterDesc).c_str());
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeSetAudio(JNIEnv *env, jobject thiz, jlong handle, jboolean enabled, jint sampleRate, jint channels, jlong bitrate) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->setAudio(enabled, sampleRate, channels, bitrate);
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeSetThreadCount(JNIEnv *env, jobject thiz, jlong handle, jint count) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->setThreadCount(count);
+    }
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_frank_media_TranscodePipeline_nativeRun(JNIEnv *env, jobject thiz, jlong handle, jobject callback) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (!pipeline) {
+        return AVERROR(EINVAL);
+    }
+    jclass clazz = env->GetObjectClass(callback);
+    jmethodID onProgress = env->GetMethodID(clazz, "onNativeProgress", "(IJFJFZ)V");
+    env->DeleteLocalRef(clazz);
+    // 在调用线程运行, 进度直接回调
+    return pipeline->run([env, callback, onProgress](const TranscodeProgress &progress) {
+        env->CallVoidMethod(callback, onProgress, (jint) progress.segment, (jlong) progress.frame,
+                            (jfloat) progress.fps, (jlong) progress.outTimeUs,
+                            (jfloat) progress.speed, (jboolean) progress.end);
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+        }
+    });
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeCancel(JNIEnv *env, jobject thiz, jlong handle) {
+    auto *pipeline = (FFTranscodePipeline *) handle;
+    if (pipeline) {
+        pipeline->cancel();
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_frank_media_TranscodePipeline_nativeRelease(JNIEnv *env, jobject thiz, jlong handle) {
+    delete (FFTranscodePipeline *) handle;
+}
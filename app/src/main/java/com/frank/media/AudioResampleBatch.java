@@ -0,0 +1,128 @@
+package com.frank.media;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resample many files to one sample rate with a few workers. Each worker
+ * keeps one native resampler for all of its files, so the decoders and
+ * encoders are reopened per file but the SwrContext is reused while
+ * the formats are the same.
+ */
+public class AudioResampleBatch {
+
+    static {
+        System.loadLibrary("like_media");
+    }
+
+    private static final String TAG = "AudioResampleBatch";
+
+    public static class Result {
+        public int fileCount;
+        public int failedCount;
+        public long outputSamples;
+        public long elapsedMs;
+
+        public long getSamplesPerSecond() {
+            return elapsedMs > 0 ? outputSamples * 1000 / elapsedMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "files=" + fileCount + ", failed=" + failedCount + ", samples=" + outputSamples
+                    + ", elapsed=" + elapsedMs + "ms, samples/s=" + getSamplesPerSecond();
+        }
+    }
+
+    private final int mSampleRate;
+    private final int mParallelism;
+    private final List<String> mInputPaths = new ArrayList<>();
+    private final List<String> mOutputPaths = new ArrayList<>();
+    private volatile boolean mCancelled;
+
+    /**
+     * @param parallelism count of workers, such as the count of cores
+     */
+    public AudioResampleBatch(int sampleRate, int parallelism) {
+        mSampleRate  = sampleRate;
+        mParallelism = Math.max(parallelism, 1);
+    }
+
+    public void add(String inputPath, String outputPath) {
+        mInputPaths.add(inputPath);
+        mOutputPaths.add(outputPath);
+    }
+
+    /**
+     * The workers stop after their current files.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Blocks until all files are resampled, run it on a worker thread.
+     */
+    public Result run() {
+        final Result result = new Result();
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        final AtomicLong outputSamples = new AtomicLong();
+        final int fileCount = mInputPaths.size();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                long resampler = nativeCreate();
+                try {
+                    int index;
+                    while (!mCancelled && (index = nextIndex.getAndIncrement()) < fileCount) {
+                        long samples = nativeResample(resampler, mInputPaths.get(index),
+                                mOutputPaths.get(index), mSampleRate);
+                        if (samples < 0) {
+                            Log.e(TAG, "resample " + mInputPaths.get(index) + " error=" + samples);
+                            failedCount.incrementAndGet();
+                        } else {
+                            outputSamples.addAndGet(samples);
+                        }
+                    }
+                } finally {
+                    nativeRelease(resampler);
+                }
+            }
+        };
+
+        long begin = System.currentTimeMillis();
+        int workerCount = Math.min(mParallelism, fileCount);
+        Thread[] threads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            threads[i] = new Thread(worker, TAG + "-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                mCancelled = true;
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        result.elapsedMs     = System.currentTimeMillis() - begin;
+        result.fileCount     = Math.min(nextIndex.get(), fileCount);
+        result.failedCount   = failedCount.get();
+        result.outputSamples = outputSamples.get();
+        return result;
+    }
+
+    private static native long nativeCreate();
+
+    private static native long nativeResample(long resampler, String inputPath, String outputPath, int sampleRate);
+
+    private static native void nativeRelease(long resampler);
+
+}
@@ -1,7 +1,10 @@
 package com.frank.media;
 
 import com.frank.media.listener.OnHandlerListener;
-import com.frank.media.thread.ThreadPoolUtil;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author xufulong
@@ -14,20 +17,55 @@ public class FFmpegCommand {
         System.loadLibrary("like_media");
     }
 
-    private static native int runFFmpeg(String[] commandLine);
-
-    public static void execute(String[] commandLine, OnHandlerListener handlerListener) {
-        ThreadPoolUtil.runThread(new Runnable() {
-            @Override
-            public void run() {
-                if (handlerListener != null) {
-                    handlerListener.onBegin();
-                }
-                int result = runFFmpeg(commandLine);
-                if (handlerListener != null) {
-                    handlerListener.onEnd(result);
-                }
-            }
-        });
+    private static final int DEFAULT_MAX_PARALLEL = 2;
+    private static final long KEEP_ALIVE_SECONDS  = 30;
+
+    // the queue orders jobs by priority, so jobs are executed rather than submitted as futures
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            DEFAULT_MAX_PARALLEL, DEFAULT_MAX_PARALLEL, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>());
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    static native long nativeCreateJob(String[] commandLine);
+
+    static native int nativeRunJob(long nativeJob, FFmpegJob job);
+
+    static native void nativeCancelJob(long nativeJob);
+
+    static native void nativeReleaseJob(long nativeJob);
+
+    /**
+     * Max count of commands running at the same time, each of them
+     * has its own decoders and encoders, so keep it small on phones.
+     * Running jobs aren't affected, the extra threads exit when idle.
+     */
+    public static synchronized void setMaxParallel(int maxParallel) {
+        if (maxParallel < 1) {
+            maxParallel = 1;
+        }
+        if (maxParallel > sExecutor.getMaximumPoolSize()) {
+            sExecutor.setMaximumPoolSize(maxParallel);
+            sExecutor.setCorePoolSize(maxParallel);
+        } else {
+            sExecutor.setCorePoolSize(maxParallel);
+            sExecutor.setMaximumPoolSize(maxParallel);
+        }
+    }
+
+    public static FFmpegJob submit(String[] commandLine, int priority, OnHandlerListener handlerListener) {
+        FFmpegJob job = new FFmpegJob(commandLine, priority, handlerListener);
+        sExecutor.execute(job);
+        return job;
+    }
+
+    public static FFmpegJob execute(String[] commandLine, OnHandlerListener handlerListener) {
+        return submit(commandLine, FFmpegJob.PRIORITY_NORMAL, handlerListener);
+    }
+
+    static void remove(FFmpegJob job) {
+        sExecutor.remove(job);
     }
 }
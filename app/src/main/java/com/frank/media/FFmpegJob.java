@@ -0,0 +1,159 @@
+package com.frank.media;
+
+import com.frank.media.listener.OnHandlerListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handle of a command submitted to FFmpegCommand.
+ * Jobs with higher priority run first, the same priority runs in submitting order.
+ */
+public class FFmpegJob implements Runnable, Comparable<FFmpegJob> {
+
+    public static final int PRIORITY_LOW    = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH   = 10;
+
+    public static final int STATE_QUEUED    = 0;
+    public static final int STATE_RUNNING   = 1;
+    public static final int STATE_FINISHED  = 2;
+    public static final int STATE_CANCELLED = 3;
+
+    // same as the exit code of ffmpeg on a signal
+    public static final int RESULT_CANCELLED = 255;
+
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private final long mId;
+    private final String[] mCommandLine;
+    private final int mPriority;
+    private final OnHandlerListener mListener;
+
+    private int mState = STATE_QUEUED;
+    private int mResult;
+    private long mNativeJob;
+    private boolean mCancelRequest;
+
+    private volatile long mFrame;
+    private volatile float mFps;
+    private volatile long mOutTimeUs;
+    private volatile float mSpeed;
+    private volatile long mTotalSize;
+
+    FFmpegJob(String[] commandLine, int priority, OnHandlerListener listener) {
+        mId          = sSequence.incrementAndGet();
+        mCommandLine = commandLine;
+        mPriority    = priority;
+        mListener    = listener;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * The result of ffmpeg, valid after finished or cancelled.
+     */
+    public synchronized int getResult() {
+        return mResult;
+    }
+
+    public long getFrame() {
+        return mFrame;
+    }
+
+    public float getFps() {
+        return mFps;
+    }
+
+    public long getOutTimeUs() {
+        return mOutTimeUs;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /**
+     * A queued job is dropped and ends at once, a running job stops at its next check,
+     * and the files being written are finished like ffmpeg got a signal.
+     * @return false if the job has ended
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (mState == STATE_RUNNING) {
+                mCancelRequest = true;
+                FFmpegCommand.nativeCancelJob(mNativeJob);
+                return true;
+            }
+            if (mState != STATE_QUEUED) {
+                return false;
+            }
+            mState  = STATE_CANCELLED;
+            mResult = RESULT_CANCELLED;
+        }
+        FFmpegCommand.remove(this);
+        if (mListener != null) {
+            mListener.onEnd(RESULT_CANCELLED);
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (mState != STATE_QUEUED) {
+                return;
+            }
+            mState     = STATE_RUNNING;
+            mNativeJob = FFmpegCommand.nativeCreateJob(mCommandLine);
+        }
+        if (mListener != null) {
+            mListener.onBegin();
+        }
+        int result = FFmpegCommand.nativeRunJob(mNativeJob, this);
+        synchronized (this) {
+            FFmpegCommand.nativeReleaseJob(mNativeJob);
+            mNativeJob = 0;
+            mResult    = result;
+            mState     = mCancelRequest ? STATE_CANCELLED : STATE_FINISHED;
+        }
+        if (mListener != null) {
+            mListener.onEnd(result);
+        }
+    }
+
+    // called from native on the thread of run()
+    private void onNativeProgress(long frame, float fps, long outTimeUs, float speed,
+                                  long totalSize, boolean end) {
+        mFrame     = frame;
+        mFps       = fps;
+        mOutTimeUs = outTimeUs;
+        mSpeed     = speed;
+        mTotalSize = totalSize;
+        if (mListener != null) {
+            mListener.onProgress(frame, fps, outTimeUs, speed);
+        }
+    }
+
+    @Override
+    public int compareTo(FFmpegJob other) {
+        if (mPriority != other.mPriority) {
+            return mPriority > other.mPriority ? -1 : 1;
+        }
+        return Long.compare(mId, other.mId);
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.frank.media;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Resample interleaved PCM fed in chunks, such as buffers of AudioRecord
+ * or a decoder, keeping the state between chunks. Not thread safe.
+ */
+public class PcmResampler {
+
+    static {
+        System.loadLibrary("like_media");
+    }
+
+    // same as AVSampleFormat
+    public static final int FORMAT_U8     = 0;
+    public static final int FORMAT_S16    = 1;
+    public static final int FORMAT_S32    = 2;
+    public static final int FORMAT_FLOAT  = 3;
+    public static final int FORMAT_DOUBLE = 4;
+
+    public static final int QUALITY_LOW    = 0;
+    public static final int QUALITY_MEDIUM = 1;
+    public static final int QUALITY_HIGH   = 2;
+
+    private long mNativeResampler;
+    private int mInFrameBytes;
+    private int mOutFrameBytes;
+    private long mInputSamples;
+    private long mOutputSamples;
+
+    public PcmResampler(int inRate, int inChannels, int inFormat, int outRate, int outChannels, int outFormat) {
+        mNativeResampler = nativeCreate(inRate, inChannels, inFormat, outRate, outChannels, outFormat);
+        updateFrameBytes();
+    }
+
+    private void updateFrameBytes() {
+        mInFrameBytes  = nativeGetFrameBytes(mNativeResampler, false);
+        mOutFrameBytes = nativeGetFrameBytes(mNativeResampler, true);
+    }
+
+    /**
+     * Masks of AV_CH_* in FFmpeg, not of AudioFormat, 0 keeps the default of the channel count.
+     * Call it before the first chunk.
+     */
+    public void setChannelLayout(long inLayout, long outLayout) {
+        nativeSetChannelLayout(mNativeResampler, inLayout, outLayout);
+        updateFrameBytes();
+    }
+
+    /**
+     * Call it before the first chunk, the default is QUALITY_MEDIUM.
+     */
+    public void setQuality(int quality) {
+        nativeSetQuality(mNativeResampler, quality);
+    }
+
+    /**
+     * The size of out which takes all of the output for inBytes of input.
+     */
+    public int getOutputBufferSize(int inBytes) {
+        int samples = nativeGetMaxOutputSamples(mNativeResampler, inBytes / mInFrameBytes);
+        return Math.max(samples, 0) * mOutFrameBytes;
+    }
+
+    /**
+     * The input which doesn't fit into out is kept for the next call,
+     * so size out with getOutputBufferSize(). Length should be whole frames,
+     * a partial frame at the end is dropped.
+     * @return bytes written to out, negative on error
+     */
+    public int process(byte[] in, int offset, int length, byte[] out, int outOffset) {
+        if (offset < 0 || length < 0 || offset + length > in.length || outOffset < 0 || outOffset > out.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        int ret = nativeProcessArray(mNativeResampler, in, offset, length,
+                out, outOffset, out.length - outOffset, false);
+        return count(length, ret);
+    }
+
+    /**
+     * Consume the remaining of in, and write to the position of out, both must be direct.
+     * The positions of both are advanced.
+     * @return bytes written to out, negative on error
+     */
+    public int process(ByteBuffer in, ByteBuffer out) {
+        if (!in.isDirect() || !out.isDirect()) {
+            throw new IllegalArgumentException("direct buffer required");
+        }
+        int length = in.remaining();
+        int ret = nativeProcessBuffer(mNativeResampler, in, in.position(), length,
+                out, out.position(), out.remaining(), false);
+        if (ret >= 0) {
+            in.position(in.limit());
+            out.position(out.position() + ret);
+        }
+        return count(length, ret);
+    }
+
+    /**
+     * Take out the samples delayed by the filter at the end of a stream.
+     */
+    public int flush(byte[] out, int outOffset) {
+        int ret = nativeProcessArray(mNativeResampler, null, 0, 0,
+                out, outOffset, out.length - outOffset, true);
+        return count(0, ret);
+    }
+
+    public int flush(ByteBuffer out) {
+        int ret = nativeProcessBuffer(mNativeResampler, null, 0, 0,
+                out, out.position(), out.remaining(), true);
+        if (ret > 0) {
+            out.position(out.position() + ret);
+        }
+        return count(0, ret);
+    }
+
+    private int count(int inBytes, int outBytes) {
+        if (outBytes >= 0) {
+            mInputSamples  += inBytes / mInFrameBytes;
+            mOutputSamples += outBytes / mOutFrameBytes;
+        }
+        return outBytes;
+    }
+
+    /**
+     * Drop the buffered samples, to resample another stream of the same format.
+     */
+    public void reset() {
+        nativeReset(mNativeResampler);
+        mInputSamples  = 0;
+        mOutputSamples = 0;
+    }
+
+    public long getInputSamples() {
+        return mInputSamples;
+    }
+
+    public long getOutputSamples() {
+        return mOutputSamples;
+    }
+
+    public void release() {
+        if (mNativeResampler == 0)
+            return;
+        nativeRelease(mNativeResampler);
+        mNativeResampler = 0;
+    }
+
+    private static native long nativeCreate(int inRate, int inChannels, int inFormat,
+                                            int outRate, int outChannels, int outFormat);
+
+    private static native void nativeSetChannelLayout(long resampler, long inLayout, long outLayout);
+
+    private static native void nativeSetQuality(long resampler, int quality);
+
+    private static native int nativeGetFrameBytes(long resampler, boolean output);
+
+    private static native int nativeGetMaxOutputSamples(long resampler, int inSamples);
+
+    private static native int nativeProcessArray(long resampler, byte[] in, int inOffset, int inBytes,
+                                                 byte[] out, int outOffset, int outBytes, boolean flush);
+
+    private static native int nativeProcessBuffer(long resampler, ByteBuffer in, int inOffset, int inBytes,
+                                                  ByteBuffer out, int outOffset, int outBytes, boolean flush);
+
+    private static native int nativeReset(long resampler);
+
+    private static native void nativeRelease(long resampler);
+
+}
@@ -0,0 +1,177 @@
+package com.frank.media;
+
+import com.frank.media.listener.OnHandlerListener;
+
+/**
+ * Transcode and concatenate clips into one file in a native pipeline,
+ * which keeps the decoders, filters and encoders across the clips,
+ * instead of building a command line for FFmpegCommand.
+ * Every clip is scaled into the output size with black borders,
+ * and audio is resampled to the output format, or filled with silence.
+ */
+public class TranscodePipeline {
+
+    static {
+        System.loadLibrary("like_media");
+    }
+
+    // same as AVERROR_EXIT
+    public static final int RESULT_CANCELLED = -0x54495845;
+
+    private long mNativePipeline;
+    private OnHandlerListener mListener;
+
+    private volatile long mFrame;
+    private volatile float mFps;
+    private volatile long mOutTimeUs;
+    private volatile float mSpeed;
+    private volatile int mSegment;
+
+    public TranscodePipeline(String outputPath) {
+        mNativePipeline = nativeCreate(outputPath);
+    }
+
+    public void addSegment(String path) {
+        addSegment(path, 0, 0);
+    }
+
+    /**
+     * @param startMs    where the clip starts, 0 means from the beginning
+     * @param durationMs length on the output, 0 means to the end,
+     *                   the last frame is held if the clip is shorter, so a picture works too
+     */
+    public void addSegment(String path, long startMs, long durationMs) {
+        nativeAddSegment(mNativePipeline, path, startMs * 1000, durationMs * 1000);
+    }
+
+    public void setVideoSize(int width, int height) {
+        nativeSetVideoSize(mNativePipeline, width, height);
+    }
+
+    public void setFrameRate(int num, int den) {
+        nativeSetFrameRate(mNativePipeline, num, den);
+    }
+
+    public void setVideoBitrate(long bitrate) {
+        nativeSetVideoBitrate(mNativePipeline, bitrate);
+    }
+
+    /**
+     * Name of the video encoder, such as libx264 or mpeg4,
+     * the default is the first available of h264 and mpeg4.
+     */
+    public void setVideoEncoder(String name) {
+        nativeSetVideoEncoder(mNativePipeline, name);
+    }
+
+    /**
+     * Filters applied to each clip before scaling, such as "hflip,eq=contrast=1.2".
+     */
+    public void setVideoFilter(String filterDesc) {
+        nativeSetVideoFilter(mNativePipeline, filterDesc);
+    }
+
+    public void setAudio(boolean enabled, int sampleRate, int channels, long bitrate) {
+        nativeSetAudio(mNativePipeline, enabled, sampleRate, channels, bitrate);
+    }
+
+    /**
+     * Threads of each decoder, encoder and filter, 0 means as many as cores.
+     */
+    public void setThreadCount(int count) {
+        nativeSetThreadCount(mNativePipeline, count);
+    }
+
+    /**
+     * Run until all segments are written, on the calling thread.
+     * The listener gets onProgress about every 0.5s on this thread.
+     * @return 0 on success, RESULT_CANCELLED if cancelled, other negative on error
+     */
+    public int run(OnHandlerListener listener) {
+        mListener = listener;
+        if (listener != null) {
+            listener.onBegin();
+        }
+        int result = nativeRun(mNativePipeline, this);
+        if (listener != null) {
+            listener.onEnd(result);
+        }
+        mListener = null;
+        return result;
+    }
+
+    /**
+     * Stop the running pipeline from another thread,
+     * the frames already encoded are finished into a playable file.
+     */
+    public void cancel() {
+        nativeCancel(mNativePipeline);
+    }
+
+    /**
+     * Must not be called while running.
+     */
+    public void release() {
+        if (mNativePipeline == 0)
+            return;
+        nativeRelease(mNativePipeline);
+        mNativePipeline = 0;
+    }
+
+    public long getFrame() {
+        return mFrame;
+    }
+
+    public float getFps() {
+        return mFps;
+    }
+
+    public long getOutTimeUs() {
+        return mOutTimeUs;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public int getSegment() {
+        return mSegment;
+    }
+
+    // called from native on the thread of run()
+    private void onNativeProgress(int segment, long frame, float fps, long outTimeUs, float speed, boolean end) {
+        mSegment   = segment;
+        mFrame     = frame;
+        mFps       = fps;
+        mOutTimeUs = outTimeUs;
+        mSpeed     = speed;
+        if (mListener != null) {
+            mListener.onProgress(frame, fps, outTimeUs, speed);
+        }
+    }
+
+    private native long nativeCreate(String outputPath);
+
+    private native void nativeAddSegment(long pipeline, String path, long startUs, long durationUs);
+
+    private native void nativeSetVideoSize(long pipeline, int width, int height);
+
+    private native void nativeSetFrameRate(long pipeline, int num, int den);
+
+    private native void nativeSetVideoBitrate(long pipeline, long bitrate);
+
+    private native void nativeSetVideoEncoder(long pipeline, String name);
+
+    private native void nativeSetVideoFilter(long pipeline, String filterDesc);
+
+    private native void nativeSetAudio(long pipeline, boolean enabled, int sampleRate, int channels, long bitrate);
+
+    private native void nativeSetThreadCount(long pipeline, int count);
+
+    private native int nativeRun(long pipeline, TranscodePipeline callback);
+
+    private native void nativeCancel(long pipeline);
+
+    private native void nativeRelease(long pipeline);
+
+}
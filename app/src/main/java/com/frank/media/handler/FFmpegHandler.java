@@ -4,6 +4,7 @@ import android.os.Handler;
 import android.util.Log;
 
 import com.frank.media.FFmpegCommand;
+import com.frank.media.FFmpegJob;
 import com.frank.media.listener.OnHandlerListener;
 
 /**
@@ -13,8 +14,10 @@ import com.frank.media.listener.OnHandlerListener;
  */
 public class FFmpegHandler {
 
-    public static final int MSG_BEGIN = 0x1000;
-    public static final int MSG_END   = 0x2000;
+    public static final int MSG_BEGIN    = 0x1000;
+    public static final int MSG_END      = 0x2000;
+    // obj is the FFmpegJob, arg1 is out time in ms
+    public static final int MSG_PROGRESS = 0x3000;
 
     private final Handler mHandler;
 
@@ -22,21 +25,46 @@ public class FFmpegHandler {
         mHandler = handler;
     }
 
-    public void execFFmpegCommand(String[] commandLine) {
+    public FFmpegJob execFFmpegCommand(String[] commandLine) {
+        return execFFmpegCommand(commandLine, FFmpegJob.PRIORITY_NORMAL);
+    }
+
+    /**
+     * @return the handle to query or cancel the job, null if commandLine is empty
+     */
+    public FFmpegJob execFFmpegCommand(String[] commandLine, int priority) {
         if (commandLine == null || commandLine.length == 0)
-            return;
+            return null;
         mHandler.removeCallbacks(null);
-        FFmpegCommand.execute(commandLine, new OnHandlerListener() {
-            @Override
-            public void onBegin() {
-                mHandler.sendEmptyMessage(MSG_BEGIN);
-            }
+        JobListener listener = new JobListener();
+        listener.job = FFmpegCommand.submit(commandLine, priority, listener);
+        return listener.job;
+    }
+
+    private class JobListener implements OnHandlerListener {
+        // set after submit, a progress before that is dropped
+        volatile FFmpegJob job;
 
-            @Override
-            public void onEnd(int result) {
-                mHandler.obtainMessage(MSG_END, result).sendToTarget();
+        @Override
+        public void onBegin() {
+            mHandler.sendEmptyMessage(MSG_BEGIN);
+        }
+
+        @Override
+        public void onProgress(long frame, float fps, long outTimeUs, float speed) {
+            if (job != null) {
+                mHandler.obtainMessage(MSG_PROGRESS, (int) (outTimeUs / 1000), 0, job).sendToTarget();
             }
-        });
+        }
+
+        @Override
+        public void onEnd(int result) {
+            mHandler.obtainMessage(MSG_END, result).sendToTarget();
+        }
+    }
+
+    public boolean cancel(FFmpegJob job) {
+        return job != null && job.cancel();
     }
 
 }
@@ -11,4 +11,10 @@ public interface OnHandlerListener {
 
     void onEnd(int result);
 
+    /**
+     * Called about every 0.5s while the command is running, on its thread.
+     */
+    default void onProgress(long frame, float fps, long outTimeUs, float speed) {
+    }
+
 }
@@ -33,6 +33,8 @@ public class FFmpegPlayer implements IMediaPlayer {
     private final EventHandler mEventHandler;
 
     private static native void native_init();
+    private static native void native_setMediaCache(String dir, long maxBytes);
+    private static native void native_setStreamInfoCache(String path, int capacity);
     private native void native_setup(Object player);
     private native void native_setDataSource(@NonNull String path)
             throws IOException, IllegalArgumentException, IllegalStateException;
@@ -48,10 +50,15 @@ public class FFmpegPlayer implements IMediaPlayer {
     private native int  native_getVideoWidth();
     private native int  native_getVideoHeight();
     private native boolean native_isPlaying();
-    private native void native_seekTo(long msec) throws IllegalStateException;
+    private native void native_seekTo(long msec, int mode) throws IllegalStateException;
     private native long native_getCurrentPosition();
     private native long native_getDuration();
     private native void native_setRate(float rate);
+    private native void native_setDecodeThreads(int threadType, int threadCount);
+    private native void native_setBufferWatermarks(long lowBytes, long highBytes, int lowMs, int highMs);
+    private native void native_setStartupFast(boolean enable, int startupMs);
+    private native void native_setProbeOptions(long probeSize, long analyzeDurationUs,
+                                               int fpsProbeSize, boolean skipStreamInfo);
     private native void native_setMute(boolean mute);
     private native void native_setVolume(float volume);
     private native void native_getMediaInfo(int mediaType, MediaInfo mediaInfo);
@@ -81,6 +88,26 @@ public class FFmpegPlayer implements IMediaPlayer {
         setScreenOnWhilePlaying(true);
     }
 
+    /**
+     * Cache progressive http(s) media on disk, shared by all players.
+     * Replay and seeking back read from the cache instead of network.
+     * @param dir      directory of cache files, null disables caching
+     * @param maxBytes size cap of all cached media, the least recently used is evicted
+     */
+    public static void setMediaCache(String dir, long maxBytes) {
+        native_setMediaCache(dir, maxBytes);
+    }
+
+    /**
+     * Remember the probed stream info of recent urls in a file, shared by all players.
+     * Reopening known content skips probing.
+     * @param path     file of the cache, null disables it
+     * @param capacity max count of urls
+     */
+    public static void setStreamInfoCache(String path, int capacity) {
+        native_setStreamInfoCache(path, capacity);
+    }
+
     public static FFmpegPlayer create(String path, Surface surface) {
 
         try {
@@ -181,7 +208,12 @@ public class FFmpegPlayer implements IMediaPlayer {
 
     @Override
     public void seekTo(long msec) throws IllegalStateException {
-        native_seekTo(msec);
+        seekTo(msec, SeekMode.PREVIOUS_SYNC);
+    }
+
+    @Override
+    public void seekTo(long msec, SeekMode mode) throws IllegalStateException {
+        native_seekTo(msec, mode.ordinal());
     }
 
     @Override
@@ -209,6 +241,26 @@ public class FFmpegPlayer implements IMediaPlayer {
         native_setRate(rate);
     }
 
+    @Override
+    public void setDecodeThreads(int threadType, int threadCount) {
+        native_setDecodeThreads(threadType, threadCount);
+    }
+
+    @Override
+    public void setBufferWatermarks(long lowBytes, long highBytes, int lowMs, int highMs) {
+        native_setBufferWatermarks(lowBytes, highBytes, lowMs, highMs);
+    }
+
+    @Override
+    public void setStartupFast(boolean enable, int startupMs) {
+        native_setStartupFast(enable, startupMs);
+    }
+
+    @Override
+    public void setProbeOptions(long probeSize, long analyzeDurationUs, int fpsProbeSize, boolean skipStreamInfo) {
+        native_setProbeOptions(probeSize, analyzeDurationUs, fpsProbeSize, skipStreamInfo);
+    }
+
     @Override
     public MediaInfo getMediaInfo(MediaType mediaType) {
         MediaInfo mediaInfo = new MediaInfo();
@@ -323,6 +375,24 @@ public class FFmpegPlayer implements IMediaPlayer {
                     Log.d(TAG, "on started");
                     return;
                 }
+                case MEDIA_BUFFERING_START: {
+                    if (mOnBufferingListener != null) {
+                        mOnBufferingListener.onBufferingStart(mMediaPlayer, msg.arg1 != 0);
+                    }
+                    return;
+                }
+                case MEDIA_BUFFERING_UPDATE: {
+                    if (mOnBufferingListener != null) {
+                        mOnBufferingListener.onBufferingUpdate(mMediaPlayer, msg.arg1, msg.arg2);
+                    }
+                    return;
+                }
+                case MEDIA_BUFFERING_END: {
+                    if (mOnBufferingListener != null) {
+                        mOnBufferingListener.onBufferingEnd(mMediaPlayer);
+                    }
+                    return;
+                }
                 case MEDIA_VIDEO_SIZE_CHANGED: {
                     Log.d(TAG, "video size changed: width=" + msg.arg1 + ", height=" + msg.arg2);
                 }
@@ -368,6 +438,13 @@ public class FFmpegPlayer implements IMediaPlayer {
 
     private OnCompletionListener mOnCompletionListener;
 
+    @Override
+    public void setOnBufferingListener(OnBufferingListener listener) {
+        mOnBufferingListener = listener;
+    }
+
+    private OnBufferingListener mOnBufferingListener;
+
     /**
      * Register a callback to be invoked when an error has happened
      * during an asynchronous operation.
@@ -15,6 +15,13 @@ import java.util.List;
 
 public interface IMediaPlayer {
 
+    /** Let the decoder pick frame or slice threading */
+    int DECODE_THREAD_AUTO  = 0;
+    /** Decode several frames in parallel, adds a frame of latency per thread */
+    int DECODE_THREAD_FRAME = 1;
+    /** Decode the slices of a frame in parallel, no extra latency */
+    int DECODE_THREAD_SLICE = 2;
+
     void setSurface(Surface surface);
 
     void setDataSource(@NonNull String path)
@@ -47,6 +54,8 @@ public interface IMediaPlayer {
 
     void seekTo(long msec) throws IllegalStateException;
 
+    void seekTo(long msec, SeekMode mode) throws IllegalStateException;
+
     long getCurrentPosition();
 
     long getDuration();
@@ -57,6 +66,41 @@ public interface IMediaPlayer {
 
     void setRate(float rate);
 
+    /**
+     * Set the threading of video decoder, which takes effect on next prepare.
+     *
+     * @param threadType  DECODE_THREAD_AUTO, DECODE_THREAD_FRAME or DECODE_THREAD_SLICE
+     * @param threadCount count of decode thread, 0 means according to cpu cores
+     */
+    void setDecodeThreads(int threadType, int threadCount);
+
+    /**
+     * Set the watermarks of read-ahead buffer. After running out of data, playback
+     * resumes once either low watermark is reached, and reading stops at the high one.
+     *
+     * @param lowBytes  bytes to resume playback
+     * @param highBytes max bytes to read ahead
+     * @param lowMs     duration(ms) to resume playback
+     * @param highMs    max duration(ms) to read ahead
+     */
+    void setBufferWatermarks(long lowBytes, long highBytes, int lowMs, int highMs);
+
+    /**
+     * Start playing once startupMs is buffered, then grow the threshold
+     * on each rebuffering up to the low watermark.
+     */
+    void setStartupFast(boolean enable, int startupMs);
+
+    /**
+     * Bound the stream probing of next prepare, for a faster start.
+     *
+     * @param probeSize         max bytes to probe, 0 means default
+     * @param analyzeDurationUs max duration(us) to analyze, 0 means default
+     * @param fpsProbeSize      frames to probe frame rate, -1 means default
+     * @param skipStreamInfo    skip probing if the header has complete codec parameters
+     */
+    void setProbeOptions(long probeSize, long analyzeDurationUs, int fpsProbeSize, boolean skipStreamInfo);
+
     MediaInfo getMediaInfo(MediaType mediaType);
 
     List<MediaTrack> getMediaTrack(MediaType mediaType);
@@ -87,6 +131,23 @@ public interface IMediaPlayer {
 
     void setOnCompletionListener(OnCompletionListener listener);
 
+    interface OnBufferingListener {
+        /**
+         * @param rebuffering false for the first buffering before playback
+         */
+        void onBufferingStart(IMediaPlayer mp, boolean rebuffering);
+
+        /**
+         * @param percent    progress to resume playback
+         * @param bufferedMs buffered duration, 0 if unknown
+         */
+        void onBufferingUpdate(IMediaPlayer mp, int percent, int bufferedMs);
+
+        void onBufferingEnd(IMediaPlayer mp);
+    }
+
+    void setOnBufferingListener(OnBufferingListener listener);
+
     interface OnErrorListener {
         boolean onError(IMediaPlayer mp, int what, int extra);
     }
@@ -0,0 +1,14 @@
+package com.frank.media.player;
+
+/**
+ * @author xufulong
+ * @desc Mode of seekTo, the ordinal is shared with native player.
+ */
+public enum SeekMode {
+    /** Snap to the keyframe at or before the position */
+    PREVIOUS_SYNC,
+    /** Snap to the keyframe closest to the position, fast for scrubbing */
+    CLOSEST_SYNC,
+    /** Decode from the previous keyframe and show the frame at the position */
+    EXACT
+}
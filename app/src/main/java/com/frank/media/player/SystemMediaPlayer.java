@@ -30,6 +30,7 @@ public class SystemMediaPlayer implements IMediaPlayer {
     private IMediaPlayer.OnRenderFirstFrameListener onRenderFirstFrameListener;
     private IMediaPlayer.OnErrorListener onErrorListener;
     private IMediaPlayer.OnCompletionListener onCompletionListener;
+    private IMediaPlayer.OnBufferingListener onBufferingListener;
 
     public SystemMediaPlayer() {
         hasRenderFirstFrame = false;
@@ -55,6 +56,7 @@ public class SystemMediaPlayer implements IMediaPlayer {
     private void setListener() {
         mMediaPlayer.setOnPreparedListener(preparedListener);
         mMediaPlayer.setOnInfoListener(infoListener);
+        mMediaPlayer.setOnBufferingUpdateListener(bufferingUpdateListener);
         mMediaPlayer.setOnErrorListener(errorListener);
         mMediaPlayer.setOnCompletionListener(completionListener);
     }
@@ -119,6 +121,28 @@ public class SystemMediaPlayer implements IMediaPlayer {
         mMediaPlayer.seekTo((int) msec);
     }
 
+    @Override
+    public void seekTo(long msec, SeekMode mode) throws IllegalStateException {
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.O) {
+            mMediaPlayer.seekTo((int) msec);
+            return;
+        }
+        int seekMode;
+        switch (mode) {
+            case CLOSEST_SYNC:
+                seekMode = MediaPlayer.SEEK_CLOSEST_SYNC;
+                break;
+            case EXACT:
+                seekMode = MediaPlayer.SEEK_CLOSEST;
+                break;
+            case PREVIOUS_SYNC:
+            default:
+                seekMode = MediaPlayer.SEEK_PREVIOUS_SYNC;
+                break;
+        }
+        mMediaPlayer.seekTo(msec, seekMode);
+    }
+
     @Override
     public long getCurrentPosition() {
         return mMediaPlayer.getCurrentPosition();
@@ -148,6 +172,26 @@ public class SystemMediaPlayer implements IMediaPlayer {
         }
     }
 
+    @Override
+    public void setDecodeThreads(int threadType, int threadCount) {
+        // decoding threads are managed by MediaCodec
+    }
+
+    @Override
+    public void setBufferWatermarks(long lowBytes, long highBytes, int lowMs, int highMs) {
+        // buffering is managed by MediaPlayer
+    }
+
+    @Override
+    public void setStartupFast(boolean enable, int startupMs) {
+        // buffering is managed by MediaPlayer
+    }
+
+    @Override
+    public void setProbeOptions(long probeSize, long analyzeDurationUs, int fpsProbeSize, boolean skipStreamInfo) {
+        // probing is managed by MediaPlayer
+    }
+
     @Override
     public MediaInfo getMediaInfo(MediaType mediaType) {
         return null;
@@ -198,6 +242,11 @@ public class SystemMediaPlayer implements IMediaPlayer {
         onErrorListener = listener;
     }
 
+    @Override
+    public void setOnBufferingListener(OnBufferingListener listener) {
+        onBufferingListener = listener;
+    }
+
     private final MediaPlayer.OnPreparedListener preparedListener = new MediaPlayer.OnPreparedListener() {
         @Override
         public void onPrepared(MediaPlayer mediaPlayer) {
@@ -214,11 +263,25 @@ public class SystemMediaPlayer implements IMediaPlayer {
             if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START && !hasRenderFirstFrame) {
                 hasRenderFirstFrame = true;
                 onRenderFirstFrameListener.onRenderFirstFrame(null, 1, 0);
+            } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START && onBufferingListener != null) {
+                onBufferingListener.onBufferingStart(null, hasRenderFirstFrame);
+            } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END && onBufferingListener != null) {
+                onBufferingListener.onBufferingEnd(null);
             }
             return false;
         }
     };
 
+    private final MediaPlayer.OnBufferingUpdateListener bufferingUpdateListener = new MediaPlayer.OnBufferingUpdateListener() {
+        @Override
+        public void onBufferingUpdate(MediaPlayer mediaPlayer, int percent) {
+            // percent of the downloaded content here, not progress to resume
+            if (onBufferingListener != null) {
+                onBufferingListener.onBufferingUpdate(null, percent, 0);
+            }
+        }
+    };
+
     private final MediaPlayer.OnErrorListener errorListener = new MediaPlayer.OnErrorListener() {
         @Override
         public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
@@ -9,7 +9,10 @@ public interface PlayerManagerCallback {
 
     void onPrepared();
 
-    void onRenderFirstFrame(int video, int audio);
+    /**
+     * @param firstFrameMs time from selecting the item to this first frame
+     */
+    void onRenderFirstFrame(int video, int audio, long firstFrameMs);
 
     void onCompletion();
 
@@ -0,0 +1,181 @@
+package com.frank.media.player.manager;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.frank.media.player.IMediaPlayer;
+import com.frank.media.player.factory.PlayerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepare the upcoming items of a playlist in the background, so that
+ * switching to one of them skips opening, probing and opening decoders.
+ * A preloaded player has no surface and stays paused after prepare, with
+ * the first frames decoded and its read-ahead capped by the high watermark.
+ * It's handed over by take(), and the watermarks are set back to default.
+ * All methods are called on the thread which owns the players.
+ */
+public class PlayerPreloader implements IMediaPlayer.OnPreparedListener,
+        IMediaPlayer.OnErrorListener {
+
+    private static final String TAG = PlayerPreloader.class.getSimpleName();
+
+    // same as the defaults in PlayerParam.h
+    private static final long DEFAULT_LOW_BYTES  = 2 * 1024 * 1024;
+    private static final long DEFAULT_HIGH_BYTES = 15 * 1024 * 1024;
+    private static final int  DEFAULT_LOW_MS     = 1000;
+    private static final int  DEFAULT_HIGH_MS    = 3000;
+    // a preloaded player only needs enough to start
+    private static final int  PRELOAD_HIGH_MS    = 2000;
+
+    private final @PlayerFactory.PlayerType int mPlayerType;
+    private final int mMaxCount;
+    private final long mMaxBytes;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private static class Entry {
+        final IMediaPlayer player;
+        final long startTime;
+        long prepareCostMs = -1;
+
+        Entry(IMediaPlayer player) {
+            this.player    = player;
+            this.startTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * @param maxCount  max count of preloaded players
+     * @param maxBytes  read-ahead cap of each preloaded player
+     */
+    public PlayerPreloader(@PlayerFactory.PlayerType int playerType, int maxCount, long maxBytes) {
+        mPlayerType = playerType;
+        mMaxCount   = maxCount;
+        mMaxBytes   = maxBytes;
+    }
+
+    /**
+     * Keep the first maxCount paths preloaded, and release the others.
+     */
+    public void preload(List<String> paths) {
+        List<String> wanted = paths.size() > mMaxCount ? paths.subList(0, mMaxCount) : paths;
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> item = iterator.next();
+            if (!wanted.contains(item.getKey())) {
+                releasePlayer(item.getValue().player);
+                iterator.remove();
+            }
+        }
+        for (String path : wanted) {
+            if (path != null && !mEntries.containsKey(path)) {
+                startPreload(path);
+            }
+        }
+    }
+
+    public void preload(String... paths) {
+        preload(Arrays.asList(paths));
+    }
+
+    private void startPreload(String path) {
+        IMediaPlayer player = PlayerFactory.createPlayer(mPlayerType);
+        if (player == null) {
+            return;
+        }
+        player.setOnPreparedListener(this);
+        player.setOnErrorListener(this);
+        player.setBufferWatermarks(Math.min(DEFAULT_LOW_BYTES, mMaxBytes), mMaxBytes,
+                Math.min(DEFAULT_LOW_MS, PRELOAD_HIGH_MS), PRELOAD_HIGH_MS);
+        try {
+            player.setDataSource(path);
+            player.prepareAsync();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "preload " + path + " error:", e);
+            releasePlayer(player);
+            return;
+        }
+        mEntries.put(path, new Entry(player));
+    }
+
+    public boolean isPrepared(String path) {
+        Entry entry = mEntries.get(path);
+        return entry != null && entry.prepareCostMs >= 0;
+    }
+
+    /**
+     * The time from preload to prepared, -1 if not prepared yet.
+     */
+    public long getPrepareCostMs(String path) {
+        Entry entry = mEntries.get(path);
+        return entry != null ? entry.prepareCostMs : -1;
+    }
+
+    /**
+     * Hand over the preloaded player of path, whose listeners are cleared.
+     * @return null if path isn't preloaded
+     */
+    public IMediaPlayer take(String path) {
+        Entry entry = mEntries.remove(path);
+        if (entry == null) {
+            return null;
+        }
+        IMediaPlayer player = entry.player;
+        player.setOnPreparedListener(null);
+        player.setOnErrorListener(null);
+        player.setBufferWatermarks(DEFAULT_LOW_BYTES, DEFAULT_HIGH_BYTES, DEFAULT_LOW_MS, DEFAULT_HIGH_MS);
+        return player;
+    }
+
+    public void release() {
+        for (Entry entry : mEntries.values()) {
+            releasePlayer(entry.player);
+        }
+        mEntries.clear();
+    }
+
+    private static void releasePlayer(IMediaPlayer player) {
+        // a preloaded player is never started, release stops it as well
+        player.release();
+    }
+
+    private Entry findEntry(IMediaPlayer mp) {
+        for (Entry entry : mEntries.values()) {
+            if (entry.player == mp) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onPrepared(IMediaPlayer mp) {
+        Entry entry = findEntry(mp);
+        if (entry != null) {
+            entry.prepareCostMs = SystemClock.elapsedRealtime() - entry.startTime;
+            Log.i(TAG, "preloaded in " + entry.prepareCostMs + "ms");
+        }
+    }
+
+    @Override
+    public boolean onError(IMediaPlayer mp, int what, int extra) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.player == mp) {
+                Log.e(TAG, "preload error, what=" + what + ", extra=" + extra);
+                iterator.remove();
+                releasePlayer(mp);
+                break;
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,10 +1,13 @@
 package com.frank.media.player.manager;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.Surface;
 
 import com.frank.media.player.factory.PlayerFactory;
 import com.frank.media.player.IMediaPlayer;
+import com.frank.media.player.SeekMode;
 import com.frank.media.player.listener.PlayerManagerCallback;
 import com.frank.media.player.mediainfo.MediaInfo;
 import com.frank.media.player.mediainfo.MediaTrack;
@@ -23,10 +26,16 @@ public class XuPlayerManager implements IMediaPlayer.OnPreparedListener,
         IMediaPlayer.OnRenderFirstFrameListener,
         IMediaPlayer.OnCompletionListener {
 
+    private static final String TAG = XuPlayerManager.class.getSimpleName();
+
     private Surface mSurface;
     private IMediaPlayer mPlayer;
     private final PlayerManagerCallback mCallback;
     private @PlayerFactory.PlayerType int mPlayerType;
+    private PlayerPreloader mPreloader;
+    // time of selecting current item, for time-to-first-frame
+    private long mSelectTime;
+    private boolean mPreloaded;
 
     public XuPlayerManager(String path, @PlayerFactory.PlayerType int playerType, PlayerManagerCallback callback) {
         mCallback = callback;
@@ -35,6 +44,8 @@ public class XuPlayerManager implements IMediaPlayer.OnPreparedListener,
     }
 
     private void initPlayer(String path) {
+        mSelectTime = SystemClock.elapsedRealtime();
+        mPreloaded  = false;
         mPlayer = PlayerFactory.createPlayer(mPlayerType);
         if (mPlayer == null)
             throw new NullPointerException("no player created...");
@@ -102,6 +113,26 @@ public class XuPlayerManager implements IMediaPlayer.OnPreparedListener,
         mPlayer.seekTo(msec);
     }
 
+    public void seekTo(long msec, SeekMode mode) throws IllegalStateException {
+        mPlayer.seekTo(msec, mode);
+    }
+
+    public void setBufferWatermarks(long lowBytes, long highBytes, int lowMs, int highMs) {
+        mPlayer.setBufferWatermarks(lowBytes, highBytes, lowMs, highMs);
+    }
+
+    public void setStartupFast(boolean enable, int startupMs) {
+        mPlayer.setStartupFast(enable, startupMs);
+    }
+
+    public void setProbeOptions(long probeSize, long analyzeDurationUs, int fpsProbeSize, boolean skipStreamInfo) {
+        mPlayer.setProbeOptions(probeSize, analyzeDurationUs, fpsProbeSize, skipStreamInfo);
+    }
+
+    public void setOnBufferingListener(IMediaPlayer.OnBufferingListener listener) {
+        mPlayer.setOnBufferingListener(listener);
+    }
+
     public long getCurrentPosition() {
         if (mPlayer == null)
             return 0;
@@ -146,6 +177,32 @@ public class XuPlayerManager implements IMediaPlayer.OnPreparedListener,
 
     public void release() {
         mPlayer.release();
+        if (mPreloader != null) {
+            mPreloader.release();
+            mPreloader = null;
+        }
+    }
+
+    /**
+     * Prepare upcoming items in the background, so that switching to them starts at once.
+     *
+     * @param maxCount max count of preloaded players
+     * @param maxBytes read-ahead cap of each preloaded player
+     */
+    public void enablePreload(int maxCount, long maxBytes) {
+        if (mPreloader != null) {
+            mPreloader.release();
+        }
+        mPreloader = new PlayerPreloader(mPlayerType, maxCount, maxBytes);
+    }
+
+    /**
+     * Keep these items preloaded, in order of priority, and drop the others.
+     */
+    public void preload(String... paths) {
+        if (mPreloader != null) {
+            mPreloader.preload(paths);
+        }
     }
 
     public void switchNext(String path) {
@@ -155,9 +212,22 @@ public class XuPlayerManager implements IMediaPlayer.OnPreparedListener,
             mPlayer.release();
             mPlayer = null;
         }
-        initPlayer(path);
+        boolean prepared = mPreloader != null && mPreloader.isPrepared(path);
+        IMediaPlayer player = mPreloader != null ? mPreloader.take(path) : null;
+        if (player == null) {
+            initPlayer(path);
+            setSurface(mSurface);
+            prepareAsync();
+            return;
+        }
+        // 预加载的播放器已经打开并解码好首帧, 设置surface就能开始
+        mSelectTime = SystemClock.elapsedRealtime();
+        mPreloaded  = true;
+        mPlayer = player;
         setSurface(mSurface);
-        prepareAsync();
+        if (prepared) {
+            onPrepared(mPlayer);
+        }
     }
 
     @Override
@@ -167,7 +237,10 @@ public class XuPlayerManager implements IMediaPlayer.OnPreparedListener,
 
     @Override
     public void onRenderFirstFrame(IMediaPlayer mp, int video, int audio) {
-        mCallback.onRenderFirstFrame(video, audio);
+        long firstFrameMs = SystemClock.elapsedRealtime() - mSelectTime;
+        Log.i(TAG, "first frame video=" + video + ", audio=" + audio
+                + ", cost=" + firstFrameMs + "ms, preloaded=" + mPreloaded);
+        mCallback.onRenderFirstFrame(video, audio, firstFrameMs);
     }
 
     @Override
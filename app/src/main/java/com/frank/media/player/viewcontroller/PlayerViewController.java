@@ -21,6 +21,7 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 
 import com.frank.media.R;
+import com.frank.media.player.SeekMode;
 import com.frank.media.player.factory.PlayerFactory;
 import com.frank.media.player.listener.PlayerManagerCallback;
 import com.frank.media.player.manager.XuPlayerManager;
@@ -30,6 +31,7 @@ import com.frank.media.player.mediainfo.MediaType;
 import com.frank.media.player.util.BitmapUtil;
 import com.frank.media.player.util.TimeUtil;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -58,6 +60,11 @@ public class PlayerViewController implements View.OnClickListener, PlayerManager
     private final static String prevPath = "sdcard/what.mp4";
     private final static String nextPath = "sdcard/birds.mp4";
 
+    private final static int PRELOAD_COUNT = 2;
+    private final static long PRELOAD_MAX_BYTES = 4 * 1024 * 1024;
+
+    private String mCurrentPath = path;
+
     @SuppressLint("HandlerLeak")
     private final Handler mHandler = new Handler() {
         @Override
@@ -97,7 +104,10 @@ public class PlayerViewController implements View.OnClickListener, PlayerManager
         playBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
-
+                if (b) {
+                    // snap to keyframe while dragging
+                    mPlayerManager.seekTo(i, SeekMode.CLOSEST_SYNC);
+                }
             }
 
             @Override
@@ -107,7 +117,7 @@ public class PlayerViewController implements View.OnClickListener, PlayerManager
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
-                mPlayerManager.seekTo(seekBar.getProgress());
+                mPlayerManager.seekTo(seekBar.getProgress(), SeekMode.EXACT);
             }
         });
 
@@ -119,6 +129,7 @@ public class PlayerViewController implements View.OnClickListener, PlayerManager
         btnPlayControl.setOnClickListener(this);
 
         mPlayerManager = new XuPlayerManager(path, PlayerFactory.PLAYER_TYPE_FFMPEG, this);
+        mPlayerManager.enablePreload(PRELOAD_COUNT, PRELOAD_MAX_BYTES);
     }
 
     private void releasePlayer() {
@@ -209,12 +220,30 @@ public class PlayerViewController implements View.OnClickListener, PlayerManager
                 BitmapUtil.savePhoto(bitmap, BitmapUtil.path, mContext);
             }).start();
         } else if (view.getId() == R.id.btn_previous) {
-            mPlayerManager.switchNext(prevPath);
+            switchTo(prevPath);
         } else if (view.getId() == R.id.btn_next) {
-            mPlayerManager.switchNext(nextPath);
+            switchTo(nextPath);
         }
     }
 
+    private void switchTo(String newPath) {
+        mCurrentPath = newPath;
+        mPlayerManager.switchNext(newPath);
+    }
+
+    /**
+     * Preload the neighbours of current item, next one first.
+     */
+    private void preloadNeighbours() {
+        List<String> paths = new ArrayList<>();
+        for (String item : new String[]{nextPath, prevPath, path}) {
+            if (!item.equals(mCurrentPath)) {
+                paths.add(item);
+            }
+        }
+        mPlayerManager.preload(paths.toArray(new String[0]));
+    }
+
     private Bitmap getCurrentFrame() {
         if (mVideoView instanceof TextureView) {
             return ((TextureView) mVideoView).getBitmap();
@@ -271,8 +300,12 @@ public class PlayerViewController implements View.OnClickListener, PlayerManager
     }
 
     @Override
-    public void onRenderFirstFrame(int video, int audio) {
-        Log.i("FFmpegPlayer", "onRenderFirstFrame, video=" + video + ", audio=" + audio);
+    public void onRenderFirstFrame(int video, int audio, long firstFrameMs) {
+        Log.i("FFmpegPlayer", "onRenderFirstFrame, video=" + video + ", audio=" + audio
+                + ", firstFrameMs=" + firstFrameMs);
+        if (video == 1) {
+            preloadNeighbours();
+        }
         if (video == 1 || audio == 1) {
             long playProgress = mPlayerManager.getDuration();
             txtDuration.setText(TimeUtil.getVideoTime(playProgress));
@@ -286,7 +319,7 @@ public class PlayerViewController implements View.OnClickListener, PlayerManager
     @Override
     public void onCompletion() {
         Log.i("FFmpegPlayer", "onCompletion...");
-        mPlayerManager.switchNext(nextPath);
+        switchTo(nextPath);
     }
 
 }
@@ -1,5 +1,6 @@
 package com.frank.media.util;
 
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -9,19 +10,66 @@ import java.util.Locale;
  */
 public class FFmpegUtil {
 
+    // build arguments as an array, so paths with spaces stay in one argument
     public static String[] photoToVideo(String inputPath, String bgPath, String outputPath) {
-        String cmd = "ffmpeg -i %s -i %s -filter_complex " +
-                "zoompan=z='min(zoom+0.0015,1.5)':x='iw/2-(iw/zoom/2)':y='ih/2-(ih/zoom/2):d=180' %s";
-        cmd = String.format(cmd, inputPath, bgPath, outputPath);
-        return cmd.split(" ");
+        return new String[]{"ffmpeg", "-i", inputPath, "-i", bgPath, "-filter_complex",
+                "zoompan=z='min(zoom+0.0015,1.5)':x='iw/2-(iw/zoom/2)':y='ih/2-(ih/zoom/2):d=180'",
+                outputPath};
     }
 
     public static String[] xfadeTransition(String transition, String onePath, int width, int height, int offset,
                                            String twoPath, String outputPath) {
-        String cmd = "ffmpeg -i %s -i %s -filter_complex " +
+        String filter = String.format(Locale.getDefault(),
                 "[0]settb=AVTB,fps=24000/1001[v0];[1]settb=AVTB,fps=24000/1001,scale=%d:%d[v1];" +
-                "[v0][v1]xfade=transition=%s:offset=%d -an %s";
-        cmd = String.format(Locale.getDefault(), cmd, onePath, twoPath, width, height, transition, offset, outputPath);
-        return cmd.split(" ");
+                "[v0][v1]xfade=transition=%s:offset=%d", width, height, transition, offset);
+        return new String[]{"ffmpeg", "-i", onePath, "-i", twoPath, "-filter_complex", filter,
+                "-an", outputPath};
+    }
+
+    /**
+     * A clip of test pattern and sine wave, which needs lavfi in the build.
+     */
+    public static String[] generateTestClip(int seconds, int width, int height, int frequency, String outputPath) {
+        return new String[]{"ffmpeg", "-y",
+                "-f", "lavfi", "-i", String.format(Locale.US, "testsrc2=size=%dx%d:rate=30:duration=%d", width, height, seconds),
+                "-f", "lavfi", "-i", String.format(Locale.US, "sine=frequency=%d:sample_rate=48000:duration=%d", frequency, seconds),
+                "-c:v", "mpeg4", "-q:v", "5", "-c:a", "aac", "-shortest", outputPath};
+    }
+
+    /**
+     * Scale the clips into the size with black borders, and concat them
+     * with stereo audio at 44100. Every clip must have audio.
+     */
+    public static String[] concatClips(List<String> inputPaths, int width, int height, int frameRate,
+                                       String videoEncoder, String outputPath) {
+        int count = inputPaths.size();
+        String[] cmd = new String[count * 2 + 13];
+        int index = 0;
+        cmd[index++] = "ffmpeg";
+        cmd[index++] = "-y";
+        StringBuilder filter = new StringBuilder();
+        StringBuilder concat = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            cmd[index++] = "-i";
+            cmd[index++] = inputPaths.get(i);
+            filter.append(String.format(Locale.US,
+                    "[%d:v]scale=%d:%d:force_original_aspect_ratio=decrease,pad=%d:%d:(ow-iw)/2:(oh-ih)/2," +
+                    "setsar=1,fps=%d,format=yuv420p[v%d];[%d:a]aresample=44100,aformat=channel_layouts=stereo[a%d];",
+                    i, width, height, width, height, frameRate, i, i, i));
+            concat.append(String.format(Locale.US, "[v%d][a%d]", i, i));
+        }
+        filter.append(concat).append(String.format(Locale.US, "concat=n=%d:v=1:a=1[v][a]", count));
+        cmd[index++] = "-filter_complex";
+        cmd[index++] = filter.toString();
+        cmd[index++] = "-map";
+        cmd[index++] = "[v]";
+        cmd[index++] = "-map";
+        cmd[index++] = "[a]";
+        cmd[index++] = "-c:v";
+        cmd[index++] = videoEncoder;
+        cmd[index++] = "-c:a";
+        cmd[index++] = "aac";
+        cmd[index]   = outputPath;
+        return cmd;
     }
 }
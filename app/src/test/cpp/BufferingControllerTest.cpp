@@ -0,0 +1,234 @@
+//
+// Host test of the buffering controller, playing a stream from a simulated throttled source.
+//
+
+#include "HostTest.h"
+#include "player/BufferingController.h"
+
+#include <vector>
+
+// 1Mbps content
+#define CONTENT_BYTES_PER_MS 125
+#define TICK_MS 10
+
+struct BufferingTrace {
+    int startupMs = -1;
+    // buffered duration when each buffering ended, which is the threshold in use
+    std::vector<int> endBufferedMs;
+    std::vector<bool> rebuffering;
+};
+
+/**
+ * Packet queues filled by a source at a speed relative to the content bitrate,
+ * and drained in real time by playback while not buffering.
+ */
+class ThrottledPlayback {
+public:
+    explicit ThrottledPlayback(PlayerParam *param) : m_param(param), m_controller(param) {}
+
+    /**
+     * @param speed download speed / content bitrate, 0 means stalled
+     */
+    void run(int durationMs, double speed, BufferingTrace *trace) {
+        for (int t = 0; t < durationMs; t += TICK_MS) {
+            bool full = m_controller.isFull(bytes()) || m_bufferedMs >= m_param->m_bufferHighMs;
+            if (!full) {
+                m_bufferedMs += speed * TICK_MS;
+            }
+            if (m_playing) {
+                m_bufferedMs = m_bufferedMs > TICK_MS ? m_bufferedMs - TICK_MS : 0;
+            }
+            full = m_controller.isFull(bytes()) || m_bufferedMs >= m_param->m_bufferHighMs;
+            BufferingEvent event = m_controller.update(bytes(), (int) m_bufferedMs,
+                                                       m_bufferedMs <= 0, full, false);
+            m_clockMs += TICK_MS;
+            if (event == BUFFERING_START) {
+                m_playing = false;
+                trace->rebuffering.push_back(m_controller.isRebuffering());
+            } else if (event == BUFFERING_END) {
+                m_playing = true;
+                if (trace->startupMs < 0) {
+                    trace->startupMs = m_clockMs;
+                }
+                trace->endBufferedMs.push_back((int) m_bufferedMs);
+            }
+        }
+    }
+
+    void seek() {
+        m_bufferedMs = 0;
+        m_controller.onSeek();
+    }
+
+    BufferingController &controller() {
+        return m_controller;
+    }
+
+private:
+    PlayerParam *m_param;
+    BufferingController m_controller;
+    double m_bufferedMs = 0;
+    bool m_playing = false;
+    int m_clockMs = 0;
+
+    int64_t bytes() const {
+        return (int64_t) (m_bufferedMs * CONTENT_BYTES_PER_MS);
+    }
+};
+
+static void setWatermarks(PlayerParam &param, bool startupFast, int startupMs, int lowMs) {
+    param.m_bufferLowMs     = lowMs;
+    param.m_bufferHighMs    = 3000;
+    param.m_bufferLowBytes  = 0;
+    param.m_bufferHighBytes = 15 * 1024 * 1024;
+    param.m_startupFast     = startupFast;
+    param.m_startupMs       = startupMs;
+}
+
+/**
+ * The threshold is reached within one tick of download.
+ */
+static bool near(int expectedMs, int actualMs) {
+    return actualMs >= expectedMs && actualMs < expectedMs + 2 * TICK_MS;
+}
+
+static void testStartupFast() {
+    PlayerParam fast;
+    setWatermarks(fast, true, 100, 400);
+    ThrottledPlayback fastPlayback(&fast);
+    BufferingTrace fastTrace;
+    fastPlayback.run(1000, 1.0, &fastTrace);
+
+    PlayerParam normal;
+    setWatermarks(normal, false, 100, 400);
+    ThrottledPlayback normalPlayback(&normal);
+    BufferingTrace normalTrace;
+    normalPlayback.run(1000, 1.0, &normalTrace);
+
+    CHECK(near(100, fastTrace.startupMs));
+    CHECK(near(400, normalTrace.startupMs));
+    CHECK_EQ(1, (int) fastTrace.rebuffering.size());
+    CHECK(!fastTrace.rebuffering[0]);
+    printf("  startup fast=%dms normal=%dms\n", fastTrace.startupMs, normalTrace.startupMs);
+}
+
+static void testRebufferThresholdDoubles() {
+    PlayerParam param;
+    setWatermarks(param, true, 150, 1000);
+    ThrottledPlayback playback(&param);
+    BufferingTrace trace;
+    playback.run(500, 1.0, &trace);
+    // each stall drains the queue, then the source comes back at the content rate
+    for (int i = 0; i < 4; ++i) {
+        playback.run(3000, 0, &trace);
+        playback.run(2000, 1.0, &trace);
+    }
+    CHECK_EQ(5, (int) trace.endBufferedMs.size());
+    const int expected[] = {150, 300, 600, 1000, 1000};
+    for (int i = 0; i < 5 && i < (int) trace.endBufferedMs.size(); ++i) {
+        CHECK(near(expected[i], trace.endBufferedMs[i]));
+    }
+    CHECK(!trace.rebuffering[0]);
+    CHECK(trace.rebuffering[1]);
+    printf("  thresholds");
+    for (int ms : trace.endBufferedMs) {
+        printf(" %d", ms);
+    }
+    printf("ms\n");
+}
+
+/**
+ * A seek empties the queues, which is neither a rebuffer nor a reason to raise the threshold.
+ */
+static void testSeekResetsThreshold() {
+    PlayerParam param;
+    setWatermarks(param, true, 150, 1000);
+    ThrottledPlayback playback(&param);
+    BufferingTrace trace;
+    playback.run(500, 1.0, &trace);
+    playback.run(3000, 0, &trace);
+    playback.run(2000, 1.0, &trace);
+    // threshold is 300 now, seeking three times must not grow it
+    for (int i = 0; i < 3; ++i) {
+        playback.seek();
+        playback.run(1000, 1.0, &trace);
+    }
+    playback.run(3000, 0, &trace);
+    playback.run(2000, 1.0, &trace);
+    const int expected[] = {150, 300, 150, 150, 150, 300};
+    const bool rebuffering[] = {false, true, false, false, false, true};
+    CHECK_EQ(6, (int) trace.endBufferedMs.size());
+    for (int i = 0; i < 6 && i < (int) trace.endBufferedMs.size(); ++i) {
+        CHECK(near(expected[i], trace.endBufferedMs[i]));
+        CHECK_EQ(rebuffering[i], trace.rebuffering[i]);
+    }
+}
+
+static void testSeekWhileBuffering() {
+    PlayerParam param;
+    setWatermarks(param, true, 150, 1000);
+    ThrottledPlayback playback(&param);
+    BufferingTrace trace;
+    playback.run(500, 1.0, &trace);
+    playback.run(3000, 0, &trace);
+    playback.run(2000, 1.0, &trace);
+    // the third buffering would wait for 600ms
+    playback.run(3000, 0, &trace);
+    CHECK(playback.controller().isBuffering());
+    CHECK(playback.controller().isRebuffering());
+    playback.seek();
+    CHECK(!playback.controller().isRebuffering());
+    playback.run(1000, 1.0, &trace);
+    CHECK_EQ(3, (int) trace.endBufferedMs.size());
+    if (trace.endBufferedMs.size() == 3) {
+        CHECK(near(150, trace.endBufferedMs[2]));
+    }
+}
+
+static void testSeekBeforeStart() {
+    PlayerParam param;
+    setWatermarks(param, true, 150, 1000);
+    ThrottledPlayback playback(&param);
+    BufferingTrace trace;
+    playback.run(50, 1.0, &trace);
+    playback.seek();
+    playback.run(1000, 1.0, &trace);
+    CHECK_EQ(1, (int) trace.rebuffering.size());
+    CHECK(!trace.rebuffering[0]);
+    CHECK(near(150, trace.endBufferedMs[0]));
+}
+
+static void testByteWatermark() {
+    PlayerParam param;
+    setWatermarks(param, false, 150, 1000);
+    // 250ms of content
+    param.m_bufferLowBytes = 250 * CONTENT_BYTES_PER_MS;
+    ThrottledPlayback playback(&param);
+    BufferingTrace trace;
+    playback.run(1000, 1.0, &trace);
+    CHECK(near(250, trace.startupMs));
+}
+
+static void testEofEndsBuffering() {
+    PlayerParam param;
+    setWatermarks(param, false, 150, 1000);
+    BufferingController controller(&param);
+    CHECK_EQ(BUFFERING_START, controller.update(0, 0, true, false, false));
+    CHECK_EQ(BUFFERING_NONE, controller.update(10 * CONTENT_BYTES_PER_MS, 10, false, false, false));
+    CHECK_EQ(1, controller.getPercent());
+    CHECK_EQ(BUFFERING_END, controller.update(10 * CONTENT_BYTES_PER_MS, 10, false, false, true));
+    CHECK_EQ(100, controller.getPercent());
+    // no buffering at the end of stream
+    CHECK_EQ(BUFFERING_NONE, controller.update(0, 0, true, false, true));
+}
+
+int main() {
+    RUN_TEST(testStartupFast);
+    RUN_TEST(testRebufferThresholdDoubles);
+    RUN_TEST(testSeekResetsThreshold);
+    RUN_TEST(testSeekWhileBuffering);
+    RUN_TEST(testSeekBeforeStart);
+    RUN_TEST(testByteWatermark);
+    RUN_TEST(testEofEndsBuffering);
+    return TEST_RESULT();
+}
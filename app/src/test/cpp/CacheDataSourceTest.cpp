@@ -0,0 +1,354 @@
+//
+// Host test of the media cache: cache file ranges, and CacheDataSource reading through
+// the cache from a byte-counting stand-in http server, across restarts and eviction.
+//
+
+#include "HostTest.h"
+#include "FakeHttpServer.h"
+#include "cache/CacheDataSource.h"
+
+#include <algorithm>
+#include <string>
+#include <vector>
+#include <dirent.h>
+#include <unistd.h>
+
+extern "C" {
+#include <libavutil/error.h>
+}
+
+#define MB (1024 * 1024)
+
+static const char *URL_A = "http://media.test/a.mp4";
+static const char *URL_B = "http://media.test/b.mp4";
+static const char *URL_C = "http://media.test/c.mp4";
+
+static void clearDir(const std::string &dir) {
+    DIR *d = opendir(dir.c_str());
+    if (d == nullptr) {
+        return;
+    }
+    struct dirent *ent;
+    while ((ent = readdir(d)) != nullptr) {
+        if (ent->d_name[0] != '.') {
+            unlink((dir + "/" + ent->d_name).c_str());
+        }
+    }
+    closedir(d);
+}
+
+static std::string makeCacheDir(const char *name) {
+    std::string dir = std::string("/tmp/") + name + "_" + std::to_string(getpid());
+    // 上次运行留下的文件
+    clearDir(dir);
+    return dir;
+}
+
+static void removeCacheDir(const std::string &dir) {
+    MediaCache::getInstance()->setConfig(nullptr, 0);
+    clearDir(dir);
+    rmdir(dir.c_str());
+}
+
+/**
+ * Cached bytes of all the media in the directory, as recorded by the indexes.
+ */
+static int64_t cachedOnDisk(const std::string &dir) {
+    int64_t total = 0;
+    DIR *d = opendir(dir.c_str());
+    if (d == nullptr) {
+        return 0;
+    }
+    struct dirent *ent;
+    while ((ent = readdir(d)) != nullptr) {
+        std::string name = ent->d_name;
+        int64_t length;
+        int64_t bytes;
+        if (name.size() > 4 && name.compare(name.size() - 4, 4, ".idx") == 0
+            && CacheFile::readIndexInfo(dir + "/" + name, &length, &bytes)) {
+            total += bytes;
+        }
+    }
+    closedir(d);
+    return total;
+}
+
+/**
+ * Read a range the way the demuxer does, and verify the content.
+ */
+static bool readRange(CacheDataSource &source, const char *url, int64_t pos, int64_t len) {
+    AVIOContext *io = source.getIOContext();
+    if (avio_seek(io, pos, SEEK_SET) != pos) {
+        return false;
+    }
+    std::vector<uint8_t> buf(32 * 1024);
+    bool same = true;
+    while (len > 0) {
+        int n = avio_read_partial(io, buf.data(), (int) std::min<int64_t>(len, buf.size()));
+        if (n <= 0) {
+            return false;
+        }
+        for (int i = 0; i < n; ++i) {
+            same = same && buf[i] == FakeHttpServer::byteAt(url, pos + i);
+        }
+        pos += n;
+        len -= n;
+    }
+    return same;
+}
+
+/**
+ * Simulate a restart of the app, the cache is rebuilt from the directory.
+ */
+static void restart(const std::string &dir, int64_t maxBytes) {
+    MediaCache::getInstance()->setConfig(nullptr, 0);
+    MediaCache::getInstance()->setConfig(dir.c_str(), maxBytes);
+    FakeHttpServer::getInstance()->resetCounters();
+}
+
+static void testCacheFileRanges() {
+    std::string dir = makeCacheDir("cache_file_test");
+    MediaCache::getInstance()->setConfig(dir.c_str(), 100 * MB);
+    std::string data = dir + "/media.data";
+    std::string index = dir + "/media.idx";
+    std::vector<uint8_t> buf(1000);
+    for (int i = 0; i < 1000; ++i) {
+        buf[i] = (uint8_t) i;
+    }
+    {
+        CacheFile file(data, index, 1000);
+        CHECK_EQ(0, file.open());
+        CHECK_EQ(100, file.write(100, buf.data() + 100, 100));
+        // 只统计新增的部分
+        CHECK_EQ(50, file.write(150, buf.data() + 150, 100));
+        CHECK_EQ(150, file.cachedAt(100));
+        CHECK_EQ(50, file.cachedAt(200));
+        CHECK_EQ(0, file.cachedAt(99));
+        CHECK_EQ(0, file.cachedAt(250));
+        CHECK_EQ(100, file.missingAt(0));
+        CHECK_EQ(750, file.missingAt(250));
+        CHECK_EQ(100, file.write(500, buf.data() + 500, 100));
+        CHECK_EQ(250, file.missingAt(250));
+        // 相邻的区间合并
+        CHECK_EQ(50, file.write(250, buf.data() + 250, 50));
+        CHECK_EQ(200, file.cachedAt(100));
+        CHECK_EQ(300, file.cachedBytes());
+        // 写到结尾之外的部分被截掉
+        CHECK_EQ(10, file.write(990, buf.data(), 100));
+        std::vector<uint8_t> out(200);
+        CHECK_EQ(200, file.read(100, out.data(), 200));
+        CHECK(std::equal(out.begin(), out.end(), buf.begin() + 100));
+        file.flush();
+    }
+    int64_t length = 0;
+    int64_t bytes = 0;
+    CHECK(CacheFile::readIndexInfo(index, &length, &bytes));
+    CHECK_EQ(1000, length);
+    CHECK_EQ(310, bytes);
+
+    // 长度从索引里取
+    CacheFile reopened(data, index, -1);
+    CHECK_EQ(0, reopened.open());
+    CHECK_EQ(1000, reopened.length());
+    CHECK_EQ(310, reopened.cachedBytes());
+    CHECK_EQ(100, reopened.cachedAt(500));
+    std::vector<uint8_t> out(100);
+    CHECK_EQ(100, reopened.read(500, out.data(), 100));
+    CHECK(std::equal(out.begin(), out.end(), buf.begin() + 500));
+
+    CacheFile unknown(dir + "/none.data", dir + "/none.idx", -1);
+    CHECK(unknown.open() < 0);
+    removeCacheDir(dir);
+}
+
+/**
+ * Play 0-2MB, seek to 6-7MB, seek back to 1-3MB: only the 4MB never read before
+ * comes from the network.
+ */
+static void testPlaySeekSeekBack() {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    server->addMedia(URL_A, 8 * MB);
+    std::string dir = makeCacheDir("cache_seek_test");
+    restart(dir, 100 * MB);
+
+    CacheDataSource source;
+    CHECK_EQ(0, source.open(URL_A, nullptr));
+    CHECK_EQ(8 * MB, avio_size(source.getIOContext()));
+    CHECK(readRange(source, URL_A, 0, 2 * MB));
+    CHECK(readRange(source, URL_A, 6 * MB, 1 * MB));
+    CHECK(readRange(source, URL_A, 1 * MB, 2 * MB));
+    CHECK_EQ(4 * MB, source.getNetworkBytes());
+    CHECK_EQ(1 * MB, source.getCacheBytes());
+    CHECK_EQ(4 * MB, server->bytesServed);
+    CHECK_EQ(1, server->opens);
+    // 到6MB, 再回到2MB, 读已缓存的1-2MB时不动网络流
+    CHECK_EQ(2, server->seeks);
+    source.close();
+    CHECK_EQ(4 * MB, cachedOnDisk(dir));
+    removeCacheDir(dir);
+}
+
+static void testReplayAfterRestart() {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    server->addMedia(URL_A, 8 * MB);
+    std::string dir = makeCacheDir("cache_replay_test");
+    restart(dir, 100 * MB);
+    {
+        CacheDataSource source;
+        CHECK_EQ(0, source.open(URL_A, nullptr));
+        CHECK(readRange(source, URL_A, 0, 2 * MB));
+        CHECK(readRange(source, URL_A, 4 * MB, 2 * MB));
+    }
+
+    restart(dir, 100 * MB);
+    {
+        CacheDataSource source;
+        CHECK_EQ(0, source.open(URL_A, nullptr));
+        // 长度来自索引, 打开时不连网
+        CHECK_EQ(0, server->opens);
+        CHECK(readRange(source, URL_A, 0, 8 * MB));
+        CHECK_EQ(4 * MB, source.getNetworkBytes());
+        CHECK_EQ(4 * MB, source.getCacheBytes());
+        CHECK_EQ(4 * MB, server->bytesServed);
+        CHECK_EQ(1, server->opens);
+    }
+
+    restart(dir, 100 * MB);
+    {
+        CacheDataSource source;
+        CHECK_EQ(0, source.open(URL_A, nullptr));
+        CHECK(readRange(source, URL_A, 0, 8 * MB));
+        // 末尾读到EOF也不连网
+        uint8_t buf[16];
+        CHECK_EQ(AVERROR_EOF, avio_read_partial(source.getIOContext(), buf, sizeof(buf)));
+        CHECK_EQ(0, source.getNetworkBytes());
+        CHECK_EQ(8 * MB, source.getCacheBytes());
+        CHECK_EQ(0, server->opens);
+        CHECK_EQ(0, server->bytesServed);
+    }
+    removeCacheDir(dir);
+}
+
+static void playFully(const char *url) {
+    CacheDataSource source;
+    CHECK_EQ(0, source.open(url, nullptr));
+    CHECK(readRange(source, url, 0, avio_size(source.getIOContext())));
+}
+
+/**
+ * Opening an evicted media has to ask the upstream for its length.
+ */
+static bool isCached(const char *url) {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    int opens = server->opens;
+    CacheDataSource source;
+    CHECK_EQ(0, source.open(url, nullptr));
+    return server->opens == opens;
+}
+
+static void testEvictLeastRecent() {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    server->addMedia(URL_A, 8 * MB);
+    server->addMedia(URL_B, 8 * MB);
+    server->addMedia(URL_C, 8 * MB);
+    std::string dir = makeCacheDir("cache_evict_test");
+    restart(dir, 20 * MB);
+    playFully(URL_A);
+    playFully(URL_B);
+    playFully(URL_C);
+    CHECK_EQ(16 * MB, cachedOnDisk(dir));
+    CHECK(isCached(URL_B));
+    CHECK(isCached(URL_C));
+    CHECK(!isCached(URL_A));
+
+    // 重启后按索引的使用时间排序, 容量变小时先淘汰最久没用的
+    restart(dir, 10 * MB);
+    CHECK_EQ(8 * MB, cachedOnDisk(dir));
+    removeCacheDir(dir);
+}
+
+static void testInUseNotEvicted() {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    server->addMedia(URL_A, 8 * MB);
+    server->addMedia(URL_B, 8 * MB);
+    server->addMedia(URL_C, 8 * MB);
+    std::string dir = makeCacheDir("cache_in_use_test");
+    restart(dir, 20 * MB);
+    {
+        CacheDataSource playing;
+        CHECK_EQ(0, playing.open(URL_A, nullptr));
+        CHECK(readRange(playing, URL_A, 0, 8 * MB));
+        playFully(URL_B);
+        playFully(URL_C);
+        // 同一个媒体共用打开的缓存文件
+        CacheDataSource shared;
+        CHECK_EQ(0, shared.open(URL_A, nullptr));
+        CHECK(readRange(shared, URL_A, 0, 8 * MB));
+        CHECK_EQ(0, shared.getNetworkBytes());
+    }
+    CHECK(isCached(URL_A));
+    CHECK(isCached(URL_C));
+    CHECK(!isCached(URL_B));
+    removeCacheDir(dir);
+}
+
+static void testNotCacheable() {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    server->addMedia("http://media.test/live.m3u8", 1 * MB);
+    server->addMedia("http://media.test/live.flv", 1 * MB, false);
+    server->addMedia("http://media.test/chunked.mp4", 1 * MB, true, false);
+    std::string dir = makeCacheDir("cache_not_cacheable_test");
+    restart(dir, 100 * MB);
+
+    CacheDataSource source;
+    CHECK_EQ(AVERROR(ENOSYS), source.open("http://media.test/live.m3u8", nullptr));
+    CHECK_EQ(AVERROR(ENOSYS), source.open("/sdcard/a.mp4", nullptr));
+    CHECK_EQ(AVERROR(ENOSYS), source.open("rtmp://media.test/live", nullptr));
+    CHECK_EQ(0, server->opens);
+    CHECK_EQ(AVERROR(ENOSYS), source.open("http://media.test/live.flv", nullptr));
+    CHECK_EQ(AVERROR(ENOSYS), source.open("http://media.test/chunked.mp4", nullptr));
+    CHECK_EQ(AVERROR_HTTP_NOT_FOUND, source.open("http://media.test/missing.mp4", nullptr));
+    // larger than the cap
+    server->addMedia(URL_A, 8 * MB);
+    restart(dir, 4 * MB);
+    CHECK_EQ(AVERROR(ENOSYS), source.open(URL_A, nullptr));
+    CHECK(source.getIOContext() == nullptr);
+    CHECK_EQ(0, cachedOnDisk(dir));
+
+    MediaCache::getInstance()->setConfig(nullptr, 0);
+    CHECK_EQ(AVERROR(ENOSYS), source.open(URL_A, nullptr));
+    removeCacheDir(dir);
+}
+
+static void testSeek() {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    server->addMedia(URL_A, 1 * MB);
+    std::string dir = makeCacheDir("cache_seek_bounds_test");
+    restart(dir, 100 * MB);
+    CacheDataSource source;
+    CHECK_EQ(0, source.open(URL_A, nullptr));
+    AVIOContext *io = source.getIOContext();
+    CHECK_EQ(1 * MB, avio_seek(io, 0, AVSEEK_SIZE));
+    CHECK_EQ(1 * MB - 10, avio_seek(io, -10, SEEK_END));
+    CHECK_EQ(1 * MB - 5, avio_seek(io, 5, SEEK_CUR));
+    CHECK_EQ(AVERROR(EINVAL), avio_seek(io, 1 * MB + 1, SEEK_SET));
+    CHECK_EQ(AVERROR(EINVAL), avio_seek(io, -1, SEEK_SET));
+    // seek只记录位置, 不会请求网络
+    CHECK_EQ(0, server->seeks);
+    uint8_t buf[64];
+    CHECK_EQ(5, avio_read_partial(io, buf, sizeof(buf)));
+    CHECK_EQ(AVERROR_EOF, avio_read_partial(io, buf, sizeof(buf)));
+    source.close();
+    removeCacheDir(dir);
+}
+
+int main() {
+    RUN_TEST(testCacheFileRanges);
+    RUN_TEST(testPlaySeekSeekBack);
+    RUN_TEST(testReplayAfterRestart);
+    RUN_TEST(testEvictLeastRecent);
+    RUN_TEST(testInUseNotEvicted);
+    RUN_TEST(testNotCacheable);
+    RUN_TEST(testSeek);
+    return TEST_RESULT();
+}
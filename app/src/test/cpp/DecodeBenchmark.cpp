@@ -0,0 +1,103 @@
+//
+// Host benchmark of the video decode loop with each threading option.
+// The codec is FakeCodec, which costs a fixed time per frame, so the numbers show
+// how well VideoDecoder keeps the threads of the codec busy, not the speed of h264.
+// usage: DecodeBenchmark [frames] [frame cost in us]
+//
+
+#include "decoder/VideoDecoder.h"
+#include "FakeCodec.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <thread>
+
+typedef std::chrono::steady_clock Clock;
+
+static uint8_t packetData[4096];
+
+static double elapsedMs(Clock::time_point begin, Clock::time_point end) {
+    return std::chrono::duration<double, std::milli>(end - begin).count();
+}
+
+/**
+ * Queue every packet up front, then take the frames as fast as the decoder makes them.
+ */
+static void benchDecode(const char *name, int threadType, int threadCount, int frames, int frameCostUs) {
+    PlayerParam playerParam;
+    AVStream stream{};
+    stream.time_base      = (AVRational) {1, 1000};
+    stream.avg_frame_rate = (AVRational) {30, 1};
+    playerParam.m_abortReq      = 0;
+    playerParam.m_formatCtx     = nullptr;
+    playerParam.m_videoStream   = &stream;
+    playerParam.m_videoCodecCtx = FakeCodec::openVideo(threadType, threadCount, frameCostUs, 1280, 720);
+    int threads = FakeCodec::getThreadCount(playerParam.m_videoCodecCtx);
+
+    auto *decoder = new VideoDecoder(&playerParam);
+    AVPacket pkt{};
+    for (int i = 0; i < frames; ++i) {
+        pkt.data     = packetData;
+        pkt.size     = sizeof(packetData);
+        pkt.pts      = i * 33;
+        pkt.dts      = i * 33;
+        pkt.duration = 33;
+        decoder->pushPacket(&pkt);
+    }
+    // an empty packet drains the frames buffered by frame threads
+    pkt.data = nullptr;
+    pkt.size = 0;
+    decoder->pushPacket(&pkt);
+
+    FrameQueue *frameQueue = decoder->getFrameQueue();
+    auto begin = Clock::now();
+    Clock::time_point firstFrame;
+    decoder->start();
+    int received = 0;
+    int outOfOrder = 0;
+    double lastPts = -1;
+    Clock::time_point lastFrame = begin;
+    while (received < frames) {
+        if (frameQueue->getFrameSize() <= 0) {
+            // a packet the decoder turned away and never got again, the frame won't come
+            if (Clock::now() - lastFrame > std::chrono::seconds(5)) {
+                break;
+            }
+            std::this_thread::sleep_for(std::chrono::microseconds(50));
+            continue;
+        }
+        Frame *vp = frameQueue->currentFrame();
+        if (received == 0) {
+            firstFrame = Clock::now();
+        }
+        if (vp->pts <= lastPts) {
+            outOfOrder++;
+        }
+        lastPts = vp->pts;
+        lastFrame = Clock::now();
+        received++;
+        frameQueue->popFrame();
+    }
+    auto end = lastFrame;
+    decoder->stop();
+    delete decoder;
+
+    double totalMs = elapsedMs(begin, end);
+    printf("%-14s threads=%-2d %8.1f fps first frame %6.1f ms lost=%d out of order=%d\n", name, threads,
+           received * 1000.0 / totalMs, elapsedMs(begin, firstFrame), frames - received, outOfOrder);
+}
+
+int main(int argc, char **argv) {
+    int frames = argc > 1 ? atoi(argv[1]) : 300;
+    int frameCostUs = argc > 2 ? atoi(argv[2]) : 4000;
+    printf("frames=%d frame cost=%d us cores=%u\n", frames, frameCostUs,
+           std::thread::hardware_concurrency());
+    benchDecode("single", 0, 1, frames, frameCostUs);
+    benchDecode("frame", FF_THREAD_FRAME, 2, frames, frameCostUs);
+    benchDecode("frame", FF_THREAD_FRAME, 4, frames, frameCostUs);
+    benchDecode("frame", FF_THREAD_FRAME, 8, frames, frameCostUs);
+    benchDecode("slice", FF_THREAD_SLICE, 4, frames, frameCostUs);
+    benchDecode("auto", FF_THREAD_FRAME | FF_THREAD_SLICE, 0, frames, frameCostUs);
+    return 0;
+}
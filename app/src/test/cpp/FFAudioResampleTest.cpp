@@ -0,0 +1,238 @@
+//
+// Host test of the batch file resampler on sine waves, built against the FFmpeg of the
+// development machine instead of the prebuilt libraries of the app (see CMakeLists.txt).
+// One FFAudioResample resamples several files in a row, the way AudioResampleBatch does,
+// so the SwrContext is reused after it was flushed at the end of the previous file.
+//
+
+#include "HostTest.h"
+#include "ff_audio_resample.h"
+
+#include <cmath>
+#include <cstdint>
+#include <cstdio>
+#include <cstring>
+#include <string>
+#include <vector>
+#include <unistd.h>
+
+#define TONE_HZ 440
+#define AMPLITUDE 16000
+
+struct Wav {
+    int sampleRate = 0;
+    int channels   = 0;
+    std::vector<int16_t> samples;
+};
+
+static std::string tempPath(const char *name) {
+    return "/tmp/FFAudioResampleTest_" + std::to_string(getpid()) + "_" + name;
+}
+
+static void putLE(FILE *file, uint32_t value, int bytes) {
+    for (int i = 0; i < bytes; ++i) {
+        fputc((value >> (8 * i)) & 0xff, file);
+    }
+}
+
+// s16le wav of a sine, the same in each channel
+static void writeSine(const std::string &path, int sampleRate, int channels, double seconds) {
+    int frames = (int) (sampleRate * seconds);
+    uint32_t dataBytes = (uint32_t) (frames * channels * 2);
+    FILE *file = fopen(path.c_str(), "wb");
+    fwrite("RIFF", 1, 4, file);
+    putLE(file, 36 + dataBytes, 4);
+    fwrite("WAVEfmt ", 1, 8, file);
+    putLE(file, 16, 4);
+    putLE(file, 1, 2);
+    putLE(file, channels, 2);
+    putLE(file, sampleRate, 4);
+    putLE(file, sampleRate * channels * 2, 4);
+    putLE(file, channels * 2, 2);
+    putLE(file, 16, 2);
+    fwrite("data", 1, 4, file);
+    putLE(file, dataBytes, 4);
+    for (int i = 0; i < frames; ++i) {
+        auto value = (int16_t) lrint(AMPLITUDE * sin(2 * M_PI * TONE_HZ * i / sampleRate));
+        for (int c = 0; c < channels; ++c) {
+            putLE(file, (uint16_t) value, 2);
+        }
+    }
+    fclose(file);
+}
+
+static uint32_t getLE(const uint8_t *data, int bytes) {
+    uint32_t value = 0;
+    for (int i = bytes - 1; i >= 0; --i) {
+        value = (value << 8) | data[i];
+    }
+    return value;
+}
+
+// walks the chunks, the muxer may write a LIST chunk before data
+static bool readWav(const std::string &path, Wav *wav) {
+    FILE *file = fopen(path.c_str(), "rb");
+    if (!file) {
+        return false;
+    }
+    std::vector<uint8_t> data;
+    uint8_t buf[4096];
+    size_t n;
+    while ((n = fread(buf, 1, sizeof(buf), file)) > 0) {
+        data.insert(data.end(), buf, buf + n);
+    }
+    fclose(file);
+    if (data.size() < 12 || memcmp(data.data(), "RIFF", 4) != 0 || memcmp(data.data() + 8, "WAVE", 4) != 0) {
+        return false;
+    }
+    size_t pos = 12;
+    while (pos + 8 <= data.size()) {
+        uint32_t size = getLE(&data[pos + 4], 4);
+        const uint8_t *chunk = &data[pos + 8];
+        if (memcmp(&data[pos], "fmt ", 4) == 0) {
+            wav->channels   = (int) getLE(chunk + 2, 2);
+            wav->sampleRate = (int) getLE(chunk + 4, 4);
+        } else if (memcmp(&data[pos], "data", 4) == 0) {
+            // the size of the data chunk may be unset when the output wasn't seekable
+            size_t end = size == 0 || pos + 8 + size > data.size() ? data.size() : pos + 8 + size;
+            for (size_t i = pos + 8; i + 1 < end; i += 2) {
+                wav->samples.push_back((int16_t) getLE(&data[i], 2));
+            }
+            return wav->channels > 0;
+        }
+        pos += 8 + size + (size & 1);
+    }
+    return false;
+}
+
+// frequency from the rising zero crossings of the first channel
+static double toneFrequency(const Wav &wav) {
+    int crossings = 0;
+    int first = -1;
+    int last  = -1;
+    int frames = (int) wav.samples.size() / wav.channels;
+    for (int i = 1; i < frames; ++i) {
+        if (wav.samples[(i - 1) * wav.channels] < 0 && wav.samples[i * wav.channels] >= 0) {
+            if (first < 0) {
+                first = i;
+            } else {
+                crossings++;
+            }
+            last = i;
+        }
+    }
+    return crossings > 0 ? (double) crossings * wav.sampleRate / (last - first) : 0;
+}
+
+static double rms(const Wav &wav) {
+    // skips the edges, where the filter of the resampler ramps
+    size_t edge = wav.samples.size() / 10;
+    double sum = 0;
+    for (size_t i = edge; i < wav.samples.size() - edge; ++i) {
+        sum += (double) wav.samples[i] * wav.samples[i];
+    }
+    return sqrt(sum / (wav.samples.size() - 2 * edge));
+}
+
+static void checkSine(const std::string &path, int sampleRate, int channels, double seconds) {
+    Wav wav;
+    CHECK(readWav(path, &wav));
+    CHECK_EQ(sampleRate, wav.sampleRate);
+    CHECK_EQ(channels, wav.channels);
+    int frames = (int) wav.samples.size() / (wav.channels > 0 ? wav.channels : 1);
+    // the delay of the resampler is flushed at the end, so nothing is lost
+    CHECK(std::abs(frames - (int) (sampleRate * seconds)) <= 2);
+    if (frames > sampleRate / 10) {
+        double frequency = toneFrequency(wav);
+        CHECK(frequency > TONE_HZ - 1 && frequency < TONE_HZ + 1);
+        double level = rms(wav);
+        CHECK(level > AMPLITUDE / M_SQRT2 * 0.98 && level < AMPLITUDE / M_SQRT2 * 1.02);
+    }
+}
+
+static void testResample() {
+    std::string input  = tempPath("44100.wav");
+    std::string output = tempPath("48000.wav");
+    writeSine(input, 44100, 2, 1.0);
+    FFAudioResample resample;
+    CHECK_EQ(0, resample.resampling(input.c_str(), output.c_str(), 48000));
+    CHECK_EQ(44100, resample.getInputSamples());
+    CHECK(std::abs(resample.getOutputSamples() - 48000) <= 2);
+    checkSine(output, 48000, 2, 1.0);
+    unlink(input.c_str());
+    unlink(output.c_str());
+}
+
+static void testDownsample() {
+    std::string input  = tempPath("48000_mono.wav");
+    std::string output = tempPath("16000_mono.wav");
+    writeSine(input, 48000, 1, 2.0);
+    FFAudioResample resample;
+    CHECK_EQ(0, resample.resampling(input.c_str(), output.c_str(), 16000));
+    checkSine(output, 16000, 1, 2.0);
+    unlink(input.c_str());
+    unlink(output.c_str());
+}
+
+/**
+ * The same formats reuse the SwrContext, which was flushed by the last file.
+ * Each output must be the same as resampling the file with a new resampler,
+ * without samples left over from the file before.
+ */
+static void testReuseAfterFlush() {
+    std::string input  = tempPath("reuse_in.wav");
+    std::string first  = tempPath("reuse_first.wav");
+    std::string second = tempPath("reuse_second.wav");
+    std::string fresh  = tempPath("reuse_fresh.wav");
+    writeSine(input, 44100, 2, 0.5);
+
+    FFAudioResample batch;
+    CHECK_EQ(0, batch.resampling(input.c_str(), first.c_str(), 48000));
+    CHECK_EQ(0, batch.resampling(input.c_str(), second.c_str(), 48000));
+    int64_t secondSamples = batch.getOutputSamples();
+    FFAudioResample single;
+    CHECK_EQ(0, single.resampling(input.c_str(), fresh.c_str(), 48000));
+    CHECK_EQ(single.getOutputSamples(), secondSamples);
+
+    Wav wavFirst, wavSecond, wavFresh;
+    CHECK(readWav(first, &wavFirst));
+    CHECK(readWav(second, &wavSecond));
+    CHECK(readWav(fresh, &wavFresh));
+    CHECK(wavSecond.samples == wavFresh.samples);
+    CHECK(wavFirst.samples == wavFresh.samples);
+    checkSine(second, 48000, 2, 0.5);
+
+    // another rate makes a new context, then going back reuses nothing stale either
+    CHECK_EQ(0, batch.resampling(input.c_str(), second.c_str(), 22050));
+    checkSine(second, 22050, 2, 0.5);
+    CHECK_EQ(0, batch.resampling(input.c_str(), second.c_str(), 48000));
+    Wav wavAgain;
+    CHECK(readWav(second, &wavAgain));
+    CHECK(wavAgain.samples == wavFresh.samples);
+
+    unlink(input.c_str());
+    unlink(first.c_str());
+    unlink(second.c_str());
+    unlink(fresh.c_str());
+}
+
+static void testMissingInput() {
+    std::string output = tempPath("missing_out.wav");
+    FFAudioResample resample;
+    CHECK(resample.resampling(tempPath("missing.wav").c_str(), output.c_str(), 48000) < 0);
+    // a failed file doesn't break the next one
+    std::string input = tempPath("after_missing.wav");
+    writeSine(input, 44100, 2, 0.5);
+    CHECK_EQ(0, resample.resampling(input.c_str(), output.c_str(), 48000));
+    checkSine(output, 48000, 2, 0.5);
+    unlink(input.c_str());
+    unlink(output.c_str());
+}
+
+int main() {
+    RUN_TEST(testResample);
+    RUN_TEST(testDownsample);
+    RUN_TEST(testReuseAfterFlush);
+    RUN_TEST(testMissingInput);
+    return TEST_RESULT();
+}
@@ -0,0 +1,179 @@
+//
+// Host test of the ffmpeg command job: parsing of -progress, delivery of progress,
+// cancel and concurrent jobs. fftools is replaced by FakeFFmpegJob, which runs
+// lavfi testsrc commands in a fixed time per frame.
+//
+
+#include "HostTest.h"
+#include "ff_command_job.h"
+#include "FakeFFmpegJob.h"
+
+#include <chrono>
+#include <thread>
+
+typedef std::chrono::steady_clock Clock;
+
+static std::vector<std::string> testsrcCommand(int durationSec) {
+    return {"ffmpeg", "-f", "lavfi", "-i",
+            "testsrc=duration=" + std::to_string(durationSec) + ":size=320x240:rate=25",
+            "-stats_period", "0.02", "-progress", "-", "-f", "null", "-"};
+}
+
+static double elapsedMs(Clock::time_point begin) {
+    return std::chrono::duration<double, std::milli>(Clock::now() - begin).count();
+}
+
+static void testParseProgress() {
+    FFCommandProgress progress;
+    FFCommandJob::parseProgress("frame=120\nfps=59.8\nstream_0_0_q=28.0\nbitrate= 512.3kbits/s\n"
+                                "total_size=262192\nout_time_us=4800000\nout_time=00:00:04.800000\n"
+                                "dup_frames=0\ndrop_frames=0\nspeed=2.39x\nprogress=continue\n", &progress);
+    CHECK_EQ(120, progress.frame);
+    CHECK(progress.fps > 59.7f && progress.fps < 59.9f);
+    CHECK_EQ(262192, progress.totalSize);
+    CHECK_EQ(4800000, progress.outTimeUs);
+    CHECK(progress.speed > 2.38f && progress.speed < 2.40f);
+    CHECK(!progress.end);
+
+    // N/A keeps the last value, the speed may be padded, the last line may have no newline
+    FFCommandJob::parseProgress("frame=130\nfps=N/A\nout_time_us=N/A\nspeed= 1.5x\nprogress=end", &progress);
+    CHECK_EQ(130, progress.frame);
+    CHECK(progress.fps > 59.7f && progress.fps < 59.9f);
+    CHECK_EQ(4800000, progress.outTimeUs);
+    CHECK(progress.speed > 1.49f && progress.speed < 1.51f);
+    CHECK(progress.end);
+
+    // lines without '=' and unknown keys are skipped
+    FFCommandProgress empty;
+    FFCommandJob::parseProgress("", &empty);
+    FFCommandJob::parseProgress("garbage\n\nkey=value\n=1\n", &empty);
+    CHECK_EQ(0, empty.frame);
+    CHECK_EQ(0, empty.totalSize);
+    CHECK(!empty.end);
+}
+
+static void testProgressOnCallingThread() {
+    FakeFFmpegJob::setFrameCostUs(1000);
+    FFCommandJob job(testsrcCommand(2));
+    std::thread::id caller = std::this_thread::get_id();
+    int updates = 0;
+    int otherThread = 0;
+    int64_t lastFrame = 0;
+    int backwards = 0;
+    FFCommandProgress last;
+    int ret = job.run([&](const FFCommandProgress &progress) {
+        if (std::this_thread::get_id() != caller) {
+            otherThread++;
+        }
+        if (progress.frame < lastFrame) {
+            backwards++;
+        }
+        lastFrame = progress.frame;
+        last = progress;
+        updates++;
+    });
+    CHECK_EQ(0, ret);
+    CHECK(updates > 1);
+    CHECK_EQ(0, otherThread);
+    CHECK_EQ(0, backwards);
+    CHECK(last.end);
+    CHECK_EQ(50, last.frame);
+    CHECK_EQ(2000000, last.outTimeUs);
+}
+
+static void testSlowListenerGetsLatest() {
+    FakeFFmpegJob::setFrameCostUs(1000);
+    FFCommandJob job(testsrcCommand(2));
+    int updates = 0;
+    FFCommandProgress last;
+    int ret = job.run([&](const FFCommandProgress &progress) {
+        // slower than the stats period, the updates in between are merged
+        std::this_thread::sleep_for(std::chrono::milliseconds(30));
+        last = progress;
+        updates++;
+    });
+    CHECK_EQ(0, ret);
+    CHECK(updates >= 1);
+    CHECK(last.end);
+    CHECK_EQ(50, last.frame);
+}
+
+static void testCancelWhileRunning() {
+    FakeFFmpegJob::setFrameCostUs(2000);
+    // 100s of frames, it only ends by cancel
+    FFCommandJob job(testsrcCommand(100));
+    auto begin = Clock::now();
+    Clock::time_point cancelAt;
+    bool cancelled = false;
+    FFCommandProgress last;
+    int ret = job.run([&](const FFCommandProgress &progress) {
+        last = progress;
+        if (!cancelled && progress.frame >= 10) {
+            cancelled = true;
+            cancelAt = Clock::now();
+            // from another thread, like the ui
+            std::thread([&job]() { job.cancel(); }).join();
+        }
+    });
+    CHECK_EQ(COMMAND_RESULT_CANCELLED, ret);
+    CHECK(job.isCancelled());
+    CHECK(cancelled);
+    // the last stats are still delivered
+    CHECK(last.end);
+    CHECK(last.frame < 2500);
+    CHECK(elapsedMs(cancelAt) < 500);
+    CHECK(elapsedMs(begin) < 5000);
+}
+
+static void testCancelBeforeRun() {
+    FakeFFmpegJob::resetCounters();
+    FFCommandJob job(testsrcCommand(1));
+    job.cancel();
+    int updates = 0;
+    int ret = job.run([&](const FFCommandProgress &) {
+        updates++;
+    });
+    CHECK_EQ(COMMAND_RESULT_CANCELLED, ret);
+    CHECK_EQ(0, updates);
+    CHECK_EQ(0, FakeFFmpegJob::getRunCount());
+}
+
+/**
+ * FFmpegCommand runs jobs by priority on a pool of threads, a job started while
+ * another is running must not wait for it, and cancelling one leaves the other alone.
+ */
+static void testConcurrentJobs() {
+    FakeFFmpegJob::resetCounters();
+    FakeFFmpegJob::setFrameCostUs(2000);
+    FFCommandJob lowJob(testsrcCommand(100));
+    FFCommandJob highJob(testsrcCommand(1));
+    int lowRet = -1;
+    int highRet = -1;
+    std::thread low([&]() {
+        lowRet = lowJob.run(nullptr);
+    });
+    while (FakeFFmpegJob::getRunCount() < 1) {
+        std::this_thread::yield();
+    }
+    auto begin = Clock::now();
+    highRet = highJob.run(nullptr);
+    double highMs = elapsedMs(begin);
+    lowJob.cancel();
+    low.join();
+    CHECK_EQ(0, highRet);
+    CHECK_EQ(COMMAND_RESULT_CANCELLED, lowRet);
+    CHECK(!highJob.isCancelled());
+    CHECK_EQ(2, FakeFFmpegJob::getMaxConcurrent());
+    // 25 frames of 2ms, far from the 5s of the other job
+    CHECK(highMs < 2000);
+}
+
+int main() {
+    RUN_TEST(testParseProgress);
+    RUN_TEST(testProgressOnCallingThread);
+    RUN_TEST(testSlowListenerGetsLatest);
+    RUN_TEST(testCancelWhileRunning);
+    RUN_TEST(testCancelBeforeRun);
+    RUN_TEST(testConcurrentJobs);
+    return TEST_RESULT();
+}
@@ -0,0 +1,75 @@
+//
+// Host benchmark of the player message queue throughput.
+// usage: FFMessageQueueBenchmark [messages]
+//
+
+#include "message/FFMessageQueue.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <thread>
+
+typedef std::chrono::steady_clock Clock;
+
+static double elapsedNs(Clock::time_point begin) {
+    return std::chrono::duration<double, std::nano>(Clock::now() - begin).count();
+}
+
+/**
+ * Send and take in the same thread, the cost of one round trip without contention.
+ */
+static void benchSameThread(int messages) {
+    FFMessageQueue queue;
+    FFMessage msg;
+    auto begin = Clock::now();
+    for (int i = 0; i < messages; ++i) {
+        queue.sendMessage(MSG_BUFFERING_TIME_UPDATE, i);
+        queue.getMessage(&msg, 0);
+    }
+    double ns = elapsedNs(begin);
+    printf("%-28s %8.1f ns/msg %10.0f msg/s nodes=%d\n", "send+get same thread",
+           ns / messages, messages * 1e9 / ns, queue.getAllocCount());
+}
+
+/**
+ * A producer thread against the message thread, with or without coalescing.
+ * @param backlog messages of other kinds kept in front, like a busy message thread
+ */
+static void benchProducerConsumer(const char *name, int messages, bool coalesced, int backlog) {
+    FFMessageQueue queue;
+    for (int i = 0; i < backlog; ++i) {
+        queue.sendMessage(MSG_VIDEO_RENDER_START, i);
+    }
+    auto begin = Clock::now();
+    std::thread producer([&]() {
+        for (int i = 0; i < messages; ++i) {
+            if (coalesced) {
+                queue.sendMessageCoalesced(MSG_BUFFERING_UPDATE, i % 100, 0);
+            } else {
+                queue.sendMessage(MSG_BUFFERING_UPDATE, i % 100);
+            }
+        }
+        queue.sendMessage(MSG_ON_COMPLETE);
+    });
+    FFMessage msg;
+    int received = 0;
+    while (queue.getMessage(&msg) > 0 && msg.what != MSG_ON_COMPLETE) {
+        received++;
+    }
+    producer.join();
+    double ns = elapsedNs(begin);
+    printf("%-28s %8.1f ns/msg %10.0f msg/s received=%d nodes=%d\n", name,
+           ns / messages, messages * 1e9 / ns, received, queue.getAllocCount());
+}
+
+int main(int argc, char **argv) {
+    int messages = argc > 1 ? atoi(argv[1]) : 1000000;
+    printf("messages=%d cores=%u\n", messages, std::thread::hardware_concurrency());
+    benchSameThread(messages);
+    benchProducerConsumer("send, 2 threads", messages, false, 0);
+    benchProducerConsumer("coalesced, 2 threads", messages, true, 0);
+    benchProducerConsumer("send, backlog 64", messages, false, 64);
+    benchProducerConsumer("coalesced, backlog 64", messages, true, 64);
+    return 0;
+}
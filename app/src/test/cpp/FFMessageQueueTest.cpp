@@ -0,0 +1,178 @@
+//
+// Host test of the player message queue, including a stress run of buffering cycles.
+//
+
+#include "HostTest.h"
+#include "message/FFMessageQueue.h"
+
+#include <thread>
+
+static void testOrder() {
+    FFMessageQueue queue;
+    queue.sendMessage(MSG_ON_PREPARED);
+    queue.sendMessage(MSG_VIDEO_SIZE_CHANGED, 1280, 720);
+    queue.sendMessage(MSG_ON_START);
+    FFMessage msg;
+    CHECK_EQ(1, queue.getMessage(&msg, 0));
+    CHECK_EQ(MSG_ON_PREPARED, msg.what);
+    CHECK_EQ(1, queue.getMessage(&msg, 0));
+    CHECK_EQ(MSG_VIDEO_SIZE_CHANGED, msg.what);
+    CHECK_EQ(1280, msg.arg1);
+    CHECK_EQ(720, msg.arg2);
+    CHECK_EQ(1, queue.getMessage(&msg, 0));
+    CHECK_EQ(MSG_ON_START, msg.what);
+    CHECK_EQ(0, queue.getMessage(&msg, 0));
+}
+
+static void testCoalesceTail() {
+    FFMessageQueue queue;
+    queue.sendMessage(MSG_BUFFERING_START);
+    for (int percent = 0; percent <= 100; percent += 10) {
+        queue.sendMessageCoalesced(MSG_BUFFERING_UPDATE, percent, 0);
+    }
+    CHECK_EQ(2, queue.getMessageCount());
+    FFMessage msg;
+    queue.getMessage(&msg, 0);
+    CHECK_EQ(MSG_BUFFERING_START, msg.what);
+    queue.getMessage(&msg, 0);
+    CHECK_EQ(MSG_BUFFERING_UPDATE, msg.what);
+    CHECK_EQ(100, msg.arg1);
+}
+
+/**
+ * The UPDATE of a new buffering cycle must not rewrite the UPDATE(100) before the END of the last one.
+ */
+static void testNoCoalesceAcrossOtherMessage() {
+    FFMessageQueue queue;
+    queue.sendMessage(MSG_BUFFERING_START);
+    queue.sendMessageCoalesced(MSG_BUFFERING_UPDATE, 100, 0);
+    queue.sendMessage(MSG_BUFFERING_END);
+    queue.sendMessage(MSG_BUFFERING_START);
+    queue.sendMessageCoalesced(MSG_BUFFERING_UPDATE, 10, 0);
+    queue.sendMessageCoalesced(MSG_BUFFERING_UPDATE, 20, 0);
+    CHECK_EQ(5, queue.getMessageCount());
+    const int expected[][2] = {
+            {MSG_BUFFERING_START,  0},
+            {MSG_BUFFERING_UPDATE, 100},
+            {MSG_BUFFERING_END,    0},
+            {MSG_BUFFERING_START,  0},
+            {MSG_BUFFERING_UPDATE, 20},
+    };
+    FFMessage msg;
+    for (auto &item : expected) {
+        CHECK_EQ(1, queue.getMessage(&msg, 0));
+        CHECK_EQ(item[0], msg.what);
+        CHECK_EQ(item[1], msg.arg1);
+    }
+}
+
+static void testPayloadNotCoalesced() {
+    FFMessageQueue queue;
+    char text[] = "subtitle";
+    queue.sendMessage(MSG_TIMED_TEXT, 0, 0, text, sizeof(text));
+    queue.sendMessageCoalesced(MSG_TIMED_TEXT, 1, 0);
+    CHECK_EQ(2, queue.getMessageCount());
+    FFMessage msg;
+    queue.getMessage(&msg, 0);
+    CHECK_EQ(0, msg.arg1);
+    CHECK(msg.obj != nullptr);
+    message_free_ptr(&msg);
+    queue.getMessage(&msg, 0);
+    CHECK_EQ(1, msg.arg1);
+}
+
+static void testRemoveMessage() {
+    FFMessageQueue queue;
+    queue.sendMessage(MSG_REQUEST_SEEK, 1);
+    queue.sendMessage(MSG_ON_START);
+    queue.sendMessage(MSG_REQUEST_SEEK, 2);
+    queue.removeMessage(MSG_REQUEST_SEEK);
+    CHECK_EQ(1, queue.getMessageCount());
+    // the tail is updated after removing the last node
+    queue.sendMessage(MSG_ON_COMPLETE);
+    FFMessage msg;
+    queue.getMessage(&msg, 0);
+    CHECK_EQ(MSG_ON_START, msg.what);
+    queue.getMessage(&msg, 0);
+    CHECK_EQ(MSG_ON_COMPLETE, msg.what);
+    CHECK_EQ(0, queue.getMessage(&msg, 0));
+}
+
+static void testRecycle() {
+    FFMessageQueue queue;
+    FFMessage msg;
+    for (int round = 0; round < 1000; ++round) {
+        for (int i = 0; i < 8; ++i) {
+            queue.sendMessage(MSG_BUFFERING_TIME_UPDATE, i);
+        }
+        while (queue.getMessage(&msg, 0) > 0) {
+        }
+    }
+    CHECK_EQ(8, queue.getAllocCount());
+}
+
+/**
+ * A producer runs buffering cycles as fast as it can while the consumer reads.
+ * The consumer must see START, UPDATE..., UPDATE(100), END for every cycle.
+ */
+static void testStressBufferingCycles() {
+    const int cycles = 20000;
+    FFMessageQueue queue;
+    std::thread producer([&queue]() {
+        for (int cycle = 0; cycle < cycles; ++cycle) {
+            queue.sendMessage(MSG_BUFFERING_START, cycle);
+            for (int percent = 0; percent <= 100; percent += 5) {
+                queue.sendMessageCoalesced(MSG_BUFFERING_UPDATE, percent, cycle);
+            }
+            queue.sendMessage(MSG_BUFFERING_END, cycle);
+            // let a few cycles pile up in the queue
+            if (cycle % 4 == 3) {
+                std::this_thread::yield();
+            }
+        }
+        queue.sendMessage(MSG_ON_COMPLETE);
+    });
+    FFMessage msg;
+    int cycle = -1;
+    int lastPercent = -1;
+    int ends = 0;
+    int updates = 0;
+    bool ordered = true;
+    while (queue.getMessage(&msg) > 0 && msg.what != MSG_ON_COMPLETE) {
+        switch (msg.what) {
+            case MSG_BUFFERING_START:
+                ordered &= msg.arg1 == cycle + 1 && (cycle < 0 || lastPercent == 100);
+                cycle = msg.arg1;
+                lastPercent = -1;
+                break;
+            case MSG_BUFFERING_UPDATE:
+                ordered &= msg.arg2 == cycle && msg.arg1 > lastPercent;
+                lastPercent = msg.arg1;
+                updates++;
+                break;
+            case MSG_BUFFERING_END:
+                ordered &= msg.arg1 == cycle && lastPercent == 100;
+                ends++;
+                break;
+            default:
+                ordered = false;
+                break;
+        }
+    }
+    producer.join();
+    CHECK(ordered);
+    CHECK_EQ(cycles, ends);
+    printf("  cycles=%d updates=%d (%.1f per cycle) nodes=%d\n",
+           cycles, updates, updates * 1.0 / cycles, queue.getAllocCount());
+}
+
+int main() {
+    RUN_TEST(testOrder);
+    RUN_TEST(testCoalesceTail);
+    RUN_TEST(testNoCoalesceAcrossOtherMessage);
+    RUN_TEST(testPayloadNotCoalesced);
+    RUN_TEST(testRemoveMessage);
+    RUN_TEST(testRecycle);
+    RUN_TEST(testStressBufferingCycles);
+    return TEST_RESULT();
+}
@@ -0,0 +1,118 @@
+//
+// Host test of the keyframe index used by seeking: lookups at the edges, and importing the demuxer index.
+//
+
+#include "HostTest.h"
+#include "player/KeyFrameIndex.h"
+#include "FakeFormat.h"
+
+// keyframes at 2s, 4s and 6s
+static void fillIndex(KeyFrameIndex *index) {
+    index->add(6 * AV_TIME_BASE);
+    index->add(2 * AV_TIME_BASE);
+    index->add(4 * AV_TIME_BASE);
+}
+
+static void testEmpty() {
+    KeyFrameIndex index;
+    int64_t keyFrame = -1;
+    CHECK_EQ(0, index.size());
+    CHECK(!index.previous(AV_TIME_BASE, &keyFrame));
+    CHECK(!index.next(AV_TIME_BASE, &keyFrame));
+    CHECK(!index.closest(AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(-1, keyFrame);
+}
+
+static void testBeforeFirstKeyFrame() {
+    KeyFrameIndex index;
+    fillIndex(&index);
+    int64_t keyFrame = -1;
+    CHECK(!index.previous(AV_TIME_BASE, &keyFrame));
+    CHECK(!index.previous(2 * AV_TIME_BASE - 1, &keyFrame));
+    CHECK(index.next(AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(2 * AV_TIME_BASE, keyFrame);
+    // nothing before, so the closest is the first one
+    keyFrame = -1;
+    CHECK(index.closest(0, &keyFrame));
+    CHECK_EQ(2 * AV_TIME_BASE, keyFrame);
+}
+
+static void testAfterLastKeyFrame() {
+    KeyFrameIndex index;
+    fillIndex(&index);
+    int64_t keyFrame = -1;
+    CHECK(index.previous(10 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(6 * AV_TIME_BASE, keyFrame);
+    CHECK(!index.next(6 * AV_TIME_BASE + 1, &keyFrame));
+    keyFrame = -1;
+    CHECK(index.closest(10 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(6 * AV_TIME_BASE, keyFrame);
+}
+
+static void testLookup() {
+    KeyFrameIndex index;
+    fillIndex(&index);
+    int64_t keyFrame = -1;
+    CHECK_EQ(3, index.size());
+    // a keyframe at the time is both the previous and the next one
+    CHECK(index.previous(4 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(4 * AV_TIME_BASE, keyFrame);
+    CHECK(index.next(4 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(4 * AV_TIME_BASE, keyFrame);
+    CHECK(index.previous(5 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(4 * AV_TIME_BASE, keyFrame);
+    CHECK(index.next(5 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(6 * AV_TIME_BASE, keyFrame);
+    CHECK(index.closest(5 * AV_TIME_BASE + 1, &keyFrame));
+    CHECK_EQ(6 * AV_TIME_BASE, keyFrame);
+    // half way goes back
+    CHECK(index.closest(5 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(4 * AV_TIME_BASE, keyFrame);
+    // duplicates aren't added
+    index.add(4 * AV_TIME_BASE);
+    CHECK_EQ(3, index.size());
+}
+
+static void testLoad() {
+    AVStream stream{};
+    stream.time_base  = (AVRational) {1, 1000};
+    stream.start_time = 500;
+    FakeFormat::addIndexEntry(&stream, 500, AVINDEX_KEYFRAME);
+    FakeFormat::addIndexEntry(&stream, 1500, 0);
+    FakeFormat::addIndexEntry(&stream, 2500, AVINDEX_KEYFRAME);
+
+    KeyFrameIndex index;
+    index.load(&stream);
+    int64_t keyFrame = -1;
+    // only keyframes, relative to the start time
+    CHECK_EQ(2, index.size());
+    CHECK(index.previous(AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(0, keyFrame);
+    CHECK(index.next(1, &keyFrame));
+    CHECK_EQ(2 * AV_TIME_BASE, keyFrame);
+
+    // entries the demuxer added later are imported once
+    FakeFormat::addIndexEntry(&stream, 4500, AVINDEX_KEYFRAME);
+    index.load(&stream);
+    index.load(&stream);
+    CHECK_EQ(3, index.size());
+    CHECK(index.previous(10 * AV_TIME_BASE, &keyFrame));
+    CHECK_EQ(4 * AV_TIME_BASE, keyFrame);
+
+    // another stream starts over
+    AVStream other{};
+    other.time_base  = (AVRational) {1, 1000};
+    other.start_time = AV_NOPTS_VALUE;
+    index.load(&other);
+    CHECK_EQ(0, index.size());
+    FakeFormat::clearIndex(&stream);
+}
+
+int main() {
+    RUN_TEST(testEmpty);
+    RUN_TEST(testBeforeFirstKeyFrame);
+    RUN_TEST(testAfterLastKeyFrame);
+    RUN_TEST(testLookup);
+    RUN_TEST(testLoad);
+    return TEST_RESULT();
+}
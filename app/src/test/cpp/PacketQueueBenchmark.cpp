@@ -0,0 +1,94 @@
+//
+// Host benchmark of the player packet queue: push/pop throughput and allocations per packet.
+// usage: PacketQueueBenchmark [packets]
+//
+
+#include "queue/PacketQueue.h"
+#include "FFmpegStub.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <thread>
+
+typedef std::chrono::steady_clock Clock;
+
+static uint8_t packetData[1024];
+
+static double elapsedNs(Clock::time_point begin) {
+    return std::chrono::duration<double, std::nano>(Clock::now() - begin).count();
+}
+
+static void makePacket(AVPacket *pkt, int i) {
+    pkt->data     = packetData;
+    pkt->size     = sizeof(packetData);
+    pkt->pts      = i;
+    pkt->dts      = i;
+    pkt->duration = 1;
+}
+
+static void report(const char *name, int packets, double ns, long allocs) {
+    printf("%-24s %8.1f ns/pkt %6.2f Mpkt/s allocs/pkt=%.4f\n", name, ns / packets,
+           packets * 1e3 / ns, (double) allocs / packets);
+}
+
+/**
+ * The read thread pushes and a decoder thread pops, waiting on the queue when it's empty.
+ * Like hasEnoughPackets, the read thread holds off while the queue is deep enough.
+ */
+static void benchThreaded(int packets) {
+    PacketQueue queue;
+    queue.start();
+    long allocs = FFmpegStub::getAllocCount();
+    auto begin = Clock::now();
+    std::thread producer([&]() {
+        AVPacket pkt{};
+        for (int i = 0; i < packets; ++i) {
+            while (queue.getPacketSize() >= 256) {
+                std::this_thread::yield();
+            }
+            makePacket(&pkt, i);
+            queue.pushPacket(&pkt);
+        }
+    });
+    AVPacket pkt{};
+    int received = 0;
+    while (received < packets && queue.getPacket(&pkt, 1) > 0) {
+        received++;
+    }
+    producer.join();
+    report("push/pop, 2 threads", packets, elapsedNs(begin), FFmpegStub::getAllocCount() - allocs);
+}
+
+/**
+ * Fill up to a buffering level and drain it in one thread, the cost without contention.
+ */
+static void benchFillDrain(int packets, int depth) {
+    PacketQueue queue;
+    queue.start();
+    AVPacket pkt{};
+    long allocs = FFmpegStub::getAllocCount();
+    auto begin = Clock::now();
+    for (int i = 0; i < packets; i += depth) {
+        for (int j = 0; j < depth; ++j) {
+            makePacket(&pkt, i + j);
+            queue.pushPacket(&pkt);
+        }
+        for (int j = 0; j < depth; ++j) {
+            queue.getPacket(&pkt, 0);
+        }
+    }
+    char name[32];
+    snprintf(name, sizeof(name), "fill/drain %d", depth);
+    report(name, packets, elapsedNs(begin), FFmpegStub::getAllocCount() - allocs);
+}
+
+int main(int argc, char **argv) {
+    int packets = argc > 1 ? atoi(argv[1]) : 2000000;
+    printf("packets=%d cores=%u\n", packets, std::thread::hardware_concurrency());
+    benchThreaded(packets);
+    benchFillDrain(packets, 60);
+    // deeper than the initial ring, it grows once and then recycles
+    benchFillDrain(packets, 1000);
+    return 0;
+}
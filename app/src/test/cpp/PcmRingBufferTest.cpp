@@ -0,0 +1,177 @@
+//
+// Host test of the pcm ring between the resample thread and the render callback,
+// with a producer/consumer stress run. Build it with -fsanitize=thread as well.
+// usage: PcmRingBufferTest [megabytes of stress]
+//
+
+#include "HostTest.h"
+#include "queue/PcmRingBuffer.h"
+
+#include <atomic>
+#include <cstdlib>
+#include <thread>
+#include <vector>
+
+static int stressBytes = 64 * 1024 * 1024;
+
+// content of the stream at a position, so that a byte read from a wrong position shows up
+static uint8_t byteAt(uint32_t pos) {
+    return (uint8_t) ((pos * 2654435761u) >> 24);
+}
+
+static void fill(std::vector<uint8_t> &data, uint32_t from) {
+    for (size_t i = 0; i < data.size(); ++i) {
+        data[i] = byteAt(from + (uint32_t) i);
+    }
+}
+
+static bool matches(const uint8_t *data, int len, uint32_t from) {
+    for (int i = 0; i < len; ++i) {
+        if (data[i] != byteAt(from + i)) {
+            return false;
+        }
+    }
+    return true;
+}
+
+static void testCapacity() {
+    CHECK_EQ(1024, PcmRingBuffer(1000).capacity());
+    CHECK_EQ(1024, PcmRingBuffer(1024).capacity());
+    CHECK_EQ(2048, PcmRingBuffer(1025).capacity());
+    PcmRingBuffer ring(16);
+    CHECK_EQ(0, ring.available());
+    CHECK_EQ(16, ring.space());
+}
+
+static void testFullAndEmpty() {
+    PcmRingBuffer ring(16);
+    std::vector<uint8_t> data(20);
+    fill(data, 0);
+    // only what fits is written
+    CHECK_EQ(16, ring.write(data.data(), 20));
+    CHECK_EQ(0, ring.space());
+    CHECK_EQ(0, ring.write(data.data(), 1));
+    uint8_t out[20];
+    CHECK_EQ(16, ring.read(out, 20));
+    CHECK(matches(out, 16, 0));
+    CHECK_EQ(0, ring.read(out, 1));
+    CHECK_EQ(16u, ring.readPosition());
+    CHECK_EQ(16u, ring.writePosition());
+}
+
+static void testWrapAround() {
+    PcmRingBuffer ring(16);
+    std::vector<uint8_t> data(10);
+    uint8_t out[10];
+    uint32_t pos = 0;
+    // 10 bytes at a time cross the end of 16 bytes at different offsets
+    for (int i = 0; i < 20; ++i) {
+        fill(data, pos);
+        CHECK_EQ(10, ring.write(data.data(), 10));
+        CHECK_EQ(10, ring.read(out, 10));
+        CHECK(matches(out, 10, pos));
+        pos += 10;
+    }
+    CHECK_EQ(pos, ring.readPosition());
+}
+
+static void testDiscard() {
+    PcmRingBuffer ring(64);
+    std::vector<uint8_t> data(24);
+    fill(data, 0);
+    ring.write(data.data(), 24);
+    uint8_t out[64];
+    CHECK_EQ(8, ring.read(out, 8));
+    // seek: what's written before is dropped, what comes after is kept
+    ring.discard();
+    fill(data, 24);
+    ring.write(data.data(), 16);
+    CHECK_EQ(16, ring.read(out, 64));
+    CHECK(matches(out, 16, 24));
+    // nothing left to skip
+    ring.skipDiscarded();
+    CHECK_EQ(40u, ring.readPosition());
+
+    // skipping without reading, as the callback does when paused
+    fill(data, 40);
+    ring.write(data.data(), 24);
+    ring.discard();
+    ring.skipDiscarded();
+    CHECK_EQ(0, ring.available());
+    CHECK_EQ(64u, ring.readPosition());
+}
+
+/**
+ * The resample thread writes chunks of frames and discards now and then like seeking,
+ * the render callback reads chunks of its own size. Every byte read must be the byte
+ * written at its position, and the positions only move forward.
+ */
+static void testStress() {
+    PcmRingBuffer ring(4096);
+    std::atomic<bool> done(false);
+    std::atomic<int> discards(0);
+    std::thread producer([&]() {
+        std::vector<uint8_t> data(1500);
+        unsigned seed = 1;
+        uint32_t written = 0;
+        while (written < (uint32_t) stressBytes) {
+            int len = 1 + (int) (rand_r(&seed) % data.size());
+            uint32_t pos = ring.writePosition();
+            fill(data, pos);
+            int n = ring.write(data.data(), len);
+            written += n;
+            if (n == 0) {
+                std::this_thread::yield();
+            }
+            if (rand_r(&seed) % 1000 == 0) {
+                ring.discard();
+                discards++;
+            }
+        }
+        done = true;
+    });
+
+    std::vector<uint8_t> out(1024);
+    unsigned seed = 2;
+    uint32_t lastPos = 0;
+    long long readBytes = 0;
+    int mismatches = 0;
+    int backwards = 0;
+    for (;;) {
+        bool finished = done;
+        int len = ring.read(out.data(), 1 + (int) (rand_r(&seed) % out.size()));
+        uint32_t pos = ring.readPosition();
+        if (len > 0 && !matches(out.data(), len, pos - len)) {
+            mismatches++;
+        }
+        if ((int32_t) (pos - lastPos) < 0) {
+            backwards++;
+        }
+        lastPos = pos;
+        readBytes += len;
+        if (len == 0) {
+            if (finished) {
+                break;
+            }
+            std::this_thread::yield();
+        }
+    }
+    producer.join();
+    printf("  read=%lld bytes discards=%d\n", readBytes, discards.load());
+    CHECK_EQ(0, mismatches);
+    CHECK_EQ(0, backwards);
+    CHECK_EQ(ring.writePosition(), ring.readPosition());
+    CHECK(discards > 0);
+}
+
+int main(int argc, char **argv) {
+    if (argc > 1) {
+        stressBytes = atoi(argv[1]) * 1024 * 1024;
+    }
+    RUN_TEST(testCapacity);
+    RUN_TEST(testFullAndEmpty);
+    RUN_TEST(testWrapAround);
+    RUN_TEST(testDiscard);
+    RUN_TEST(testStress);
+    return TEST_RESULT();
+}
@@ -0,0 +1,165 @@
+//
+// Host benchmark of seeking: the keyframe lookup of KeyFrameIndex, and the time from
+// flushing the decoder to the first frame of the new position for each seek mode.
+// The codec is FakeCodec, which costs a fixed time per frame.
+// usage: SeekBenchmark [frame cost in us]
+//
+
+#include "decoder/VideoDecoder.h"
+#include "player/KeyFrameIndex.h"
+#include "FakeCodec.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <thread>
+
+typedef std::chrono::steady_clock Clock;
+
+#define FRAME_RATE 30
+#define GOP_SIZE   60
+
+static uint8_t packetData[4096];
+// keeps the lookups from being optimized away
+static volatile int64_t lookupSink;
+
+static double elapsedMs(Clock::time_point begin) {
+    return std::chrono::duration<double, std::milli>(Clock::now() - begin).count();
+}
+
+static int64_t frameTime(int64_t frame) {
+    return frame * AV_TIME_BASE / FRAME_RATE;
+}
+
+/**
+ * Keyframes of a stream, as the read thread adds them while demuxing.
+ */
+static void fillIndex(KeyFrameIndex *index, int64_t frames) {
+    for (int64_t i = 0; i < frames; i += GOP_SIZE) {
+        index->add(frameTime(i));
+    }
+}
+
+static void benchLookup(int64_t frames, int lookups) {
+    KeyFrameIndex index;
+    auto begin = Clock::now();
+    fillIndex(&index, frames);
+    double addMs = elapsedMs(begin);
+
+    int64_t keyFrame;
+    int64_t sum = 0;
+    int64_t duration = frameTime(frames);
+    begin = Clock::now();
+    for (int i = 0; i < lookups; ++i) {
+        int64_t time = duration / lookups * i;
+        if (index.previous(time, &keyFrame)) {
+            sum += keyFrame;
+        }
+        if (index.closest(time, &keyFrame)) {
+            sum += keyFrame;
+        }
+    }
+    double lookupNs = elapsedMs(begin) * 1e6 / lookups;
+    lookupSink = sum;
+    printf("index %7d keyframes: add %6.2f ms, previous+closest %6.1f ns\n",
+           index.size(), addMs, lookupNs);
+}
+
+static void pushPackets(VideoDecoder *decoder, int64_t from, int count) {
+    AVPacket pkt{};
+    for (int64_t i = from; i < from + count; ++i) {
+        pkt.data     = packetData;
+        pkt.size     = sizeof(packetData);
+        pkt.pts      = i;
+        pkt.dts      = i;
+        pkt.duration = 1;
+        pkt.flags    = i % GOP_SIZE == 0 ? AV_PKT_FLAG_KEY : 0;
+        decoder->pushPacket(&pkt);
+    }
+}
+
+/**
+ * Seek while the decoder is busy with a backlog of packets, the way the read thread does:
+ * flush the decoder, then queue the packets from the keyframe of the target.
+ */
+static void benchSeek(const char *name, SeekMode mode, int threadType, int threadCount, int frameCostUs) {
+    KeyFrameIndex index;
+    fillIndex(&index, 10 * 60 * FRAME_RATE);
+
+    PlayerParam playerParam;
+    AVStream stream{};
+    stream.time_base      = (AVRational) {1, FRAME_RATE};
+    stream.avg_frame_rate = (AVRational) {FRAME_RATE, 1};
+    playerParam.m_abortReq      = 0;
+    playerParam.m_formatCtx     = nullptr;
+    playerParam.m_videoStream   = &stream;
+    playerParam.m_videoCodecCtx = FakeCodec::openVideo(threadType, threadCount, frameCostUs, 1280, 720);
+    int threads = FakeCodec::getThreadCount(playerParam.m_videoCodecCtx);
+
+    auto *decoder = new VideoDecoder(&playerParam);
+    FrameQueue *frameQueue = decoder->getFrameQueue();
+    pushPackets(decoder, 0, 4 * GOP_SIZE);
+    decoder->start();
+    // play a few frames, so that the seek lands on a busy decoder
+    for (int shown = 0; shown < 10;) {
+        if (frameQueue->getFrameSize() > 0) {
+            frameQueue->popFrame();
+            shown++;
+        } else {
+            std::this_thread::sleep_for(std::chrono::microseconds(50));
+        }
+    }
+
+    // 20.5s, between the keyframes at 20s and 22s
+    int64_t target = frameTime(20 * FRAME_RATE + FRAME_RATE / 2);
+    int64_t keyFrame = target;
+    auto begin = Clock::now();
+    if (mode == SEEK_CLOSEST_SYNC) {
+        index.closest(target, &keyFrame);
+    } else {
+        index.previous(target, &keyFrame);
+    }
+    playerParam.m_exactSeekPos = mode == SEEK_EXACT ? target : AV_NOPTS_VALUE;
+    int backlog = decoder->getPacketSize();
+    decoder->flush();
+    int serial = decoder->getPacketSerial();
+    int64_t startFrame = keyFrame * FRAME_RATE / AV_TIME_BASE;
+    pushPackets(decoder, startFrame, 2 * GOP_SIZE);
+
+    double latencyMs = -1;
+    double firstPts = NAN;
+    while (elapsedMs(begin) < 5000) {
+        if (frameQueue->getFrameSize() <= 0) {
+            std::this_thread::sleep_for(std::chrono::microseconds(50));
+            continue;
+        }
+        Frame *vp = frameQueue->currentFrame();
+        if (vp->serial == serial) {
+            latencyMs = elapsedMs(begin);
+            firstPts  = vp->pts;
+            break;
+        }
+        // frames decoded before the seek, the render drops them by serial
+        frameQueue->popFrame();
+    }
+    decoder->stop();
+    delete decoder;
+
+    printf("%-16s threads=%d backlog=%3d seek to %.3fs shows %.3fs after %6.1f ms\n", name, threads,
+           backlog, (double) target / AV_TIME_BASE, firstPts, latencyMs);
+}
+
+int main(int argc, char **argv) {
+    int frameCostUs = argc > 1 ? atoi(argv[1]) : 4000;
+    printf("frame cost=%d us gop=%d cores=%u\n", frameCostUs, GOP_SIZE,
+           std::thread::hardware_concurrency());
+    // 10 minutes and 10 hours of keyframes
+    benchLookup(10 * 60 * FRAME_RATE, 100000);
+    benchLookup(10 * 60 * 60 * FRAME_RATE, 100000);
+    benchSeek("previous sync", SEEK_PREVIOUS_SYNC, 0, 1, frameCostUs);
+    benchSeek("closest sync", SEEK_CLOSEST_SYNC, 0, 1, frameCostUs);
+    benchSeek("exact", SEEK_EXACT, 0, 1, frameCostUs);
+    benchSeek("previous sync", SEEK_PREVIOUS_SYNC, FF_THREAD_FRAME, 4, frameCostUs);
+    benchSeek("exact", SEEK_EXACT, FF_THREAD_FRAME, 4, frameCostUs);
+    return 0;
+}
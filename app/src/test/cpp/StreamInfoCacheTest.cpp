@@ -0,0 +1,245 @@
+//
+// Host test of the per-url stream info cache: insert, lookup, eviction, invalidation and persistence.
+//
+
+#include "HostTest.h"
+#include "cache/StreamInfoCache.h"
+
+#include <cstdio>
+#include <string>
+#include <unistd.h>
+
+static MediaStreamInfo makeInfo(int width, int64_t durationUs) {
+    MediaStreamInfo info;
+    info.formatName  = "mov,mp4,m4a,3gp,3g2,mj2";
+    info.durationUs  = durationUs;
+    info.startTimeUs = 0;
+    StreamInfo video = {};
+    video.codecType    = 0;
+    video.codecId      = 27;
+    video.format       = 0;
+    video.width        = width;
+    video.height       = width * 9 / 16;
+    video.bitRate      = 2000000;
+    video.frameRateNum = 30;
+    video.frameRateDen = 1;
+    video.extradata    = {0x01, 0x64, 0x00, 0x1F, 0xFF};
+    StreamInfo audio = {};
+    audio.codecType  = 1;
+    audio.codecId    = 86018;
+    audio.format     = 8;
+    audio.sampleRate = 44100;
+    audio.channels   = 2;
+    audio.bitRate    = 128000;
+    audio.extradata  = {0x12, 0x10};
+    info.streams.push_back(video);
+    info.streams.push_back(audio);
+    return info;
+}
+
+static bool sameInfo(const MediaStreamInfo &a, const MediaStreamInfo &b) {
+    if (a.formatName != b.formatName || a.durationUs != b.durationUs
+        || a.startTimeUs != b.startTimeUs || a.streams.size() != b.streams.size()) {
+        return false;
+    }
+    for (size_t i = 0; i < a.streams.size(); ++i) {
+        const StreamInfo &x = a.streams[i];
+        const StreamInfo &y = b.streams[i];
+        if (x.codecType != y.codecType || x.codecId != y.codecId || x.format != y.format
+            || x.width != y.width || x.height != y.height || x.sampleRate != y.sampleRate
+            || x.channels != y.channels || x.bitRate != y.bitRate
+            || x.frameRateNum != y.frameRateNum || x.frameRateDen != y.frameRateDen
+            || x.extradata != y.extradata) {
+            return false;
+        }
+    }
+    return true;
+}
+
+static std::string tempPath(const char *name) {
+    return std::string("/tmp/") + name + "_" + std::to_string(getpid()) + ".bin";
+}
+
+static void testInsertLookup() {
+    StreamInfoCache cache(4);
+    MediaStreamInfo info;
+    CHECK(!cache.get("http://a/1.mp4", &info));
+    cache.put("http://a/1.mp4", makeInfo(1280, 60000000));
+    CHECK_EQ(1, cache.size());
+    CHECK(cache.get("http://a/1.mp4", &info));
+    CHECK(sameInfo(makeInfo(1280, 60000000), info));
+    // lookup without output only refreshes the entry
+    CHECK(cache.get("http://a/1.mp4", nullptr));
+    CHECK(!cache.get("http://a/2.mp4", &info));
+}
+
+static void testReplace() {
+    StreamInfoCache cache(4);
+    cache.put("http://a/1.mp4", makeInfo(1280, 60000000));
+    cache.put("http://a/1.mp4", makeInfo(1920, 90000000));
+    CHECK_EQ(1, cache.size());
+    MediaStreamInfo info;
+    CHECK(cache.get("http://a/1.mp4", &info));
+    CHECK_EQ(1920, info.streams[0].width);
+    CHECK_EQ(90000000, info.durationUs);
+}
+
+static void testEvictLeastRecent() {
+    StreamInfoCache cache(3);
+    cache.put("u1", makeInfo(1, 1));
+    cache.put("u2", makeInfo(2, 2));
+    cache.put("u3", makeInfo(3, 3));
+    // u1 becomes the most recent, so u2 is evicted next
+    CHECK(cache.get("u1", nullptr));
+    cache.put("u4", makeInfo(4, 4));
+    CHECK_EQ(3, cache.size());
+    CHECK(!cache.get("u2", nullptr));
+    CHECK(cache.get("u1", nullptr));
+    CHECK(cache.get("u3", nullptr));
+    CHECK(cache.get("u4", nullptr));
+    // replacing doesn't evict
+    cache.put("u3", makeInfo(33, 33));
+    CHECK_EQ(3, cache.size());
+    CHECK(cache.get("u1", nullptr));
+}
+
+static void testCapacityAtLeastOne() {
+    StreamInfoCache cache(0);
+    CHECK_EQ(1, cache.capacity());
+    cache.put("u1", makeInfo(1, 1));
+    cache.put("u2", makeInfo(2, 2));
+    CHECK_EQ(1, cache.size());
+    CHECK(cache.get("u2", nullptr));
+}
+
+/**
+ * The player removes the entry when opening with the cached info fails.
+ */
+static void testInvalidate() {
+    StreamInfoCache cache(4);
+    cache.put("u1", makeInfo(1, 1));
+    cache.put("u2", makeInfo(2, 2));
+    cache.remove("u1");
+    CHECK_EQ(1, cache.size());
+    CHECK(!cache.get("u1", nullptr));
+    CHECK(cache.get("u2", nullptr));
+    // removing an unknown url is harmless
+    cache.remove("u9");
+    CHECK_EQ(1, cache.size());
+    cache.clear();
+    CHECK_EQ(0, cache.size());
+    CHECK(!cache.get("u2", nullptr));
+}
+
+static void testSerializeRoundTrip() {
+    StreamInfoCache cache(4);
+    cache.put("u1", makeInfo(640, 1000));
+    cache.put("u2", makeInfo(1280, 2000));
+    cache.put("u3", makeInfo(1920, 3000));
+    CHECK(cache.get("u1", nullptr));
+    std::string data = cache.serialize();
+
+    StreamInfoCache loaded(4);
+    CHECK(loaded.deserialize(data));
+    CHECK_EQ(3, loaded.size());
+    // the recency order is kept
+    CHECK(data == loaded.serialize());
+    MediaStreamInfo info;
+    CHECK(loaded.get("u2", &info));
+    CHECK(sameInfo(makeInfo(1280, 2000), info));
+}
+
+static void testDeserializeKeepsMostRecent() {
+    StreamInfoCache cache(4);
+    cache.put("u1", makeInfo(1, 1));
+    cache.put("u2", makeInfo(2, 2));
+    cache.put("u3", makeInfo(3, 3));
+    StreamInfoCache smaller(2);
+    CHECK(smaller.deserialize(cache.serialize()));
+    CHECK_EQ(2, smaller.size());
+    CHECK(!smaller.get("u1", nullptr));
+    CHECK(smaller.get("u2", nullptr));
+    CHECK(smaller.get("u3", nullptr));
+}
+
+static void testCorruptedData() {
+    StreamInfoCache cache(4);
+    cache.put("u1", makeInfo(1, 1));
+    cache.put("u2", makeInfo(2, 2));
+    std::string data = cache.serialize();
+
+    StreamInfoCache loaded(4);
+    loaded.put("old", makeInfo(9, 9));
+    // every truncation is rejected, and leaves the cache empty
+    int accepted = 0;
+    for (size_t len = 0; len < data.size(); ++len) {
+        if (loaded.deserialize(data.substr(0, len))) {
+            accepted++;
+        }
+        CHECK_EQ(0, loaded.size());
+    }
+    CHECK_EQ(0, accepted);
+    CHECK(!loaded.deserialize(data + "x"));
+    std::string badMagic = data;
+    badMagic[0] ^= 0x01;
+    CHECK(!loaded.deserialize(badMagic));
+    // a huge url length must not allocate
+    std::string hugeUrl = data;
+    hugeUrl[8] = (char) 0xFF;
+    hugeUrl[9] = (char) 0xFF;
+    hugeUrl[10] = (char) 0xFF;
+    hugeUrl[11] = (char) 0x7F;
+    CHECK(!loaded.deserialize(hugeUrl));
+    CHECK(loaded.deserialize(data));
+    CHECK_EQ(2, loaded.size());
+}
+
+static void testSaveLoad() {
+    std::string path = tempPath("stream_info_cache");
+    StreamInfoCache cache(4);
+    cache.put("u1", makeInfo(1280, 60000000));
+    cache.put("u2", makeInfo(1920, 90000000));
+    CHECK(cache.save(path));
+    CHECK(access((path + ".tmp").c_str(), F_OK) != 0);
+
+    StreamInfoCache loaded(4);
+    CHECK(loaded.load(path));
+    CHECK_EQ(2, loaded.size());
+    MediaStreamInfo info;
+    CHECK(loaded.get("u1", &info));
+    CHECK(sameInfo(makeInfo(1280, 60000000), info));
+
+    // invalidation is persisted by saving again
+    loaded.remove("u1");
+    CHECK(loaded.save(path));
+    StreamInfoCache reloaded(4);
+    CHECK(reloaded.load(path));
+    CHECK_EQ(1, reloaded.size());
+    CHECK(!reloaded.get("u1", nullptr));
+
+    // serialized under the lock, written after it
+    std::string data = cache.serialize();
+    CHECK(StreamInfoCache::save(path, data));
+    CHECK(reloaded.load(path));
+    CHECK_EQ(2, reloaded.size());
+    CHECK(reloaded.get("u1", &info));
+    CHECK(sameInfo(makeInfo(1280, 60000000), info));
+
+    remove(path.c_str());
+    CHECK(!reloaded.load(path));
+    CHECK_EQ(0, reloaded.size());
+    CHECK(!cache.save("/nonexistent-dir/stream_info_cache.bin"));
+}
+
+int main() {
+    RUN_TEST(testInsertLookup);
+    RUN_TEST(testReplace);
+    RUN_TEST(testEvictLeastRecent);
+    RUN_TEST(testCapacityAtLeastOne);
+    RUN_TEST(testInvalidate);
+    RUN_TEST(testSerializeRoundTrip);
+    RUN_TEST(testDeserializeKeepsMostRecent);
+    RUN_TEST(testCorruptedData);
+    RUN_TEST(testSaveLoad);
+    return TEST_RESULT();
+}
@@ -0,0 +1,120 @@
+//
+// Host stand-in for the libavutil functions used by the kernel, so the tests
+// link without the prebuilt ffmpeg of the device.
+//
+
+#include "FFmpegStub.h"
+
+#include <atomic>
+#include <cctype>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <strings.h>
+
+extern "C" {
+#include <libavutil/avstring.h>
+#include <libavutil/dict.h>
+#include <libavutil/error.h>
+#include <libavutil/log.h>
+#include <libavutil/mathematics.h>
+#include <libavutil/md5.h>
+#include <libavutil/mem.h>
+#include <libavutil/time.h>
+}
+
+static std::atomic<long> allocCount(0);
+
+long FFmpegStub::getAllocCount() {
+    return allocCount.load();
+}
+
+void *av_malloc(size_t size) {
+    allocCount++;
+    return malloc(size > 0 ? size : 1);
+}
+
+void *av_mallocz(size_t size) {
+    void *ptr = av_malloc(size);
+    if (ptr) {
+        memset(ptr, 0, size);
+    }
+    return ptr;
+}
+
+void *av_calloc(size_t nmemb, size_t size) {
+    return av_mallocz(nmemb * size);
+}
+
+void av_free(void *ptr) {
+    free(ptr);
+}
+
+void av_freep(void *arg) {
+    void **ptr = static_cast<void **>(arg);
+    av_free(*ptr);
+    *ptr = nullptr;
+}
+
+char *av_strdup(const char *s) {
+    if (s == nullptr) {
+        return nullptr;
+    }
+    size_t len = strlen(s) + 1;
+    auto *ptr = static_cast<char *>(av_malloc(len));
+    if (ptr) {
+        memcpy(ptr, s, len);
+    }
+    return ptr;
+}
+
+char *av_stristr(const char *haystack, const char *needle) {
+    size_t len = strlen(needle);
+    for (; *haystack; ++haystack) {
+        if (strncasecmp(haystack, needle, len) == 0) {
+            return const_cast<char *>(haystack);
+        }
+    }
+    return len == 0 ? const_cast<char *>(haystack) : nullptr;
+}
+
+int av_strerror(int errnum, char *errbuf, size_t errbuf_size) {
+    snprintf(errbuf, errbuf_size, "error %d", errnum);
+    return 0;
+}
+
+void av_log(void *avcl, int level, const char *fmt, ...) {
+}
+
+int64_t av_rescale_q(int64_t a, AVRational bq, AVRational cq) {
+    __int128 b = (__int128) bq.num * cq.den;
+    __int128 c = (__int128) bq.den * cq.num;
+    __int128 r = (__int128) a * b;
+    // AV_ROUND_NEAR_INF
+    r = r >= 0 ? (r + c / 2) / c : -((-r + c / 2) / c);
+    return (int64_t) r;
+}
+
+int64_t av_gettime_relative() {
+    return std::chrono::duration_cast<std::chrono::microseconds>(
+            std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+/**
+ * Not md5, only the same width and as stable, which is all the cache keys need.
+ */
+void av_md5_sum(uint8_t *dst, const uint8_t *src, size_t len) {
+    uint64_t hash[2] = {0xcbf29ce484222325ULL, 0x84222325cbf29ce4ULL};
+    for (size_t i = 0; i < len; ++i) {
+        hash[0] = (hash[0] ^ src[i]) * 0x100000001b3ULL;
+        hash[1] = (hash[1] ^ src[len - 1 - i]) * 0x100000001b3ULL;
+    }
+    memcpy(dst, hash, 16);
+}
+
+// dictionaries of the host tests are always empty
+AVDictionaryEntry *av_dict_get(const AVDictionary *m, const char *key,
+                               const AVDictionaryEntry *prev, int flags) {
+    return nullptr;
+}
@@ -0,0 +1,17 @@
+//
+// Hooks of the libavutil stand-in for the host tests and benchmarks.
+//
+
+#ifndef LEARNINGMEDIA_FFMPEGSTUB_H
+#define LEARNINGMEDIA_FFMPEGSTUB_H
+
+namespace FFmpegStub {
+
+    /**
+     * Calls of av_malloc so far, av_mallocz, av_calloc and av_strdup included.
+     */
+    long getAllocCount();
+
+}
+
+#endif //LEARNINGMEDIA_FFMPEGSTUB_H
@@ -0,0 +1,207 @@
+//
+// Host stand-in of libavcodec for the decoder tests and benchmarks, see FakeCodec.h.
+//
+
+#include "FakeCodec.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cstdlib>
+#include <cstring>
+#include <deque>
+#include <thread>
+#include <vector>
+
+extern "C" {
+#include <libavutil/frame.h>
+}
+
+typedef std::chrono::steady_clock Clock;
+
+struct FakeFrame {
+    int64_t pts;
+    int64_t dts;
+    Clock::time_point readyAt;
+};
+
+struct FakeDecoder {
+    int threads;
+    // frame threads decode one packet each, otherwise all threads work on one packet
+    bool frameThreads;
+    Clock::duration frameCost;
+    // when each thread is done with its packet
+    std::vector<Clock::time_point> busyUntil;
+    std::deque<FakeFrame> pending;
+    bool draining;
+    int flushCount;
+};
+
+static FakeDecoder *decoderOf(const AVCodecContext *ctx) {
+    return static_cast<FakeDecoder *>(ctx->priv_data);
+}
+
+static void resetFrame(AVFrame *frame) {
+    memset(frame, 0, sizeof(*frame));
+    frame->pts                   = AV_NOPTS_VALUE;
+    frame->pkt_dts               = AV_NOPTS_VALUE;
+    frame->best_effort_timestamp = AV_NOPTS_VALUE;
+    frame->format                = -1;
+    frame->sample_aspect_ratio   = (AVRational) {0, 1};
+}
+
+static void resetPacket(AVPacket *pkt) {
+    memset(pkt, 0, sizeof(*pkt));
+    pkt->pts = AV_NOPTS_VALUE;
+    pkt->dts = AV_NOPTS_VALUE;
+    pkt->pos = -1;
+}
+
+AVCodecContext *FakeCodec::openVideo(int threadType, int threadCount, int frameCostUs,
+                                     int width, int height) {
+    auto *ctx = static_cast<AVCodecContext *>(calloc(1, sizeof(AVCodecContext)));
+    ctx->codec_type   = AVMEDIA_TYPE_VIDEO;
+    ctx->width        = width;
+    ctx->height       = height;
+    ctx->pix_fmt      = AV_PIX_FMT_YUV420P;
+    ctx->thread_type  = threadType;
+    ctx->thread_count = threadCount;
+
+    auto *decoder = new FakeDecoder();
+    decoder->threads = threadCount > 0
+                       ? threadCount
+                       : std::min((int) std::thread::hardware_concurrency() + 1, 16);
+    decoder->frameThreads = (threadType & FF_THREAD_FRAME) != 0 && decoder->threads > 1;
+    decoder->frameCost    = std::chrono::microseconds(frameCostUs);
+    if (!decoder->frameThreads && (threadType & FF_THREAD_SLICE)) {
+        decoder->frameCost /= decoder->threads;
+    }
+    decoder->busyUntil.assign(decoder->frameThreads ? decoder->threads : 1, Clock::now());
+    decoder->draining   = false;
+    decoder->flushCount = 0;
+    ctx->priv_data = decoder;
+    return ctx;
+}
+
+int FakeCodec::getThreadCount(AVCodecContext *ctx) {
+    return decoderOf(ctx)->threads;
+}
+
+int FakeCodec::getFlushCount(AVCodecContext *ctx) {
+    return decoderOf(ctx)->flushCount;
+}
+
+int avcodec_send_packet(AVCodecContext *avctx, const AVPacket *avpkt) {
+    FakeDecoder *decoder = decoderOf(avctx);
+    if (decoder->draining) {
+        return AVERROR_EOF;
+    }
+    if (!avpkt || (!avpkt->data && !avpkt->size)) {
+        decoder->draining = true;
+        return 0;
+    }
+    // every thread holds a packet, the caller has to take a frame first
+    if (decoder->pending.size() >= decoder->busyUntil.size()) {
+        return AVERROR(EAGAIN);
+    }
+    auto worker = std::min_element(decoder->busyUntil.begin(), decoder->busyUntil.end());
+    Clock::time_point start = std::max(*worker, Clock::now());
+    *worker = start + decoder->frameCost;
+    // frames come out in the order of packets, even if a later one is done first
+    Clock::time_point readyAt = *worker;
+    if (!decoder->pending.empty()) {
+        readyAt = std::max(readyAt, decoder->pending.back().readyAt);
+    }
+    decoder->pending.push_back({avpkt->pts, avpkt->dts, readyAt});
+    return 0;
+}
+
+int avcodec_receive_frame(AVCodecContext *avctx, AVFrame *frame) {
+    FakeDecoder *decoder = decoderOf(avctx);
+    av_frame_unref(frame);
+    if (decoder->pending.empty()) {
+        return decoder->draining ? AVERROR_EOF : AVERROR(EAGAIN);
+    }
+    FakeFrame &head = decoder->pending.front();
+    // like frame threads of libavcodec, a frame is only waited for once every thread is busy
+    if (!decoder->draining && decoder->pending.size() < decoder->busyUntil.size()
+        && Clock::now() < head.readyAt) {
+        return AVERROR(EAGAIN);
+    }
+    std::this_thread::sleep_until(head.readyAt);
+    frame->width                 = avctx->width;
+    frame->height                = avctx->height;
+    frame->format                = avctx->pix_fmt;
+    frame->pts                   = head.pts;
+    frame->pkt_dts               = head.dts;
+    frame->best_effort_timestamp = head.pts != AV_NOPTS_VALUE ? head.pts : head.dts;
+    frame->sample_aspect_ratio   = (AVRational) {1, 1};
+    decoder->pending.pop_front();
+    return 0;
+}
+
+void avcodec_flush_buffers(AVCodecContext *avctx) {
+    FakeDecoder *decoder = decoderOf(avctx);
+    decoder->pending.clear();
+    decoder->busyUntil.assign(decoder->busyUntil.size(), Clock::now());
+    decoder->draining = false;
+    decoder->flushCount++;
+}
+
+void avcodec_free_context(AVCodecContext **avctx) {
+    if (!*avctx) {
+        return;
+    }
+    delete decoderOf(*avctx);
+    free(*avctx);
+    *avctx = nullptr;
+}
+
+void avsubtitle_free(AVSubtitle *sub) {
+    memset(sub, 0, sizeof(*sub));
+}
+
+AVFrame *av_frame_alloc() {
+    auto *frame = static_cast<AVFrame *>(malloc(sizeof(AVFrame)));
+    if (frame) {
+        resetFrame(frame);
+    }
+    return frame;
+}
+
+void av_frame_free(AVFrame **frame) {
+    free(*frame);
+    *frame = nullptr;
+}
+
+// frames of the fake decoder own no buffer
+void av_frame_unref(AVFrame *frame) {
+    resetFrame(frame);
+}
+
+void av_frame_move_ref(AVFrame *dst, AVFrame *src) {
+    *dst = *src;
+    resetFrame(src);
+}
+
+AVPacket *av_packet_alloc() {
+    auto *pkt = static_cast<AVPacket *>(malloc(sizeof(AVPacket)));
+    if (pkt) {
+        resetPacket(pkt);
+    }
+    return pkt;
+}
+
+void av_packet_free(AVPacket **pkt) {
+    free(*pkt);
+    *pkt = nullptr;
+}
+
+// data of packets is borrowed from the test, nothing is counted by reference
+void av_packet_unref(AVPacket *pkt) {
+    resetPacket(pkt);
+}
+
+void av_packet_move_ref(AVPacket *dst, AVPacket *src) {
+    *dst = *src;
+    resetPacket(src);
+}
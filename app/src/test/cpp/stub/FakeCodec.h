@@ -0,0 +1,38 @@
+//
+// Host stand-in of a video decoder behind the send/receive api of libavcodec.
+// It doesn't decode anything, every frame costs the given time instead, and
+// the threading follows libavcodec: frame threads decode packets in parallel
+// with a delay of one frame per thread, slice threads split the cost of a frame.
+//
+
+#ifndef LEARNINGMEDIA_FAKECODEC_H
+#define LEARNINGMEDIA_FAKECODEC_H
+
+extern "C" {
+#include <libavcodec/avcodec.h>
+}
+
+namespace FakeCodec {
+
+    /**
+     * Open a video codec context, which is freed by avcodec_free_context.
+     * @param threadType  FF_THREAD_FRAME and/or FF_THREAD_SLICE, frame threads win when both
+     * @param threadCount count of threads, 0 means cores + 1 like libavcodec
+     * @param frameCostUs time to decode a frame with one thread
+     */
+    AVCodecContext *openVideo(int threadType, int threadCount, int frameCostUs,
+                              int width, int height);
+
+    /**
+     * The count of threads a context decodes with, after resolving auto.
+     */
+    int getThreadCount(AVCodecContext *ctx);
+
+    /**
+     * Times the decoder has been flushed by avcodec_flush_buffers.
+     */
+    int getFlushCount(AVCodecContext *ctx);
+
+}
+
+#endif //LEARNINGMEDIA_FAKECODEC_H
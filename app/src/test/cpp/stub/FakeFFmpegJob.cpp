@@ -0,0 +1,114 @@
+//
+// Host stand-in of fftools for the FFCommandJob tests, see FakeFFmpegJob.h.
+//
+
+#include "FakeFFmpegJob.h"
+
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <string>
+#include <thread>
+
+extern "C" {
+#include "ffmpeg/ffmpeg.h"
+}
+
+typedef std::chrono::steady_clock Clock;
+
+static std::atomic<int> frameCostUs(1000);
+static std::atomic<int> runCount(0);
+static std::atomic<int> running(0);
+static std::atomic<int> maxConcurrent(0);
+
+void FakeFFmpegJob::setFrameCostUs(int costUs) {
+    frameCostUs = costUs;
+}
+
+int FakeFFmpegJob::getRunCount() {
+    return runCount;
+}
+
+int FakeFFmpegJob::getMaxConcurrent() {
+    return maxConcurrent;
+}
+
+void FakeFFmpegJob::resetCounters() {
+    runCount      = 0;
+    maxConcurrent = 0;
+}
+
+// value of an option in a lavfi graph, such as rate in "testsrc=duration=2:rate=25"
+static double lavfiOption(const char *graph, const char *key, double def) {
+    std::string pattern = std::string(key) + "=";
+    for (const char *p = strstr(graph, pattern.c_str()); p; p = strstr(p + 1, pattern.c_str())) {
+        if (p == graph || p[-1] == '=' || p[-1] == ':') {
+            return strtod(p + pattern.size(), nullptr);
+        }
+    }
+    return def;
+}
+
+int run_ffmpeg_job(int argc, char **argv, const FFmpegJobHooks *hooks) {
+    runCount++;
+    int now = ++running;
+    int max = maxConcurrent;
+    while (now > max && !maxConcurrent.compare_exchange_weak(max, now)) {
+    }
+
+    const char *input = nullptr;
+    double statsPeriod = 0.5;
+    for (int i = 1; i + 1 < argc; ++i) {
+        if (!strcmp(argv[i], "-i")) {
+            input = argv[i + 1];
+        } else if (!strcmp(argv[i], "-stats_period")) {
+            statsPeriod = strtod(argv[i + 1], nullptr);
+        }
+    }
+    if (!input) {
+        running--;
+        return 1;
+    }
+    double rate = lavfiOption(input, "rate", 25);
+    int frames  = (int) (lavfiOption(input, "duration", 1) * rate);
+
+    int ret = 0;
+    int64_t totalSize = 0;
+    auto begin = Clock::now();
+    auto lastStats = begin;
+    char stats[512];
+    auto writeStats = [&](int frame, bool end) {
+        double elapsed = std::max(std::chrono::duration<double>(Clock::now() - begin).count(), 1e-6);
+        int64_t outTimeUs = (int64_t) (frame / rate * 1000000);
+        snprintf(stats, sizeof(stats),
+                 "frame=%d\nfps=%.1f\nstream_0_0_q=28.0\nbitrate=N/A\ntotal_size=%lld\n"
+                 "out_time_us=%lld\nout_time=N/A\ndup_frames=0\ndrop_frames=0\nspeed=%5.3gx\n"
+                 "progress=%s\n",
+                 frame, frame / elapsed, (long long) totalSize, (long long) outTimeUs,
+                 outTimeUs / 1e6 / elapsed, end ? "end" : "continue");
+        if (hooks->progress) {
+            hooks->progress(hooks->opaque, stats);
+        }
+        lastStats = Clock::now();
+    };
+    int frame = 0;
+    while (frame < frames) {
+        // like a signal, the files are finished and the last stats are written
+        if (hooks->interrupt && hooks->interrupt(hooks->opaque)) {
+            ret = 255;
+            break;
+        }
+        std::this_thread::sleep_for(std::chrono::microseconds(frameCostUs.load()));
+        frame++;
+        totalSize += 1000;
+        if (frame < frames && std::chrono::duration<double>(Clock::now() - lastStats).count() >= statsPeriod) {
+            writeStats(frame, false);
+        }
+    }
+    writeStats(frame, true);
+    running--;
+    return ret;
+}
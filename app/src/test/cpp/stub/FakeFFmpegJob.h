@@ -0,0 +1,32 @@
+//
+// Host stand-in of run_ffmpeg_job() for the tests of FFCommandJob. It understands
+// a lavfi input such as "-f lavfi -i testsrc=duration=2:rate=25" and -stats_period,
+// and instead of transcoding it spends a fixed time per frame, polling the interrupt
+// and writing the -progress stats like ffmpeg does.
+//
+
+#ifndef LEARNINGMEDIA_FAKEFFMPEGJOB_H
+#define LEARNINGMEDIA_FAKEFFMPEGJOB_H
+
+namespace FakeFFmpegJob {
+
+    /**
+     * Time spent on each frame, 1ms by default.
+     */
+    void setFrameCostUs(int frameCostUs);
+
+    /**
+     * Commands started so far.
+     */
+    int getRunCount();
+
+    /**
+     * The most commands that have been running at the same time.
+     */
+    int getMaxConcurrent();
+
+    void resetCounters();
+
+}
+
+#endif //LEARNINGMEDIA_FAKEFFMPEGJOB_H
@@ -0,0 +1,49 @@
+//
+// Host stand-in of libavformat for the kernel tests, see FakeFormat.h.
+//
+
+#include "FakeFormat.h"
+
+#include <map>
+#include <mutex>
+#include <vector>
+
+static std::mutex indexMutex;
+static std::map<const AVStream *, std::vector<AVIndexEntry>> streamIndex;
+
+void FakeFormat::addIndexEntry(AVStream *stream, int64_t timestamp, int flags) {
+    std::lock_guard<std::mutex> lock(indexMutex);
+    AVIndexEntry entry{};
+    entry.pos       = -1;
+    entry.timestamp = timestamp;
+    entry.flags     = flags;
+    streamIndex[stream].push_back(entry);
+}
+
+void FakeFormat::clearIndex(AVStream *stream) {
+    std::lock_guard<std::mutex> lock(indexMutex);
+    streamIndex.erase(stream);
+}
+
+int avformat_index_get_entries_count(const AVStream *st) {
+    std::lock_guard<std::mutex> lock(indexMutex);
+    auto it = streamIndex.find(st);
+    return it == streamIndex.end() ? 0 : (int) it->second.size();
+}
+
+const AVIndexEntry *avformat_index_get_entry(AVStream *st, int idx) {
+    std::lock_guard<std::mutex> lock(indexMutex);
+    auto it = streamIndex.find(st);
+    if (it == streamIndex.end() || idx < 0 || idx >= (int) it->second.size()) {
+        return nullptr;
+    }
+    return &it->second[idx];
+}
+
+AVRational av_guess_frame_rate(AVFormatContext *ctx, AVStream *stream, AVFrame *frame) {
+    return stream->avg_frame_rate.num ? stream->avg_frame_rate : stream->r_frame_rate;
+}
+
+AVRational av_guess_sample_aspect_ratio(AVFormatContext *format, AVStream *stream, AVFrame *frame) {
+    return frame ? frame->sample_aspect_ratio : (AVRational) {0, 1};
+}
@@ -0,0 +1,25 @@
+//
+// Host stand-in of the libavformat functions used by the kernel outside of demuxing.
+// The index entries of a stream are kept aside, because AVStream of ffmpeg 5
+// keeps them in its private part.
+//
+
+#ifndef LEARNINGMEDIA_FAKEFORMAT_H
+#define LEARNINGMEDIA_FAKEFORMAT_H
+
+extern "C" {
+#include <libavformat/avformat.h>
+}
+
+namespace FakeFormat {
+
+    /**
+     * Append an entry to the index of stream, as the demuxer does while reading.
+     */
+    void addIndexEntry(AVStream *stream, int64_t timestamp, int flags);
+
+    void clearIndex(AVStream *stream);
+
+}
+
+#endif //LEARNINGMEDIA_FAKEFORMAT_H
@@ -0,0 +1,172 @@
+//
+// avio functions backed by FakeHttpServer. Custom contexts from avio_alloc_context()
+// call their own callbacks, so the same functions drive the context under test.
+//
+
+#include "FakeHttpServer.h"
+
+#include <cstdlib>
+#include <cstring>
+
+extern "C" {
+#include <libavformat/avio.h>
+#include <libavutil/error.h>
+#include <libavutil/mem.h>
+}
+
+struct Connection {
+    std::string url;
+    int64_t length;
+    bool knownLength;
+    int64_t pos;
+};
+
+FakeHttpServer *FakeHttpServer::getInstance() {
+    static FakeHttpServer instance;
+    return &instance;
+}
+
+void FakeHttpServer::addMedia(const std::string &url, int64_t length, bool seekable, bool knownLength) {
+    m_media[url] = Media{length, seekable, knownLength};
+}
+
+void FakeHttpServer::resetCounters() {
+    opens       = 0;
+    seeks       = 0;
+    bytesServed = 0;
+}
+
+uint8_t FakeHttpServer::byteAt(const std::string &url, int64_t pos) {
+    return (uint8_t) ((pos * 131 + (pos >> 9) + url.size() * 7) & 0xFF);
+}
+
+bool FakeHttpServer::find(const std::string &url, int64_t *length, bool *seekable, bool *knownLength) const {
+    auto it = m_media.find(url);
+    if (it == m_media.end()) {
+        return false;
+    }
+    *length      = it->second.length;
+    *seekable    = it->second.seekable;
+    *knownLength = it->second.knownLength;
+    return true;
+}
+
+static int connectionRead(void *opaque, uint8_t *buf, int size) {
+    auto *conn = (Connection *) opaque;
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    if (conn->pos >= conn->length) {
+        return AVERROR_EOF;
+    }
+    int len = size;
+    if (len > server->maxReadSize) {
+        len = server->maxReadSize;
+    }
+    if (len > conn->length - conn->pos) {
+        len = (int) (conn->length - conn->pos);
+    }
+    for (int i = 0; i < len; ++i) {
+        buf[i] = FakeHttpServer::byteAt(conn->url, conn->pos + i);
+    }
+    conn->pos += len;
+    server->bytesServed += len;
+    return len;
+}
+
+static int64_t connectionSeek(void *opaque, int64_t offset, int whence) {
+    auto *conn = (Connection *) opaque;
+    switch (whence) {
+        case AVSEEK_SIZE:
+            return conn->knownLength ? conn->length : AVERROR(ENOSYS);
+        case SEEK_CUR:
+            if (offset == 0) {
+                return conn->pos;
+            }
+            offset += conn->pos;
+            break;
+        case SEEK_SET:
+            break;
+        default:
+            return AVERROR(EINVAL);
+    }
+    if (offset < 0 || offset > conn->length) {
+        return AVERROR(EINVAL);
+    }
+    if (offset != conn->pos) {
+        FakeHttpServer::getInstance()->seeks++;
+    }
+    conn->pos = offset;
+    return offset;
+}
+
+const char *avio_find_protocol_name(const char *url) {
+    if (strncmp(url, "http://", 7) == 0) {
+        return "http";
+    }
+    if (strncmp(url, "https://", 8) == 0) {
+        return "https";
+    }
+    return strchr(url, ':') != nullptr ? nullptr : "file";
+}
+
+AVIOContext *avio_alloc_context(unsigned char *buffer, int buffer_size, int write_flag, void *opaque,
+                                int (*read_packet)(void *opaque, uint8_t *buf, int buf_size),
+                                int (*write_packet)(void *opaque, uint8_t *buf, int buf_size),
+                                int64_t (*seek)(void *opaque, int64_t offset, int whence)) {
+    auto *s = (AVIOContext *) av_mallocz(sizeof(AVIOContext));
+    if (s == nullptr) {
+        return nullptr;
+    }
+    s->buffer      = buffer;
+    s->buffer_size = buffer_size;
+    s->opaque      = opaque;
+    s->read_packet = read_packet;
+    s->seek        = seek;
+    s->seekable    = seek != nullptr ? AVIO_SEEKABLE_NORMAL : 0;
+    return s;
+}
+
+void avio_context_free(AVIOContext **s) {
+    av_freep(s);
+}
+
+int avio_open2(AVIOContext **s, const char *url, int flags,
+               const AVIOInterruptCB *int_cb, AVDictionary **options) {
+    FakeHttpServer *server = FakeHttpServer::getInstance();
+    int64_t length;
+    bool seekable;
+    bool knownLength;
+    if (!server->find(url, &length, &seekable, &knownLength)) {
+        return AVERROR_HTTP_NOT_FOUND;
+    }
+    if (int_cb != nullptr && int_cb->callback != nullptr && int_cb->callback(int_cb->opaque)) {
+        return AVERROR_EXIT;
+    }
+    server->opens++;
+    auto *conn = new Connection{url, length, knownLength, 0};
+    *s = avio_alloc_context(nullptr, 0, 0, conn, connectionRead, nullptr, connectionSeek);
+    (*s)->seekable = seekable ? AVIO_SEEKABLE_NORMAL : 0;
+    return 0;
+}
+
+int avio_closep(AVIOContext **s) {
+    if (*s != nullptr) {
+        delete (Connection *) (*s)->opaque;
+        avio_context_free(s);
+    }
+    return 0;
+}
+
+int64_t avio_seek(AVIOContext *s, int64_t offset, int whence) {
+    if (s->seek == nullptr) {
+        return AVERROR(ENOSYS);
+    }
+    return s->seek(s->opaque, offset, whence);
+}
+
+int64_t avio_size(AVIOContext *s) {
+    return avio_seek(s, 0, AVSEEK_SIZE);
+}
+
+int avio_read_partial(AVIOContext *s, unsigned char *buf, int size) {
+    return s->read_packet(s->opaque, buf, size);
+}
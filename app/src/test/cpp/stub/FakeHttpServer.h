@@ -0,0 +1,49 @@
+//
+// Host stand-in for the avio functions of an http upstream, serving generated media
+// from memory and counting what it serves.
+//
+
+#ifndef LEARNINGMEDIA_FAKEHTTPSERVER_H
+#define LEARNINGMEDIA_FAKEHTTPSERVER_H
+
+#include <cstdint>
+#include <map>
+#include <string>
+
+class FakeHttpServer {
+
+private:
+    struct Media {
+        int64_t length;
+        bool seekable;
+        bool knownLength;
+    };
+
+    std::map<std::string, Media> m_media;
+
+    FakeHttpServer() = default;
+
+public:
+    // 每次打开连接, 以及每次连接上的seek, 都相当于一次http请求
+    int opens = 0;
+    int seeks = 0;
+    int64_t bytesServed = 0;
+    // 单次读取的上限, 模拟网络上的部分读取
+    int maxReadSize = 16 * 1024;
+
+    static FakeHttpServer *getInstance();
+
+    void addMedia(const std::string &url, int64_t length, bool seekable = true, bool knownLength = true);
+
+    void resetCounters();
+
+    /**
+     * Content of every media is a function of the url and position, so reads can be verified.
+     */
+    static uint8_t byteAt(const std::string &url, int64_t pos);
+
+    bool find(const std::string &url, int64_t *length, bool *seekable, bool *knownLength) const;
+
+};
+
+#endif //LEARNINGMEDIA_FAKEHTTPSERVER_H
@@ -0,0 +1,21 @@
+//
+// av_err2str makes a compound literal array, which clang takes in C++ and gcc doesn't.
+// Force included in host builds of sources that log with it, before any FFmpeg header.
+//
+
+#ifndef LEARNINGMEDIA_STUB_HOST_ERR2STR_H
+#define LEARNINGMEDIA_STUB_HOST_ERR2STR_H
+
+extern "C" {
+#include <libavutil/error.h>
+}
+
+static inline const char *hostErr2Str(int errnum) {
+    thread_local char buf[AV_ERROR_MAX_STRING_SIZE];
+    return av_make_error_string(buf, AV_ERROR_MAX_STRING_SIZE, errnum);
+}
+
+#undef av_err2str
+#define av_err2str(errnum) hostErr2Str(errnum)
+
+#endif //LEARNINGMEDIA_STUB_HOST_ERR2STR_H
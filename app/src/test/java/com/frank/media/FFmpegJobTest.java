@@ -0,0 +1,57 @@
+package com.frank.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+public class FFmpegJobTest {
+
+    private static final String[] COMMAND = {"ffmpeg", "-f", "lavfi", "-i", "testsrc=duration=1", "-f", "null", "-"};
+
+    @Test
+    public void higherPriorityRunsFirst() {
+        FFmpegJob low = new FFmpegJob(COMMAND, FFmpegJob.PRIORITY_LOW, null);
+        FFmpegJob normal = new FFmpegJob(COMMAND, FFmpegJob.PRIORITY_NORMAL, null);
+        FFmpegJob high = new FFmpegJob(COMMAND, FFmpegJob.PRIORITY_HIGH, null);
+        // the queue of the executor in FFmpegCommand
+        PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+        queue.add(low);
+        queue.add(normal);
+        queue.add(high);
+        assertSame(high, queue.poll());
+        assertSame(normal, queue.poll());
+        assertSame(low, queue.poll());
+    }
+
+    @Test
+    public void samePriorityKeepsSubmittingOrder() {
+        PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+        FFmpegJob[] jobs = new FFmpegJob[16];
+        for (int i = 0; i < jobs.length; i++) {
+            jobs[i] = new FFmpegJob(COMMAND, FFmpegJob.PRIORITY_NORMAL, null);
+        }
+        // added out of order, polled by id
+        for (int i = jobs.length - 1; i >= 0; i--) {
+            queue.add(jobs[i]);
+        }
+        for (FFmpegJob job : jobs) {
+            assertSame(job, queue.poll());
+        }
+    }
+
+    @Test
+    public void newJobIsQueued() {
+        FFmpegJob first = new FFmpegJob(COMMAND, FFmpegJob.PRIORITY_HIGH, null);
+        FFmpegJob second = new FFmpegJob(COMMAND, FFmpegJob.PRIORITY_HIGH, null);
+        assertEquals(FFmpegJob.STATE_QUEUED, first.getState());
+        assertEquals(FFmpegJob.PRIORITY_HIGH, first.getPriority());
+        assertTrue(second.getId() > first.getId());
+        assertEquals(0, first.getFrame());
+        assertEquals(0, first.compareTo(first));
+    }
+
+}
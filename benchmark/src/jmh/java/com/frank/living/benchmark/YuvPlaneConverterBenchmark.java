@@ -0,0 +1,112 @@
+package com.frank.living.benchmark;
+
+import com.frank.living.util.YuvFramePool;
+import com.frank.living.util.YuvPlaneConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * YuvPlaneConverter against the loop Camera2Helper used before: copy each
+ * chroma plane into a temp array, then pick the bytes one by one.
+ * The planes are direct buffers as ImageReader hands them out.
+ */
+@State(Scope.Thread)
+public class YuvPlaneConverterBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"1", "2"})
+    public int pixelStride;
+
+    private int width;
+    private int height;
+    private int rowStride;
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private final YuvPlaneConverter converter = new YuvPlaneConverter();
+    private YuvFramePool pool;
+    private byte[] legacyFrame;
+    private byte[] legacyTemp;
+
+    private static ByteBuffer makePlane(int capacity, Random random) {
+        byte[] data = new byte[capacity];
+        random.nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        width  = Integer.parseInt(wh[0]);
+        height = Integer.parseInt(wh[1]);
+        // rows padded to 64 bytes like most camera HALs
+        rowStride = (width + 63) & ~63;
+        int chromaStride = pixelStride == 2 ? rowStride : rowStride / 2;
+        int chromaCapacity = (height / 2 - 1) * chromaStride + (width / 2 - 1) * pixelStride + 1;
+        Random random = new Random(1);
+        yPlane = makePlane((height - 1) * rowStride + width, random);
+        uPlane = makePlane(chromaCapacity, random);
+        vPlane = makePlane(chromaCapacity, random);
+        pool = new YuvFramePool(width, height, 3);
+        legacyFrame = new byte[width * height * 3 / 2];
+    }
+
+    @Benchmark
+    public byte[] converter() {
+        byte[] frame = pool.acquire();
+        int chromaStride = pixelStride == 2 ? rowStride : rowStride / 2;
+        converter.convert(yPlane, rowStride, uPlane, chromaStride, pixelStride,
+                vPlane, chromaStride, pixelStride, width, height, frame);
+        pool.release(frame);
+        return frame;
+    }
+
+    /**
+     * The loop of Camera2Helper.onImageAvailable before YuvPlaneConverter,
+     * except that luma is read row by row, so padded rows don't overflow.
+     */
+    @Benchmark
+    public byte[] legacyLoop() {
+        byte[] yuvData = legacyFrame;
+        int len = width * height;
+        for (int row = 0; row < height; row++) {
+            yPlane.position(row * rowStride);
+            yPlane.get(yuvData, row * width, width);
+        }
+        yPlane.position(0);
+        int offset = len;
+        int chromaStride = pixelStride == 2 ? rowStride : rowStride / 2;
+        ByteBuffer[] planes = {uPlane, vPlane};
+        for (ByteBuffer buffer : planes) {
+            int srcIndex = 0, dstIndex = 0;
+            if (legacyTemp == null || legacyTemp.length != buffer.capacity()) {
+                legacyTemp = new byte[buffer.capacity()];
+            }
+            byte[] temp = legacyTemp;
+            buffer.get(temp);
+            buffer.position(0);
+            for (int j = 0; j < height / 2; j++) {
+                for (int k = 0; k < width / 2; k++) {
+                    yuvData[offset + dstIndex++] = temp[srcIndex];
+                    srcIndex += pixelStride;
+                }
+                srcIndex += chromaStride - width / 2 * pixelStride;
+            }
+            offset += len / 4;
+        }
+        return yuvData;
+    }
+
+}
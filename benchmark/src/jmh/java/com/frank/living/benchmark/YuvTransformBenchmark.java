@@ -0,0 +1,81 @@
+package com.frank.living.benchmark;
+
+import com.frank.living.util.YUVUtil;
+import com.frank.living.util.YuvTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * YuvTransform against the rotations of YUVUtil on full frames.
+ */
+@State(Scope.Thread)
+@SuppressWarnings("deprecation")
+public class YuvTransformBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"90", "180"})
+    public int rotation;
+
+    private int width;
+    private int height;
+    private byte[] src;
+    private byte[] dst;
+    private YuvTransform transform;
+    private YuvTransform poolTransform;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        width  = Integer.parseInt(wh[0]);
+        height = Integer.parseInt(wh[1]);
+        src = new byte[width * height * 3 / 2];
+        dst = new byte[src.length];
+        new Random(1).nextBytes(src);
+        transform = new YuvTransform(width, height);
+        transform.setRotation(rotation);
+        pool = new ForkJoinPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
+        poolTransform = new YuvTransform(width, height);
+        poolTransform.setRotation(rotation);
+        poolTransform.setPool(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public byte[] yuvUtil() {
+        if (rotation == 90) {
+            YUVUtil.YUV420pRotate90(dst, src, width, height);
+        } else {
+            YUVUtil.YUV420pRotate180(dst, src, width, height);
+        }
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] yuvTransform() {
+        transform.transform(src, dst);
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] yuvTransformPool() {
+        poolTransform.transform(src, dst);
+        return dst;
+    }
+
+}
@@ -0,0 +1,103 @@
+//
+// Created by xu fulong on 2022/10/10.
+//
+
+#include <algorithm>
+#include "BitrateController.h"
+
+#define BITRATE_DECREASE_FACTOR 0.75
+#define BITRATE_INCREASE_FACTOR 0.1
+#define SEND_RATE_MARGIN        0.9
+
+BitrateController::BitrateController():m_enable(false),
+                                       m_sentBytes(0),
+                                       m_intervalStart(0) {
+    m_config.minBitrate      = 0;
+    m_config.maxBitrate      = 0;
+    m_config.highDelayMs     = 500;
+    m_config.lowDelayMs      = 100;
+    m_config.stableIntervals = 3;
+    m_state.bitrate     = 0;
+    m_state.stableCount = 0;
+}
+
+BitrateState BitrateController::decide(const BitrateConfig &config,
+                                       const BitrateState &state,
+                                       const BitrateSample &sample) {
+    BitrateState next = state;
+    if (sample.intervalMs <= 0)
+        return next;
+    int sendRate = static_cast<int>(sample.sentBytes * 8 * 1000 / sample.intervalMs);
+    if (sample.queueDelayMs > config.highDelayMs) {
+        // congested: back off below what the uplink has delivered
+        int target = static_cast<int>(state.bitrate * BITRATE_DECREASE_FACTOR);
+        if (sendRate > 0) {
+            target = std::min(target, static_cast<int>(sendRate * SEND_RATE_MARGIN));
+        }
+        next.bitrate     = std::max(config.minBitrate, target);
+        next.stableCount = 0;
+    } else if (sample.queueDelayMs < config.lowDelayMs) {
+        next.stableCount = state.stableCount + 1;
+        if (next.stableCount >= config.stableIntervals) {
+            int step = std::max(1, static_cast<int>(config.maxBitrate * BITRATE_INCREASE_FACTOR));
+            next.bitrate     = std::min(config.maxBitrate, state.bitrate + step);
+            next.stableCount = 0;
+        }
+    } else {
+        next.stableCount = 0;
+    }
+    return next;
+}
+
+void BitrateController::setRange(int minBitrate, int maxBitrate) {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    m_config.minBitrate = minBitrate;
+    m_config.maxBitrate = maxBitrate;
+    m_enable = maxBitrate > 0 && minBitrate <= maxBitrate;
+    if (m_enable && m_state.bitrate > 0) {
+        m_state.bitrate = std::max(minBitrate, std::min(maxBitrate, m_state.bitrate));
+    }
+}
+
+void BitrateController::setBitrate(int bitrate) {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    m_state.bitrate     = bitrate;
+    m_state.stableCount = 0;
+    m_sentBytes         = 0;
+    m_intervalStart     = 0;
+}
+
+bool BitrateController::isEnable() {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    return m_enable;
+}
+
+void BitrateController::reset() {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    m_state.stableCount = 0;
+    m_sentBytes         = 0;
+    m_intervalStart     = 0;
+}
+
+int BitrateController::onSent(uint32_t now, int bytes, int queueDelayMs) {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    if (!m_enable || m_state.bitrate <= 0)
+        return 0;
+    if (m_intervalStart == 0) {
+        m_intervalStart = now;
+    }
+    m_sentBytes += bytes;
+    int elapsed = static_cast<int>(now - m_intervalStart);
+    if (elapsed < INTERVAL_MS)
+        return 0;
+
+    BitrateSample sample;
+    sample.sentBytes    = m_sentBytes;
+    sample.intervalMs   = elapsed;
+    sample.queueDelayMs = queueDelayMs;
+    int bitrate = m_state.bitrate;
+    m_state = decide(m_config, m_state, sample);
+    m_sentBytes     = 0;
+    m_intervalStart = now;
+    return m_state.bitrate != bitrate ? m_state.bitrate : 0;
+}
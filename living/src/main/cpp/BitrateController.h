@@ -0,0 +1,78 @@
+//
+// Created by xu fulong on 2022/10/10.
+//
+
+#ifndef LEARNINGMEDIA_BITRATECONTROLLER_H
+#define LEARNINGMEDIA_BITRATECONTROLLER_H
+
+#include <cstdint>
+#include <mutex>
+
+struct BitrateConfig {
+    int minBitrate;
+    int maxBitrate;
+    // queue delay above it means congestion
+    int highDelayMs;
+    // queue delay below it means the uplink has headroom
+    int lowDelayMs;
+    // intervals with headroom before stepping up
+    int stableIntervals;
+};
+
+struct BitrateState {
+    int bitrate;
+    int stableCount;
+};
+
+struct BitrateSample {
+    // bytes sent during the interval
+    int64_t sentBytes;
+    int intervalMs;
+    int queueDelayMs;
+};
+
+/**
+ * Adaptive bitrate decision, which steps down multiplicatively on congestion
+ * and steps up additively after the uplink keeps stable for a while.
+ * decide() is a pure function, so it can be replayed with recorded traces.
+ * The range and bitrate are set by the Java thread while the sender calls
+ * onSent, so the members are guarded by m_mutex.
+ */
+class BitrateController {
+
+private:
+    std::mutex m_mutex;
+    BitrateConfig m_config;
+    BitrateState m_state;
+    bool m_enable;
+
+    int64_t m_sentBytes;
+    uint32_t m_intervalStart;
+
+public:
+
+    static const int INTERVAL_MS = 1000;
+
+    BitrateController();
+
+    static BitrateState decide(const BitrateConfig &config,
+                               const BitrateState &state,
+                               const BitrateSample &sample);
+
+    void setRange(int minBitrate, int maxBitrate);
+
+    void setBitrate(int bitrate);
+
+    bool isEnable();
+
+    void reset();
+
+    /**
+     * Accumulate a sent packet, and return the new bitrate once an interval
+     * has elapsed and the bitrate has changed, otherwise return 0.
+     */
+    int onSent(uint32_t now, int bytes, int queueDelayMs);
+
+};
+
+#endif //LEARNINGMEDIA_BITRATECONTROLLER_H
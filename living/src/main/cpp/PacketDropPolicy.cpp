@@ -0,0 +1,171 @@
+//
+// Created by xu fulong on 2022/10/8.
+//
+
+#include "PacketDropPolicy.h"
+
+// body: frame type(1) + avc type(1) + cts(3) + [nalu len(4) + nalu]...
+#define VIDEO_NALU_OFFSET 5
+#define NAL_TYPE_SLICE     1
+#define NAL_TYPE_SLICE_IDR 5
+// 丢帧后队列降到预算的一半以下, 才请求和接收关键帧
+#define RESUME_BUDGET_PERCENT 50
+// 两次请求关键帧的最小间隔
+#define KEY_FRAME_REQUEST_INTERVAL_MS 1000
+
+PacketDropPolicy::PacketDropPolicy():m_maxDelayMs(0),
+                                     m_maxBytes(0),
+                                     m_dropGop(false),
+                                     m_keyFrameRequested(false),
+                                     m_pendingKeyFrame(false),
+                                     m_hasRequestTime(false),
+                                     m_lastRequestTime(0),
+                                     m_queuedBytes(0),
+                                     m_lastSentTime(0),
+                                     m_lastQueuedTime(0),
+                                     m_droppedFrames(0),
+                                     m_droppedBytes(0) {
+
+}
+
+void PacketDropPolicy::setBudget(int maxDelayMs, int maxBytes) {
+    m_maxDelayMs = maxDelayMs;
+    m_maxBytes   = maxBytes;
+}
+
+bool PacketDropPolicy::isKeyFrame(RTMPPacket *packet) {
+    return (packet->m_body[0] & 0xF0) == 0x10;
+}
+
+bool PacketDropPolicy::isSequenceHeader(RTMPPacket *packet) {
+    return packet->m_nBodySize > 1 && packet->m_body[1] == 0x00;
+}
+
+bool PacketDropPolicy::isDisposable(RTMPPacket *packet) {
+    auto *body = reinterpret_cast<uint8_t *>(packet->m_body);
+    uint32_t size = packet->m_nBodySize;
+    uint32_t offset = VIDEO_NALU_OFFSET;
+    // 一个tag包含一帧的所有nalu, SEI可能在slice前面, 取第一个slice判断
+    while (offset + 4 < size) {
+        uint32_t naluLen = (body[offset] << 24) | (body[offset + 1] << 16)
+                | (body[offset + 2] << 8) | body[offset + 3];
+        uint8_t header = body[offset + 4];
+        int type = header & 0x1F;
+        if (type == NAL_TYPE_SLICE || type == NAL_TYPE_SLICE_IDR) {
+            // nal_ref_idc == 0
+            return (header & 0x60) == 0;
+        }
+        if (naluLen == 0 || naluLen > size - offset - 4)
+            break;
+        offset += 4 + naluLen;
+    }
+    return false;
+}
+
+void PacketDropPolicy::onDrop(RTMPPacket *packet) {
+    m_droppedFrames++;
+    m_droppedBytes += packet->m_nBodySize;
+}
+
+bool PacketDropPolicy::isOverBudget(RTMPPacket *packet, int percent) const {
+    int64_t queuedBytes = m_queuedBytes.load();
+    if (queuedBytes <= 0)
+        return false;
+    // the queue is as long as the gap between the newest packet and the last sent one
+    uint32_t delay = packet->m_nTimeStamp - m_lastSentTime.load();
+    int maxDelayMs = m_maxDelayMs;
+    int maxBytes   = m_maxBytes;
+    return (maxDelayMs > 0 && (int64_t) delay * 100 > (int64_t) maxDelayMs * percent)
+            || (maxBytes > 0 && queuedBytes * 100 > (int64_t) maxBytes * percent);
+}
+
+bool PacketDropPolicy::shouldDrop(RTMPPacket *packet) {
+    if (packet->m_packetType != RTMP_PACKET_TYPE_VIDEO || isSequenceHeader(packet))
+        return false;
+    bool keyFrame = isKeyFrame(packet);
+    if (m_dropGop) {
+        bool drained = !isOverBudget(packet, RESUME_BUDGET_PERCENT);
+        if (keyFrame && drained) {
+            m_dropGop = false;
+            m_keyFrameRequested = false;
+            return false;
+        }
+        if (keyFrame) {
+            // the IDR came before the queue drained, another one may be requested
+            m_keyFrameRequested = false;
+        }
+        uint32_t sinceRequest = packet->m_nTimeStamp - m_lastRequestTime.load();
+        if (drained && !m_keyFrameRequested
+                && (!m_hasRequestTime || sinceRequest >= KEY_FRAME_REQUEST_INTERVAL_MS)) {
+            m_keyFrameRequested = true;
+            m_pendingKeyFrame   = true;
+            m_hasRequestTime    = true;
+            m_lastRequestTime   = packet->m_nTimeStamp;
+        }
+        onDrop(packet);
+        return true;
+    }
+    if (!isOverBudget(packet, 100))
+        return false;
+    if (keyFrame || !isDisposable(packet)) {
+        // the frames after a lost reference can't be decoded, so drop until an IDR
+        m_dropGop = true;
+        m_keyFrameRequested = false;
+    }
+    onDrop(packet);
+    return true;
+}
+
+bool PacketDropPolicy::isDroppingGop() const {
+    return m_dropGop;
+}
+
+bool PacketDropPolicy::takeKeyFrameRequest() {
+    return m_pendingKeyFrame.exchange(false);
+}
+
+void PacketDropPolicy::onQueued(RTMPPacket *packet) {
+    m_queuedBytes += packet->m_nBodySize;
+    m_lastQueuedTime = packet->m_nTimeStamp;
+}
+
+void PacketDropPolicy::onRejected(RTMPPacket *packet, bool countDrop) {
+    m_queuedBytes -= packet->m_nBodySize;
+    if (countDrop) {
+        onDrop(packet);
+    }
+}
+
+void PacketDropPolicy::onSent(RTMPPacket *packet) {
+    m_queuedBytes -= packet->m_nBodySize;
+    m_lastSentTime = packet->m_nTimeStamp;
+}
+
+void PacketDropPolicy::onResume(uint32_t timestamp) {
+    m_lastSentTime   = timestamp;
+    m_lastQueuedTime = timestamp;
+}
+
+int PacketDropPolicy::getQueueDelayMs() const {
+    if (m_queuedBytes.load() <= 0)
+        return 0;
+    return static_cast<int>(m_lastQueuedTime.load() - m_lastSentTime.load());
+}
+
+void PacketDropPolicy::reset() {
+    m_dropGop           = false;
+    m_keyFrameRequested = false;
+    m_pendingKeyFrame   = false;
+    m_hasRequestTime    = false;
+    m_queuedBytes       = 0;
+    m_lastSentTime      = 0;
+    m_lastQueuedTime    = 0;
+}
+
+int64_t PacketDropPolicy::getDroppedFrames() const {
+    return m_droppedFrames;
+}
+
+int64_t PacketDropPolicy::getDroppedBytes() const {
+    return m_droppedBytes;
+}
@@ -0,0 +1,106 @@
+//
+// Created by xu fulong on 2022/10/8.
+//
+
+#ifndef LEARNINGMEDIA_PACKETDROPPOLICY_H
+#define LEARNINGMEDIA_PACKETDROPPOLICY_H
+
+#include <atomic>
+#include <cstdint>
+#include "rtmp/rtmp.h"
+
+/**
+ * Drop video packets before queuing when the uplink is congested.
+ * Over budget, disposable(non-reference) frames are dropped first, which
+ * only exist when the encoder emits non-reference B frames. If a reference
+ * frame or an IDR arrives over budget, video is dropped until an IDR arrives
+ * with the queue drained below half of the budget. One IDR is requested per
+ * drop episode, once the queue has drained, so congestion isn't answered
+ * with a stream of large IDRs. Audio and sequence headers are always kept.
+ * shouldDrop is called by the video encoder thread, and reset by the sender.
+ */
+class PacketDropPolicy {
+
+private:
+    std::atomic<int> m_maxDelayMs;
+    std::atomic<int> m_maxBytes;
+    std::atomic<bool> m_dropGop;
+    // 本轮丢帧是否已请求过关键帧, 以及最近一次请求的时间
+    std::atomic<bool> m_keyFrameRequested;
+    std::atomic<bool> m_pendingKeyFrame;
+    std::atomic<bool> m_hasRequestTime;
+    std::atomic<uint32_t> m_lastRequestTime;
+
+    std::atomic<int64_t> m_queuedBytes;
+    std::atomic<uint32_t> m_lastSentTime;
+    std::atomic<uint32_t> m_lastQueuedTime;
+    std::atomic<int64_t> m_droppedFrames;
+    std::atomic<int64_t> m_droppedBytes;
+
+    static bool isDisposable(RTMPPacket *packet);
+
+    /**
+     * @param percent percentage of the budget to compare with
+     */
+    bool isOverBudget(RTMPPacket *packet, int percent) const;
+
+public:
+
+    static bool isKeyFrame(RTMPPacket *packet);
+
+    static bool isSequenceHeader(RTMPPacket *packet);
+
+    PacketDropPolicy();
+
+    /**
+     * Set the budget of queue, and 0 means no limit.
+     */
+    void setBudget(int maxDelayMs, int maxBytes);
+
+    /**
+     * Called by the producer before pushing.
+     * @return true if the packet should be dropped
+     */
+    bool shouldDrop(RTMPPacket *packet);
+
+    /**
+     * Whether video is being dropped until the next IDR.
+     */
+    bool isDroppingGop() const;
+
+    /**
+     * Whether the encoder should emit an IDR now to end the drop episode,
+     * true at most once per request.
+     */
+    bool takeKeyFrameRequest();
+
+    void onDrop(RTMPPacket *packet);
+
+    void onQueued(RTMPPacket *packet);
+
+    /**
+     * The packet counted by onQueued failed to enter the queue.
+     */
+    void onRejected(RTMPPacket *packet, bool countDrop);
+
+    void onSent(RTMPPacket *packet);
+
+    /**
+     * The stale packets were dropped after reconnecting, the queue delay counts from the timestamp.
+     */
+    void onResume(uint32_t timestamp);
+
+    /**
+     * Duration of the packets waiting in queue.
+     */
+    int getQueueDelayMs() const;
+
+    void reset();
+
+    int64_t getDroppedFrames() const;
+
+    int64_t getDroppedBytes() const;
+
+};
+
+#endif //LEARNINGMEDIA_PACKETDROPPOLICY_H
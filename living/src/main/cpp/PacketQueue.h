@@ -5,69 +5,168 @@
 #ifndef LEARNINGMEDIA_PACKETQUEUE_H
 #define LEARNINGMEDIA_PACKETQUEUE_H
 
-#include <queue>
-#include <thread>
+#include <atomic>
+#include <cstdint>
+#include <mutex>
+#include <condition_variable>
 
+/**
+ * Bounded ring of packets. The slots are published with atomic indexes,
+ * so the consumer never takes a lock while there are packets to send.
+ * Video and audio encoders both push, so the producers are serialized by
+ * m_pushMutex, which the consumer doesn't touch. An empty queue parks the
+ * consumer on a condition variable instead of spinning.
+ */
 template<typename T>
 class PacketQueue {
     typedef void (*ReleaseCallback)(T &);
 
 private:
-    std::mutex m_mutex;
-    std::queue<T> m_queue;
-    bool m_running;
+    static const int DEFAULT_CAPACITY = 256;
+
+    T *m_ring;
+    int m_capacity;
+    std::atomic<uint32_t> m_head;
+    std::atomic<uint32_t> m_tail;
+    std::atomic<bool> m_running;
+    std::atomic<bool> m_waiting;
+    std::atomic<int> m_highWater;
+
+    std::mutex m_pushMutex;
+    std::mutex m_waitMutex;
+    std::condition_variable m_cond;
 
     ReleaseCallback m_callback;
 
+    void wakeConsumer() {
+        std::atomic_thread_fence(std::memory_order_seq_cst);
+        if (m_waiting.load()) {
+            std::lock_guard<std::mutex> l(m_waitMutex);
+            m_cond.notify_one();
+        }
+    }
+
 public:
 
+    explicit PacketQueue(int capacity = DEFAULT_CAPACITY)
+            : m_capacity(capacity),
+              m_head(0),
+              m_tail(0),
+              m_running(false),
+              m_waiting(false),
+              m_highWater(0),
+              m_callback(nullptr) {
+        m_ring = new T[capacity];
+    }
+
+    ~PacketQueue() {
+        delete[] m_ring;
+    }
+
     void setReleaseCallback(ReleaseCallback callback) {
         m_callback = callback;
     }
 
     void setRunning(bool running) {
         m_running = running;
+        if (!running) {
+            std::lock_guard<std::mutex> l(m_waitMutex);
+            m_cond.notify_all();
+        }
     }
 
     bool empty() {
-        std::lock_guard<std::mutex> l(m_mutex);
-        return m_queue.empty();
+        return size() == 0;
     }
 
     int size() {
-        std::lock_guard<std::mutex> l(m_mutex);
-        return m_queue.size();
+        return static_cast<int>(m_tail.load(std::memory_order_acquire)
+                                - m_head.load(std::memory_order_acquire));
     }
 
-    void push(T value) {
-        std::lock_guard<std::mutex> l(m_mutex);
-        if (m_running) {
-            m_queue.push(value);
+    int capacity() const {
+        return m_capacity;
+    }
+
+    /**
+     * The max depth since the queue was created or reset.
+     */
+    int highWaterMark() const {
+        return m_highWater.load(std::memory_order_relaxed);
+    }
+
+    void resetHighWaterMark() {
+        m_highWater.store(0, std::memory_order_relaxed);
+    }
+
+    /**
+     * Push a value to the tail.
+     * @return false if not running or the ring is full, the caller still owns the value.
+     */
+    bool push(T value) {
+        {
+            std::lock_guard<std::mutex> l(m_pushMutex);
+            if (!m_running) {
+                return false;
+            }
+            uint32_t tail = m_tail.load(std::memory_order_relaxed);
+            uint32_t head = m_head.load(std::memory_order_acquire);
+            int depth = static_cast<int>(tail - head);
+            if (depth >= m_capacity) {
+                return false;
+            }
+            m_ring[tail % m_capacity] = value;
+            m_tail.store(tail + 1, std::memory_order_release);
+            if (depth + 1 > m_highWater.load(std::memory_order_relaxed)) {
+                m_highWater.store(depth + 1, std::memory_order_relaxed);
+            }
         }
+        wakeConsumer();
+        return true;
     }
 
-    int pop(T &value) {
-        int ret = 0;
-        std::unique_lock<std::mutex> l(m_mutex);
-        if (!m_running) {
-            return ret;
+    /**
+     * Pop a value from the head without blocking, only called by the consumer.
+     * @return 1 if popped, otherwise 0
+     */
+    int tryPop(T &value) {
+        uint32_t head = m_head.load(std::memory_order_relaxed);
+        if (head == m_tail.load(std::memory_order_acquire)) {
+            return 0;
         }
-        if (!m_queue.empty()) {
-            value = m_queue.front();
-            m_queue.pop();
-            ret = 1;
+        value = m_ring[head % m_capacity];
+        m_head.store(head + 1, std::memory_order_release);
+        return 1;
+    }
+
+    /**
+     * Pop a value from the head, waiting while the queue is empty.
+     * @return 1 if popped, 0 if the queue has stopped running
+     */
+    int pop(T &value) {
+        while (m_running) {
+            if (tryPop(value)) {
+                return 1;
+            }
+            std::unique_lock<std::mutex> l(m_waitMutex);
+            m_waiting = true;
+            std::atomic_thread_fence(std::memory_order_seq_cst);
+            // check again after publishing waiting, so a push can't be missed
+            if (m_running && empty()) {
+                m_cond.wait(l);
+            }
+            m_waiting = false;
         }
-        return ret;
+        return 0;
     }
 
     void clear() {
-        std::lock_guard<std::mutex> l(m_mutex);
-        if (m_queue.empty())
-            return;
-        for (int i = 0; i < m_queue.size(); ++i) {
-            T value = m_queue.front();
-            m_callback(value);
-            m_queue.pop();
+        std::lock_guard<std::mutex> l(m_pushMutex);
+        T value;
+        while (tryPop(value)) {
+            if (m_callback) {
+                m_callback(value);
+            }
         }
     }
 
@@ -3,10 +3,18 @@
 //
 
 #include <jni.h>
+#include <atomic>
 #include <string>
+#include <thread>
+#include <chrono>
+#include <cstring>
+#include <algorithm>
+#include <vector>
 #include "VideoStream.h"
 #include "AudioStream.h"
 #include "PacketQueue.h"
+#include "PacketDropPolicy.h"
+#include "BitrateController.h"
 #include "LogHelper.h"
 
 #define RTMP_PUSH_FUNC(RETURN_TYPE, FUNC_NAME, ...) \
@@ -17,16 +25,23 @@
 VideoStream *videoStream = nullptr;
 AudioStream *audioStream = nullptr;
 PacketQueue<RTMPPacket*> packetQueue;
+PacketDropPolicy dropPolicy;
+BitrateController bitrateController;
 
-uint32_t startTime;
-std::atomic<bool> isPushing;
+#define RECONNECT_MIN_DELAY_MS 500
+#define RECONNECT_MAX_DELAY_MS 8000
+#define RECONNECT_SLICE_MS     50
+#define STOP_DRAIN_TIMEOUT_MS  500
 
-void callback(RTMPPacket *packet) {
-    if (packet) {
-        packet->m_nTimeStamp = RTMP_GetTime() - startTime;
-        packetQueue.push(packet);
-    }
-}
+JavaVM *javaVM = nullptr;
+jobject pusherObj = nullptr;
+
+std::atomic<bool> reconnectEnable(false);
+std::atomic<int> maxReconnectAttempts(0);
+RTMPPacket *avcHeader = nullptr;
+RTMPPacket *aacHeader = nullptr;
+
+uint32_t startTime;
 
 void releasePackets(RTMPPacket *&packet) {
     if (packet) {
@@ -36,65 +51,269 @@ void releasePackets(RTMPPacket *&packet) {
     }
 }
 
-void *sendRtmpPacket(void *args) {
-    char *url = static_cast<char *>(args);
-    RTMP *rtmp;
+std::atomic<bool> isPushing;
+
+static void callJavaMethod(const char *name, const char *sig, ...) {
+    if (!javaVM || !pusherObj)
+        return;
+    JNIEnv *env = nullptr;
+    bool attached = false;
+    if (javaVM->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) == JNI_EDETACHED) {
+        if (javaVM->AttachCurrentThread(&env, nullptr) != JNI_OK)
+            return;
+        attached = true;
+    }
+    jclass clazz = env->GetObjectClass(pusherObj);
+    jmethodID method = env->GetMethodID(clazz, name, sig);
+    if (method) {
+        va_list args;
+        va_start(args, sig);
+        env->CallVoidMethodV(pusherObj, method, args);
+        va_end(args);
+    }
+    if (env->ExceptionCheck()) {
+        env->ExceptionClear();
+    }
+    env->DeleteLocalRef(clazz);
+    if (attached) {
+        javaVM->DetachCurrentThread();
+    }
+}
+
+static void notifyError(int errCode) {
+    callJavaMethod("errorFromNative", "(I)V", errCode);
+}
+
+static void notifyReconnect(int attempt, uint32_t outageMs, bool connected) {
+    callJavaMethod("reconnectFromNative", "(IJZ)V", attempt, (jlong) outageMs, (jboolean) connected);
+}
+
+void callback(RTMPPacket *packet) {
+    if (packet) {
+        packet->m_nTimeStamp = RTMP_GetTime() - startTime;
+        if (dropPolicy.shouldDrop(packet)) {
+            if (dropPolicy.takeKeyFrameRequest() && videoStream) {
+                videoStream->requestKeyFrame();
+            }
+            releasePackets(packet);
+            return;
+        }
+        // 先记账再入队, 入队后packet可能已被发送线程释放
+        dropPolicy.onQueued(packet);
+        if (!packetQueue.push(packet)) {
+            dropPolicy.onRejected(packet, isPushing);
+            releasePackets(packet);
+        }
+    }
+}
+
+static RTMP *connectRtmp(const char *url, int *errCode) {
+    RTMP *rtmp = RTMP_Alloc();
+    RTMP_Init(rtmp);
     do {
-        rtmp = RTMP_Alloc();
-        RTMP_Init(rtmp);
-        int ret = RTMP_SetupURL(rtmp, url);
-        if (ret < 0) {
+        int ret = RTMP_SetupURL(rtmp, const_cast<char *>(url));
+        if (!ret) {
             LOGE("RTMP_SetupURL err=%d", ret);
+            *errCode = ERROR_RTMP_CONNECT;
             break;
         }
         rtmp->Link.timeout = 8;
         RTMP_EnableWrite(rtmp);
         ret = RTMP_Connect(rtmp, nullptr);
-        if (ret < 0) {
+        if (!ret) {
             LOGE("RTMP_Connect err=%d", ret);
+            *errCode = ERROR_RTMP_CONNECT;
             break;
         }
         ret = RTMP_ConnectStream(rtmp, 0);
-        if (ret < 0) {
+        if (!ret) {
             LOGE("RTMP_ConnectStream err=%d", ret);
+            *errCode = ERROR_RTMP_CONNECT_STREAM;
             break;
         }
-        RTMPPacket  *packet = nullptr;
+        return rtmp;
+    } while (0);
+
+    RTMP_Close(rtmp);
+    RTMP_Free(rtmp);
+    return nullptr;
+}
+
+static void closeRtmp(RTMP *&rtmp) {
+    if (rtmp) {
+        RTMP_Close(rtmp);
+        RTMP_Free(rtmp);
+        rtmp = nullptr;
+    }
+}
+
+/**
+ * Keep a copy of AVC/AAC sequence header, which is sent again after reconnecting.
+ */
+static void cacheSequenceHeader(RTMPPacket *packet) {
+    if (!PacketDropPolicy::isSequenceHeader(packet))
+        return;
+    RTMPPacket *&cache = packet->m_packetType == RTMP_PACKET_TYPE_VIDEO ? avcHeader : aacHeader;
+    releasePackets(cache);
+    cache = new RTMPPacket();
+    RTMPPacket_Alloc(cache, packet->m_nBodySize);
+    memcpy(cache->m_body, packet->m_body, packet->m_nBodySize);
+    cache->m_nChannel        = packet->m_nChannel;
+    cache->m_nBodySize       = packet->m_nBodySize;
+    cache->m_headerType      = packet->m_headerType;
+    cache->m_packetType      = packet->m_packetType;
+    cache->m_hasAbsTimestamp = 0;
+}
+
+/**
+ * Drop the packets queued before and during the outage, only called by the sending thread.
+ */
+static void dropStalePackets() {
+    RTMPPacket *packet = nullptr;
+    while (packetQueue.tryPop(packet)) {
+        dropPolicy.onRejected(packet, true);
+        releasePackets(packet);
+    }
+    dropPolicy.onResume(RTMP_GetTime() - startTime);
+}
+
+static bool sendCachedHeaders(RTMP *rtmp) {
+    RTMPPacket *headers[] = {avcHeader, aacHeader};
+    for (RTMPPacket *header : headers) {
+        if (!header)
+            continue;
+        header->m_nTimeStamp  = 0;
+        header->m_nInfoField2 = rtmp->m_stream_id;
+        if (!RTMP_SendPacket(rtmp, header, 1))
+            return false;
+    }
+    return true;
+}
+
+/**
+ * Reconnect with exponential backoff, while the encoders keep queuing packets.
+ */
+static RTMP *reconnectRtmp(const char *url) {
+    int errCode = 0;
+    int delayMs = RECONNECT_MIN_DELAY_MS;
+    for (int attempt = 1; isPushing && (maxReconnectAttempts <= 0 || attempt <= maxReconnectAttempts); ++attempt) {
+        notifyReconnect(attempt, 0, false);
+        // sleep in slices, so that stopping doesn't wait for the whole backoff
+        for (int slept = 0; isPushing && slept < delayMs; slept += RECONNECT_SLICE_MS) {
+            std::this_thread::sleep_for(std::chrono::milliseconds(RECONNECT_SLICE_MS));
+        }
+        if (!isPushing)
+            break;
+        LOGI("reconnect attempt=%d", attempt);
+        RTMP *rtmp = connectRtmp(url, &errCode);
+        if (rtmp) {
+            if (sendCachedHeaders(rtmp))
+                return rtmp;
+            closeRtmp(rtmp);
+        }
+        delayMs = std::min(delayMs * 2, RECONNECT_MAX_DELAY_MS);
+    }
+    return nullptr;
+}
+
+void *sendRtmpPacket(void *args) {
+    char *url = static_cast<char *>(args);
+    int errCode = 0;
+    RTMP *rtmp = connectRtmp(url, &errCode);
+    if (rtmp) {
+        RTMPPacket *packet = nullptr;
         isPushing = true;
+        dropPolicy.reset();
+        bitrateController.reset();
         packetQueue.setRunning(true);
         startTime = RTMP_GetTime();
         callback(audioStream->getAudioTag());
 
+        // 重连后时间戳从0开始, 视频从请求之后编码的关键帧开始发送
+        bool waitKeyFrame = false;
+        bool rebase = false;
+        uint32_t tsOffset = 0;
+        uint32_t keyFrameTime = 0;
         while (isPushing) {
-            // 从队列取出RTMP包
-            packetQueue.pop(packet);
-            if (!packet)
-                continue;
-            if (!isPushing)
+            // 从队列取出RTMP包, 队列为空时阻塞等待
+            if (!packetQueue.pop(packet))
                 break;
-            packet->m_nInfoField2 = rtmp->m_stream_id;
-            ret = RTMP_SendPacket(rtmp, packet, 1);
-            if (ret < 0) {
+            dropPolicy.onSent(packet);
+            if (!isPushing) {
                 releasePackets(packet);
-                LOGE("RTMP_SendPacket err=%d", ret);
                 break;
             }
+            if (waitKeyFrame && packet->m_packetType == RTMP_PACKET_TYPE_VIDEO
+                    && !PacketDropPolicy::isSequenceHeader(packet)) {
+                if (!PacketDropPolicy::isKeyFrame(packet) || packet->m_nTimeStamp < keyFrameTime) {
+                    releasePackets(packet);
+                    continue;
+                }
+                waitKeyFrame = false;
+            }
+            cacheSequenceHeader(packet);
+            if (rebase) {
+                tsOffset = packet->m_nTimeStamp;
+                rebase = false;
+            }
+            uint32_t timestamp = packet->m_nTimeStamp;
+            packet->m_nTimeStamp  = timestamp > tsOffset ? timestamp - tsOffset : 0;
+            packet->m_nInfoField2 = rtmp->m_stream_id;
+            int ret = RTMP_SendPacket(rtmp, packet, 1);
+            int bitrate = bitrateController.onSent(RTMP_GetTime() - startTime,
+                                                   packet->m_nBodySize, dropPolicy.getQueueDelayMs());
+            if (bitrate > 0 && videoStream) {
+                LOGI("adaptive bitrate=%d", bitrate);
+                videoStream->setBitrate(bitrate);
+            }
             releasePackets(packet);
+            if (ret)
+                continue;
+
+            LOGE("RTMP_SendPacket err=%d", ret);
+            closeRtmp(rtmp);
+            if (!reconnectEnable) {
+                errCode = ERROR_RTMP_SEND_PACKET;
+                break;
+            }
+            uint32_t outageStart = RTMP_GetTime();
+            rtmp = reconnectRtmp(url);
+            if (!rtmp) {
+                errCode = isPushing ? ERROR_RTMP_SEND_PACKET : 0;
+                break;
+            }
+            notifyReconnect(0, RTMP_GetTime() - outageStart, true);
+            // 队列里是断线前的包, 队列满时的包已被丢弃, 清空后从新的关键帧恢复
+            dropStalePackets();
+            waitKeyFrame = true;
+            rebase = true;
+            keyFrameTime = RTMP_GetTime() - startTime;
+            if (videoStream) {
+                videoStream->requestKeyFrame();
+            }
         }
-    } while (0);
+    }
 
+    bool notify = errCode != 0 && (errCode != ERROR_RTMP_SEND_PACKET || isPushing);
     isPushing = false;
     packetQueue.setRunning(false);
+    LOGI("packet queue high water mark=%d", packetQueue.highWaterMark());
     packetQueue.clear();
-    if (rtmp) {
-        RTMP_Close(rtmp);
-        RTMP_Free(rtmp);
+    closeRtmp(rtmp);
+    releasePackets(avcHeader);
+    releasePackets(aacHeader);
+    delete[] url;
+    if (notify) {
+        notifyError(errCode);
     }
-    delete url;
     return nullptr;
 }
 
 RTMP_PUSH_FUNC(void, native_1init) {
+    env->GetJavaVM(&javaVM);
+    if (!pusherObj) {
+        pusherObj = env->NewGlobalRef(obj);
+    }
     videoStream = new VideoStream();
     audioStream = new AudioStream();
     videoStream->setVideoCallback(callback);
@@ -122,6 +341,25 @@ RTMP_PUSH_FUNC(void, native_1setVideoCodecInfo, jint width, jint height, jint fr
     if (!videoStream)
         return;
     videoStream->setVideoEncInfo(width, height, frameRate, bitrate);
+    bitrateController.setBitrate(bitrate);
+}
+
+RTMP_PUSH_FUNC(void, native_1setVideoEncoderProfile, jint threads, jboolean slicedThreads,
+               jstring jpreset, jint lookahead) {
+    if (!videoStream)
+        return;
+    const char *preset = jpreset ? env->GetStringUTFChars(jpreset, JNI_FALSE) : nullptr;
+    videoStream->setEncoderProfile(threads, slicedThreads, preset, lookahead);
+    if (preset) {
+        env->ReleaseStringUTFChars(jpreset, preset);
+    }
+}
+
+RTMP_PUSH_FUNC(void, native_1setAdaptiveBitrate, jint minBitrate, jint maxBitrate) {
+    bitrateController.setRange(minBitrate, maxBitrate);
+    if (videoStream) {
+        videoStream->setAdaptive(bitrateController.isEnable());
+    }
 }
 
 RTMP_PUSH_FUNC(void, native_1setAudioCodecInfo, jint sampleRate, jint channels) {
@@ -141,19 +379,55 @@ RTMP_PUSH_FUNC(void, native_1pushVideo, jbyteArray yuv) {
         return;
     jbyte *yuv_plane = env->GetByteArrayElements(yuv, JNI_FALSE);
     videoStream->encodeVideo(yuv_plane);
-    env->ReleaseByteArrayElements(yuv, yuv_plane, 0);
+    // 只读数据, 无需回写到Java数组
+    env->ReleaseByteArrayElements(yuv, yuv_plane, JNI_ABORT);
 }
 
-RTMP_PUSH_FUNC(void, native_1pushAudio, jbyteArray pcm) {
+RTMP_PUSH_FUNC(void, native_1pushAudio, jbyteArray pcm, jint length) {
     if (!audioStream || !isPushing)
         return;
+    int frameBytes = audioStream->getInputSamples() * 2;
+    if (length <= 0 || length > env->GetArrayLength(pcm))
+        return;
+    if (length < frameBytes) {
+        // 停止采集时最后不满一帧, 缓冲区后面是上一帧的旧数据, 补静音
+        std::vector<int8_t> frame(frameBytes, 0);
+        env->GetByteArrayRegion(pcm, 0, length, reinterpret_cast<jbyte *>(frame.data()));
+        audioStream->encodeAudio(frame.data());
+        return;
+    }
     jbyte *pcm_data = env->GetByteArrayElements(pcm, JNI_FALSE);
     audioStream->encodeAudio(pcm_data);
-    env->ReleaseByteArrayElements(pcm, pcm_data, 0);
+    env->ReleaseByteArrayElements(pcm, pcm_data, JNI_ABORT);
+}
+
+RTMP_PUSH_FUNC(void, native_1setReconnect, jboolean enable, jint maxAttempts) {
+    reconnectEnable      = enable;
+    maxReconnectAttempts = maxAttempts;
+}
+
+RTMP_PUSH_FUNC(void, native_1setDropPolicy, jint maxDelayMs, jint maxBytes) {
+    dropPolicy.setBudget(maxDelayMs, maxBytes);
+}
+
+RTMP_PUSH_FUNC(jlong, native_1getDroppedFrames) {
+    return dropPolicy.getDroppedFrames();
+}
+
+RTMP_PUSH_FUNC(jlong, native_1getDroppedBytes) {
+    return dropPolicy.getDroppedBytes();
 }
 
 RTMP_PUSH_FUNC(void, native_1stop) {
     LOGI("native stop pushing.");
+    if (videoStream) {
+        // 先发送帧级多线程和lookahead延迟的帧, 再停止发送线程
+        videoStream->flush();
+        for (int waited = 0; isPushing && !packetQueue.empty() && waited < STOP_DRAIN_TIMEOUT_MS;
+             waited += RECONNECT_SLICE_MS) {
+            std::this_thread::sleep_for(std::chrono::milliseconds(RECONNECT_SLICE_MS));
+        }
+    }
     isPushing = false;
     packetQueue.setRunning(false);
 }
@@ -163,4 +437,8 @@ RTMP_PUSH_FUNC(void, native_1release) {
     videoStream = nullptr;
     delete audioStream;
     audioStream = nullptr;
+    if (pusherObj) {
+        env->DeleteGlobalRef(pusherObj);
+        pusherObj = nullptr;
+    }
 }
\ No newline at end of file
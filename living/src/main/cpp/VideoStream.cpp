@@ -2,9 +2,27 @@
 // Created by xu fulong on 2022/9/22.
 //
 
+#include <thread>
+#include <cstring>
+#include <algorithm>
 #include "VideoStream.h"
 
-VideoStream::VideoStream():m_frameLen(0),
+// 帧级多线程每个线程增加一帧延时, 需要限制线程数
+#define MAX_FRAME_THREADS  4
+#define MAX_SLICED_THREADS 8
+
+VideoStream::VideoStream():m_width(0),
+                           m_height(0),
+                           m_frameLen(0),
+                           m_frameRate(0),
+                           m_bitrate(0),
+                           m_requestKeyFrame(false),
+                           m_pendingBitrate(0),
+                           m_threads(0),
+                           m_slicedThreads(true),
+                           m_lookahead(-1),
+                           m_adaptive(false),
+                           m_preset("ultrafast"),
                            m_pic_in(nullptr),
                            m_videoEncoder(nullptr),
                            videoCallback(nullptr) {
@@ -15,42 +33,98 @@ void VideoStream::setVideoCallback(VideoCallback callback) {
     videoCallback = callback;
 }
 
+void VideoStream::requestKeyFrame() {
+    m_requestKeyFrame = true;
+}
+
+void VideoStream::setBitrate(int bitrate) {
+    m_pendingBitrate = bitrate;
+}
+
+void VideoStream::applyBitrate(int bitrate) {
+    x264_param_t param;
+    x264_encoder_parameters(m_videoEncoder, &param);
+    // CRF不使用i_bitrate, 只有vbv上限生效; ABR下i_bitrate才是目标码率
+    param.rc.i_bitrate         = bitrate / 1024;
+    param.rc.i_vbv_max_bitrate = bitrate * 1.2 / 1024;
+    param.rc.i_vbv_buffer_size = bitrate / 1024;
+    x264_encoder_reconfig(m_videoEncoder, &param);
+}
+
+void VideoStream::setEncoderProfile(int threads, bool slicedThreads, const char *preset, int lookahead) {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    m_threads       = threads;
+    m_slicedThreads = slicedThreads;
+    m_lookahead     = lookahead;
+    m_preset        = (preset && strlen(preset) > 0) ? preset : "ultrafast";
+}
+
+void VideoStream::setAdaptive(bool adaptive) {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    m_adaptive = adaptive;
+}
+
 int VideoStream::setVideoEncInfo(int width, int height, int frameRate, int bitrate) {
     std::lock_guard<std::mutex> lock(m_mutex);
-    m_frameLen = width * height;
+    m_width     = width;
+    m_height    = height;
+    m_frameLen  = width * height;
+    m_frameRate = frameRate;
+    m_bitrate   = bitrate;
     if (m_videoEncoder) {
+        // 重新配置前先发送延迟的帧
+        drainEncoder();
         x264_encoder_close(m_videoEncoder);
         m_videoEncoder = nullptr;
     }
     if (m_pic_in) {
-        x264_picture_clean(m_pic_in);
         delete m_pic_in;
         m_pic_in = nullptr;
     }
+    return openEncoder();
+}
+
+int VideoStream::openEncoder() {
     // 设置x264默认参数
     x264_param_t param;
-    int ret = x264_param_default_preset(&param, "ultrafast", "zerolatency");
+    // zerolatency强制使用slice多线程
+    const char *tune = m_slicedThreads ? "zerolatency" : nullptr;
+    int ret = x264_param_default_preset(&param, m_preset.c_str(), tune);
     if (ret < 0) {
         return ret;
     }
-    param.i_width  = width;
-    param.i_height = height;
+    param.i_width  = m_width;
+    param.i_height = m_height;
     param.i_csp    = X264_CSP_I420;
     param.i_bframe = 0;
 
-    param.rc.i_rc_method       = X264_RC_CRF;
-    param.rc.i_bitrate         = bitrate / 1024;
-    param.rc.i_vbv_max_bitrate = bitrate * 1.2 / 1024;
-    param.rc.i_vbv_buffer_size = bitrate / 1024;
+    // reconfig不能切换码控方式, 自适应码率需要在打开编码器时选择ABR
+    param.rc.i_rc_method       = m_adaptive ? X264_RC_ABR : X264_RC_CRF;
+    param.rc.i_bitrate         = m_bitrate / 1024;
+    param.rc.i_vbv_max_bitrate = m_bitrate * 1.2 / 1024;
+    param.rc.i_vbv_buffer_size = m_bitrate / 1024;
 
-    param.i_fps_num      = frameRate;
+    param.i_fps_num      = m_frameRate;
     param.i_fps_den      = 1;
     param.i_timebase_num = param.i_fps_den;
     param.i_timebase_den = param.i_fps_num;
 
-    param.i_threads        = 1;
+    int threads = m_threads;
+    if (threads <= 0) {
+        // 留一个核给采集和推流
+        int cores = static_cast<int>(std::thread::hardware_concurrency());
+        threads   = std::max(1, cores - 1);
+    }
+    threads = std::min(threads, m_slicedThreads ? MAX_SLICED_THREADS : MAX_FRAME_THREADS);
+    param.i_threads        = threads;
+    param.b_sliced_threads = m_slicedThreads ? 1 : 0;
+    param.i_sync_lookahead = 0;
+    // 小于0时保留preset和tune的默认值
+    if (m_lookahead >= 0) {
+        param.rc.i_lookahead = m_lookahead;
+    }
     param.b_vfr_input      = 0;
-    param.i_keyint_max     = frameRate * 2;
+    param.i_keyint_max     = m_frameRate * 2;
     param.b_repeat_headers = 1; // 每个关键帧是否带sps和pps
 
     ret = x264_param_apply_profile(&param, "baseline");
@@ -58,9 +132,23 @@ int VideoStream::setVideoEncInfo(int width, int height, int frameRate, int bitra
         return ret;
     }
     m_videoEncoder = x264_encoder_open(&param);
+    if (!m_videoEncoder) {
+        return -1;
+    }
+    // 输入图像的plane直接指向调用方内存, 不再分配和拷贝
     m_pic_in = new x264_picture_t();
-    ret = x264_picture_alloc(m_pic_in, X264_CSP_I420, width, height);
-    return ret;
+    x264_picture_init(m_pic_in);
+    m_pic_in->img.i_csp   = X264_CSP_I420;
+    m_pic_in->img.i_plane = 3;
+    return 0;
+}
+
+int VideoStream::getWidth() const {
+    return m_width;
+}
+
+int VideoStream::getHeight() const {
+    return m_height;
 }
 
 void VideoStream::sendSpsPps(uint8_t *sps, uint8_t *pps, int spsLen, int ppsLen) {
@@ -103,21 +191,18 @@ void VideoStream::sendSpsPps(uint8_t *sps, uint8_t *pps, int spsLen, int ppsLen)
     videoCallback(packet);
 }
 
-void VideoStream::sendFrame(int type, uint8_t *payload, int payloadLen) {
-    // 减去start code 3或4个字节
-    if (payload[2] == 0x00) {
-        payloadLen -= 4;
-        payload += 4;
-    } else {
-        payloadLen -= 3;
-        payload += 3;
+void VideoStream::sendFrame(bool keyFrame, x264_nal_t *nals, int count) {
+    // 一帧的所有slice放到同一个tag, 每个nalu以4字节长度开头
+    int bodySize = 5;
+    for (int n = 0; n < count; ++n) {
+        // 3字节start code换成4字节长度, 多预留1个字节
+        bodySize += nals[n].i_payload + 1;
     }
     int i = 0;
-    int bodySize = 9 + payloadLen;
     RTMPPacket *packet = new RTMPPacket();
     RTMPPacket_Alloc(packet, bodySize);
 
-    if (type == NAL_SLICE_IDR) {
+    if (keyFrame) {
         packet->m_body[i++] = 0x17; // 1:key frame 7:AVC
     } else {
         packet->m_body[i++] = 0x27; // 2:none-key frame 7:AVC
@@ -127,16 +212,29 @@ void VideoStream::sendFrame(int type, uint8_t *payload, int payloadLen) {
     packet->m_body[i++] = 0x00;
     packet->m_body[i++] = 0x00;
     packet->m_body[i++] = 0x00;
-    // packet len
-    packet->m_body[i++] = (payloadLen >> 24) & 0xFF;
-    packet->m_body[i++] = (payloadLen >> 16) & 0xFF;
-    packet->m_body[i++] = (payloadLen >> 8) & 0xFF;
-    packet->m_body[i++] = (payloadLen) & 0xFF;
 
-    memcpy(&packet->m_body[i], payload, payloadLen);
+    for (int n = 0; n < count; ++n) {
+        uint8_t *payload = nals[n].p_payload;
+        int payloadLen   = nals[n].i_payload;
+        // 减去start code 3或4个字节
+        if (payload[2] == 0x00) {
+            payloadLen -= 4;
+            payload += 4;
+        } else {
+            payloadLen -= 3;
+            payload += 3;
+        }
+        // packet len
+        packet->m_body[i++] = (payloadLen >> 24) & 0xFF;
+        packet->m_body[i++] = (payloadLen >> 16) & 0xFF;
+        packet->m_body[i++] = (payloadLen >> 8) & 0xFF;
+        packet->m_body[i++] = (payloadLen) & 0xFF;
+        memcpy(&packet->m_body[i], payload, payloadLen);
+        i += payloadLen;
+    }
 
     packet->m_nChannel        = 0x10;
-    packet->m_nBodySize       = bodySize;
+    packet->m_nBodySize       = i;
     packet->m_headerType      = RTMP_PACKET_SIZE_MEDIUM;
     packet->m_packetType      = RTMP_PACKET_TYPE_VIDEO;
     packet->m_nTimeStamp      = 0;
@@ -144,27 +242,14 @@ void VideoStream::sendFrame(int type, uint8_t *payload, int payloadLen) {
     videoCallback(packet);
 }
 
-void VideoStream::encodeVideo(int8_t *data) {
-    std::lock_guard<std::mutex> lock(m_mutex);
-    assert(m_pic_in);
-    int offset = 0;
-    memcpy(m_pic_in->img.plane[0], data, m_frameLen);
-    offset += m_frameLen;
-    memcpy(m_pic_in->img.plane[1], data + offset, m_frameLen / 4);
-    offset += m_frameLen / 4;
-    memcpy(m_pic_in->img.plane[2], data + offset, m_frameLen / 4);
-
-    int pi_nal;
-    x264_nal_t *pp_nal;
-    x264_picture_t pic_out;
-    x264_encoder_encode(m_videoEncoder, &pp_nal, &pi_nal, m_pic_in, &pic_out);
+void VideoStream::sendNals(x264_nal_t *nals, int count, bool keyFrame) {
     int spsLen = 0;
     int ppsLen = 0;
     uint8_t sps[100];
     uint8_t pps[100];
-
-    for (int i = 0; i < pi_nal; ++i) {
-        x264_nal_t nal = pp_nal[i];
+    int first = 0;
+    for (; first < count; ++first) {
+        x264_nal_t nal = nals[first];
         if (nal.i_type == NAL_SPS) {
             spsLen = nal.i_payload - 4;
             memcpy(sps, nal.p_payload + 4, spsLen);
@@ -174,19 +259,80 @@ void VideoStream::encodeVideo(int8_t *data) {
             // 发送sps和pps数据
             sendSpsPps(sps, pps, spsLen, ppsLen);
         } else {
-            // 发送视频数据包
-            sendFrame(nal.i_type, nal.p_payload, nal.i_payload);
+            break;
+        }
+    }
+    if (first < count) {
+        // 发送视频数据包
+        sendFrame(keyFrame, nals + first, count - first);
+    }
+}
+
+void VideoStream::encodeVideo(int8_t *data) {
+    auto *y = reinterpret_cast<uint8_t *>(data);
+    uint8_t *u = y + m_frameLen;
+    uint8_t *v = u + m_frameLen / 4;
+    encodeVideo(y, m_width, u, m_width / 2, v, m_width / 2);
+}
+
+void VideoStream::encodeVideo(uint8_t *y, int yStride, uint8_t *u, int uStride, uint8_t *v, int vStride) {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    if (!m_pic_in || !m_videoEncoder)
+        return;
+    int bitrate = m_pendingBitrate.exchange(0);
+    if (bitrate > 0) {
+        applyBitrate(bitrate);
+    }
+    m_pic_in->img.plane[0]    = y;
+    m_pic_in->img.plane[1]    = u;
+    m_pic_in->img.plane[2]    = v;
+    m_pic_in->img.i_stride[0] = yStride;
+    m_pic_in->img.i_stride[1] = uStride;
+    m_pic_in->img.i_stride[2] = vStride;
+
+    int pi_nal;
+    x264_nal_t *pp_nal;
+    x264_picture_t pic_out;
+    // 丢弃GOP后强制编码IDR帧, 尽快恢复画面
+    m_pic_in->i_type = m_requestKeyFrame.exchange(false) ? X264_TYPE_IDR : X264_TYPE_AUTO;
+    // 帧级多线程和lookahead会延迟输出, 此时pi_nal为0
+    if (x264_encoder_encode(m_videoEncoder, &pp_nal, &pi_nal, m_pic_in, &pic_out) > 0) {
+        sendNals(pp_nal, pi_nal, pic_out.b_keyframe != 0);
+    }
+}
+
+void VideoStream::drainEncoder() {
+    int pi_nal;
+    x264_nal_t *pp_nal;
+    x264_picture_t pic_out;
+    while (x264_encoder_delayed_frames(m_videoEncoder) > 0) {
+        if (x264_encoder_encode(m_videoEncoder, &pp_nal, &pi_nal, nullptr, &pic_out) < 0)
+            break;
+        if (pi_nal > 0) {
+            sendNals(pp_nal, pi_nal, pic_out.b_keyframe != 0);
         }
     }
 }
 
+void VideoStream::flush() {
+    std::lock_guard<std::mutex> lock(m_mutex);
+    if (!m_videoEncoder)
+        return;
+    drainEncoder();
+    // 输入NULL之后x264停止lookahead线程, 编码器不能继续使用
+    x264_encoder_close(m_videoEncoder);
+    m_videoEncoder = nullptr;
+    delete m_pic_in;
+    m_pic_in = nullptr;
+    openEncoder();
+}
+
 VideoStream::~VideoStream() {
     if (m_videoEncoder) {
         x264_encoder_close(m_videoEncoder);
         m_videoEncoder = nullptr;
     }
     if (m_pic_in) {
-        x264_picture_clean(m_pic_in);
         delete m_pic_in;
         m_pic_in = nullptr;
     }
@@ -6,6 +6,8 @@
 #define LEARNINGMEDIA_VIDEOSTREAM_H
 
 #include <mutex>
+#include <atomic>
+#include <string>
 #include "inttypes.h"
 #include "x264/x264.h"
 #include "rtmp/rtmp.h"
@@ -16,7 +18,19 @@ class VideoStream {
 private:
     std::mutex m_mutex;
 
+    int m_width;
+    int m_height;
     int m_frameLen;
+    int m_frameRate;
+    int m_bitrate;
+    std::atomic<bool> m_requestKeyFrame;
+    std::atomic<int> m_pendingBitrate;
+
+    int m_threads;
+    bool m_slicedThreads;
+    int m_lookahead;
+    bool m_adaptive;
+    std::string m_preset;
     x264_t *m_videoEncoder;
     x264_picture_t *m_pic_in;
 
@@ -24,7 +38,15 @@ private:
 
     void sendSpsPps(uint8_t *sps, uint8_t *pps, int spsLen, int ppsLen);
 
-    void sendFrame(int type, uint8_t *payload, int payloadLen);
+    void sendFrame(bool keyFrame, x264_nal_t *nals, int count);
+
+    void sendNals(x264_nal_t *nals, int count, bool keyFrame);
+
+    int openEncoder();
+
+    void drainEncoder();
+
+    void applyBitrate(int bitrate);
 
 public:
 
@@ -32,10 +54,48 @@ public:
 
     ~VideoStream();
 
+    /**
+     * Set threading and speed of x264, which takes effect at setVideoEncInfo.
+     * @param threads       count of threads, 0 means auto
+     * @param slicedThreads slice-based threads keep latency at one frame,
+     *                      otherwise frame threads add a frame of latency per thread
+     * @param preset        preset of x264, such as ultrafast/superfast/veryfast
+     * @param lookahead     frames of rate control lookahead, -1 means auto
+     */
+    void setEncoderProfile(int threads, bool slicedThreads, const char *preset, int lookahead);
+
+    /**
+     * Use ABR instead of CRF while adaptive bitrate is on, which takes effect at setVideoEncInfo.
+     * x264 can't switch the rate control method by reconfig, and CRF ignores the target bitrate.
+     */
+    void setAdaptive(bool adaptive);
+
     int setVideoEncInfo(int width, int height, int frameRate, int bitrate);
 
     void encodeVideo(int8_t *data);
 
+    /**
+     * Encode the planes of I420 in place, x264 reads the planes without copying to m_pic_in.
+     */
+    void encodeVideo(uint8_t *y, int yStride, uint8_t *u, int uStride, uint8_t *v, int vStride);
+
+    /**
+     * Send the frames delayed by frame threads and lookahead, then reopen the encoder for the next start.
+     */
+    void flush();
+
+    int getWidth() const;
+
+    int getHeight() const;
+
+    void requestKeyFrame();
+
+    /**
+     * Change bitrate of the living encoder, which applies at the next frame.
+     * Under CRF only the VBV cap follows the bitrate, see setAdaptive.
+     */
+    void setBitrate(int bitrate);
+
     void setVideoCallback(VideoCallback callback);
 
 };
@@ -6,12 +6,16 @@ import android.view.SurfaceHolder;
 import android.view.View;
 
 import com.frank.living.listener.LiveStateChangeListener;
+import com.frank.living.listener.OnEncodeMetricsListener;
+import com.frank.living.listener.OnReconnectListener;
 import com.frank.living.listener.OnFrameDataCallback;
 import com.frank.living.param.AudioParam;
 import com.frank.living.param.VideoParam;
 import com.frank.living.stream.AudioChannelStream;
+import com.frank.living.stream.FrameEncodeQueue;
 import com.frank.living.stream.VideoStreamBase;
 import com.frank.living.stream.VideoChannelStream;
+import com.frank.living.util.BufferRecycler;
 
 public class LivePusher implements OnFrameDataCallback {
 
@@ -25,6 +29,9 @@ public class LivePusher implements OnFrameDataCallback {
     private final static int ERROR_RTMP_CONNECT_STREAM  = 0x06;
     private final static int ERROR_RTMP_SEND_PACKET     = 0x07;
 
+    private final static int VIDEO_QUEUE_CAPACITY = 3;
+    private final static int AUDIO_QUEUE_CAPACITY = 8;
+
     static {
         try {
             System.loadLibrary("live");
@@ -35,9 +42,12 @@ public class LivePusher implements OnFrameDataCallback {
 
     private final AudioChannelStream audioStream;
     private final VideoStreamBase videoStream;
+    private final FrameEncodeQueue videoEncodeQueue;
+    private final FrameEncodeQueue audioEncodeQueue;
 
     private final Activity activity;
     private LiveStateChangeListener liveStateChangeListener;
+    private OnReconnectListener onReconnectListener;
 
     public LivePusher(Activity activity,
                       VideoParam videoParam,
@@ -45,10 +55,35 @@ public class LivePusher implements OnFrameDataCallback {
                       View view) {
         this.activity = activity;
         native_init();
+        setEncoderProfile(videoParam);
+        videoEncodeQueue = new FrameEncodeQueue("VideoEncoder", VIDEO_QUEUE_CAPACITY,
+                FrameEncodeQueue.FullPolicy.DROP_OLDEST, new FrameEncodeQueue.FrameEncoder() {
+            @Override
+            public void encode(byte[] data, int length) {
+                pushVideo(data, 2);
+            }
+        });
+        audioEncodeQueue = new FrameEncodeQueue("AudioEncoder", AUDIO_QUEUE_CAPACITY,
+                FrameEncodeQueue.FullPolicy.DROP_OLDEST, new FrameEncodeQueue.FrameEncoder() {
+            @Override
+            public void encode(byte[] data, int length) {
+                pushAudio(data, length);
+            }
+        });
         audioStream = new AudioChannelStream(activity, this, audioParam);
         videoStream = new VideoChannelStream(this, view, videoParam, activity);
     }
 
+    /**
+     * Set threading and speed of the video encoder, which applies when the encoder opens.
+     *
+     * @param videoParam the encodeThreads/slicedThreads/encodePreset/lookahead of videoParam
+     */
+    public void setEncoderProfile(VideoParam videoParam) {
+        native_setVideoEncoderProfile(videoParam.getEncodeThreads(), videoParam.isSlicedThreads(),
+                videoParam.getEncodePreset(), videoParam.getLookahead());
+    }
+
     public void setPreviewDisplay(SurfaceHolder surfaceHolder) {
         videoStream.setPreviewDisplay(surfaceHolder);
     }
@@ -65,9 +100,96 @@ public class LivePusher implements OnFrameDataCallback {
         audioStream.setMute(isMute);
     }
 
+    /**
+     * Reconnect automatically when sending fails, the encoders keep running and
+     * the packets are buffered in a bounded queue meanwhile.
+     *
+     * @param enable      whether to reconnect
+     * @param maxAttempts max attempts of one outage, 0 means no limit
+     * @param listener    listener of reconnecting
+     */
+    public void setReconnect(boolean enable, int maxAttempts, OnReconnectListener listener) {
+        this.onReconnectListener = listener;
+        native_setReconnect(enable, maxAttempts);
+    }
+
+    /**
+     * Drop video frames when the uplink is congested, audio and sequence headers are always kept.
+     *
+     * @param maxDelayMs max duration of queued packets, 0 means no limit
+     * @param maxBytes   max bytes of queued packets, 0 means no limit
+     */
+    public void setDropPolicy(int maxDelayMs, int maxBytes) {
+        native_setDropPolicy(maxDelayMs, maxBytes);
+    }
+
+    /**
+     * Adapt the bitrate of video encoder to the throughput of uplink.
+     * The encoder switches from CRF to ABR when it opens, so call it before the preview starts.
+     *
+     * @param minBitrate min bitrate in bps
+     * @param maxBitrate max bitrate in bps, 0 means disable
+     */
+    public void setAdaptiveBitrate(int minBitrate, int maxBitrate) {
+        native_setAdaptiveBitrate(minBitrate, maxBitrate);
+    }
+
+    public long getDroppedFrames() {
+        return native_getDroppedFrames();
+    }
+
+    public long getDroppedBytes() {
+        return native_getDroppedBytes();
+    }
+
+    /**
+     * Set what to do when the encoder can't keep up with capturing.
+     *
+     * @param videoPolicy policy of video queue, DROP_OLDEST by default
+     * @param audioPolicy policy of audio queue, DROP_OLDEST by default
+     */
+    public void setEncodeQueuePolicy(FrameEncodeQueue.FullPolicy videoPolicy,
+                                     FrameEncodeQueue.FullPolicy audioPolicy) {
+        videoEncodeQueue.setPolicy(videoPolicy);
+        audioEncodeQueue.setPolicy(audioPolicy);
+    }
+
+    /**
+     * Listen to queue wait and encode cost of every frame.
+     */
+    public void setOnEncodeMetricsListener(final OnEncodeMetricsListener listener) {
+        if (listener == null) {
+            videoEncodeQueue.setMetricsCallback(null);
+            audioEncodeQueue.setMetricsCallback(null);
+            return;
+        }
+        videoEncodeQueue.setMetricsCallback(new FrameEncodeQueue.MetricsCallback() {
+            @Override
+            public void onFrameEncoded(long queueWaitUs, long encodeCostUs) {
+                listener.onFrameEncoded(true, queueWaitUs, encodeCostUs);
+            }
+        });
+        audioEncodeQueue.setMetricsCallback(new FrameEncodeQueue.MetricsCallback() {
+            @Override
+            public void onFrameEncoded(long queueWaitUs, long encodeCostUs) {
+                listener.onFrameEncoded(false, queueWaitUs, encodeCostUs);
+            }
+        });
+    }
+
+    public FrameEncodeQueue getVideoEncodeQueue() {
+        return videoEncodeQueue;
+    }
+
+    public FrameEncodeQueue getAudioEncodeQueue() {
+        return audioEncodeQueue;
+    }
+
     public void startPush(String path, LiveStateChangeListener stateChangeListener) {
         this.liveStateChangeListener = stateChangeListener;
         native_start(path);
+        videoEncodeQueue.start();
+        audioEncodeQueue.start();
         videoStream.startLive();
         audioStream.startLive();
     }
@@ -75,12 +197,16 @@ public class LivePusher implements OnFrameDataCallback {
     public void stopPush() {
         videoStream.stopLive();
         audioStream.stopLive();
+        videoEncodeQueue.stop();
+        audioEncodeQueue.stop();
         native_stop();
     }
 
     public void release() {
         videoStream.release();
         audioStream.release();
+        videoEncodeQueue.stop();
+        audioEncodeQueue.stop();
         native_release();
     }
 
@@ -122,6 +248,25 @@ public class LivePusher implements OnFrameDataCallback {
         }
     }
 
+    /**
+     * native层反射回调，重连状态
+     *
+     * @param attempt   count of attempts
+     * @param outageMs  duration of outage
+     * @param connected whether reconnected
+     */
+    public void reconnectFromNative(int attempt, long outageMs, boolean connected) {
+        OnReconnectListener listener = onReconnectListener;
+        if (listener == null) {
+            return;
+        }
+        if (connected) {
+            listener.onReconnected(outageMs);
+        } else {
+            listener.onReconnecting(attempt);
+        }
+    }
+
     private int getInputSamplesFromNative() {
         return native_getInputSamples();
     }
@@ -134,8 +279,8 @@ public class LivePusher implements OnFrameDataCallback {
         native_setAudioCodecInfo(sampleRateInHz, channels);
     }
 
-    private void pushAudio(byte[] data) {
-        native_pushAudio(data);
+    private void pushAudio(byte[] data, int length) {
+        native_pushAudio(data, length);
     }
 
     private void pushVideo(byte[] data, int cameraType) {
@@ -147,15 +292,34 @@ public class LivePusher implements OnFrameDataCallback {
         return getInputSamplesFromNative();
     }
 
+    @Override
+    public byte[] obtainAudioBuffer(int size) {
+        return audioEncodeQueue.obtain(size);
+    }
+
+    @Override
+    public void recycleAudioBuffer(byte[] pcm) {
+        audioEncodeQueue.recycle(pcm);
+    }
+
     @Override
     public void onAudioCodecInfo(int sampleRate, int channelCount) {
         setAudioCodecInfo(sampleRate, channelCount);
     }
 
     @Override
-    public void onAudioFrame(byte[] pcm) {
-        if (pcm != null) {
-            pushAudio(pcm);
+    public void onAudioFrame(byte[] pcm, int length) {
+        if (pcm != null && length > 0) {
+            audioEncodeQueue.put(pcm, length);
+        }
+    }
+
+    @Override
+    public void onAudioError(int errorCode) {
+        // only report, stopping from the capture thread would wait for itself; video keeps pushing
+        LiveStateChangeListener listener = liveStateChangeListener;
+        if (listener != null && activity != null) {
+            listener.onError(activity.getString(R.string.error_audio_record));
         }
     }
 
@@ -165,9 +329,10 @@ public class LivePusher implements OnFrameDataCallback {
     }
 
     @Override
-    public void onVideoFrame(byte[] yuv, int cameraType) {
+    public void onVideoFrame(byte[] yuv, int cameraType, BufferRecycler recycler) {
         if (yuv != null) {
-            pushVideo(yuv, cameraType);
+            // lent to the encoder thread without copying, and given back after encoding
+            videoEncodeQueue.put(yuv, yuv.length, recycler);
         }
     }
 
@@ -181,10 +346,23 @@ public class LivePusher implements OnFrameDataCallback {
 
     private native int native_getInputSamples();
 
-    private native void native_pushAudio(byte[] data);
+    private native void native_pushAudio(byte[] data, int length);
 
     private native void native_pushVideo(byte[] yuv, int cameraType);
 
+    private native void native_setReconnect(boolean enable, int maxAttempts);
+
+    private native void native_setDropPolicy(int maxDelayMs, int maxBytes);
+
+    private native void native_setVideoEncoderProfile(int threads, boolean slicedThreads,
+                                                      String preset, int lookahead);
+
+    private native void native_setAdaptiveBitrate(int minBitrate, int maxBitrate);
+
+    private native long native_getDroppedFrames();
+
+    private native long native_getDroppedBytes();
+
     private native void native_stop();
 
     private native void native_release();
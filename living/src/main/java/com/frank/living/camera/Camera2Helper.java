@@ -28,15 +28,15 @@ import android.view.TextureView;
 
 import androidx.annotation.NonNull;
 
-import com.frank.living.util.YUVUtil;
+import com.frank.living.util.YuvFramePool;
+import com.frank.living.util.YuvPlaneConverter;
+import com.frank.living.util.YuvTransform;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 
 @TargetApi(21)
@@ -47,6 +47,9 @@ public class Camera2Helper {
     public static final String CAMERA_ID_FRONT = "1";
     public static final String CAMERA_ID_BACK = "0";
 
+    // frames are held by the listener until encoded: pending, encoding and capturing
+    private static final int MAX_FRAMES_IN_FLIGHT = 5;
+
     private Context context;
     private String mCameraId;
     private String specificCameraId;
@@ -66,6 +69,12 @@ public class Camera2Helper {
 
     private Size mPreviewSize;
 
+    private Size mFrameSize;
+
+    private final Point cropSize;
+
+    private final boolean mirrorFront;
+
     private int rotateDegree = 0;
 
     private Camera2Helper(Builder builder) {
@@ -75,6 +84,8 @@ public class Camera2Helper {
         rotation = builder.rotation;
         rotateDegree = builder.rotateDegree;
         previewViewSize = builder.previewViewSize;
+        cropSize = builder.cropSize;
+        mirrorFront = builder.mirrorFront;
         context = builder.context;
     }
 
@@ -278,6 +289,14 @@ public class Camera2Helper {
         rotateDegree = degree;
     }
 
+    /**
+     * Size of the frame delivered to {@link Camera2Listener#onPreviewFrame}
+     * before rotating, which is the preview size cropped by cropSize.
+     */
+    public Size getFrameSize() {
+        return mFrameSize;
+    }
+
     public synchronized void stop() {
         if (mCameraDevice == null) {
             return;
@@ -325,6 +344,12 @@ public class Camera2Helper {
             return false;
         }
         mPreviewSize = getBestSupportedSize(new ArrayList<>(Arrays.asList(map.getOutputSizes(SurfaceTexture.class))));
+        if (cropSize != null) {
+            mFrameSize = new Size(Math.min(cropSize.x, mPreviewSize.getWidth()) & ~1,
+                    Math.min(cropSize.y, mPreviewSize.getHeight()) & ~1);
+        } else {
+            mFrameSize = mPreviewSize;
+        }
         mImageReader = ImageReader.newInstance(mPreviewSize.getWidth(), mPreviewSize.getHeight(),
                 ImageFormat.YUV_420_888, 2);
         mImageReader.setOnImageAvailableListener(
@@ -487,6 +512,10 @@ public class Camera2Helper {
 
         private int rotateDegree;
 
+        private Point cropSize;
+
+        private boolean mirrorFront;
+
         private Context context;
 
         public Builder() {
@@ -512,6 +541,22 @@ public class Camera2Helper {
             return this;
         }
 
+        /**
+         * Center crop the frame before rotating, the frame isn't cropped if not set.
+         */
+        public Builder cropSize(Point val) {
+            cropSize = val;
+            return this;
+        }
+
+        /**
+         * Mirror the frame of front camera horizontally.
+         */
+        public Builder mirrorFront(boolean val) {
+            mirrorFront = val;
+            return this;
+        }
+
         public Builder specificCameraId(String val) {
             specificCameraId = val;
             return this;
@@ -536,70 +581,68 @@ public class Camera2Helper {
     }
 
     private class OnImageAvailableListenerImpl implements ImageReader.OnImageAvailableListener {
-        private byte[] temp = null;
-        private byte[] yuvData = null;
-        private byte[] dstData = null;
-        private final ReentrantLock lock = new ReentrantLock();
+        private YuvFramePool framePool = null;
+        private YuvFramePool outputPool = null;
+        private YuvTransform transform = null;
+        private final YuvPlaneConverter converter = new YuvPlaneConverter();
 
         @Override
         public void onImageAvailable(ImageReader reader) {
             Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
             if (camera2Listener != null && image.getFormat() == ImageFormat.YUV_420_888) {
                 Image.Plane[] planes = image.getPlanes();
-                lock.lock();
-
-                int offset = 0;
                 int width  = image.getWidth();
                 int height = image.getHeight();
-                int len    = width * height;
-                if (yuvData == null) {
-                    yuvData = new byte[len * 3 / 2];
-                }
-                planes[0].getBuffer().get(yuvData, offset, len);
-                offset += len;
-                for (int i = 1; i < planes.length; i++) {
-                    int srcIndex = 0, dstIndex = 0;
-                    int rowStride = planes[i].getRowStride();
-                    int pixelsStride = planes[i].getPixelStride();
-                    ByteBuffer buffer = planes[i].getBuffer();
-                    if (temp == null || temp.length != buffer.capacity()) {
-                        temp = new byte[buffer.capacity()];
-                    }
-                    buffer.get(temp);
-
-                    for (int j = 0; j < height / 2; j++) {
-                        for (int k = 0; k < width / 2; k++) {
-                            yuvData[offset + dstIndex++] = temp[srcIndex];
-                            srcIndex += pixelsStride;
-                        }
-                        if (pixelsStride == 2) {
-                            srcIndex += rowStride - width;
-                        } else if (pixelsStride == 1) {
-                            srcIndex += rowStride - width / 2;
-                        }
+                if (framePool == null || framePool.getFrameSize() != YuvPlaneConverter.getFrameSize(width, height)) {
+                    framePool = new YuvFramePool(width, height, MAX_FRAMES_IN_FLIGHT);
+                    transform = new YuvTransform(width, height);
+                    if (mFrameSize != null) {
+                        transform.setCenterCrop(mFrameSize.getWidth(), mFrameSize.getHeight());
                     }
-                    offset += len / 4;
+                    outputPool = new YuvFramePool(transform.getDstWidth(), transform.getDstHeight(),
+                            MAX_FRAMES_IN_FLIGHT);
                 }
-
-                if (rotateDegree == 90 || rotateDegree == 180) {
+                byte[] yuvData = framePool.acquire();
+                if (yuvData == null) {
+                    // all frames are in flight, drop this one
+                    image.close();
+                    return;
+                }
+                converter.convert(planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[1].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                        planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride(),
+                        width, height, yuvData);
+                image.close();
+
+                int degree = (rotateDegree == 90 || rotateDegree == 180 || rotateDegree == 270) ? rotateDegree : 0;
+                boolean mirror = mirrorFront && CAMERA_ID_FRONT.equals(mCameraId);
+                boolean cropped = transform.getDstSize() != yuvData.length;
+                YuvFramePool pool = framePool;
+                byte[] frame = yuvData;
+                if (degree != 0 || mirror || cropped) {
+                    byte[] dstData = outputPool.acquire();
                     if (dstData == null) {
-                        dstData = new byte[len * 3 / 2];
-                    }
-                    if (rotateDegree == 90) {
-                        YUVUtil.YUV420pRotate90(dstData, yuvData, width, height);
-                    } else {
-                        YUVUtil.YUV420pRotate180(dstData, yuvData, width, height);
-                    }
-                    if (camera2Listener != null) {
-                        camera2Listener.onPreviewFrame(dstData);
+                        framePool.release(yuvData);
+                        return;
                     }
+                    transform.setRotation(degree);
+                    transform.setMirror(mirror);
+                    transform.transform(yuvData, dstData);
+                    framePool.release(yuvData);
+                    pool = outputPool;
+                    frame = dstData;
+                }
+                Camera2Listener listener = camera2Listener;
+                if (listener != null) {
+                    // the listener gives the frame back to pool after encoding
+                    listener.onPreviewFrame(frame, pool);
                 } else {
-                    if (camera2Listener != null) {
-                        camera2Listener.onPreviewFrame(yuvData);
-                    }
+                    pool.release(frame);
                 }
-
-                lock.unlock();
+                return;
             }
             image.close();
         }
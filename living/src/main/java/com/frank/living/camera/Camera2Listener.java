@@ -3,11 +3,17 @@ package com.frank.living.camera;
 
 import android.util.Size;
 
+import com.frank.living.util.BufferRecycler;
+
 public interface Camera2Listener {
 
     void onCameraOpened(Size previewSize, int displayOrientation);
 
-    void onPreviewFrame(byte[] yuvData);
+    /**
+     * @param yuvData  I420 frame, which is owned by the listener until it's given back
+     * @param recycler where the frame must be given back once it's no longer used
+     */
+    void onPreviewFrame(byte[] yuvData, BufferRecycler recycler);
 
     void onCameraClosed();
 
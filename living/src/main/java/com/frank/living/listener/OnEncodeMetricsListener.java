@@ -0,0 +1,14 @@
+package com.frank.living.listener;
+
+public interface OnEncodeMetricsListener {
+
+    /**
+     * Called on the encoder thread after a frame has been encoded.
+     *
+     * @param isVideo   whether the frame is video or audio
+     * @param queueWait time from queuing to encoding, in microseconds
+     * @param encodeCost time of encoding, in microseconds
+     */
+    void onFrameEncoded(boolean isVideo, long queueWait, long encodeCost);
+
+}
@@ -1,14 +1,45 @@
 package com.frank.living.listener;
 
+import com.frank.living.util.BufferRecycler;
+
 public interface OnFrameDataCallback {
 
     int getInputSamples();
 
-    void onAudioFrame(byte[] pcm);
+    /**
+     * Obtain a recycled buffer for pcm, which is owned by the receiver again after onAudioFrame.
+     *
+     * @param size bytes of pcm
+     * @return the buffer, or null if the frame should be dropped
+     */
+    byte[] obtainAudioBuffer(int size);
+
+    /**
+     * Give back a buffer from obtainAudioBuffer, which hasn't been filled.
+     */
+    void recycleAudioBuffer(byte[] pcm);
+
+    /**
+     * @param pcm    buffer from obtainAudioBuffer
+     * @param length bytes of pcm read into the buffer, less than a frame when capture stops
+     */
+    void onAudioFrame(byte[] pcm, int length);
+
+    /**
+     * Capture of audio has stopped on error, it's called on the thread of capture.
+     *
+     * @param errorCode AudioRecord.ERROR when recording can't start, otherwise the error of AudioRecord.read
+     */
+    void onAudioError(int errorCode);
 
     void onAudioCodecInfo(int sampleRate, int channelCount);
 
-    void onVideoFrame(byte[] yuv, int cameraType);
+    /**
+     * @param yuv        I420 frame, which is owned by the receiver until it's given back
+     * @param cameraType type of camera
+     * @param recycler   where the frame must be given back once it's no longer used
+     */
+    void onVideoFrame(byte[] yuv, int cameraType, BufferRecycler recycler);
 
     void onVideoCodecInfo(int width, int height, int frameRate, int bitrate);
 }
@@ -0,0 +1,19 @@
+package com.frank.living.listener;
+
+public interface OnReconnectListener {
+
+    /**
+     * Called on the pushing thread before every attempt of reconnecting.
+     *
+     * @param attempt count of attempts, starting from 1
+     */
+    void onReconnecting(int attempt);
+
+    /**
+     * Called on the pushing thread when the stream has been resumed.
+     *
+     * @param outageMs duration from disconnecting to reconnected
+     */
+    void onReconnected(long outageMs);
+
+}
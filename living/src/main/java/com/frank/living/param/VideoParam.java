@@ -6,6 +6,13 @@ public class VideoParam {
     private int cameraId;
     private int bitRate;
     private int frameRate;
+    // 0 means choosing by count of cores
+    private int encodeThreads = 0;
+    // sliced threads keep one frame latency, frame threads have better quality
+    private boolean slicedThreads = true;
+    private String encodePreset = "ultrafast";
+    // -1 means auto
+    private int lookahead = -1;
 
     public VideoParam(int width, int height, int cameraId, int bitRate, int frameRate) {
         this.width     = width;
@@ -54,4 +61,36 @@ public class VideoParam {
     public void setFrameRate(int frameRate) {
         this.frameRate = frameRate;
     }
+
+    public int getEncodeThreads() {
+        return encodeThreads;
+    }
+
+    public void setEncodeThreads(int encodeThreads) {
+        this.encodeThreads = encodeThreads;
+    }
+
+    public boolean isSlicedThreads() {
+        return slicedThreads;
+    }
+
+    public void setSlicedThreads(boolean slicedThreads) {
+        this.slicedThreads = slicedThreads;
+    }
+
+    public String getEncodePreset() {
+        return encodePreset;
+    }
+
+    public void setEncodePreset(String encodePreset) {
+        this.encodePreset = encodePreset;
+    }
+
+    public int getLookahead() {
+        return lookahead;
+    }
+
+    public void setLookahead(int lookahead) {
+        this.lookahead = lookahead;
+    }
 }
@@ -6,21 +6,32 @@ import android.content.pm.PackageManager;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
 import com.frank.living.listener.OnFrameDataCallback;
 import com.frank.living.param.AudioParam;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class AudioChannelStream {
 
-    private boolean isMute;
-    private boolean isLiving;
+    private static final String TAG = AudioChannelStream.class.getSimpleName();
+
+    private static final long STOP_TIMEOUT_MS = 500;
+
+    private volatile boolean isMute;
+    private volatile boolean isLiving;
     private final int inputSamples;
     private final ExecutorService executor;
+    private Future<?> audioFuture;
     private AudioRecord audioRecord = null;
     private final OnFrameDataCallback mCallback;
 
@@ -45,39 +56,135 @@ public class AudioChannelStream {
         }
         audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, audioParam.getSampleRate(),
                 channelConfig, audioParam.getAudioFormat(), bufferSizeInBytes);
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            Log.e(TAG, "init AudioRecord error");
+            audioRecord.release();
+            audioRecord = null;
+        }
     }
 
 
-    public void startLive() {
+    public synchronized void startLive() {
+        if (isLiving || audioRecord == null || executor.isShutdown()) {
+            return;
+        }
         isLiving = true;
-        executor.submit(new AudioTask());
+        audioFuture = executor.submit(new AudioTask(audioRecord));
     }
 
-    public void stopLive() {
+    /**
+     * Stop capturing, and wait for the recorder to stop.
+     */
+    public synchronized void stopLive() {
         isLiving = false;
+        if (audioFuture == null) {
+            return;
+        }
+        try {
+            audioFuture.get(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "stop audio task error=" + e);
+        }
+        audioFuture = null;
     }
 
 
-    public void release() {
-        audioRecord.release();
+    public synchronized void release() {
+        stopLive();
+        if (audioRecord != null) {
+            final AudioRecord record = audioRecord;
+            audioRecord = null;
+            // the audio task may outlive the timeout of stopLive, so release after it on the same thread
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    record.release();
+                }
+            });
+        }
+        executor.shutdown();
     }
 
 
     class AudioTask implements Runnable {
 
+        private final AudioRecord record;
+
+        AudioTask(AudioRecord record) {
+            this.record = record;
+        }
+
         @Override
         public void run() {
-            audioRecord.startRecording();
-            byte[] bytes = new byte[inputSamples];
+            record.startRecording();
+            // the mic may be held by another app, then recording doesn't start
+            if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+                onError(AudioRecord.ERROR);
+                return;
+            }
+            byte[] scratch = null;
             while (isLiving) {
-                if (!isMute) {
-                    int len = audioRecord.read(bytes, 0, bytes.length);
-                    if (len > 0) {
-                        mCallback.onAudioFrame(bytes);
+                // reading blocks at the cadence of recorder, so mute doesn't spin
+                byte[] bytes = mCallback.obtainAudioBuffer(inputSamples);
+                boolean dropped = bytes == null;
+                if (dropped) {
+                    if (scratch == null) {
+                        scratch = new byte[inputSamples];
+                    }
+                    bytes = scratch;
+                }
+                int len = readFrame(bytes);
+                if (len < 0) {
+                    // errors such as ERROR_INVALID_OPERATION and ERROR_DEAD_OBJECT don't go away
+                    // by reading again, so stop instead of spinning on them
+                    if (!dropped) {
+                        mCallback.recycleAudioBuffer(bytes);
                     }
+                    onError(len);
+                    break;
+                }
+                if (dropped) {
+                    continue;
                 }
+                if (len == 0) {
+                    mCallback.recycleAudioBuffer(bytes);
+                    continue;
+                }
+                if (isMute) {
+                    // keep the timeline of audio with silence
+                    Arrays.fill(bytes, 0, len, (byte) 0);
+                }
+                mCallback.onAudioFrame(bytes, len);
             }
-            audioRecord.stop();
+            record.stop();
+        }
+
+        /**
+         * Fill a frame across short reads, it's only partial when stopping.
+         *
+         * @return bytes read, or the error code of AudioRecord
+         */
+        private int readFrame(byte[] bytes) {
+            int filled = 0;
+            while (filled < inputSamples && isLiving) {
+                int len = record.read(bytes, filled, inputSamples - filled);
+                if (len < 0) {
+                    return len;
+                }
+                if (len == 0) {
+                    break;
+                }
+                filled += len;
+            }
+            return filled;
+        }
+
+        private void onError(int errorCode) {
+            Log.e(TAG, "audio record error=" + errorCode);
+            isLiving = false;
+            mCallback.onAudioError(errorCode);
         }
     }
 
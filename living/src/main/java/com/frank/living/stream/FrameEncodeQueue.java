@@ -0,0 +1,382 @@
+package com.frank.living.stream;
+
+import android.util.Log;
+
+import com.frank.living.util.BufferRecycler;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue between capture and encoder, with a dedicated encoder thread.
+ * Frames are never copied: a producer either fills a slot in place, by
+ * {@link #obtain(int)} and then {@link #put(byte[], int)}, or lends its own
+ * buffer by {@link #put(byte[], int, BufferRecycler)}, which is given back
+ * once the frame has been encoded or dropped.
+ */
+public class FrameEncodeQueue {
+
+    private static final String TAG = FrameEncodeQueue.class.getSimpleName();
+
+    /**
+     * What to do when the queue is full.
+     */
+    public enum FullPolicy {
+        // replace the oldest pending frame
+        DROP_OLDEST,
+        // discard the incoming frame
+        DROP_NEWEST,
+        // block the capture thread until a slot is free
+        BLOCK
+    }
+
+    public interface FrameEncoder {
+        void encode(byte[] data, int length);
+    }
+
+    public interface MetricsCallback {
+        void onFrameEncoded(long queueWaitUs, long encodeCostUs);
+    }
+
+    private static class Slot {
+        byte[] data;
+        int length;
+        long queueTime;
+        // owner of data lent by put, null when data belongs to the slot
+        BufferRecycler recycler;
+    }
+
+    private final String name;
+    private final int capacity;
+    private final FrameEncoder encoder;
+    private volatile FullPolicy policy;
+    private volatile MetricsCallback metricsCallback;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Slot> pending;
+    private final ArrayDeque<Slot> free;
+    // slots handed to the producer by obtain()
+    private final ArrayDeque<Slot> obtained;
+    private int allocated;
+    private boolean running;
+    private Thread thread;
+
+    private long droppedFrames;
+    private long encodedFrames;
+    private long totalQueueWaitUs;
+    private long totalEncodeCostUs;
+
+    public FrameEncodeQueue(String name, int capacity, FullPolicy policy, FrameEncoder encoder) {
+        this.name     = name;
+        this.capacity = capacity;
+        this.policy   = policy;
+        this.encoder  = encoder;
+        this.pending  = new ArrayDeque<>(capacity);
+        this.free     = new ArrayDeque<>(capacity);
+        this.obtained = new ArrayDeque<>(capacity);
+    }
+
+    public void setPolicy(FullPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void setMetricsCallback(MetricsCallback callback) {
+        this.metricsCallback = callback;
+    }
+
+    public void start() {
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            running = true;
+            thread = new Thread(new EncodeTask(), name);
+            thread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void stop() {
+        Thread encodeThread;
+        lock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+            encodeThread = thread;
+            thread = null;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            encodeThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            discardPending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pending frames are discarded rather than encoded, so stopping doesn't wait for a backlog
+     * of encodes. They count as dropped, and lent buffers go back to their owners.
+     */
+    private void discardPending() {
+        Slot slot;
+        while ((slot = pending.pollFirst()) != null) {
+            droppedFrames++;
+            freeSlot(slot);
+        }
+    }
+
+    /**
+     * Give the lent buffer of slot back to its owner.
+     */
+    private static void giveBack(Slot slot) {
+        if (slot.recycler != null) {
+            slot.recycler.recycle(slot.data);
+            slot.recycler = null;
+            slot.data = null;
+        }
+    }
+
+    private void freeSlot(Slot slot) {
+        giveBack(slot);
+        free.addLast(slot);
+        notFull.signal();
+    }
+
+    /**
+     * Obtain a buffer of slot to be filled in place and then put.
+     *
+     * @param length min length of buffer
+     * @return the buffer, or null when the frame should be dropped according to policy
+     */
+    public byte[] obtain(int length) {
+        Slot slot;
+        lock.lock();
+        try {
+            slot = obtainSlot();
+            if (slot == null) {
+                if (running) {
+                    droppedFrames++;
+                }
+                return null;
+            }
+            if (slot.data == null || slot.data.length < length) {
+                slot.data = new byte[length];
+            }
+            obtained.addLast(slot);
+        } finally {
+            lock.unlock();
+        }
+        return slot.data;
+    }
+
+    /**
+     * Give back a buffer from {@link #obtain(int)} without encoding it.
+     */
+    public void recycle(byte[] data) {
+        lock.lock();
+        try {
+            Slot slot = removeObtained(data);
+            if (slot != null) {
+                freeSlot(slot);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Slot removeObtained(byte[] data) {
+        for (Slot slot : obtained) {
+            if (slot.data == data) {
+                obtained.remove(slot);
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queue a buffer from {@link #obtain(int)} for encoding.
+     *
+     * @return false if the frame has been dropped
+     * @throws IllegalArgumentException if data wasn't obtained from this queue
+     */
+    public boolean put(byte[] data, int length) {
+        lock.lock();
+        try {
+            Slot slot = removeObtained(data);
+            if (slot == null) {
+                throw new IllegalArgumentException("buffer isn't obtained from " + name);
+            }
+            return enqueue(slot, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a buffer of the caller for encoding without copying. The buffer is owned by the queue
+     * until it's given back by recycler, after encoding, or when the frame is dropped,
+     * which may happen before returning.
+     *
+     * @param data     the frame
+     * @param length   bytes of the frame
+     * @param recycler owner of data
+     * @return false if the frame has been dropped
+     */
+    public boolean put(byte[] data, int length, BufferRecycler recycler) {
+        lock.lock();
+        try {
+            Slot slot = obtainSlot();
+            if (slot == null) {
+                if (running) {
+                    droppedFrames++;
+                }
+                recycler.recycle(data);
+                return false;
+            }
+            slot.data = data;
+            slot.recycler = recycler;
+            return enqueue(slot, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean enqueue(Slot slot, int length) {
+        slot.length = length;
+        slot.queueTime = System.nanoTime();
+        if (!running) {
+            freeSlot(slot);
+            return false;
+        }
+        pending.addLast(slot);
+        notEmpty.signal();
+        return true;
+    }
+
+    private Slot obtainSlot() {
+        while (running) {
+            Slot slot = free.pollFirst();
+            if (slot != null) {
+                return slot;
+            }
+            if (allocated < capacity) {
+                allocated++;
+                return new Slot();
+            }
+            switch (policy) {
+                case DROP_OLDEST:
+                    // null when every slot is being filled or encoded
+                    slot = pending.pollFirst();
+                    if (slot != null) {
+                        droppedFrames++;
+                        giveBack(slot);
+                    }
+                    return slot;
+                case BLOCK:
+                    notFull.awaitUninterruptibly();
+                    break;
+                case DROP_NEWEST:
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    public long getDroppedFrames() {
+        lock.lock();
+        try {
+            return droppedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return average time from queuing to encoding, in microseconds
+     */
+    public long getAverageQueueWait() {
+        lock.lock();
+        try {
+            return encodedFrames > 0 ? totalQueueWaitUs / encodedFrames : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return average time of encoding, in microseconds
+     */
+    public long getAverageEncodeCost() {
+        lock.lock();
+        try {
+            return encodedFrames > 0 ? totalEncodeCostUs / encodedFrames : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class EncodeTask implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                Slot slot;
+                lock.lock();
+                try {
+                    while (running && pending.isEmpty()) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    slot = pending.pollFirst();
+                } finally {
+                    lock.unlock();
+                }
+
+                long start = System.nanoTime();
+                try {
+                    encoder.encode(slot.data, slot.length);
+                } catch (Exception e) {
+                    Log.e(TAG, name + " encode error=" + e);
+                }
+                long end = System.nanoTime();
+                long queueWait = (start - slot.queueTime) / 1000;
+                long encodeCost = (end - start) / 1000;
+
+                lock.lock();
+                try {
+                    encodedFrames++;
+                    totalQueueWaitUs += queueWait;
+                    totalEncodeCostUs += encodeCost;
+                    freeSlot(slot);
+                } finally {
+                    lock.unlock();
+                }
+                MetricsCallback callback = metricsCallback;
+                if (callback != null) {
+                    callback.onFrameEncoded(queueWait, encodeCost);
+                }
+            }
+        }
+    }
+
+}
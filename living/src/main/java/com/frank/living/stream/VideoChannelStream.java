@@ -15,6 +15,7 @@ import com.frank.living.camera.Camera2Helper;
 import com.frank.living.camera.Camera2Listener;
 import com.frank.living.listener.OnFrameDataCallback;
 import com.frank.living.param.VideoParam;
+import com.frank.living.util.BufferRecycler;
 
 public class VideoChannelStream extends VideoStreamBase
         implements TextureView.SurfaceTextureListener, Camera2Listener {
@@ -55,6 +56,7 @@ public class VideoChannelStream extends VideoStreamBase
                 .context(mContext.getApplicationContext())
                 .previewOn(mTextureView)
                 .previewViewSize(new Point(mVideoParam.getWidth(), mVideoParam.getHeight()))
+                .cropSize(new Point(mVideoParam.getWidth(), mVideoParam.getHeight()))
                 .rotation(rotation)
                 .rotateDegree(getPreviewDegree(rotation))
                 .build();
@@ -124,12 +126,15 @@ public class VideoChannelStream extends VideoStreamBase
     /**
      * Camera2 preview frame data
      *
-     * @param yuvData data of yuv
+     * @param yuvData  data of yuv
+     * @param recycler owner of yuvData
      */
     @Override
-    public void onPreviewFrame(byte[] yuvData) {
+    public void onPreviewFrame(byte[] yuvData, BufferRecycler recycler) {
         if (isLiving && mCallback != null) {
-            mCallback.onVideoFrame(yuvData, 2);
+            mCallback.onVideoFrame(yuvData, 2, recycler);
+        } else {
+            recycler.recycle(yuvData);
         }
     }
 
@@ -173,8 +178,9 @@ public class VideoChannelStream extends VideoStreamBase
     private void updateVideoCodecInfo(int degree) {
         camera2Helper.updatePreviewDegree(degree);
         if (mCallback != null && mVideoParam != null) {
-            int width = previewSize.getWidth();
-            int height = previewSize.getHeight();
+            Size frameSize = camera2Helper.getFrameSize() != null ? camera2Helper.getFrameSize() : previewSize;
+            int width = frameSize.getWidth();
+            int height = frameSize.getHeight();
             if (degree == 90 || degree == 270) {
                 int temp = width;
                 width = height;
@@ -0,0 +1,10 @@
+package com.frank.living.util;
+
+/**
+ * Owner of a buffer lent to somebody else, which gets the buffer back once it is no longer used.
+ */
+public interface BufferRecycler {
+
+    void recycle(byte[] buffer);
+
+}
@@ -1,5 +1,9 @@
 package com.frank.living.util;
 
+/**
+ * @deprecated use {@link YuvTransform}, which supports crop, 270 and mirror in one pass.
+ */
+@Deprecated
 public class YUVUtil {
 
     public static void YUV420pRotate90(byte[] dst, byte[] src, int width, int height) {
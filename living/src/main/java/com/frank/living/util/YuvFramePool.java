@@ -0,0 +1,64 @@
+package com.frank.living.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of I420 frame buffers.
+ * A frame acquired from the pool is owned by the caller until it is released,
+ * so a frame in flight is never overwritten by the next capture.
+ */
+public class YuvFramePool implements BufferRecycler {
+
+    private final int frameSize;
+    private final int maxFrames;
+    private int allocated;
+    private final ArrayDeque<byte[]> freeFrames;
+
+    public YuvFramePool(int width, int height, int maxFrames) {
+        this.frameSize  = YuvPlaneConverter.getFrameSize(width, height);
+        this.maxFrames  = maxFrames;
+        this.freeFrames = new ArrayDeque<>(maxFrames);
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Obtain a free frame.
+     *
+     * @return a frame buffer, or null when all frames are in flight
+     */
+    public synchronized byte[] acquire() {
+        byte[] frame = freeFrames.pollFirst();
+        if (frame == null && allocated < maxFrames) {
+            frame = new byte[frameSize];
+            allocated++;
+        }
+        return frame;
+    }
+
+    /**
+     * Give a frame back to the pool, frames of other size are discarded.
+     *
+     * @param frame the frame obtained from {@link #acquire()}
+     */
+    public synchronized void release(byte[] frame) {
+        if (frame == null || frame.length != frameSize) {
+            return;
+        }
+        if (freeFrames.size() < allocated) {
+            freeFrames.offerFirst(frame);
+        }
+    }
+
+    @Override
+    public void recycle(byte[] buffer) {
+        release(buffer);
+    }
+
+    public synchronized int getFramesInFlight() {
+        return allocated - freeFrames.size();
+    }
+
+}
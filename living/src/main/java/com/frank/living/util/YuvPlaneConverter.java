@@ -0,0 +1,107 @@
+package com.frank.living.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Convert the planes of YUV_420_888 into I420, reading the plane buffers
+ * with bulk row copies. Both planar (pixelStride=1) and semi-planar
+ * NV12/NV21 (pixelStride=2) layouts are supported.
+ * The converter keeps its scratch row, so it isn't thread safe.
+ */
+public class YuvPlaneConverter {
+
+    private byte[] rowBuffer;
+
+    /**
+     * Copy the plane of luma into dst.
+     *
+     * @param src       buffer of y plane
+     * @param rowStride row stride of y plane
+     * @param width     width of image
+     * @param height    height of image
+     * @param dst       I420 frame
+     */
+    public void copyLuma(ByteBuffer src, int rowStride, int width, int height, byte[] dst) {
+        int start = src.position();
+        if (rowStride == width) {
+            src.get(dst, 0, width * height);
+        } else {
+            for (int row = 0; row < height; row++) {
+                src.position(start + row * rowStride);
+                src.get(dst, row * width, width);
+            }
+        }
+        src.position(start);
+    }
+
+    /**
+     * Copy one plane of chroma into dst, de-interleaving when pixelStride > 1.
+     *
+     * @param src         buffer of u or v plane
+     * @param rowStride   row stride of the plane
+     * @param pixelStride pixel stride of the plane
+     * @param width       width of the chroma plane
+     * @param height      height of the chroma plane
+     * @param dst         I420 frame
+     * @param offset      offset of the plane in dst
+     */
+    public void copyChroma(ByteBuffer src, int rowStride, int pixelStride,
+                           int width, int height, byte[] dst, int offset) {
+        int start = src.position();
+        if (pixelStride == 1) {
+            if (rowStride == width) {
+                src.get(dst, offset, width * height);
+            } else {
+                for (int row = 0; row < height; row++) {
+                    src.position(start + row * rowStride);
+                    src.get(dst, offset + row * width, width);
+                }
+            }
+        } else {
+            // the last row may be shorter than rowStride
+            int rowLen = (width - 1) * pixelStride + 1;
+            if (rowBuffer == null || rowBuffer.length < rowLen) {
+                rowBuffer = new byte[rowLen];
+            }
+            byte[] row = rowBuffer;
+            int dstIndex = offset;
+            for (int j = 0; j < height; j++) {
+                src.position(start + j * rowStride);
+                src.get(row, 0, rowLen);
+                if (pixelStride == 2) {
+                    for (int k = 0; k < rowLen; k += 2) {
+                        dst[dstIndex++] = row[k];
+                    }
+                } else {
+                    for (int k = 0; k < rowLen; k += pixelStride) {
+                        dst[dstIndex++] = row[k];
+                    }
+                }
+            }
+        }
+        src.position(start);
+    }
+
+    /**
+     * Size of an I420 frame, the chroma of an odd width or height is rounded up.
+     */
+    public static int getFrameSize(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * Convert the three planes of YUV_420_888 into I420.
+     */
+    public void convert(ByteBuffer y, int yRowStride,
+                        ByteBuffer u, int uRowStride, int uPixelStride,
+                        ByteBuffer v, int vRowStride, int vPixelStride,
+                        int width, int height, byte[] dst) {
+        int len = width * height;
+        int chromaWidth  = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        copyLuma(y, yRowStride, width, height, dst);
+        copyChroma(u, uRowStride, uPixelStride, chromaWidth, chromaHeight, dst, len);
+        copyChroma(v, vRowStride, vPixelStride, chromaWidth, chromaHeight, dst, len + chromaWidth * chromaHeight);
+    }
+
+}
@@ -0,0 +1,245 @@
+package com.frank.living.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Crop, rotate(0/90/180/270) and mirror an I420 frame in one pass.
+ * Rotation of 90 and 270 walks the source in tiles, so that both the reads
+ * and the writes of a tile stay in cache. Mirror is a horizontal flip of
+ * the output. The planes may be split across a fork-join pool.
+ */
+public class YuvTransform {
+
+    private static final int TILE_SIZE = 32;
+
+    private final int srcWidth;
+    private final int srcHeight;
+
+    private int cropX;
+    private int cropY;
+    private int cropWidth;
+    private int cropHeight;
+    private int rotation;
+    private boolean mirror;
+    private ForkJoinPool pool;
+
+    public YuvTransform(int srcWidth, int srcHeight) {
+        this.srcWidth   = srcWidth;
+        this.srcHeight  = srcHeight;
+        this.cropWidth  = srcWidth;
+        this.cropHeight = srcHeight;
+    }
+
+    /**
+     * Set the crop rect of source, which is aligned to even for chroma.
+     */
+    public void setCrop(int x, int y, int width, int height) {
+        x = Math.max(0, Math.min(x, srcWidth)) & ~1;
+        y = Math.max(0, Math.min(y, srcHeight)) & ~1;
+        cropX      = x;
+        cropY      = y;
+        cropWidth  = Math.min(width, srcWidth - x) & ~1;
+        cropHeight = Math.min(height, srcHeight - y) & ~1;
+    }
+
+    /**
+     * Crop the center of source with the given size.
+     */
+    public void setCenterCrop(int width, int height) {
+        width  = Math.min(width, srcWidth);
+        height = Math.min(height, srcHeight);
+        setCrop((srcWidth - width) / 2, (srcHeight - height) / 2, width, height);
+    }
+
+    public void setRotation(int degree) {
+        if (degree != 0 && degree != 90 && degree != 180 && degree != 270) {
+            throw new IllegalArgumentException("unsupported rotation=" + degree);
+        }
+        rotation = degree;
+    }
+
+    public void setMirror(boolean mirror) {
+        this.mirror = mirror;
+    }
+
+    /**
+     * Split the planes across the pool, null means transforming on the caller thread.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public int getDstWidth() {
+        return (rotation == 90 || rotation == 270) ? cropHeight : cropWidth;
+    }
+
+    public int getDstHeight() {
+        return (rotation == 90 || rotation == 270) ? cropWidth : cropHeight;
+    }
+
+    public int getDstSize() {
+        return cropWidth * cropHeight * 3 / 2;
+    }
+
+    public void transform(byte[] src, byte[] dst) {
+        int srcLen = srcWidth * srcHeight;
+        int dstLen = cropWidth * cropHeight;
+        // chroma of an odd source is rounded up, as YuvPlaneConverter writes it
+        int halfWidth = (srcWidth + 1) / 2;
+        int halfHeight = (srcHeight + 1) / 2;
+        if (pool == null) {
+            transformPlane(src, 0, srcWidth, cropX, cropY, cropWidth, cropHeight,
+                    dst, 0, 0, cropHeight);
+            transformPlane(src, srcLen, halfWidth, cropX / 2, cropY / 2, cropWidth / 2, cropHeight / 2,
+                    dst, dstLen, 0, cropHeight / 2);
+            transformPlane(src, srcLen + halfWidth * halfHeight, halfWidth, cropX / 2, cropY / 2,
+                    cropWidth / 2, cropHeight / 2, dst, dstLen + dstLen / 4, 0, cropHeight / 2);
+        } else {
+            // luma is as large as both chroma planes, so split it into two bands
+            int band = (cropHeight / 2 + TILE_SIZE - 1) / TILE_SIZE * TILE_SIZE;
+            band = Math.min(band, cropHeight);
+            pool.invoke(new TransformTask(
+                    new PlaneTask(src, 0, srcWidth, cropX, cropY, cropWidth, cropHeight,
+                            dst, 0, 0, band),
+                    new PlaneTask(src, 0, srcWidth, cropX, cropY, cropWidth, cropHeight,
+                            dst, 0, band, cropHeight),
+                    new PlaneTask(src, srcLen, halfWidth, cropX / 2, cropY / 2,
+                            cropWidth / 2, cropHeight / 2, dst, dstLen, 0, cropHeight / 2),
+                    new PlaneTask(src, srcLen + halfWidth * halfHeight, halfWidth, cropX / 2, cropY / 2,
+                            cropWidth / 2, cropHeight / 2, dst, dstLen + dstLen / 4, 0, cropHeight / 2)));
+        }
+    }
+
+    /**
+     * Transform the rows [rowStart, rowEnd) of the cropped plane.
+     */
+    private void transformPlane(byte[] src, int srcOffset, int srcStride,
+                                int x0, int y0, int width, int height,
+                                byte[] dst, int dstOffset, int rowStart, int rowEnd) {
+        switch (rotation) {
+            case 0:
+                if (mirror) {
+                    flipRows(src, srcOffset, srcStride, x0, y0, width, height,
+                            dst, dstOffset, rowStart, rowEnd, false);
+                } else {
+                    for (int y = rowStart; y < rowEnd; y++) {
+                        System.arraycopy(src, srcOffset + (y0 + y) * srcStride + x0,
+                                dst, dstOffset + y * width, width);
+                    }
+                }
+                break;
+            case 180:
+                if (mirror) {
+                    // rotate 180 and mirror is a vertical flip
+                    for (int y = rowStart; y < rowEnd; y++) {
+                        System.arraycopy(src, srcOffset + (y0 + y) * srcStride + x0,
+                                dst, dstOffset + (height - 1 - y) * width, width);
+                    }
+                } else {
+                    flipRows(src, srcOffset, srcStride, x0, y0, width, height,
+                            dst, dstOffset, rowStart, rowEnd, true);
+                }
+                break;
+            case 90:
+            case 270:
+                rotateTiles(src, srcOffset, srcStride, x0, y0, width, height,
+                        dst, dstOffset, rowStart, rowEnd);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void flipRows(byte[] src, int srcOffset, int srcStride, int x0, int y0, int width, int height,
+                                 byte[] dst, int dstOffset, int rowStart, int rowEnd, boolean reverseRows) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int srcIndex = srcOffset + (y0 + y) * srcStride + x0;
+            int dstRow = reverseRows ? (height - 1 - y) : y;
+            int dstIndex = dstOffset + dstRow * width + width - 1;
+            for (int x = 0; x < width; x++) {
+                dst[dstIndex--] = src[srcIndex++];
+            }
+        }
+    }
+
+    private void rotateTiles(byte[] src, int srcOffset, int srcStride, int x0, int y0, int width, int height,
+                             byte[] dst, int dstOffset, int rowStart, int rowEnd) {
+        // dst is height wide and width high
+        int dstStride = height;
+        // clockwise 90: (x, y) -> (height-1-y, x), 270: (x, y) -> (y, width-1-x)
+        boolean flipX = (rotation == 90) != mirror;
+        int colStep = (rotation == 90) ? dstStride : -dstStride;
+        for (int ty = rowStart; ty < rowEnd; ty += TILE_SIZE) {
+            int tyEnd = Math.min(ty + TILE_SIZE, rowEnd);
+            for (int tx = 0; tx < width; tx += TILE_SIZE) {
+                int txEnd = Math.min(tx + TILE_SIZE, width);
+                int dstRow = (rotation == 90) ? tx : (width - 1 - tx);
+                for (int y = ty; y < tyEnd; y++) {
+                    int srcIndex = srcOffset + (y0 + y) * srcStride + x0 + tx;
+                    int dstCol = flipX ? (height - 1 - y) : y;
+                    int dstIndex = dstOffset + dstRow * dstStride + dstCol;
+                    for (int x = tx; x < txEnd; x++) {
+                        dst[dstIndex] = src[srcIndex++];
+                        dstIndex += colStep;
+                    }
+                }
+            }
+        }
+    }
+
+    private class PlaneTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] src;
+        private final int srcOffset;
+        private final int srcStride;
+        private final int x0;
+        private final int y0;
+        private final int width;
+        private final int height;
+        private final byte[] dst;
+        private final int dstOffset;
+        private final int rowStart;
+        private final int rowEnd;
+
+        PlaneTask(byte[] src, int srcOffset, int srcStride, int x0, int y0, int width, int height,
+                  byte[] dst, int dstOffset, int rowStart, int rowEnd) {
+            this.src       = src;
+            this.srcOffset = srcOffset;
+            this.srcStride = srcStride;
+            this.x0        = x0;
+            this.y0        = y0;
+            this.width     = width;
+            this.height    = height;
+            this.dst       = dst;
+            this.dstOffset = dstOffset;
+            this.rowStart  = rowStart;
+            this.rowEnd    = rowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            transformPlane(src, srcOffset, srcStride, x0, y0, width, height,
+                    dst, dstOffset, rowStart, rowEnd);
+        }
+    }
+
+    private static class TransformTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RecursiveAction[] tasks;
+
+        TransformTask(RecursiveAction... tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+}
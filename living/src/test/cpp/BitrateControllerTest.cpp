@@ -0,0 +1,200 @@
+//
+// Host test of the adaptive bitrate, replaying traces through decide()
+// and through onSent() against a simulated uplink.
+//
+
+#include "HostTest.h"
+#include "BitrateController.h"
+
+#include <algorithm>
+#include <thread>
+
+static BitrateConfig makeConfig() {
+    BitrateConfig config;
+    config.minBitrate      = 300000;
+    config.maxBitrate      = 2000000;
+    config.highDelayMs     = 500;
+    config.lowDelayMs      = 100;
+    config.stableIntervals = 3;
+    return config;
+}
+
+static BitrateSample makeSample(int64_t sentBytes, int queueDelayMs) {
+    BitrateSample sample;
+    sample.sentBytes    = sentBytes;
+    sample.intervalMs   = 1000;
+    sample.queueDelayMs = queueDelayMs;
+    return sample;
+}
+
+static void testDecideTrace() {
+    BitrateConfig config = makeConfig();
+    BitrateState state;
+    state.bitrate     = 2000000;
+    state.stableCount = 0;
+
+    struct Step {
+        int64_t sentBytes;
+        int queueDelayMs;
+        int bitrate;
+        int stableCount;
+    };
+    // sent bytes per second, queue delay, then the expected state
+    const Step trace[] = {
+            // headroom, but the bitrate is already at max
+            {250000, 50,  2000000, 1},
+            {250000, 50,  2000000, 2},
+            {250000, 50,  2000000, 0},
+            // congested: 75% of the bitrate, capped by 90% of what was sent
+            {250000, 800, 1500000, 0},
+            {125000, 900, 900000,  0},
+            // between the thresholds keeps the bitrate and the stable count resets
+            {112500, 300, 900000,  0},
+            {112500, 50,  900000,  1},
+            {112500, 300, 900000,  0},
+            // three stable intervals step up 10% of max
+            {112500, 50,  900000,  1},
+            {112500, 50,  900000,  2},
+            {112500, 50,  1100000, 0},
+            // never below min, even if nothing was sent
+            {0,      2000, 825000,  0},
+            {10000,  2000, 300000,  0},
+            {10000,  2000, 300000,  0},
+    };
+    int index = 0;
+    for (const Step &step : trace) {
+        state = BitrateController::decide(config, state, makeSample(step.sentBytes, step.queueDelayMs));
+        if (state.bitrate != step.bitrate || state.stableCount != step.stableCount) {
+            fprintf(stderr, "  step %d: bitrate=%d stable=%d\n", index, state.bitrate, state.stableCount);
+        }
+        CHECK_EQ(step.bitrate, state.bitrate);
+        CHECK_EQ(step.stableCount, state.stableCount);
+        index++;
+    }
+}
+
+static void testDecideClampsToMax() {
+    BitrateConfig config = makeConfig();
+    BitrateState state;
+    state.bitrate     = 1950000;
+    state.stableCount = 2;
+    state = BitrateController::decide(config, state, makeSample(250000, 0));
+    CHECK_EQ(2000000, state.bitrate);
+}
+
+static void testDecideIgnoresEmptyInterval() {
+    BitrateConfig config = makeConfig();
+    BitrateState state;
+    state.bitrate     = 1000000;
+    state.stableCount = 1;
+    BitrateSample sample = makeSample(0, 5000);
+    sample.intervalMs = 0;
+    BitrateState next = BitrateController::decide(config, state, sample);
+    CHECK_EQ(1000000, next.bitrate);
+    CHECK_EQ(1, next.stableCount);
+}
+
+/**
+ * An encoder at the current bitrate queuing into an uplink of the given capacity.
+ * @return the bitrate at the end
+ */
+template<typename Capacity>
+static int simulate(BitrateController &controller, int bitrate, uint32_t begin, uint32_t end,
+                    Capacity capacity, int64_t &queuedBytes, int *minSeen, int *maxSeen) {
+    const int tickMs = 10;
+    for (uint32_t now = begin; now < end; now += tickMs) {
+        queuedBytes += (int64_t) bitrate / 8 * tickMs / 1000;
+        int64_t budget = (int64_t) capacity(now) / 8 * tickMs / 1000;
+        int64_t sent = std::min(queuedBytes, budget);
+        queuedBytes -= sent;
+        int delayMs = capacity(now) > 0 ? (int) (queuedBytes * 8 * 1000 / capacity(now)) : 10000;
+        int next = controller.onSent(now, (int) sent, delayMs);
+        if (next > 0) {
+            bitrate = next;
+            *minSeen = std::min(*minSeen, bitrate);
+            *maxSeen = std::max(*maxSeen, bitrate);
+        }
+    }
+    return bitrate;
+}
+
+static void testReplayUplinkDrop() {
+    BitrateController controller;
+    controller.setRange(300000, 2000000);
+    controller.setBitrate(2000000);
+    CHECK(controller.isEnable());
+    int64_t queued = 0;
+    int minSeen = 2000000;
+    int maxSeen = 0;
+    int bitrate = 2000000;
+    // 3 Mbps, then 800 kbps for 30s, then 3 Mbps again
+    bitrate = simulate(controller, bitrate, 1, 10000, [](uint32_t) { return 3000000; },
+                       queued, &minSeen, &maxSeen);
+    CHECK_EQ(2000000, bitrate);
+    bitrate = simulate(controller, bitrate, 10000, 40000, [](uint32_t) { return 800000; },
+                       queued, &minSeen, &maxSeen);
+    printf("  after drop: bitrate=%d queued=%lld min=%d\n", bitrate, (long long) queued, minSeen);
+    // settled below the capacity, with the queue drained
+    CHECK(bitrate <= 800000);
+    CHECK(minSeen >= 300000);
+    CHECK(queued * 8 * 1000 / 800000 < 500);
+    bitrate = simulate(controller, bitrate, 40000, 120000, [](uint32_t) { return 3000000; },
+                       queued, &minSeen, &maxSeen);
+    printf("  after recovery: bitrate=%d\n", bitrate);
+    CHECK_EQ(2000000, bitrate);
+    CHECK(maxSeen <= 2000000);
+}
+
+static void testDisabledUntilRangeSet() {
+    BitrateController controller;
+    controller.setBitrate(1000000);
+    CHECK(!controller.isEnable());
+    CHECK_EQ(0, controller.onSent(1, 100000, 2000));
+    CHECK_EQ(0, controller.onSent(2000, 100000, 2000));
+    controller.setRange(500000, 400000);
+    CHECK(!controller.isEnable());
+}
+
+static void testSetRangeClampsBitrate() {
+    BitrateController controller;
+    controller.setBitrate(3000000);
+    controller.setRange(300000, 2000000);
+    // a congested interval steps down from the clamped bitrate
+    CHECK_EQ(0, controller.onSent(1, 0, 800));
+    CHECK_EQ(1500000, controller.onSent(1001, 500000, 800));
+}
+
+static void testConcurrentSetters() {
+    BitrateController controller;
+    controller.setRange(300000, 2000000);
+    controller.setBitrate(1000000);
+    // the Java thread changes the range while the sender keeps sending
+    std::thread java([&] {
+        for (int i = 0; i < 20000; i++) {
+            controller.setRange(300000 + i % 7, 2000000 - i % 11);
+            controller.setBitrate(1000000 + i % 13);
+            if (i % 100 == 0)
+                std::this_thread::yield();
+        }
+    });
+    uint32_t now = 1;
+    for (int i = 0; i < 20000; i++) {
+        int bitrate = controller.onSent(now, 1000, (now / 1000) % 2 ? 800 : 50);
+        CHECK(bitrate == 0 || (bitrate >= 300000 && bitrate <= 2000000));
+        now += 100;
+        if (i % 100 == 0)
+            std::this_thread::yield();
+    }
+    java.join();
+}
+
+int main() {
+    RUN_TEST(testDecideTrace);
+    RUN_TEST(testDecideClampsToMax);
+    RUN_TEST(testDecideIgnoresEmptyInterval);
+    RUN_TEST(testReplayUplinkDrop);
+    RUN_TEST(testDisabledUntilRangeSet);
+    RUN_TEST(testSetRangeClampsBitrate);
+    RUN_TEST(testConcurrentSetters);
+    return TEST_RESULT();
+}
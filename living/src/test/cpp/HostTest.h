@@ -0,0 +1,40 @@
+//
+// Minimal checks for the host tests, which run without a device or gtest.
+//
+
+#ifndef LEARNINGMEDIA_HOSTTEST_H
+#define LEARNINGMEDIA_HOSTTEST_H
+
+#include <cstdio>
+
+static int hostTestFailures = 0;
+
+#define CHECK(cond) \
+    do { \
+        if (!(cond)) { \
+            fprintf(stderr, "%s:%d: CHECK(%s) failed\n", __FILE__, __LINE__, #cond); \
+            hostTestFailures++; \
+        } \
+    } while (0)
+
+#define CHECK_EQ(expected, actual) \
+    do { \
+        long long e_ = (long long) (expected); \
+        long long a_ = (long long) (actual); \
+        if (e_ != a_) { \
+            fprintf(stderr, "%s:%d: CHECK_EQ(%s, %s) failed: %lld != %lld\n", \
+                    __FILE__, __LINE__, #expected, #actual, e_, a_); \
+            hostTestFailures++; \
+        } \
+    } while (0)
+
+#define RUN_TEST(test) \
+    do { \
+        int before_ = hostTestFailures; \
+        test(); \
+        printf("%s %s\n", hostTestFailures == before_ ? "[  OK  ]" : "[FAILED]", #test); \
+    } while (0)
+
+#define TEST_RESULT() (hostTestFailures == 0 ? 0 : 1)
+
+#endif //LEARNINGMEDIA_HOSTTEST_H
@@ -0,0 +1,369 @@
+//
+// Host test of the drop policy, feeding synthetic packets through a slow mock sink.
+//
+
+#include "HostTest.h"
+#include "PacketDropPolicy.h"
+
+#include <cstring>
+#include <deque>
+
+#define NAL_IDR       0x65
+#define NAL_P_REF     0x41
+#define NAL_P_NON_REF 0x01
+#define NAL_SEI       0x06
+
+static void writeNaluLen(char *body, int len) {
+    body[0] = (char) ((len >> 24) & 0xFF);
+    body[1] = (char) ((len >> 16) & 0xFF);
+    body[2] = (char) ((len >> 8) & 0xFF);
+    body[3] = (char) (len & 0xFF);
+}
+
+static RTMPPacket *makeVideo(bool keyFrame, uint8_t nalHeader, int size, uint32_t timestamp) {
+    auto *packet = new RTMPPacket();
+    memset(packet, 0, sizeof(RTMPPacket));
+    packet->m_body = new char[size];
+    memset(packet->m_body, 0, size);
+    packet->m_body[0] = keyFrame ? 0x17 : 0x27;
+    packet->m_body[1] = 0x01;
+    writeNaluLen(packet->m_body + 5, size - 9);
+    packet->m_body[9] = (char) nalHeader;
+    packet->m_nBodySize  = size;
+    packet->m_packetType = RTMP_PACKET_TYPE_VIDEO;
+    packet->m_nTimeStamp = timestamp;
+    return packet;
+}
+
+static RTMPPacket *makeSequenceHeader(bool video, uint32_t timestamp) {
+    RTMPPacket *packet = makeVideo(true, 0, 32, timestamp);
+    packet->m_body[0] = video ? 0x17 : (char) 0xAF;
+    packet->m_body[1] = 0x00;
+    packet->m_packetType = video ? RTMP_PACKET_TYPE_VIDEO : RTMP_PACKET_TYPE_AUDIO;
+    return packet;
+}
+
+static RTMPPacket *makeAudio(uint32_t timestamp) {
+    RTMPPacket *packet = makeVideo(false, 0, 300, timestamp);
+    packet->m_body[0] = (char) 0xAF;
+    packet->m_packetType = RTMP_PACKET_TYPE_AUDIO;
+    return packet;
+}
+
+static void freePacket(RTMPPacket *packet) {
+    delete[] packet->m_body;
+    delete packet;
+}
+
+/**
+ * An encoder at 30fps with a 2s GOP and an AAC stream, pushing through the policy
+ * into a queue drained by a sink of a given bandwidth, on a simulated clock.
+ */
+struct Simulation {
+    PacketDropPolicy policy;
+    std::deque<RTMPPacket *> queue;
+    double credit = 0;
+    bool forceKeyFrame = false;
+    bool referenceLost = false;
+    int frameIndex = 0;
+
+    int sentKeyFrames = 0;
+    int sentFrames = 0;
+    int sentAudio = 0;
+    int sentHeaders = 0;
+    int droppedFrames = 0;
+    int droppedAudio = 0;
+    int droppedHeaders = 0;
+    int keyFrameRequests = 0;
+    int undecodable = 0;
+    int maxDelayMs = 0;
+
+    Simulation(int maxDelayMs, int maxBytes) {
+        policy.setBudget(maxDelayMs, maxBytes);
+    }
+
+    ~Simulation() {
+        for (RTMPPacket *packet : queue) {
+            freePacket(packet);
+        }
+    }
+
+    void produce(RTMPPacket *packet) {
+        bool video = packet->m_packetType == RTMP_PACKET_TYPE_VIDEO;
+        bool header = PacketDropPolicy::isSequenceHeader(packet);
+        if (policy.shouldDrop(packet)) {
+            if (policy.takeKeyFrameRequest()) {
+                keyFrameRequests++;
+                forceKeyFrame = true;
+            }
+            if (header) {
+                droppedHeaders++;
+            } else if (video) {
+                droppedFrames++;
+                if (PacketDropPolicy::isKeyFrame(packet) || (packet->m_body[9] & 0x60) != 0)
+                    referenceLost = true;
+            } else {
+                droppedAudio++;
+            }
+            freePacket(packet);
+            return;
+        }
+        if (video && !header) {
+            if (PacketDropPolicy::isKeyFrame(packet))
+                referenceLost = false;
+            else if (referenceLost)
+                undecodable++;
+        }
+        policy.onQueued(packet);
+        queue.push_back(packet);
+    }
+
+    void consume(double bytesPerMs) {
+        credit += bytesPerMs;
+        while (!queue.empty() && credit >= queue.front()->m_nBodySize) {
+            RTMPPacket *packet = queue.front();
+            queue.pop_front();
+            credit -= packet->m_nBodySize;
+            policy.onSent(packet);
+            if (PacketDropPolicy::isSequenceHeader(packet)) {
+                sentHeaders++;
+            } else if (packet->m_packetType == RTMP_PACKET_TYPE_VIDEO) {
+                sentFrames++;
+                if (PacketDropPolicy::isKeyFrame(packet))
+                    sentKeyFrames++;
+            } else {
+                sentAudio++;
+            }
+            freePacket(packet);
+        }
+        if (queue.empty() && credit > bytesPerMs)
+            credit = bytesPerMs;
+    }
+
+    /**
+     * @param bandwidth bytes per ms of the sink at the time in ms
+     */
+    template<typename Bandwidth>
+    void run(uint32_t begin, uint32_t end, Bandwidth bandwidth) {
+        for (uint32_t t = begin; t < end; t++) {
+            if (t == 0) {
+                produce(makeSequenceHeader(true, t));
+                produce(makeSequenceHeader(false, t));
+            }
+            if (t % 23 == 0)
+                produce(makeAudio(t));
+            if (t % 33 == 0) {
+                bool keyFrame = frameIndex % 60 == 0 || forceKeyFrame;
+                if (keyFrame) {
+                    frameIndex = 0;
+                    forceKeyFrame = false;
+                }
+                frameIndex++;
+                produce(keyFrame ? makeVideo(true, NAL_IDR, 20000, t) : makeVideo(false, NAL_P_REF, 3000, t));
+            }
+            consume(bandwidth(t));
+            int delay = policy.getQueueDelayMs();
+            if (delay > maxDelayMs)
+                maxDelayMs = delay;
+        }
+    }
+};
+
+static void testNoDropWithEnoughBandwidth() {
+    Simulation sim(500, 0);
+    sim.run(0, 20000, [](uint32_t) { return 300.0; });
+    CHECK_EQ(0, sim.droppedFrames);
+    CHECK_EQ(0, sim.keyFrameRequests);
+    CHECK_EQ(2, sim.sentHeaders);
+    CHECK(sim.maxDelayMs < 500);
+}
+
+static void testSteadyCongestion() {
+    // about 60% of the stream's bitrate
+    Simulation sim(500, 0);
+    sim.run(0, 60000, [](uint32_t) { return 70.0; });
+    CHECK(sim.droppedFrames > 0);
+    CHECK_EQ(0, sim.droppedAudio);
+    CHECK_EQ(0, sim.droppedHeaders);
+    CHECK_EQ(0, sim.undecodable);
+    // at most one IDR per second is requested, not one per dropped frame
+    CHECK(sim.keyFrameRequests <= 60);
+    // the budget holds the queue, one IDR may overshoot it
+    CHECK(sim.maxDelayMs <= 500 + 20000 / 70 + 33);
+    // most of what gets through is P frames, not a stream of IDRs
+    printf("  sent=%d key=%d dropped=%d requests=%d maxDelay=%dms\n",
+           sim.sentFrames, sim.sentKeyFrames, sim.droppedFrames, sim.keyFrameRequests, sim.maxDelayMs);
+    CHECK(sim.sentKeyFrames * 4 < sim.sentFrames);
+}
+
+static void testOutageRecovery() {
+    Simulation sim(500, 0);
+    sim.run(0, 4000, [](uint32_t) { return 300.0; });
+    sim.run(4000, 7000, [](uint32_t) { return 0.0; });
+    int requestsDuringOutage = sim.keyFrameRequests;
+    // nothing drains during the outage, so no IDR is requested into a full queue
+    CHECK_EQ(0, requestsDuringOutage);
+    CHECK(sim.policy.isDroppingGop());
+    int sentBefore = sim.sentFrames;
+    sim.run(7000, 12000, [](uint32_t) { return 300.0; });
+    // one IDR ends the episode once the queue drains
+    CHECK_EQ(1, sim.keyFrameRequests);
+    CHECK(!sim.policy.isDroppingGop());
+    CHECK(sim.sentFrames - sentBefore > 100);
+    CHECK_EQ(0, sim.droppedAudio);
+    CHECK_EQ(0, sim.undecodable);
+}
+
+static void testByteBudget() {
+    Simulation sim(0, 60000);
+    sim.run(0, 30000, [](uint32_t) { return 70.0; });
+    CHECK(sim.droppedFrames > 0);
+    CHECK_EQ(0, sim.droppedAudio);
+    CHECK_EQ(0, sim.undecodable);
+}
+
+static void testKeyFrameOverBudgetIsDropped() {
+    PacketDropPolicy policy;
+    policy.setBudget(100, 0);
+    RTMPPacket *queued = makeVideo(true, NAL_IDR, 20000, 0);
+    policy.onQueued(queued);
+    RTMPPacket *key = makeVideo(true, NAL_IDR, 20000, 500);
+    CHECK(policy.shouldDrop(key));
+    CHECK(policy.isDroppingGop());
+    // still over budget, no request yet
+    CHECK(!policy.takeKeyFrameRequest());
+    policy.onSent(queued);
+    RTMPPacket *p = makeVideo(false, NAL_P_REF, 3000, 533);
+    // drained, but the GOP is still broken: drop and request one IDR
+    CHECK(policy.shouldDrop(p));
+    CHECK(policy.takeKeyFrameRequest());
+    CHECK(!policy.takeKeyFrameRequest());
+    RTMPPacket *p2 = makeVideo(false, NAL_P_REF, 3000, 566);
+    CHECK(policy.shouldDrop(p2));
+    CHECK(!policy.takeKeyFrameRequest());
+    RTMPPacket *key2 = makeVideo(true, NAL_IDR, 20000, 600);
+    CHECK(!policy.shouldDrop(key2));
+    CHECK(!policy.isDroppingGop());
+    CHECK_EQ(3, policy.getDroppedFrames());
+    for (RTMPPacket *packet : {queued, key, p, p2, key2}) {
+        freePacket(packet);
+    }
+}
+
+static void testDisposableFirst() {
+    PacketDropPolicy policy;
+    policy.setBudget(100, 0);
+    RTMPPacket *queued = makeVideo(true, NAL_IDR, 20000, 0);
+    policy.onQueued(queued);
+    RTMPPacket *nonRef = makeVideo(false, NAL_P_NON_REF, 3000, 200);
+    CHECK(policy.shouldDrop(nonRef));
+    CHECK(!policy.isDroppingGop());
+    RTMPPacket *ref = makeVideo(false, NAL_P_REF, 3000, 233);
+    CHECK(policy.shouldDrop(ref));
+    CHECK(policy.isDroppingGop());
+    RTMPPacket *audio = makeAudio(240);
+    CHECK(!policy.shouldDrop(audio));
+    RTMPPacket *header = makeSequenceHeader(true, 250);
+    CHECK(!policy.shouldDrop(header));
+    for (RTMPPacket *packet : {queued, nonRef, ref, audio, header}) {
+        freePacket(packet);
+    }
+}
+
+/**
+ * All the NALs of a picture share a tag, and the SEI in front of the slice is skipped.
+ */
+static void testDisposableAfterSei() {
+    PacketDropPolicy policy;
+    policy.setBudget(100, 0);
+    RTMPPacket *queued = makeVideo(true, NAL_IDR, 20000, 0);
+    policy.onQueued(queued);
+    // two non-reference slices of one picture
+    RTMPPacket *nonRef = makeVideo(false, NAL_P_NON_REF, 3000, 200);
+    writeNaluLen(nonRef->m_body + 5, 1000);
+    writeNaluLen(nonRef->m_body + 1009, 3000 - 1013);
+    nonRef->m_body[1013] = NAL_P_NON_REF;
+    CHECK(policy.shouldDrop(nonRef));
+    CHECK(!policy.isDroppingGop());
+    // SEI(20) + reference slice(3000-33), the SEI itself has nal_ref_idc 0
+    RTMPPacket *ref = makeVideo(false, NAL_SEI, 3000, 233);
+    writeNaluLen(ref->m_body + 5, 20);
+    writeNaluLen(ref->m_body + 29, 3000 - 33);
+    ref->m_body[33] = NAL_P_REF;
+    CHECK(policy.shouldDrop(ref));
+    CHECK(policy.isDroppingGop());
+    for (RTMPPacket *packet : {queued, nonRef, ref}) {
+        freePacket(packet);
+    }
+}
+
+/**
+ * After reconnecting the stale packets are dropped, and the first fresh IDR ends the drop episode.
+ */
+static void testResumeAfterOutage() {
+    PacketDropPolicy policy;
+    policy.setBudget(500, 0);
+    std::deque<RTMPPacket *> stale;
+    RTMPPacket *sent = makeVideo(true, NAL_IDR, 20000, 0);
+    policy.onQueued(sent);
+    policy.onSent(sent);
+    // the outage lasts 3s, and the queue holds the first second of it
+    for (uint32_t t = 33; t < 1000; t += 33) {
+        RTMPPacket *packet = makeVideo(false, NAL_P_REF, 3000, t);
+        if (policy.shouldDrop(packet)) {
+            freePacket(packet);
+            continue;
+        }
+        policy.onQueued(packet);
+        stale.push_back(packet);
+    }
+    RTMPPacket *late = makeVideo(false, NAL_P_REF, 3000, 3000);
+    CHECK(policy.shouldDrop(late));
+    CHECK(policy.isDroppingGop());
+    for (RTMPPacket *packet : stale) {
+        policy.onRejected(packet, true);
+        freePacket(packet);
+    }
+    policy.onResume(3010);
+    CHECK_EQ(0, policy.getQueueDelayMs());
+    RTMPPacket *key = makeVideo(true, NAL_IDR, 20000, 3033);
+    CHECK(!policy.shouldDrop(key));
+    CHECK(!policy.isDroppingGop());
+    policy.onQueued(key);
+    RTMPPacket *next = makeVideo(false, NAL_P_REF, 3000, 3066);
+    CHECK(!policy.shouldDrop(next));
+    for (RTMPPacket *packet : {sent, late, key, next}) {
+        freePacket(packet);
+    }
+}
+
+static void testReset() {
+    PacketDropPolicy policy;
+    policy.setBudget(100, 0);
+    RTMPPacket *queued = makeVideo(true, NAL_IDR, 20000, 0);
+    policy.onQueued(queued);
+    RTMPPacket *ref = makeVideo(false, NAL_P_REF, 3000, 233);
+    CHECK(policy.shouldDrop(ref));
+    policy.reset();
+    CHECK(!policy.isDroppingGop());
+    CHECK(!policy.takeKeyFrameRequest());
+    CHECK_EQ(0, policy.getQueueDelayMs());
+    RTMPPacket *next = makeVideo(false, NAL_P_REF, 3000, 266);
+    CHECK(!policy.shouldDrop(next));
+    for (RTMPPacket *packet : {queued, ref, next}) {
+        freePacket(packet);
+    }
+}
+
+int main() {
+    RUN_TEST(testNoDropWithEnoughBandwidth);
+    RUN_TEST(testSteadyCongestion);
+    RUN_TEST(testOutageRecovery);
+    RUN_TEST(testByteBudget);
+    RUN_TEST(testKeyFrameOverBudgetIsDropped);
+    RUN_TEST(testDisposableFirst);
+    RUN_TEST(testDisposableAfterSei);
+    RUN_TEST(testResumeAfterOutage);
+    RUN_TEST(testReset);
+    return TEST_RESULT();
+}
@@ -0,0 +1,170 @@
+//
+// Host test of the bounded packet ring.
+//
+
+#include "HostTest.h"
+#include "PacketQueue.h"
+
+#include <chrono>
+#include <thread>
+#include <vector>
+
+static int releasedCount = 0;
+
+static void releaseValue(int &value) {
+    releasedCount++;
+}
+
+static void testFullAndEmpty() {
+    PacketQueue<int> queue(4);
+    queue.setRunning(true);
+    int value = -1;
+    CHECK(queue.empty());
+    CHECK_EQ(0, queue.tryPop(value));
+    for (int i = 0; i < 4; i++) {
+        CHECK(queue.push(i));
+    }
+    CHECK_EQ(4, queue.size());
+    CHECK(!queue.push(4));
+    CHECK_EQ(4, queue.highWaterMark());
+
+    for (int i = 0; i < 4; i++) {
+        CHECK_EQ(1, queue.tryPop(value));
+        CHECK_EQ(i, value);
+    }
+    CHECK(queue.empty());
+    CHECK_EQ(0, queue.tryPop(value));
+    queue.resetHighWaterMark();
+    CHECK_EQ(0, queue.highWaterMark());
+}
+
+static void testWrapAround() {
+    PacketQueue<int> queue(3);
+    queue.setRunning(true);
+    int value = -1;
+    for (int i = 0; i < 100; i++) {
+        CHECK(queue.push(i));
+        CHECK(queue.push(i + 1000));
+        CHECK_EQ(1, queue.tryPop(value));
+        CHECK_EQ(i, value);
+        CHECK_EQ(1, queue.tryPop(value));
+        CHECK_EQ(i + 1000, value);
+    }
+    CHECK_EQ(2, queue.highWaterMark());
+}
+
+static void testPushWhenStopped() {
+    PacketQueue<int> queue(4);
+    CHECK(!queue.push(1));
+    queue.setRunning(true);
+    CHECK(queue.push(1));
+    queue.setRunning(false);
+    CHECK(!queue.push(2));
+    CHECK_EQ(1, queue.size());
+}
+
+static void testClearReleases() {
+    PacketQueue<int> queue(8);
+    queue.setReleaseCallback(releaseValue);
+    queue.setRunning(true);
+    for (int i = 0; i < 5; i++) {
+        queue.push(i);
+    }
+    releasedCount = 0;
+    queue.clear();
+    CHECK_EQ(5, releasedCount);
+    CHECK(queue.empty());
+    CHECK(queue.push(9));
+}
+
+static void testBlockingPop() {
+    PacketQueue<int> queue(4);
+    queue.setRunning(true);
+    int value = -1;
+    int result = -1;
+    auto begin = std::chrono::steady_clock::now();
+    std::thread consumer([&] {
+        result = queue.pop(value);
+    });
+    std::this_thread::sleep_for(std::chrono::milliseconds(100));
+    queue.push(42);
+    consumer.join();
+    auto waited = std::chrono::duration_cast<std::chrono::milliseconds>(
+            std::chrono::steady_clock::now() - begin).count();
+    CHECK_EQ(1, result);
+    CHECK_EQ(42, value);
+    CHECK(waited >= 90);
+}
+
+static void testStopWakesConsumer() {
+    PacketQueue<int> queue(4);
+    queue.setRunning(true);
+    int value = -1;
+    int result = -1;
+    std::thread consumer([&] {
+        result = queue.pop(value);
+    });
+    std::this_thread::sleep_for(std::chrono::milliseconds(50));
+    auto begin = std::chrono::steady_clock::now();
+    queue.setRunning(false);
+    consumer.join();
+    auto waited = std::chrono::duration_cast<std::chrono::milliseconds>(
+            std::chrono::steady_clock::now() - begin).count();
+    CHECK_EQ(0, result);
+    CHECK(waited < 1000);
+    // a stopped queue doesn't block
+    CHECK_EQ(0, queue.pop(value));
+}
+
+static void testMultiProducerOrdering() {
+    const int producers = 4;
+    const int count = 50000;
+    PacketQueue<int> queue(16);
+    queue.setRunning(true);
+    std::vector<std::thread> threads;
+    for (int p = 0; p < producers; p++) {
+        threads.emplace_back([&queue, p, count] {
+            for (int i = 0; i < count; i++) {
+                // full is reported to the caller, who retries like a blocked encoder
+                while (!queue.push(p << 20 | i)) {
+                    std::this_thread::yield();
+                }
+            }
+        });
+    }
+    std::vector<int> next(producers, 0);
+    int received = 0;
+    int outOfOrder = 0;
+    int value = -1;
+    while (received < producers * count && queue.pop(value)) {
+        int p = value >> 20;
+        int i = value & 0xFFFFF;
+        if (p < 0 || p >= producers || i != next[p]) {
+            outOfOrder++;
+        } else {
+            next[p]++;
+        }
+        received++;
+    }
+    for (auto &thread : threads) {
+        thread.join();
+    }
+    CHECK_EQ(producers * count, received);
+    CHECK_EQ(0, outOfOrder);
+    for (int p = 0; p < producers; p++) {
+        CHECK_EQ(count, next[p]);
+    }
+    CHECK(queue.empty());
+    CHECK(queue.highWaterMark() <= 16);
+}
+
+int main() {
+    RUN_TEST(testFullAndEmpty);
+    RUN_TEST(testWrapAround);
+    RUN_TEST(testPushWhenStopped);
+    RUN_TEST(testClearReleases);
+    RUN_TEST(testBlockingPop);
+    RUN_TEST(testStopWakesConsumer);
+    RUN_TEST(testMultiProducerOrdering);
+    return TEST_RESULT();
+}
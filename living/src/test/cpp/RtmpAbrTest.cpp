@@ -0,0 +1,169 @@
+//
+// Host test of the adaptive bitrate against FakeRtmpServer on loopback. The sender below
+// follows the loop of sendRtmpPacket, which lives in the JNI glue with x264 and faac, so it
+// can't be built on the host: send a packet, feed onSent with the queue delay, and apply the
+// new bitrate to the encoder, which is simulated by packets sized to its bitrate.
+//
+
+#include "HostTest.h"
+#include "PacketQueue.h"
+#include "PacketDropPolicy.h"
+#include "BitrateController.h"
+#include "FakeRtmpServer.h"
+#include "rtmp/log.h"
+
+#include <atomic>
+#include <chrono>
+#include <cstring>
+#include <string>
+#include <thread>
+#include <sys/socket.h>
+
+#define MIN_BITRATE      300000
+#define MAX_BITRATE      2000000
+#define FRAME_RATE       25
+#define SOCKET_BUFFER    (16 * 1024)
+// 60KB/s, 约480kbps的上行
+#define CONGESTED_RATE   60000
+#define WAIT_DOWN_MS     6000
+#define WAIT_UP_MS       8000
+
+static void releasePacket(RTMPPacket *&packet) {
+    if (packet) {
+        RTMPPacket_Free(packet);
+        delete packet;
+        packet = nullptr;
+    }
+}
+
+static RTMPPacket *makeVideoPacket(int size, uint32_t timestamp) {
+    auto *packet = new RTMPPacket();
+    RTMPPacket_Alloc(packet, size);
+    memset(packet->m_body, 0, size);
+    // AVC非关键帧
+    packet->m_body[0]          = 0x27;
+    packet->m_body[1]          = 0x01;
+    packet->m_nBodySize        = size;
+    packet->m_nChannel         = 0x04;
+    packet->m_headerType       = RTMP_PACKET_SIZE_LARGE;
+    packet->m_packetType       = RTMP_PACKET_TYPE_VIDEO;
+    packet->m_nTimeStamp       = timestamp;
+    packet->m_hasAbsTimestamp  = 0;
+    return packet;
+}
+
+static RTMP *connectServer(int port) {
+    std::string url = "rtmp://127.0.0.1:" + std::to_string(port) + "/live/abr";
+    RTMP *rtmp = RTMP_Alloc();
+    RTMP_Init(rtmp);
+    if (RTMP_SetupURL(rtmp, const_cast<char *>(url.c_str()))) {
+        rtmp->Link.timeout = 8;
+        RTMP_EnableWrite(rtmp);
+        if (RTMP_Connect(rtmp, nullptr) && RTMP_ConnectStream(rtmp, 0)) {
+            int size = SOCKET_BUFFER;
+            setsockopt(rtmp->m_sb.sb_socket, SOL_SOCKET, SO_SNDBUF, &size, sizeof(size));
+            return rtmp;
+        }
+    }
+    RTMP_Close(rtmp);
+    RTMP_Free(rtmp);
+    return nullptr;
+}
+
+/**
+ * Wait until pred holds, or timeout.
+ */
+template<typename Pred>
+static bool waitFor(int timeoutMs, Pred pred) {
+    auto deadline = std::chrono::steady_clock::now() + std::chrono::milliseconds(timeoutMs);
+    while (std::chrono::steady_clock::now() < deadline) {
+        if (pred())
+            return true;
+        std::this_thread::sleep_for(std::chrono::milliseconds(20));
+    }
+    return pred();
+}
+
+static void testAdaptToUplink() {
+    RTMP_LogSetLevel(RTMP_LOGCRIT);
+    FakeRtmpServer server;
+    int port = server.start(SOCKET_BUFFER);
+    CHECK(port > 0);
+    if (port <= 0)
+        return;
+    server.setReadRate(CONGESTED_RATE);
+    RTMP *rtmp = connectServer(port);
+    CHECK(rtmp != nullptr);
+    CHECK(server.isPublishing());
+    if (!rtmp)
+        return;
+
+    PacketQueue<RTMPPacket *> packetQueue;
+    PacketDropPolicy dropPolicy;
+    BitrateController controller;
+    packetQueue.setReleaseCallback(releasePacket);
+    packetQueue.setRunning(true);
+    controller.setRange(MIN_BITRATE, MAX_BITRATE);
+    controller.setBitrate(MAX_BITRATE);
+
+    std::atomic<int> encoderBitrate(MAX_BITRATE);
+    std::atomic<bool> running(true);
+    uint32_t startTime = RTMP_GetTime();
+
+    std::thread encoder([&]() {
+        while (running) {
+            int size = encoderBitrate / 8 / FRAME_RATE;
+            RTMPPacket *packet = makeVideoPacket(size, RTMP_GetTime() - startTime);
+            dropPolicy.onQueued(packet);
+            if (!packetQueue.push(packet)) {
+                dropPolicy.onRejected(packet, true);
+                releasePacket(packet);
+            }
+            std::this_thread::sleep_for(std::chrono::milliseconds(1000 / FRAME_RATE));
+        }
+    });
+    std::thread sender([&]() {
+        RTMPPacket *packet = nullptr;
+        while (packetQueue.pop(packet)) {
+            dropPolicy.onSent(packet);
+            packet->m_nInfoField2 = rtmp->m_stream_id;
+            int ret = RTMP_SendPacket(rtmp, packet, 1);
+            int bitrate = controller.onSent(RTMP_GetTime() - startTime,
+                                            packet->m_nBodySize, dropPolicy.getQueueDelayMs());
+            if (bitrate > 0) {
+                encoderBitrate = bitrate;
+            }
+            releasePacket(packet);
+            if (!ret)
+                break;
+        }
+    });
+
+    // 上行受限时降到上行能力以下
+    bool down = waitFor(WAIT_DOWN_MS, [&]() { return encoderBitrate <= CONGESTED_RATE * 8; });
+    CHECK(down);
+    int lowBitrate = encoderBitrate;
+    printf("congested: bitrate=%d received=%lld\n", lowBitrate, (long long) server.getReceivedBytes());
+
+    // 上行恢复后逐步回升
+    server.setReadRate(0);
+    bool up = waitFor(WAIT_UP_MS, [&]() { return encoderBitrate > lowBitrate; });
+    CHECK(up);
+    printf("recovered: bitrate=%d received=%lld\n", (int) encoderBitrate, (long long) server.getReceivedBytes());
+    CHECK(encoderBitrate >= MIN_BITRATE);
+    CHECK(encoderBitrate <= MAX_BITRATE);
+
+    running = false;
+    encoder.join();
+    packetQueue.setRunning(false);
+    sender.join();
+    packetQueue.clear();
+    RTMP_Close(rtmp);
+    RTMP_Free(rtmp);
+    server.stop();
+}
+
+int main() {
+    RUN_TEST(testAdaptToUplink);
+    return TEST_RESULT();
+}
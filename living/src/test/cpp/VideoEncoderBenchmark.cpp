@@ -0,0 +1,126 @@
+//
+// Host benchmark of the x264 threading profiles of VideoStream, encoding synthetic I420 frames.
+// usage: VideoEncoderBenchmark [width height frames]
+//
+
+#include "VideoStream.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <thread>
+#include <vector>
+#include <algorithm>
+
+struct Config {
+    const char *name;
+    int threads;
+    bool slicedThreads;
+    const char *preset;
+    int lookahead;
+};
+
+struct Output {
+    int pictures;
+    int keyFrames;
+    int64_t bytes;
+    int multiTagPictures;
+};
+
+static Output output;
+static int tagsOfCurrentFrame;
+// flush outputs all the delayed pictures in one call
+static bool flushing;
+
+static void countPacket(RTMPPacket *packet) {
+    // 跳过sps/pps
+    if (packet->m_body[1] != 0x00) {
+        output.pictures++;
+        output.bytes += packet->m_nBodySize;
+        if ((packet->m_body[0] & 0xF0) == 0x10) {
+            output.keyFrames++;
+        }
+        if (!flushing && ++tagsOfCurrentFrame > 1) {
+            output.multiTagPictures++;
+        }
+    }
+    RTMPPacket_Free(packet);
+    delete packet;
+}
+
+/**
+ * A moving gradient with some noise, so that the motion search has work to do.
+ */
+static void fillFrame(std::vector<uint8_t> &frame, int width, int height, int index) {
+    uint8_t *y = frame.data();
+    for (int row = 0; row < height; ++row) {
+        for (int col = 0; col < width; ++col) {
+            y[row * width + col] = static_cast<uint8_t>((row + col + index * 4) ^ (rand() & 0x07));
+        }
+    }
+    int chromaSize = (width / 2) * (height / 2);
+    memset(y + width * height, 128 + (index & 0x0F), chromaSize);
+    memset(y + width * height + chromaSize, 128 - (index & 0x0F), chromaSize);
+}
+
+static void runConfig(const Config &config, int width, int height, int frames) {
+    auto *stream = new VideoStream();
+    stream->setVideoCallback(countPacket);
+    stream->setEncoderProfile(config.threads, config.slicedThreads, config.preset, config.lookahead);
+    if (stream->setVideoEncInfo(width, height, 30, 2 * 1024 * 1024) != 0) {
+        printf("%-24s open encoder failed\n", config.name);
+        delete stream;
+        return;
+    }
+    memset(&output, 0, sizeof(output));
+    std::vector<uint8_t> frame(width * height * 3 / 2);
+    std::vector<double> costs;
+    int maxDelay = 0;
+    srand(1);
+    auto begin = std::chrono::steady_clock::now();
+    for (int i = 0; i < frames; ++i) {
+        fillFrame(frame, width, height, i);
+        tagsOfCurrentFrame = 0;
+        auto start = std::chrono::steady_clock::now();
+        stream->encodeVideo(reinterpret_cast<int8_t *>(frame.data()));
+        auto end = std::chrono::steady_clock::now();
+        costs.push_back(std::chrono::duration<double, std::milli>(end - start).count());
+        maxDelay = std::max(maxDelay, i + 1 - output.pictures);
+    }
+    int beforeFlush = output.pictures;
+    flushing = true;
+    stream->flush();
+    flushing = false;
+    double totalMs = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - begin).count();
+    std::sort(costs.begin(), costs.end());
+    double sum = 0;
+    for (double cost : costs) {
+        sum += cost;
+    }
+    printf("%-24s fps=%7.1f avg=%6.2fms p95=%6.2fms delay=%d frames flushed=%d pictures=%d/%d "
+           "key=%d multiTag=%d kbps=%.0f\n",
+           config.name, frames * 1000.0 / totalMs, sum / frames, costs[frames * 95 / 100],
+           maxDelay, output.pictures - beforeFlush, output.pictures, frames, output.keyFrames,
+           output.multiTagPictures, output.bytes * 8.0 * 30 / frames / 1000);
+    delete stream;
+}
+
+int main(int argc, char **argv) {
+    int width  = argc > 3 ? atoi(argv[1]) : 1280;
+    int height = argc > 3 ? atoi(argv[2]) : 720;
+    int frames = argc > 3 ? atoi(argv[3]) : 300;
+    printf("%dx%d frames=%d cores=%u\n", width, height, frames, std::thread::hardware_concurrency());
+    const Config configs[] = {
+            {"1 thread",              1, true,  "ultrafast", -1},
+            {"sliced auto",           0, true,  "ultrafast", -1},
+            {"frame auto",            0, false, "ultrafast", -1},
+            {"frame auto lookahead0", 0, false, "ultrafast", 0},
+            {"sliced auto superfast", 0, true,  "superfast", -1},
+            {"frame auto superfast",  0, false, "superfast", -1},
+    };
+    for (const Config &config : configs) {
+        runConfig(config, width, height, frames);
+    }
+    return 0;
+}
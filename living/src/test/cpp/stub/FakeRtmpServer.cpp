@@ -0,0 +1,226 @@
+//
+// FakeRtmpServer on top of the server handshake and packet reader of librtmp.
+//
+
+#include "FakeRtmpServer.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cstring>
+#include <arpa/inet.h>
+#include <netinet/in.h>
+#include <sys/socket.h>
+#include <unistd.h>
+
+#define PACKET_TYPE_INVOKE     0x14
+#define PUBLISH_STREAM_ID      1
+// 限速时最多累积100ms的读取额度
+#define READ_BURST_DIVISOR     10
+
+// AVC()在C++里会把字符串常量转成char*, 这里用数组
+static char s_connect[]        = "connect";
+static char s_createStream[]   = "createStream";
+static char s_publish[]        = "publish";
+static char s_result[]         = "_result";
+static char s_onStatus[]       = "onStatus";
+static char s_level[]          = "level";
+static char s_status[]         = "status";
+static char s_code[]           = "code";
+static char s_connectSuccess[] = "NetConnection.Connect.Success";
+static char s_publishStart[]   = "NetStream.Publish.Start";
+
+static const AVal av_connect        = AVC(s_connect);
+static const AVal av_createStream   = AVC(s_createStream);
+static const AVal av_publish        = AVC(s_publish);
+static const AVal av_result         = AVC(s_result);
+static const AVal av_onStatus       = AVC(s_onStatus);
+static const AVal av_level          = AVC(s_level);
+static const AVal av_status         = AVC(s_status);
+static const AVal av_code           = AVC(s_code);
+static const AVal av_connectSuccess = AVC(s_connectSuccess);
+static const AVal av_publishStart   = AVC(s_publishStart);
+
+static char *encodeStatus(char *enc, char *end, const AVal *code) {
+    *enc++ = AMF_OBJECT;
+    enc = AMF_EncodeNamedString(enc, end, &av_level, &av_status);
+    enc = AMF_EncodeNamedString(enc, end, &av_code, code);
+    *enc++ = 0;
+    *enc++ = 0;
+    *enc++ = AMF_OBJECT_END;
+    return enc;
+}
+
+/**
+ * Send a command of [name, txn, null, status object or stream id].
+ */
+static bool sendCommand(RTMP *rtmp, int streamId, const AVal *name, double txn,
+                        const AVal *statusCode, double resultId) {
+    char buf[512];
+    RTMPPacket packet;
+    memset(&packet, 0, sizeof(packet));
+    packet.m_nChannel        = 0x03;
+    packet.m_headerType      = RTMP_PACKET_SIZE_LARGE;
+    packet.m_packetType      = PACKET_TYPE_INVOKE;
+    packet.m_nInfoField2     = streamId;
+    packet.m_hasAbsTimestamp = 0;
+    packet.m_body            = buf + RTMP_MAX_HEADER_SIZE;
+
+    char *end = buf + sizeof(buf);
+    char *enc = packet.m_body;
+    enc = AMF_EncodeString(enc, end, name);
+    enc = AMF_EncodeNumber(enc, end, txn);
+    *enc++ = AMF_NULL;
+    if (statusCode) {
+        enc = encodeStatus(enc, end, statusCode);
+    } else {
+        enc = AMF_EncodeNumber(enc, end, resultId);
+    }
+    packet.m_nBodySize = static_cast<uint32_t>(enc - packet.m_body);
+    return RTMP_SendPacket(rtmp, &packet, FALSE) != 0;
+}
+
+FakeRtmpServer::FakeRtmpServer():m_listenFd(-1),
+                                 m_clientFd(-1),
+                                 m_running(false),
+                                 m_publishing(false),
+                                 m_readRate(0),
+                                 m_receivedBytes(0) {
+
+}
+
+FakeRtmpServer::~FakeRtmpServer() {
+    stop();
+}
+
+int FakeRtmpServer::start(int recvBufferSize) {
+    m_listenFd = socket(AF_INET, SOCK_STREAM, 0);
+    if (m_listenFd < 0)
+        return -1;
+    // 接收缓冲在listen前设置, accept出的socket继承它
+    if (recvBufferSize > 0) {
+        setsockopt(m_listenFd, SOL_SOCKET, SO_RCVBUF, &recvBufferSize, sizeof(recvBufferSize));
+    }
+    sockaddr_in addr;
+    memset(&addr, 0, sizeof(addr));
+    addr.sin_family      = AF_INET;
+    addr.sin_addr.s_addr = htonl(INADDR_LOOPBACK);
+    addr.sin_port        = 0;
+    socklen_t len = sizeof(addr);
+    if (bind(m_listenFd, reinterpret_cast<sockaddr *>(&addr), sizeof(addr)) < 0
+            || listen(m_listenFd, 1) < 0
+            || getsockname(m_listenFd, reinterpret_cast<sockaddr *>(&addr), &len) < 0) {
+        close(m_listenFd);
+        m_listenFd = -1;
+        return -1;
+    }
+    m_running = true;
+    m_thread  = std::thread(&FakeRtmpServer::serve, this);
+    return ntohs(addr.sin_port);
+}
+
+void FakeRtmpServer::stop() {
+    if (!m_running.exchange(false))
+        return;
+    // 唤醒阻塞在accept和recv上的服务线程
+    shutdown(m_listenFd, SHUT_RDWR);
+    int fd = m_clientFd.load();
+    if (fd >= 0) {
+        shutdown(fd, SHUT_RDWR);
+    }
+    if (m_thread.joinable()) {
+        m_thread.join();
+    }
+    close(m_listenFd);
+    m_listenFd = -1;
+}
+
+void FakeRtmpServer::setReadRate(int bytesPerSecond) {
+    m_readRate = bytesPerSecond;
+}
+
+bool FakeRtmpServer::isPublishing() const {
+    return m_publishing;
+}
+
+int64_t FakeRtmpServer::getReceivedBytes() const {
+    return m_receivedBytes;
+}
+
+void FakeRtmpServer::serve() {
+    int fd = accept(m_listenFd, nullptr, nullptr);
+    if (fd < 0)
+        return;
+    m_clientFd = fd;
+    RTMP *rtmp = RTMP_Alloc();
+    RTMP_Init(rtmp);
+    rtmp->m_sb.sb_socket = fd;
+    if (m_running && RTMP_Serve(rtmp) && acceptPublish(rtmp)) {
+        // librtmp已经预读进缓冲的数据也算作收到
+        m_receivedBytes += rtmp->m_sb.sb_size;
+        receive(fd);
+    }
+    m_publishing = false;
+    m_clientFd   = -1;
+    RTMP_Close(rtmp);
+    RTMP_Free(rtmp);
+}
+
+bool FakeRtmpServer::acceptPublish(RTMP *rtmp) {
+    RTMPPacket packet;
+    memset(&packet, 0, sizeof(packet));
+    while (m_running && RTMP_IsConnected(rtmp) && RTMP_ReadPacket(rtmp, &packet)) {
+        if (!RTMPPacket_IsReady(&packet))
+            continue;
+        if (packet.m_packetType == PACKET_TYPE_INVOKE) {
+            AMFObject obj;
+            if (AMF_Decode(&obj, packet.m_body, packet.m_nBodySize, FALSE) >= 0) {
+                AVal method;
+                AMFProp_GetString(AMF_GetProp(&obj, nullptr, 0), &method);
+                double txn = AMFProp_GetNumber(AMF_GetProp(&obj, nullptr, 1));
+                if (AVMATCH(&method, &av_connect)) {
+                    sendCommand(rtmp, 0, &av_result, txn, &av_connectSuccess, 0);
+                } else if (AVMATCH(&method, &av_createStream)) {
+                    sendCommand(rtmp, 0, &av_result, txn, nullptr, PUBLISH_STREAM_ID);
+                } else if (AVMATCH(&method, &av_publish)) {
+                    // 客户端收到onStatus就开始推流, 先置位
+                    m_publishing = true;
+                    sendCommand(rtmp, PUBLISH_STREAM_ID, &av_onStatus, 0, &av_publishStart, 0);
+                }
+                AMF_Reset(&obj);
+            }
+        }
+        RTMPPacket_Free(&packet);
+        if (m_publishing)
+            return true;
+    }
+    RTMPPacket_Free(&packet);
+    return false;
+}
+
+void FakeRtmpServer::receive(int fd) {
+    char buf[4096];
+    double budget = 0;
+    auto last = std::chrono::steady_clock::now();
+    while (m_running) {
+        int rate = m_readRate;
+        int want = sizeof(buf);
+        if (rate > 0) {
+            auto now = std::chrono::steady_clock::now();
+            double elapsed = std::chrono::duration<double>(now - last).count();
+            last   = now;
+            budget = std::min(budget + rate * elapsed, static_cast<double>(rate) / READ_BURST_DIVISOR);
+            if (budget < 1) {
+                std::this_thread::sleep_for(std::chrono::milliseconds(5));
+                continue;
+            }
+            want = std::min(want, static_cast<int>(budget));
+        }
+        ssize_t len = recv(fd, buf, want, 0);
+        if (len <= 0)
+            break;
+        if (rate > 0) {
+            budget -= len;
+        }
+        m_receivedBytes += len;
+    }
+}
@@ -0,0 +1,61 @@
+//
+// Stand-in of an RTMP server on loopback for the host tests. It answers connect, createStream
+// and publish after the server handshake of librtmp, then reads the published stream at a
+// capped rate to simulate a congested uplink.
+//
+
+#ifndef LEARNINGMEDIA_FAKERTMPSERVER_H
+#define LEARNINGMEDIA_FAKERTMPSERVER_H
+
+#include <atomic>
+#include <cstdint>
+#include <thread>
+#include "rtmp/rtmp.h"
+
+class FakeRtmpServer {
+
+private:
+    int m_listenFd;
+    std::atomic<int> m_clientFd;
+    std::thread m_thread;
+    std::atomic<bool> m_running;
+    std::atomic<bool> m_publishing;
+    std::atomic<int> m_readRate;
+    std::atomic<int64_t> m_receivedBytes;
+
+    void serve();
+
+    /**
+     * Answer the commands of client until it publishes.
+     */
+    bool acceptPublish(RTMP *rtmp);
+
+    void receive(int fd);
+
+public:
+
+    FakeRtmpServer();
+
+    ~FakeRtmpServer();
+
+    /**
+     * Listen on a free port of loopback, and serve one client.
+     * @param recvBufferSize SO_RCVBUF of the client socket, a small one blocks the sender sooner
+     * @return the port, or -1 on error
+     */
+    int start(int recvBufferSize);
+
+    void stop();
+
+    /**
+     * Cap the bytes read per second once publishing, 0 means no limit.
+     */
+    void setReadRate(int bytesPerSecond);
+
+    bool isPublishing() const;
+
+    int64_t getReceivedBytes() const;
+
+};
+
+#endif //LEARNINGMEDIA_FAKERTMPSERVER_H
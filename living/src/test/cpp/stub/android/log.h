@@ -0,0 +1,16 @@
+//
+// Host stand-in for the NDK log, so the native sources build in host tests.
+//
+
+#ifndef LEARNINGMEDIA_STUB_ANDROID_LOG_H
+#define LEARNINGMEDIA_STUB_ANDROID_LOG_H
+
+#include <cstdio>
+
+#define ANDROID_LOG_INFO 4
+#define ANDROID_LOG_ERROR 6
+
+#define __android_log_print(prio, tag, ...) \
+    (fprintf(stderr, "%s: ", tag), fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+
+#endif //LEARNINGMEDIA_STUB_ANDROID_LOG_H
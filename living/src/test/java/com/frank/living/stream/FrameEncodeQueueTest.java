@@ -0,0 +1,180 @@
+package com.frank.living.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.frank.living.util.BufferRecycler;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class FrameEncodeQueueTest {
+
+    private static final long TIMEOUT_S = 5;
+
+    private static class RecordingRecycler implements BufferRecycler {
+        final LinkedBlockingQueue<byte[]> recycled = new LinkedBlockingQueue<>();
+
+        @Override
+        public void recycle(byte[] buffer) {
+            recycled.add(buffer);
+        }
+
+        byte[] poll() throws InterruptedException {
+            return recycled.poll(TIMEOUT_S, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Encoder which holds the first frame until released.
+     */
+    private static class BlockingEncoder implements FrameEncodeQueue.FrameEncoder {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LinkedBlockingQueue<byte[]> encoded = new LinkedBlockingQueue<>();
+
+        @Override
+        public void encode(byte[] data, int length) {
+            started.countDown();
+            try {
+                release.await(TIMEOUT_S, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            encoded.add(data);
+        }
+    }
+
+    @Test
+    public void lentBufferIsEncodedInPlaceAndRecycled() throws InterruptedException {
+        BlockingEncoder encoder = new BlockingEncoder();
+        encoder.release.countDown();
+        RecordingRecycler recycler = new RecordingRecycler();
+        FrameEncodeQueue queue = new FrameEncodeQueue("test", 2, FrameEncodeQueue.FullPolicy.DROP_OLDEST, encoder);
+        queue.start();
+
+        byte[] frame = new byte[16];
+        assertTrue(queue.put(frame, frame.length, recycler));
+        assertSame(frame, encoder.encoded.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertSame(frame, recycler.poll());
+        queue.stop();
+        assertEquals(0, queue.getDroppedFrames());
+    }
+
+    @Test
+    public void dropOldestRecyclesDroppedFrame() throws InterruptedException {
+        BlockingEncoder encoder = new BlockingEncoder();
+        RecordingRecycler recycler = new RecordingRecycler();
+        FrameEncodeQueue queue = new FrameEncodeQueue("test", 2, FrameEncodeQueue.FullPolicy.DROP_OLDEST, encoder);
+        queue.start();
+
+        byte[] first = new byte[16];
+        byte[] second = new byte[16];
+        byte[] third = new byte[16];
+        assertTrue(queue.put(first, first.length, recycler));
+        assertTrue(encoder.started.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertTrue(queue.put(second, second.length, recycler));
+        // both slots are taken, the pending one gives way
+        assertTrue(queue.put(third, third.length, recycler));
+        assertSame(second, recycler.poll());
+        assertEquals(1, queue.getDroppedFrames());
+
+        encoder.release.countDown();
+        assertSame(first, encoder.encoded.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertSame(third, encoder.encoded.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        queue.stop();
+        assertSame(first, recycler.poll());
+        assertSame(third, recycler.poll());
+    }
+
+    @Test
+    public void dropNewestRecyclesIncomingFrame() throws InterruptedException {
+        BlockingEncoder encoder = new BlockingEncoder();
+        RecordingRecycler recycler = new RecordingRecycler();
+        FrameEncodeQueue queue = new FrameEncodeQueue("test", 1, FrameEncodeQueue.FullPolicy.DROP_NEWEST, encoder);
+        queue.start();
+
+        byte[] first = new byte[16];
+        byte[] second = new byte[16];
+        assertTrue(queue.put(first, first.length, recycler));
+        assertTrue(encoder.started.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertFalse(queue.put(second, second.length, recycler));
+        assertSame(second, recycler.poll());
+
+        encoder.release.countDown();
+        queue.stop();
+        assertSame(first, recycler.poll());
+    }
+
+    @Test
+    public void stopRecyclesPendingFrames() throws InterruptedException {
+        BlockingEncoder encoder = new BlockingEncoder();
+        RecordingRecycler recycler = new RecordingRecycler();
+        final FrameEncodeQueue queue = new FrameEncodeQueue("test", 3,
+                FrameEncodeQueue.FullPolicy.DROP_OLDEST, encoder);
+        queue.start();
+
+        byte[] first = new byte[16];
+        byte[] second = new byte[16];
+        assertTrue(queue.put(first, first.length, recycler));
+        assertTrue(encoder.started.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertTrue(queue.put(second, second.length, recycler));
+
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.stop();
+            }
+        });
+        stopper.start();
+        // the stopper waits for the encoder thread once the queue isn't running
+        while (stopper.getState() != Thread.State.WAITING && stopper.isAlive()) {
+            Thread.yield();
+        }
+        encoder.release.countDown();
+        stopper.join(TimeUnit.SECONDS.toMillis(TIMEOUT_S));
+
+        assertSame(first, encoder.encoded.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertNull(encoder.encoded.poll());
+        assertSame(first, recycler.poll());
+        assertSame(second, recycler.poll());
+        assertEquals(1, queue.getDroppedFrames());
+        // the queue owns no buffer after stopping
+        assertFalse(queue.put(first, first.length, recycler));
+        assertSame(first, recycler.poll());
+    }
+
+    @Test
+    public void obtainedBufferIsEncodedInPlace() throws InterruptedException {
+        BlockingEncoder encoder = new BlockingEncoder();
+        encoder.release.countDown();
+        FrameEncodeQueue queue = new FrameEncodeQueue("test", 2, FrameEncodeQueue.FullPolicy.DROP_OLDEST, encoder);
+        queue.start();
+
+        byte[] buffer = queue.obtain(16);
+        assertNotNull(buffer);
+        assertTrue(queue.put(buffer, 8));
+        assertSame(buffer, encoder.encoded.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        queue.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putRejectsForeignBuffer() {
+        FrameEncodeQueue queue = new FrameEncodeQueue("test", 2, FrameEncodeQueue.FullPolicy.DROP_OLDEST,
+                new BlockingEncoder());
+        queue.start();
+        try {
+            queue.put(new byte[16], 16);
+        } finally {
+            queue.stop();
+        }
+    }
+
+}
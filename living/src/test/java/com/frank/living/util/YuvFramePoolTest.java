@@ -0,0 +1,51 @@
+package com.frank.living.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class YuvFramePoolTest {
+
+    @Test
+    public void boundedByMaxFrames() {
+        YuvFramePool pool = new YuvFramePool(64, 48, 2);
+        byte[] first = pool.acquire();
+        byte[] second = pool.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNotSame(first, second);
+        assertEquals(64 * 48 * 3 / 2, first.length);
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getFramesInFlight());
+
+        pool.release(first);
+        assertEquals(1, pool.getFramesInFlight());
+        assertSame(first, pool.acquire());
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void foreignFramesAreDiscarded() {
+        YuvFramePool pool = new YuvFramePool(64, 48, 1);
+        byte[] frame = pool.acquire();
+        pool.release(new byte[10]);
+        pool.release(null);
+        assertNull(pool.acquire());
+        pool.release(frame);
+        // releasing twice doesn't grow the pool beyond its frames
+        pool.release(new byte[frame.length]);
+        assertSame(frame, pool.acquire());
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void oddSizeFrames() {
+        YuvFramePool pool = new YuvFramePool(33, 17, 1);
+        assertEquals(YuvPlaneConverter.getFrameSize(33, 17), pool.acquire().length);
+    }
+
+}
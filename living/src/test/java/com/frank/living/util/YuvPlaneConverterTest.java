@@ -0,0 +1,161 @@
+package com.frank.living.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class YuvPlaneConverterTest {
+
+    private final Random random = new Random(42);
+
+    /**
+     * A plane as Image.Plane hands it out: rowStride may be padded, and the
+     * buffer ends right after the last pixel, not at the end of the last row.
+     */
+    private ByteBuffer makePlane(int width, int height, int rowStride, int pixelStride, boolean direct) {
+        int capacity = (height - 1) * rowStride + (width - 1) * pixelStride + 1;
+        byte[] data = new byte[capacity];
+        random.nextBytes(data);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The per-pixel conversion, read with absolute gets.
+     */
+    private static void referenceCopy(ByteBuffer src, int rowStride, int pixelStride,
+                                      int width, int height, byte[] dst, int offset) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                dst[offset++] = src.get(y * rowStride + x * pixelStride);
+            }
+        }
+    }
+
+    private void checkConvert(int width, int height, int yPadding, int chromaPadding,
+                              int pixelStride, boolean direct) {
+        int chromaWidth  = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int yRowStride = width + yPadding;
+        int chromaRowStride = chromaWidth * pixelStride + chromaPadding;
+        ByteBuffer y = makePlane(width, height, yRowStride, 1, direct);
+        ByteBuffer u = makePlane(chromaWidth, chromaHeight, chromaRowStride, pixelStride, direct);
+        ByteBuffer v = makePlane(chromaWidth, chromaHeight, chromaRowStride, pixelStride, direct);
+
+        byte[] expected = new byte[YuvPlaneConverter.getFrameSize(width, height)];
+        int len = width * height;
+        referenceCopy(y, yRowStride, 1, width, height, expected, 0);
+        referenceCopy(u, chromaRowStride, pixelStride, chromaWidth, chromaHeight, expected, len);
+        referenceCopy(v, chromaRowStride, pixelStride, chromaWidth, chromaHeight, expected,
+                len + chromaWidth * chromaHeight);
+
+        byte[] actual = new byte[expected.length];
+        new YuvPlaneConverter().convert(y, yRowStride, u, chromaRowStride, pixelStride,
+                v, chromaRowStride, pixelStride, width, height, actual);
+        String name = width + "x" + height + " yPadding=" + yPadding + " chromaPadding=" + chromaPadding
+                + " pixelStride=" + pixelStride + " direct=" + direct;
+        assertArrayEquals(name, expected, actual);
+        // the positions are restored, so the planes can be read again
+        assertEquals(name, 0, y.position());
+        assertEquals(name, 0, u.position());
+        assertEquals(name, 0, v.position());
+    }
+
+    @Test
+    public void planarWithoutPadding() {
+        checkConvert(64, 48, 0, 0, 1, false);
+        checkConvert(64, 48, 0, 0, 1, true);
+    }
+
+    @Test
+    public void planarWithPaddedStrides() {
+        checkConvert(64, 48, 32, 16, 1, false);
+        checkConvert(640, 480, 128, 64, 1, true);
+    }
+
+    @Test
+    public void semiPlanar() {
+        checkConvert(64, 48, 0, 0, 2, false);
+        checkConvert(64, 48, 0, 0, 2, true);
+    }
+
+    @Test
+    public void semiPlanarWithPaddedStrides() {
+        checkConvert(64, 48, 64, 64, 2, false);
+        checkConvert(1280, 720, 256, 256, 2, true);
+    }
+
+    @Test
+    public void oddSizes() {
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+            checkConvert(33, 17, 0, 0, pixelStride, false);
+            checkConvert(33, 17, 15, 7, pixelStride, true);
+            checkConvert(1, 1, 0, 0, pixelStride, false);
+            checkConvert(35, 2, 3, 1, pixelStride, true);
+        }
+    }
+
+    @Test
+    public void largerPixelStride() {
+        checkConvert(32, 16, 0, 0, 3, false);
+        checkConvert(32, 16, 8, 4, 4, true);
+    }
+
+    @Test
+    public void semiPlanarInterleavedBuffer() {
+        // NV21 as most devices deliver it: v and u planes share one buffer, offset by one byte
+        int width = 48;
+        int height = 32;
+        int rowStride = width + 16;
+        int len = width * height;
+        ByteBuffer y = makePlane(width, height, rowStride, 1, true);
+        ByteBuffer vu = makePlane(width, height / 2, rowStride, 1, true);
+        ByteBuffer v = vu.duplicate();
+        vu.position(1);
+        ByteBuffer u = vu.slice();
+
+        byte[] expected = new byte[YuvPlaneConverter.getFrameSize(width, height)];
+        referenceCopy(y, rowStride, 1, width, height, expected, 0);
+        referenceCopy(u, rowStride, 2, width / 2, height / 2, expected, len);
+        referenceCopy(v, rowStride, 2, width / 2, height / 2, expected, len + len / 4);
+
+        byte[] actual = new byte[expected.length];
+        new YuvPlaneConverter().convert(y, rowStride, u, rowStride, 2, v, rowStride, 2, width, height, actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void converterIsReusedAcrossSizes() {
+        YuvPlaneConverter converter = new YuvPlaneConverter();
+        int[][] sizes = {{64, 48}, {16, 16}, {128, 96}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            ByteBuffer y = makePlane(width, height, width, 1, false);
+            ByteBuffer u = makePlane(width / 2, height / 2, width, 2, false);
+            ByteBuffer v = makePlane(width / 2, height / 2, width, 2, false);
+            byte[] expected = new byte[YuvPlaneConverter.getFrameSize(width, height)];
+            int len = width * height;
+            referenceCopy(y, width, 1, width, height, expected, 0);
+            referenceCopy(u, width, 2, width / 2, height / 2, expected, len);
+            referenceCopy(v, width, 2, width / 2, height / 2, expected, len + len / 4);
+            byte[] actual = new byte[expected.length];
+            converter.convert(y, width, u, width, 2, v, width, 2, width, height, actual);
+            assertArrayEquals(width + "x" + height, expected, actual);
+        }
+    }
+
+    @Test
+    public void frameSize() {
+        assertEquals(640 * 480 * 3 / 2, YuvPlaneConverter.getFrameSize(640, 480));
+        assertEquals(33 * 17 + 2 * 17 * 9, YuvPlaneConverter.getFrameSize(33, 17));
+        assertEquals(3, YuvPlaneConverter.getFrameSize(1, 1));
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.frank.living.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class YuvTransformTest {
+
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void createPool() {
+        pool = new ForkJoinPool(2);
+    }
+
+    @AfterClass
+    public static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    private static byte[] randomFrame(int width, int height) {
+        byte[] frame = new byte[YuvPlaneConverter.getFrameSize(width, height)];
+        new Random(width * 31L + height).nextBytes(frame);
+        return frame;
+    }
+
+    /**
+     * Crop, then rotate clockwise, then flip horizontally, pixel by pixel.
+     */
+    private static void referencePlane(byte[] src, int srcOffset, int srcStride,
+                                       int x0, int y0, int width, int height, int rotation, boolean mirror,
+                                       byte[] dst, int dstOffset) {
+        boolean swap = rotation == 90 || rotation == 270;
+        int dstWidth  = swap ? height : width;
+        int dstHeight = swap ? width : height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx;
+                int dy;
+                switch (rotation) {
+                    case 90:
+                        dx = height - 1 - y;
+                        dy = x;
+                        break;
+                    case 180:
+                        dx = width - 1 - x;
+                        dy = height - 1 - y;
+                        break;
+                    case 270:
+                        dx = y;
+                        dy = width - 1 - x;
+                        break;
+                    default:
+                        dx = x;
+                        dy = y;
+                        break;
+                }
+                if (mirror) {
+                    dx = dstWidth - 1 - dx;
+                }
+                dst[dstOffset + dy * dstWidth + dx] = src[srcOffset + (y0 + y) * srcStride + x0 + x];
+            }
+        }
+        assertEquals(dstWidth * dstHeight, width * height);
+    }
+
+    private static byte[] reference(byte[] src, int srcWidth, int srcHeight,
+                                    int x0, int y0, int width, int height, int rotation, boolean mirror) {
+        int srcLen = srcWidth * srcHeight;
+        int srcChromaWidth  = (srcWidth + 1) / 2;
+        int srcChromaHeight = (srcHeight + 1) / 2;
+        int dstLen = width * height;
+        byte[] dst = new byte[dstLen * 3 / 2];
+        referencePlane(src, 0, srcWidth, x0, y0, width, height, rotation, mirror, dst, 0);
+        referencePlane(src, srcLen, srcChromaWidth, x0 / 2, y0 / 2, width / 2, height / 2,
+                rotation, mirror, dst, dstLen);
+        referencePlane(src, srcLen + srcChromaWidth * srcChromaHeight, srcChromaWidth, x0 / 2, y0 / 2,
+                width / 2, height / 2, rotation, mirror, dst, dstLen + dstLen / 4);
+        return dst;
+    }
+
+    private static void checkAll(int srcWidth, int srcHeight, int x0, int y0, int width, int height,
+                                 ForkJoinPool forkJoinPool) {
+        byte[] src = randomFrame(srcWidth, srcHeight);
+        for (int rotation : ROTATIONS) {
+            for (int m = 0; m < 2; m++) {
+                boolean mirror = m == 1;
+                YuvTransform transform = new YuvTransform(srcWidth, srcHeight);
+                transform.setCrop(x0, y0, width, height);
+                transform.setRotation(rotation);
+                transform.setMirror(mirror);
+                transform.setPool(forkJoinPool);
+                byte[] dst = new byte[transform.getDstSize()];
+                transform.transform(src, dst);
+                String name = srcWidth + "x" + srcHeight + " crop=" + x0 + "," + y0 + "," + width + "x" + height
+                        + " rotation=" + rotation + " mirror=" + mirror + " pool=" + (forkJoinPool != null);
+                assertArrayEquals(name, reference(src, srcWidth, srcHeight, x0, y0, width, height, rotation, mirror),
+                        dst);
+                boolean swap = rotation == 90 || rotation == 270;
+                assertEquals(name, swap ? height : width, transform.getDstWidth());
+                assertEquals(name, swap ? width : height, transform.getDstHeight());
+            }
+        }
+    }
+
+    @Test
+    public void fullFrame() {
+        checkAll(64, 48, 0, 0, 64, 48, null);
+    }
+
+    @Test
+    public void fullFrameNotMultipleOfTile() {
+        checkAll(70, 38, 0, 0, 70, 38, null);
+    }
+
+    @Test
+    public void crop() {
+        checkAll(96, 64, 10, 6, 40, 30, null);
+        checkAll(96, 64, 0, 0, 50, 64, null);
+        checkAll(96, 64, 46, 34, 50, 30, null);
+    }
+
+    @Test
+    public void oddSourceSize() {
+        checkAll(67, 45, 2, 2, 60, 40, null);
+    }
+
+    @Test
+    public void forkJoinPool() {
+        checkAll(64, 48, 0, 0, 64, 48, pool);
+        checkAll(200, 120, 20, 10, 150, 90, pool);
+        // luma shorter than one tile, the second band is empty
+        checkAll(64, 48, 0, 0, 64, 16, pool);
+    }
+
+    @Test
+    public void cropIsAlignedAndClamped() {
+        YuvTransform transform = new YuvTransform(64, 48);
+        transform.setCrop(3, 5, 100, 100);
+        assertEquals(62, transform.getDstWidth());
+        assertEquals(44, transform.getDstHeight());
+        transform.setCenterCrop(33, 200);
+        assertEquals(32, transform.getDstWidth());
+        assertEquals(48, transform.getDstHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedRotation() {
+        new YuvTransform(64, 48).setRotation(45);
+    }
+
+    @Test
+    public void knownRotations() {
+        // 4x2 的 Y 平面 0..7，U = {8, 9}，V = {10, 11}
+        byte[] src = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        YuvTransform transform = new YuvTransform(4, 2);
+        byte[] actual = new byte[src.length];
+
+        transform.setRotation(90);
+        transform.transform(src, actual);
+        assertArrayEquals(new byte[]{4, 0, 5, 1, 6, 2, 7, 3, 8, 9, 10, 11}, actual);
+
+        transform.setRotation(180);
+        transform.transform(src, actual);
+        assertArrayEquals(new byte[]{7, 6, 5, 4, 3, 2, 1, 0, 9, 8, 11, 10}, actual);
+    }
+
+}